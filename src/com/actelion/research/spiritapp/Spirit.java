@@ -84,12 +84,25 @@ public class Spirit extends SpiritFrame {
 		return tabs;
 	}
 
+	/**
+	 * Loads the reference data in the cache, so that the first tabs do not have to wait for them.
+	 * This function should be called in the background thread used by SwingWorkerExtended, so that the loaded entities share its EntityManager
+	 * @throws Exception
+	 */
 	public static void preLoadDAO() throws Exception {
+		long s = System.currentTimeMillis();
 		JPAUtil.getManager();
+		JPAUtil.getCurrentDateFromDatabase();
+		long s2 = System.currentTimeMillis();
 		DAOEmployee.getEmployeeGroups();
+		DAOEmployee.getEmployees();
+		long s3 = System.currentTimeMillis();
 		DAOBiotype.getBiotypes();
-		DAOLocation.getLocationRoots(null);
 		DAOTest.getTests();
+		long s4 = System.currentTimeMillis();
+		DAOLocation.getLocationRoots(null);
+		DAOStudy.getStudies();
+		LoggerFactory.getLogger(Spirit.class).debug("Startup: reference data preloaded in " + (System.currentTimeMillis()-s) + "ms (date=" + (s2-s) + "ms, employees=" + (s3-s2) + "ms, biotypes/tests=" + (s4-s3) + "ms, locations/studies=" + (System.currentTimeMillis()-s4) + "ms)");
 	}
 
 	public static SpiritUser askForAuthentication() throws Exception {
@@ -134,8 +147,9 @@ public class Spirit extends SpiritFrame {
 	}
 
 	public static void main(final String[] args) throws Exception {
-
+		final long started = System.currentTimeMillis();
 		SplashScreen.show(splashConfig);
+		LoggerFactory.getLogger(Spirit.class).debug("Startup: splash shown in " + (System.currentTimeMillis()-started) + "ms");
 
 		final ArgumentParser argumentParser = new ArgumentParser(args);
 		try {
@@ -161,11 +175,24 @@ public class Spirit extends SpiritFrame {
 
 			@Override
 			protected void done() {
+				LoggerFactory.getLogger(Spirit.class).debug("Startup: DB connected after " + (System.currentTimeMillis()-started) + "ms");
 				initUI();
 				if(throwable!=null) {
 					JExceptionDialog.showError(throwable);
 					if(throwable instanceof FatalException) System.exit(1);
 					new DatabaseSettingsDlg(false);
+				} else {
+					//Preload the reference data in the background, while the frame is created
+					new SwingWorkerExtended("Preloading", null, SwingWorkerExtended.FLAG_ASYNCHRONOUS) {
+						@Override
+						protected void doInBackground() {
+							try {
+								preLoadDAO();
+							} catch(Throwable e) {
+								LoggerFactory.getLogger(Spirit.class).warn("Could not preload the reference data", e);
+							}
+						}
+					};
 				}
 				Spirit spirit;
 				try {
@@ -174,6 +201,7 @@ public class Spirit extends SpiritFrame {
 						initSingleApplication(args);
 					});
 					JOptionPane.setRootFrame(spirit);
+					LoggerFactory.getLogger(Spirit.class).debug("Startup: frame created after " + (System.currentTimeMillis()-started) + "ms");
 				} catch(Throwable e) {
 					JExceptionDialog.showError(e);
 					System.exit(1);
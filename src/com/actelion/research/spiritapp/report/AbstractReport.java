@@ -49,10 +49,16 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
+import com.actelion.research.spiritapp.ui.SpiritFrame;
 import com.actelion.research.spiritapp.ui.study.GroupComboBox;
 import com.actelion.research.spiritapp.ui.study.GroupLabel;
+import com.actelion.research.spiritapp.ui.util.CellStyleRegistry;
+import com.actelion.research.spiritapp.ui.util.POIUtils;
+import com.actelion.research.spiritapp.ui.util.POIUtils.ColumnSampler;
 import com.actelion.research.spiritcore.business.study.Group;
 import com.actelion.research.spiritcore.business.study.Phase;
 import com.actelion.research.spiritcore.business.study.Study;
@@ -62,6 +68,11 @@ import com.actelion.research.util.ui.UIUtils;
 /**
  * Excel Report on a study.
  * This abstract class is used to categorized each report and serves as helper class.
+ *
+ * The reports writing their rows sequentially can be streamed (see {@link #isStreamable()}): only the last rows are then kept in memory.
+ * Such reports must call {@link #flushRows(Sheet)} after each row and {@link #autoSizeColumns(Sheet, int, boolean)} instead of POIUtils,
+ * and must not access the rows above the last 2 rows.
+ *
  * @author Joel Freyss
  *
  */
@@ -115,11 +126,16 @@ public abstract class AbstractReport {
 
 
 	protected Study study;
+	protected ReportData data;
 	protected Workbook wb;
-	protected Map<Integer, CellStyle> styleWithBordersUnder = new HashMap<>();
-	protected Map<Integer, CellStyle> styleWithBordersAbove = new HashMap<>();
+	protected CellStyleRegistry styleRegistry;
 	protected Map<Style, CellStyle> styles = new HashMap<>();
 
+	/** Streaming mode: last row post-processed per sheet (the borders are added before the rows are flushed) */
+	private Map<Sheet, Integer> sheet2processedRow = new HashMap<>();
+	/** Streaming mode: column widths measured before the rows are flushed */
+	private Map<Sheet, ColumnSampler> sheet2sampler = new HashMap<>();
+
 
 	public AbstractReport(ReportCategory category, String name, String description) {
 		this(category, name, description, new ReportParameter[0]);
@@ -133,11 +149,13 @@ public abstract class AbstractReport {
 	}
 
 	public void initFromReport(AbstractReport rep) {
-		this.styleWithBordersUnder = rep.styleWithBordersUnder;
-		this.styleWithBordersAbove = rep.styleWithBordersAbove;
+		this.styleRegistry = rep.styleRegistry;
+		this.sheet2processedRow = rep.sheet2processedRow;
+		this.sheet2sampler = rep.sheet2sampler;
 		this.styles = rep.styles;
 		this.wb = rep.wb;
 		this.study = rep.study;
+		this.data = rep.data;
 	}
 
 	public ReportCategory getCategory() {
@@ -148,12 +166,35 @@ public abstract class AbstractReport {
 		return description;
 	}
 
+	/**
+	 * Returns true if the report writes its rows sequentially, so that the workbook can be streamed. False by default
+	 * @return
+	 */
+	public boolean isStreamable() {
+		return false;
+	}
+
+	/**
+	 * Returns true if the workbook is streamed
+	 */
+	protected boolean isStreaming() {
+		return wb instanceof SXSSFWorkbook;
+	}
+
 	private void initWorkbook() {
 
-		wb = new XSSFWorkbook();
+		if(isStreamable()) {
+			//Manual flush, see flushRows
+			SXSSFWorkbook swb = new SXSSFWorkbook(-1);
+			swb.setCompressTempFiles(true);
+			wb = swb;
+		} else {
+			wb = new XSSFWorkbook();
+		}
+		styleRegistry = new CellStyleRegistry(wb);
 		styles.clear();
-		styleWithBordersAbove.clear();
-		styleWithBordersUnder.clear();
+		sheet2processedRow.clear();
+		sheet2sampler.clear();
 
 		CellStyle style;
 		DataFormat df = wb.createDataFormat();
@@ -518,12 +559,32 @@ public abstract class AbstractReport {
 		style.setWrapText(false);
 		style.setVerticalAlignment(CellStyle.VERTICAL_CENTER);
 		styles.put(Style.S_TD_DATE, style);
+
+		for (CellStyle s : styles.values()) {
+			styleRegistry.register(s);
+		}
 	}
 
+	/**
+	 * Populates the report for the current user
+	 * @param study
+	 * @throws Exception
+	 */
 	public void populateReport(Study study) throws Exception {
 		assert study!=null;
+		populateReport(new ReportData(study, SpiritFrame.getUser()));
+	}
+
+	/**
+	 * Populates the report, using the given data (which can be shared by several reports on the same study)
+	 * @param data
+	 * @throws Exception
+	 */
+	public void populateReport(ReportData data) throws Exception {
+		assert data!=null;
 
-		this.study = study;
+		this.data = data;
+		this.study = data.getStudy();
 
 		initWorkbook();
 
@@ -534,45 +595,107 @@ public abstract class AbstractReport {
 		//Add Table borders (between different styles of cells)
 		for(int i=0; i<wb.getNumberOfSheets(); i++) {
 			Sheet sheet = wb.getSheetAt(i);
+			postProcessRows(sheet, sheet.getLastRowNum());
+		}
 
-			for(int r=4; r<=sheet.getLastRowNum(); r++) {
-				Row row = sheet.getRow(r);
-				if(row==null) continue;
-
-				Row rowUp = sheet.getRow(r-1);
-				Row rowDown = sheet.getRow(r+1);
-				for(int c=0; c<=row.getLastCellNum(); c++) {
-					Cell cell = row.getCell(c);
-					Cell cellLeft = c==0? null: row.getCell(c-1);
-					boolean borderLeftAbove = cellLeft!=null && cellLeft.getCellStyle().getBorderTop()==1;
-					boolean borderLeftUnder = cellLeft!=null && cellLeft.getCellStyle().getBorderBottom()==1;
-
-					if((cell!=null && cell.getCellStyle().getBorderLeft()+cell.getCellStyle().getBorderRight()>0)
-							|| (cell==null && c+1<=row.getLastCellNum() && row.getCell(c+1)!=null)) {
-						if(borderLeftAbove) drawLineAbove(sheet, r, c, c, (short)1);
-						if(borderLeftUnder) drawLineUnder(sheet, r, c, c, (short)1);
-					}
+	}
+
+	/**
+	 * Adds the table borders (between different styles of cells) to the rows, which were not yet processed, up to the given row
+	 * @param sheet
+	 * @param toRow
+	 */
+	private void postProcessRows(Sheet sheet, int toRow) {
+		Integer processed = sheet2processedRow.get(sheet);
+		for(int r=processed==null? 4: processed+1; r<=toRow; r++) {
+			Row row = sheet.getRow(r);
+			if(row==null) continue;
+
+			Row rowUp = sheet.getRow(r-1);
+			Row rowDown = sheet.getRow(r+1);
+			for(int c=0; c<=row.getLastCellNum(); c++) {
+				Cell cell = row.getCell(c);
+				Cell cellLeft = c==0? null: row.getCell(c-1);
+				boolean borderLeftAbove = cellLeft!=null && cellLeft.getCellStyle().getBorderTop()==1;
+				boolean borderLeftUnder = cellLeft!=null && cellLeft.getCellStyle().getBorderBottom()==1;
+
+				if((cell!=null && cell.getCellStyle().getBorderLeft()+cell.getCellStyle().getBorderRight()>0)
+						|| (cell==null && c+1<=row.getLastCellNum() && row.getCell(c+1)!=null)) {
+					if(borderLeftAbove) drawLineAbove(sheet, r, c, c, (short)1);
+					if(borderLeftUnder) drawLineUnder(sheet, r, c, c, (short)1);
+				}
 
-					if(cell!=null) {
-						Font font = wb.getFontAt(cell.getCellStyle().getFontIndex());
-						if(font.getFontHeightInPoints()>=12) continue;
-
-						Cell cellUp = rowUp!=null && c<rowUp.getLastCellNum()? rowUp.getCell(c): null;
-						Cell cellDown = rowDown!=null && c<rowDown.getLastCellNum()? rowDown.getCell(c): null;
-
-						if( cellUp==null /*|| (cell.getCellType()!=0 && cellUp.getCellType()!=0 && cellUp.getCellType()!=cell.getCellType())*/ ) {
-							//Border above
-							drawLineAbove(sheet, r, c, c, (short)1);
-						}
-						if( cellDown==null /*|| (cell.getCellType()!=0 && cellDown.getCellType()!=0 && cellDown.getCellType()!=cell.getCellType())*/) {
-							//Border under
-							drawLineUnder(sheet, r, c, c, (short)1);
-						}
+				if(cell!=null) {
+					Font font = wb.getFontAt(cell.getCellStyle().getFontIndex());
+					if(font.getFontHeightInPoints()>=12) continue;
+
+					Cell cellUp = rowUp!=null && c<rowUp.getLastCellNum()? rowUp.getCell(c): null;
+					Cell cellDown = rowDown!=null && c<rowDown.getLastCellNum()? rowDown.getCell(c): null;
+
+					if( cellUp==null /*|| (cell.getCellType()!=0 && cellUp.getCellType()!=0 && cellUp.getCellType()!=cell.getCellType())*/ ) {
+						//Border above
+						drawLineAbove(sheet, r, c, c, (short)1);
+					}
+					if( cellDown==null /*|| (cell.getCellType()!=0 && cellDown.getCellType()!=0 && cellDown.getCellType()!=cell.getCellType())*/) {
+						//Border under
+						drawLineUnder(sheet, r, c, c, (short)1);
 					}
 				}
 			}
 		}
+		if(toRow>=4) sheet2processedRow.put(sheet, Math.max(toRow, processed==null? 3: processed));
+	}
+
+	/**
+	 * In streaming mode, writes the rows to the disk when more than POIUtils.STREAMING_WINDOW rows are in memory.
+	 * The last 2 rows are kept, so that the borders can still be drawn between the last rows.
+	 * This function does nothing if the workbook is not streamed.
+	 * @param sheet
+	 * @throws Exception
+	 */
+	protected void flushRows(Sheet sheet) throws Exception {
+		if(!(sheet instanceof SXSSFSheet)) return;
+		int last = sheet.getLastRowNum();
+		Integer processed = sheet2processedRow.get(sheet);
+		if(last - (processed==null? 0: processed) < POIUtils.STREAMING_WINDOW) return;
+
+		//The rows to be flushed must be post-processed and measured before (the post-processing of a row needs the next one)
+		postProcessRows(sheet, last-1);
+		ColumnSampler sampler = getSampler(sheet);
+		for (int r = processed==null? sheet.getFirstRowNum(): processed; r <= last-2; r++) {
+			Row row = sheet.getRow(r);
+			if(row!=null) sampler.add(row, false);
+		}
+		((SXSSFSheet) sheet).flushRows(2);
+	}
+
+	/**
+	 * Sets the width of the columns according to their content.
+	 * In streaming mode, the widths include the rows already flushed, but only the rows still in memory can be resized
+	 * @param sheet
+	 * @param maxColWidth
+	 * @param resizeHeight
+	 */
+	protected void autoSizeColumns(Sheet sheet, int maxColWidth, boolean resizeHeight) {
+		if(!(sheet instanceof SXSSFSheet)) {
+			POIUtils.autoSizeColumns(sheet, maxColWidth, resizeHeight);
+			return;
+		}
+		ColumnSampler sampler = getSampler(sheet);
+		for (int r = sheet.getFirstRowNum(); r <= sheet.getLastRowNum(); r++) {
+			Row row = sheet.getRow(r);
+			if(row!=null) sampler.add(row, resizeHeight);
+		}
+		sampler.apply(sheet, maxColWidth);
+	}
 
+	private ColumnSampler getSampler(Sheet sheet) {
+		ColumnSampler sampler = sheet2sampler.get(sheet);
+		if(sampler==null) {
+			sampler = new ColumnSampler(wb);
+			sheet2sampler.put(sheet, sampler);
+		}
+		return sampler;
 	}
 
 	protected abstract void populateWorkBook() throws Exception;
@@ -666,14 +789,7 @@ public abstract class AbstractReport {
 		for (int col = colMin; col <= colMax; col++) {
 			Cell c = r.getCell(col);
 			if(c==null) c = r.createCell(col);
-			CellStyle style = styleWithBordersUnder.get((c.getCellStyle().getIndex()<<4)+thickness);
-			if(style==null) {
-				style = sheet.getWorkbook().createCellStyle();
-				style.cloneStyleFrom(c.getCellStyle());
-				style.setBorderBottom(thickness);
-				styleWithBordersUnder.put((c.getCellStyle().getIndex()<<4)+thickness, style);
-			}
-			c.setCellStyle(style);
+			c.setCellStyle(styleRegistry.getWithBorders(c.getCellStyle(), CellStyleRegistry.KEEP, thickness));
 
 		}
 	}
@@ -684,14 +800,7 @@ public abstract class AbstractReport {
 		for (int col = colMin; col <= colMax; col++) {
 			Cell c = r.getCell(col);
 			if(c==null) c = r.createCell(col);
-			CellStyle style = styleWithBordersAbove.get(c.getCellStyle().getIndex()<<4+thickness);
-			if(style==null) {
-				style = sheet.getWorkbook().createCellStyle();
-				style.cloneStyleFrom(c.getCellStyle());
-				style.setBorderTop(thickness);
-				styleWithBordersAbove.put(c.getCellStyle().getIndex()<<4+thickness, style);
-			}
-			c.setCellStyle(style);
+			c.setCellStyle(styleRegistry.getWithBorders(c.getCellStyle(), thickness, CellStyleRegistry.KEEP));
 		}
 	}
 
@@ -789,7 +898,7 @@ public abstract class AbstractReport {
 		}
 
 		try(OutputStream out = new BufferedOutputStream(new FileOutputStream(reportFile))) {
-			wb.write(out);
+			write(out);
 		}
 
 		if(open) {
@@ -797,6 +906,34 @@ public abstract class AbstractReport {
 		}
 	}
 
+	/**
+	 * Writes the report to the given stream.
+	 * A streamed report can only be written once: its temporary files are then deleted
+	 * @param out
+	 * @throws Exception
+	 */
+	public void write(OutputStream out) throws Exception {
+		if(wb==null) throw new Exception("You must first generate the report");
+		wb.write(out);
+		if(wb instanceof SXSSFWorkbook) {
+			((SXSSFWorkbook) wb).dispose();
+			wb = null;
+		}
+	}
+
+	/**
+	 * Creates a new report of the same class, with the same parameters, so that the report can be generated in parallel.
+	 * Reports with a custom state (ex: set by getExtraParameterPanel) must override this function
+	 * (the ReportEngine generates the studies serially if a report cannot be copied)
+	 * @return
+	 * @throws Exception
+	 */
+	public AbstractReport duplicate() throws Exception {
+		AbstractReport res = getClass().getDeclaredConstructor().newInstance();
+		res.parameterValues.putAll(parameterValues);
+		return res;
+	}
+
 	public final void setParameter(ReportParameter parameter, Object value) {
 		parameterValues.put(parameter, value);
 	}
@@ -21,6 +21,7 @@
 
 package com.actelion.research.spiritapp.report;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class MixedReport extends AbstractReport {
@@ -33,6 +34,26 @@ public class MixedReport extends AbstractReport {
 	}
 	
 	
+	/**
+	 * The mixed report is streamed only if all its reports can be streamed
+	 */
+	@Override
+	public boolean isStreamable() {
+		for (AbstractReport rep : reports) {
+			if(!rep.isStreamable()) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public AbstractReport duplicate() throws Exception {
+		List<AbstractReport> res = new ArrayList<>();
+		for (AbstractReport rep : reports) {
+			res.add(rep.duplicate());
+		}
+		return new MixedReport(res);
+	}
+
 	@Override
 	protected void populateWorkBook() throws Exception {
 		StringBuilder sb = new StringBuilder();
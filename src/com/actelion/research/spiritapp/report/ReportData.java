@@ -0,0 +1,98 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritapp.report;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.business.biosample.Biosample;
+import com.actelion.research.spiritcore.business.biosample.BiosampleQuery;
+import com.actelion.research.spiritcore.business.result.Result;
+import com.actelion.research.spiritcore.business.result.ResultQuery;
+import com.actelion.research.spiritcore.business.study.Study;
+import com.actelion.research.spiritcore.services.SpiritUser;
+import com.actelion.research.spiritcore.services.dao.DAOBiosample;
+import com.actelion.research.spiritcore.services.dao.DAOResult;
+import com.actelion.research.spiritcore.services.dao.FetchPlan;
+import com.actelion.research.spiritcore.services.dao.JPAUtil;
+
+/**
+ * Data of a study shared by the reports generated together: the biosamples and results are loaded once, in bulk, for all reports.
+ * The data is loaded on the first access, in the thread generating the reports, and must not be shared with other threads.
+ *
+ * @author Joel Freyss
+ */
+public class ReportData {
+
+	private final Study study;
+	private final SpiritUser user;
+
+	private List<Biosample> biosamples;
+	private Map<Biosample, List<Result>> biosample2results;
+
+	public ReportData(Study study, SpiritUser user) {
+		assert study!=null;
+		this.study = study;
+		this.user = user;
+	}
+
+	public Study getStudy() {
+		return study;
+	}
+
+	public SpiritUser getUser() {
+		return user;
+	}
+
+	/**
+	 * Returns all the biosamples of the study, readable by the user
+	 * @return
+	 * @throws Exception
+	 */
+	public List<Biosample> getBiosamples() throws Exception {
+		if(biosamples==null) {
+			long s = System.currentTimeMillis();
+			biosamples = Collections.unmodifiableList(DAOBiosample.queryBiosamples(BiosampleQuery.createQueryForStudyIds(study.getStudyId()), user, FetchPlan.BIOSAMPLE_FOR_TABLE));
+			LoggerFactory.getLogger(ReportData.class).debug("Loaded " + biosamples.size() + " biosamples of " + study + " in " + (System.currentTimeMillis()-s) + "ms");
+		}
+		return biosamples;
+	}
+
+	/**
+	 * Returns the results of the biosamples of the study, mapped by biosample
+	 * @return
+	 * @throws Exception
+	 */
+	public Map<Biosample, List<Result>> getResultsByBiosample() throws Exception {
+		if(biosample2results==null) {
+			List<Biosample> biosamples = getBiosamples();
+			long s = System.currentTimeMillis();
+			List<Result> results = biosamples.isEmpty()? Collections.emptyList(): DAOResult.queryResults(ResultQuery.createQueryForBiosampleIds(JPAUtil.getIds(biosamples)), user, FetchPlan.RESULT_FOR_PIVOT);
+			biosample2results = Result.mapBiosample(results);
+			LoggerFactory.getLogger(ReportData.class).debug("Loaded " + results.size() + " results of " + study + " in " + (System.currentTimeMillis()-s) + "ms");
+		}
+		return biosample2results;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritapp.report;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.business.study.Study;
+import com.actelion.research.spiritcore.services.SpiritRights;
+import com.actelion.research.spiritcore.services.SpiritUser;
+import com.actelion.research.spiritcore.services.dao.DAOSpiritUser;
+import com.actelion.research.spiritcore.services.dao.DAOStudy;
+import com.actelion.research.spiritcore.services.dao.FetchPlan;
+import com.actelion.research.spiritcore.services.dao.JPAUtil;
+
+/**
+ * Headless generation of the reports, without any dependency on the UI.
+ * <ul>
+ * <li>the reports of a study are generated in one workbook, and share the same ReportData, so that the biosamples and results are loaded once
+ * <li>in batch mode, the studies are generated in parallel, each in its own thread, workbook and EntityManager
+ * </ul>
+ *
+ * The sheets of a same workbook are not generated in parallel, because a POI workbook (styles, shared strings) is not thread-safe,
+ * and because the entities loaded by one thread cannot be used by another.
+ *
+ * @author Joel Freyss
+ */
+public class ReportEngine {
+
+	private final SpiritUser user;
+	private int nThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()/2));
+
+	public ReportEngine(SpiritUser user) {
+		this.user = user;
+	}
+
+	/**
+	 * Sets the number of studies generated in parallel in batch mode
+	 * @param nThreads
+	 */
+	public void setThreads(int nThreads) {
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	/**
+	 * Generates the given reports for the study, in one workbook.
+	 * The given reports are populated: they must not be used by another thread
+	 * @param study
+	 * @param reports
+	 * @return the populated report, to be exported
+	 * @throws Exception
+	 */
+	public AbstractReport generate(Study study, List<AbstractReport> reports) throws Exception {
+		if(reports.isEmpty()) throw new Exception("You must select at least one report");
+		checkRights(study);
+
+		long s = System.currentTimeMillis();
+		AbstractReport rep = reports.size()==1? reports.get(0): new MixedReport(reports);
+		rep.populateReport(new ReportData(study, user));
+		LoggerFactory.getLogger(ReportEngine.class).debug("Generated " + rep.getName() + " for " + study.getStudyId() + " in " + (System.currentTimeMillis()-s) + "ms");
+		return rep;
+	}
+
+	/**
+	 * Generates the given reports for each study, and writes them to the given directory (as [studyId]_[name].xlsx).
+	 * The studies are generated in parallel, with copies of the given reports.
+	 * If a report cannot be copied (no constructor without arguments), the studies are generated one after the other with the given reports.
+	 * The errors do not stop the batch
+	 * @param studyIds
+	 * @param reports
+	 * @param dir
+	 * @return the error of each study, or null if the study was successfully generated
+	 * @throws Exception
+	 */
+	public Map<String, Exception> generate(Collection<String> studyIds, List<AbstractReport> reports, File dir) throws Exception {
+		if(!dir.isDirectory() && !dir.mkdirs()) throw new Exception("Cannot create " + dir);
+
+		boolean parallel = canDuplicate(reports);
+		if(!parallel) LoggerFactory.getLogger(ReportEngine.class).warn("Some reports cannot be copied: the studies are generated serially");
+
+		AtomicInteger threadNo = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(parallel? nThreads: 1, r -> {
+			Thread t = new Thread(r, "ReportEngine-" + threadNo.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		long s = System.currentTimeMillis();
+		Map<String, Future<?>> futures = new LinkedHashMap<>();
+		try {
+			for (String studyId : studyIds) {
+				futures.put(studyId, executor.submit(() -> {
+					generate(studyId, reports, parallel, dir);
+					return null;
+				}));
+			}
+
+			Map<String, Exception> res = new LinkedHashMap<>();
+			for (Map.Entry<String, Future<?>> e : futures.entrySet()) {
+				try {
+					e.getValue().get();
+					res.put(e.getKey(), null);
+				} catch(Exception ex) {
+					Exception cause = ex.getCause() instanceof Exception? (Exception) ex.getCause(): ex;
+					LoggerFactory.getLogger(ReportEngine.class).warn("Could not generate the reports of " + e.getKey() + ": " + cause);
+					res.put(e.getKey(), cause);
+				}
+			}
+			LoggerFactory.getLogger(ReportEngine.class).info("Generated the reports of " + studyIds.size() + " studies in " + (System.currentTimeMillis()-s) + "ms");
+			return res;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Returns true if all the reports can be copied, so that they can be generated in parallel
+	 */
+	private static boolean canDuplicate(List<AbstractReport> reports) throws Exception {
+		for (AbstractReport rep : reports) {
+			try {
+				rep.duplicate();
+			} catch(ReflectiveOperationException e) {
+				LoggerFactory.getLogger(ReportEngine.class).debug(rep.getClass().getName() + " cannot be copied: " + e);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Generates the reports of one study in the current thread, and writes them to the directory
+	 * @param copy - true to use copies of the reports, which are stateful (required when the studies are generated in parallel)
+	 */
+	private void generate(String studyId, List<AbstractReport> reports, boolean copy, File dir) throws Exception {
+		try {
+			//Load the study in this thread
+			Study study = DAOStudy.getStudyByStudyId(studyId, FetchPlan.STUDY_WITH_PARTICIPANTS);
+			if(study==null) throw new Exception(studyId + " not found");
+			List<AbstractReport> copies = new ArrayList<>();
+			for (AbstractReport rep : reports) {
+				copies.add(copy? rep.duplicate(): rep);
+			}
+			AbstractReport rep = generate(study, copies);
+			File file = new File(dir, studyId + "_" + rep.getName().replaceAll("[^\\w\\-]+", "_") + ".xlsx");
+			try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+				rep.write(out);
+			}
+		} finally {
+			//Release the entities of this study and the EntityManager of this worker thread
+			JPAUtil.closeManager();
+		}
+	}
+
+	private void checkRights(Study study) throws Exception {
+		if(user==null) return;
+		if(!SpiritRights.canEditBiosamples(study, user)) throw new Exception("You must have the rights to edit the biosamples of " + study.getStudyId() + " to view the reports");
+		if(SpiritRights.isBlind(study, user)) throw new Exception("Blind users cannot view the reports of " + study.getStudyId());
+	}
+
+	/**
+	 * Generates all the reports for the given studies, for example in a nightly job.
+	 * Usage: ReportEngine username outputDir studyId1 studyId2 ...
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if(args.length<3) {
+			System.err.println("Usage: ReportEngine username outputDir studyId1 [studyId2 ...]");
+			System.exit(1);
+		}
+		try {
+			SpiritUser user = DAOSpiritUser.loadUser(args[0]);
+			if(user==null) throw new Exception("Invalid user: " + args[0]);
+			ReportEngine engine = new ReportEngine(user);
+			Map<String, Exception> errors = engine.generate(Arrays.asList(args).subList(2, args.length), ReportFactory.getInstance().getReports(), new File(args[1]));
+			int nErrors = 0;
+			for (Map.Entry<String, Exception> e : errors.entrySet()) {
+				if(e.getValue()!=null) {
+					System.err.println(e.getKey() + ": " + e.getValue().getMessage());
+					nErrors++;
+				}
+			}
+			System.exit(nErrors==0? 0: 2);
+		} catch(Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -21,6 +21,7 @@
 
 package com.actelion.research.spiritapp.report;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -29,18 +30,12 @@ import java.util.Map;
 import org.apache.poi.ss.usermodel.Sheet;
 
 import com.actelion.research.spiritapp.ui.SpiritFrame;
-import com.actelion.research.spiritapp.ui.util.POIUtils;
 import com.actelion.research.spiritcore.business.biosample.Biosample;
-import com.actelion.research.spiritcore.business.biosample.BiosampleQuery;
 import com.actelion.research.spiritcore.business.biosample.LocationFormat;
 import com.actelion.research.spiritcore.business.result.Result;
-import com.actelion.research.spiritcore.business.result.ResultQuery;
 import com.actelion.research.spiritcore.services.SpiritUser;
-import com.actelion.research.spiritcore.services.dao.DAOBiosample;
-import com.actelion.research.spiritcore.services.dao.DAOResult;
 import com.actelion.research.spiritcore.services.dao.DAOSpiritUser;
 import com.actelion.research.spiritcore.services.dao.DAOStudy;
-import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.spiritcore.util.MiscUtils;
 import com.actelion.research.util.FormatterUtils;
 
@@ -61,20 +56,20 @@ public class SamplesLocationReport extends AbstractReport {
 	}
 
 
+	@Override
+	public boolean isStreamable() {
+		return true;
+	}
+
 	@Override
 	protected void populateWorkBook() throws Exception {
 		boolean showWithoutLocation = getParameter(SHOW_WITHOUT_LOCATION_PARAMETER)==Boolean.TRUE;
 		boolean showResults = getParameter(SHOW_RESULTS_PARAMETER)==Boolean.TRUE;
-		SpiritUser user = SpiritFrame.getUser();
-
-		//Load the samples and their results
-		List<Biosample> allSamples = DAOBiosample.queryBiosamples(BiosampleQuery.createQueryForStudyIds(study.getStudyId()), user);
-		Map<Biosample, List<Result>> sample2results = new HashMap<Biosample, List<Result>>();
-		if(showResults){
-			List<Result> results = DAOResult.queryResults(ResultQuery.createQueryForBiosampleIds(JPAUtil.getIds(allSamples)), user);
-			sample2results = Result.mapBiosample(results);
-			System.out.println("SamplesLocationReport.populateWorkBook() FOUND "+results.size());
-		}
+		SpiritUser user = data.getUser();
+
+		//Load the samples and their results (shared with the other reports)
+		List<Biosample> allSamples = new ArrayList<>(data.getBiosamples());
+		Map<Biosample, List<Result>> sample2results = showResults? data.getResultsByBiosample(): new HashMap<Biosample, List<Result>>();
 
 		Collections.sort(allSamples, Biosample.HIERARCHY_COMPARATOR);
 
@@ -154,10 +149,10 @@ public class SamplesLocationReport extends AbstractReport {
 					set(sheet, y, x++, sb.toString(), Style.S_TD_SMALL);
 				}
 			}
-
+			flushRows(sheet);
 		}
 
-		POIUtils.autoSizeColumns(sheet, 15000, false);
+		autoSizeColumns(sheet, 15000, false);
 		if(wb.getNumberOfSheets()==0) throw new Exception("There are no samplings to be reported");
 
 	}
@@ -396,6 +396,7 @@ public abstract class SpiritFrame extends JFrame implements ISpiritChangeObserve
 			} else {
 				if(biosamples.size()==1) {
 					Biosample b = biosamples.get(0);
+					DAOBiosample.loadFamilies(biosamples);
 					tab.setBiosamples(new ArrayList<>(b.getHierarchy(HierarchyMode.ALL_MAX2)));
 
 				} else {
@@ -80,6 +80,7 @@ public class SpiritMenu {
 		if( SpiritFrame.getUser()==null || SpiritFrame.getUser().isSuperAdmin()) {
 			adminMenu.add(new SpiritAction.Action_DatabaseConnection());
 			adminMenu.add(new SpiritAction.Action_DatabaseProperties());
+			adminMenu.add(new SpiritAction.Action_Metrics());
 
 			adminMenu.add(new JSeparator());
 			adminMenu.add(new AdminActions.Action_ManageUsers());
@@ -94,6 +95,7 @@ public class SpiritMenu {
 
 			adminMenu.add(new JSeparator());
 			adminMenu.add(new AdminActions.Action_RenameElb());
+			adminMenu.add(new AdminActions.Action_RebuildStatistics());
 			adminMenu.add(new JSeparator());
 			adminMenu.add(new ExchangeActions.Action_ExportExchange(SpiritFrame.getInstance()));
 			adminMenu.add(new ExchangeActions.Action_ImportExchange());
@@ -42,6 +42,7 @@ import com.actelion.research.spiritcore.business.result.Result;
 import com.actelion.research.spiritcore.business.study.Study;
 import com.actelion.research.spiritcore.services.SpiritRights;
 import com.actelion.research.spiritcore.services.dao.DAORevision;
+import com.actelion.research.spiritcore.services.dao.DAOStudyStatistic;
 import com.actelion.research.util.ui.JExceptionDialog;
 import com.actelion.research.util.ui.SwingWorkerExtended;
 import com.actelion.research.util.ui.UIUtils;
@@ -186,6 +187,33 @@ public class AdminActions {
 	}
 
 
+	public static class Action_RebuildStatistics extends AbstractAction {
+		private static final long serialVersionUID = 1L;
+
+		public Action_RebuildStatistics() {
+			super("Rebuild Study Statistics");
+			putValue(AbstractAction.MNEMONIC_KEY, (int)('s'));
+			putValue(AbstractAction.SMALL_ICON, IconType.ADMIN.getIcon());
+			setEnabled(SpiritRights.isSuperAdmin(SpiritFrame.getUser()));
+		}
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			int res = JOptionPane.showConfirmDialog(UIUtils.getMainFrame(), "The statistics (number of biosamples/results per study) will be recomputed from all biosamples and results. Do you want to continue?", "Rebuild Study Statistics", JOptionPane.YES_NO_OPTION);
+			if(res!=JOptionPane.YES_OPTION) return;
+			new SwingWorkerExtended("Rebuild Statistics", UIUtils.getMainFrame()) {
+				private int n;
+				@Override
+				protected void doInBackground() throws Exception {
+					n = DAOStudyStatistic.rebuild(SpiritFrame.getUser());
+				}
+				@Override
+				protected void done() {
+					JExceptionDialog.showInfo(UIUtils.getMainFrame(), n + " statistics rebuilt");
+				}
+			};
+		}
+	}
+
 	public static class Action_ExpiredSamples extends AbstractAction {
 		public Action_ExpiredSamples() {
 			super("Query Expired Samples");
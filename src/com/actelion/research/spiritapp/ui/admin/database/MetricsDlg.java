@@ -0,0 +1,100 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritapp.ui.admin.database;
+
+import java.awt.Font;
+
+import javax.swing.Box;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+
+import com.actelion.research.spiritapp.ui.util.component.JSpiritEscapeDialog;
+import com.actelion.research.spiritcore.services.dao.QueryLog;
+import com.actelion.research.spiritcore.services.dao.SpiritMetrics;
+import com.actelion.research.util.ui.JInfoLabel;
+import com.actelion.research.util.ui.TaskExecutor;
+import com.actelion.research.util.ui.TaskExecutor.Lane;
+import com.actelion.research.util.ui.UIUtils;
+import com.actelion.research.util.ui.iconbutton.IconType;
+import com.actelion.research.util.ui.iconbutton.JIconButton;
+
+/**
+ * Dialog showing the metrics collected by SpiritMetrics (DAO latencies, counters, cache and Hibernate statistics) and the background tasks.
+ * The same metrics are available through JMX (com.actelion.research.spirit:type=Metrics)
+ *
+ * @author Joel Freyss
+ */
+public class MetricsDlg extends JSpiritEscapeDialog {
+
+	private static final long serialVersionUID = 1L;
+
+	private final JTextArea textArea = new JTextArea();
+	private final JCheckBox hibernateCheckBox = new JCheckBox("Collect Hibernate statistics (loads, fetches, queries)");
+
+	public MetricsDlg() {
+		super(UIUtils.getMainFrame(), "Admin - Metrics", MetricsDlg.class.getName());
+
+		textArea.setEditable(false);
+		textArea.setLineWrap(false);
+		textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, textArea.getFont().getSize()));
+
+		hibernateCheckBox.setSelected(SpiritMetrics.getInstance().isHibernateStatisticsEnabled());
+		hibernateCheckBox.addActionListener(e -> {
+			SpiritMetrics.getInstance().setHibernateStatisticsEnabled(hibernateCheckBox.isSelected());
+			refresh();
+		});
+
+		JButton refreshButton = new JIconButton(IconType.REFRESH, "Refresh");
+		refreshButton.addActionListener(e -> refresh());
+
+		JButton resetButton = new JIconButton(IconType.CLEAR, "Reset");
+		resetButton.addActionListener(e -> {
+			SpiritMetrics.getInstance().reset();
+			refresh();
+		});
+
+		setContentPane(UIUtils.createBox(new JScrollPane(textArea),
+				UIUtils.createTitleBox(new JInfoLabel("<html>The metrics are collected since the start or the last reset.<br>Percentiles are approximated by the upper bound of the histogram bucket.")),
+				UIUtils.createHorizontalBox(hibernateCheckBox, Box.createHorizontalGlue(), resetButton, refreshButton)));
+		refresh();
+		UIUtils.adaptSize(this, 1000, 700);
+		setVisible(true);
+	}
+
+	private void refresh() {
+		StringBuilder sb = new StringBuilder();
+		for (String line : SpiritMetrics.getInstance().getReport()) {
+			sb.append(line + "\n");
+		}
+		sb.append("\n");
+		for (Lane lane : Lane.values()) {
+			long[] stats = TaskExecutor.getStatistics(lane);
+			sb.append("TaskExecutor." + lane + ": pending=" + TaskExecutor.getPendingCount(lane) + " executed=" + stats[0]
+					+ " meanWait=" + (stats[0]==0? 0: stats[1]/stats[0]) + "ms meanRun=" + (stats[0]==0? 0: stats[2]/stats[0]) + "ms maxRun=" + stats[3] + "ms\n");
+		}
+		sb.append("\nSlow queries (>=" + QueryLog.getThresholdMs() + "ms) are logged in " + QueryLog.getLogFile() + "\n");
+		textArea.setText(sb.toString());
+		textArea.setCaretPosition(0);
+	}
+}
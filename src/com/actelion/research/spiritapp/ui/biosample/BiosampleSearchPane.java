@@ -24,6 +24,7 @@ package com.actelion.research.spiritapp.ui.biosample;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -53,16 +54,23 @@ import com.actelion.research.spiritcore.business.biosample.BiotypeCategory;
 import com.actelion.research.spiritcore.business.biosample.ContainerType;
 import com.actelion.research.spiritcore.services.SpiritUser;
 import com.actelion.research.spiritcore.services.dao.DAOBiosample;
+import com.actelion.research.spiritcore.services.dao.FetchPlan;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.util.ui.JExceptionDialog;
 import com.actelion.research.util.ui.SwingWorkerExtended;
 import com.actelion.research.util.ui.UIUtils;
 import com.actelion.research.util.ui.exceltable.Column;
 import com.actelion.research.util.ui.exceltable.ExtendTableModel;
+import com.actelion.research.util.ui.exceltable.PagedRowList;
 import com.actelion.research.util.ui.iconbutton.IconType;
 
 public class BiosampleSearchPane extends JPanel {
 
+	/**
+	 * Number of biosamples above which the results are loaded by pages, when they are displayed
+	 */
+	public static final int VIRTUAL_ROWS_THRESHOLD = 10000;
+
 	private final Biotype[] forcedBiotypes;
 
 	private final BiosampleTab tab;
@@ -113,8 +121,24 @@ public class BiosampleSearchPane extends JPanel {
 				protected void doInBackground() throws Exception {
 					if(DBAdapter.getInstance().getUserManagedMode()!=UserManagedMode.UNIQUE_USER && query.isEmpty()) throw new Exception("You must enter more search criteria");
 
+					//Query the ids first (if possible): large results are displayed in a virtual list loaded by pages, small results are loaded from their ids
+					List<Integer> ids = query.getSampleIdOrContainerIds()==null || query.getSampleIdOrContainerIds().length()==0? DAOBiosample.queryBiosampleIds(query, user): null;
+					if(ids!=null && ids.size()>VIRTUAL_ROWS_THRESHOLD) {
+						PagedRowList<Biosample> rows = new PagedRowList<>(ids, pageIds -> DAOBiosample.getBiosamplesByIds(pageIds, query.isSearchMySamples(), user), Biosample::getId, Biosample::new);
+						rows.preload(1);
+						biosamples = rows;
+						tab.getBiosampleOrRackTab().getBiosampleTable().getModel().setFilterTrashed(query.isFilterTrashed());
+						LoggerFactory.getLogger(getClass()).debug("Query ids done in: "+(System.currentTimeMillis()-s)+"ms: n="+ids.size());
+						return;
+					}
+
 					//Query samples
-					biosamples = DAOBiosample.queryBiosamples(query, user);
+					if(ids!=null) {
+						biosamples = new ArrayList<>(DAOBiosample.getBiosamplesByIds(ids, query.isSearchMySamples(), user).values());
+						FetchPlan.BIOSAMPLE_FOR_TABLE.load(biosamples);
+					} else {
+						biosamples = DAOBiosample.queryBiosamples(query, user, FetchPlan.BIOSAMPLE_FOR_TABLE);
+					}
 					LoggerFactory.getLogger(getClass()).debug("Query done in: "+(System.currentTimeMillis()-s)+"ms");
 
 
@@ -49,6 +49,7 @@ import com.actelion.research.spiritcore.business.result.TestAttribute;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.util.ui.SwingWorkerExtended;
 import com.actelion.research.util.ui.exceltable.JSplitPaneWithZeroSizeDivider;
+import com.actelion.research.util.ui.exceltable.PagedRowList;
 import com.actelion.research.util.ui.iconbutton.IconType;
 
 public class BiosampleTab extends SpiritTab implements IBiosampleTab {
@@ -151,7 +152,19 @@ public class BiosampleTab extends SpiritTab implements IBiosampleTab {
 		if(what==Biosample.class) {
 			List<Biosample> biosamples = new ArrayList<>((Collection<Biosample>) details);
 			Biosample.clearAuxInfos(biosamples);
-			if(action==SpiritChangeType.MODEL_ADDED) {
+			if(action!=SpiritChangeType.MODEL_ADDED && tableOrRackTab.getBiosamples() instanceof PagedRowList) {
+				//Virtual rows: replace or remove only the modified rows, without loading the other pages
+				PagedRowList<Biosample> rows = (PagedRowList<Biosample>) tableOrRackTab.getBiosamples();
+				if(action==SpiritChangeType.MODEL_UPDATED) biosamples = JPAUtil.reattach(biosamples);
+				for (Biosample b : biosamples) {
+					int index = rows.indexOf(b);
+					if(index<0) continue;
+					if(action==SpiritChangeType.MODEL_DELETED) rows.remove(index);
+					else rows.set(index, b);
+				}
+				tableOrRackTab.getBiosampleTable().getModel().fireTableDataChanged();
+				tableOrRackTab.setSelectedBiosamples(biosamples);
+			} else if(action==SpiritChangeType.MODEL_ADDED) {
 				biosamples = JPAUtil.reattach(biosamples);
 				tableOrRackTab.setBiosamples(biosamples);
 				tableOrRackTab.setSelectedBiosamples(biosamples);
@@ -245,6 +258,10 @@ public class BiosampleTab extends SpiritTab implements IBiosampleTab {
 				@Override
 				protected void doInBackground() throws Exception {
 					List<Biosample> biosamples = tableOrRackTab.getBiosampleTable().getRows();
+					if(biosamples instanceof PagedRowList) {
+						//Virtual rows: the pivot would need to load all the rows
+						throw new Exception("The results are too large to be pivoted (" + biosamples.size() + " biosamples).\nPlease refine your query.");
+					}
 
 					Test test = new Test("Count");
 					TestAttribute ta = new TestAttribute(test, "Number");
@@ -49,6 +49,7 @@ import com.actelion.research.spiritcore.business.property.PropertyKey;
 import com.actelion.research.spiritcore.business.result.Result;
 import com.actelion.research.spiritcore.business.result.ResultQuery;
 import com.actelion.research.spiritcore.services.SpiritRights;
+import com.actelion.research.spiritcore.services.dao.DAOBiosample;
 import com.actelion.research.spiritcore.services.dao.DAOResult;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.spiritcore.services.dao.SpiritProperties;
@@ -257,6 +258,7 @@ public class BiosampleTabbedPane extends JPanel implements IBiosampleDetail {
 			Set<Integer> ids = new TreeSet<>();
 			List<Result> results = new ArrayList<>();
 			if(biosamples!=null) {
+				DAOBiosample.loadFamilies(biosamples);
 				for(Biosample b: biosamples) {
 					Set<Biosample> children = b.getHierarchy(HierarchyMode.CHILDREN);
 					children.add(b);
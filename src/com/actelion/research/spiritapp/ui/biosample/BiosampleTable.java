@@ -71,6 +71,7 @@ import com.actelion.research.util.ui.exceltable.AbstractExtendTable;
 import com.actelion.research.util.ui.exceltable.Column;
 import com.actelion.research.util.ui.exceltable.ExtendTableModel;
 import com.actelion.research.util.ui.exceltable.FastHeaderRenderer;
+import com.actelion.research.util.ui.exceltable.PagedRowList;
 
 /**
  * Table for biosample
@@ -133,7 +134,10 @@ public class BiosampleTable extends SpiritExtendTable<Biosample> {
 	 */
 	@Override
 	public void setRows(final List<Biosample> data) {
-		if(data!=null && !data.isEmpty()) {
+		if(data instanceof PagedRowList) {
+			//Virtual rows are not copied
+			getModel().setRows(data);
+		} else if(data!=null && !data.isEmpty()) {
 			getModel().setRows(new ArrayList<>(data));
 		} else {
 			getModel().setRows(new ArrayList<>());
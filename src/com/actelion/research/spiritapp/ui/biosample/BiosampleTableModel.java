@@ -23,6 +23,7 @@ package com.actelion.research.spiritapp.ui.biosample;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -63,6 +64,7 @@ import com.actelion.research.spiritcore.business.biosample.BiotypeMetadata;
 import com.actelion.research.spiritcore.business.biosample.ContainerType;
 import com.actelion.research.spiritcore.business.property.PropertyKey;
 import com.actelion.research.spiritcore.business.study.Study;
+import com.actelion.research.spiritcore.services.dao.DAOBiosample;
 import com.actelion.research.spiritcore.services.dao.DAOBiotype;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.spiritcore.services.dao.SpiritProperties;
@@ -110,11 +112,13 @@ public class BiosampleTableModel extends SpiritExtendTableModel<Biosample> {
 
 	public void initColumns() {
 
-		Set<Biosample> myRows = new HashSet<>(getRows());
+		//Virtual rows: only the rows in memory are explored
+		List<Biosample> exploredRows = getRowsToExplore();
+		Set<Biosample> myRows = new HashSet<>(exploredRows);
 		Set<Biotype> types = Biosample.getBiotypes(myRows);
 		Set<Biotype> parentTypes = new HashSet<>();
 		Set<Biotype> topBiotypes = new HashSet<>();
-		Set<Study> studies = Biosample.getStudies(getRows());
+		Set<Study> studies = Biosample.getStudies(exploredRows);
 
 		if (types.size() == 1) {
 			this.type = types.iterator().next();
@@ -131,8 +135,8 @@ public class BiosampleTableModel extends SpiritExtendTableModel<Biosample> {
 		boolean hasPhases = false;
 		boolean hasDifferentTop = false;
 		boolean hasContainers = false;
-		boolean hasScannedPos = getRows().size()>0 && getRows().get(0).getScannedPosition()!=null;
-		for (Biosample b : getRows()) {
+		boolean hasScannedPos = exploredRows.size()>0 && exploredRows.get(0).getScannedPosition()!=null;
+		for (Biosample b : exploredRows) {
 			if (b == null) {
 				continue;
 			}
@@ -189,7 +193,7 @@ public class BiosampleTableModel extends SpiritExtendTableModel<Biosample> {
 				Biotype topBiotype = topBiotypes.iterator().next();
 				boolean topDifferentLinker = false;
 				BiosampleLinker linker = new BiosampleLinker(topBiotype, LinkerType.SAMPLEID);
-				for (Biosample b : rows) {
+				for (Biosample b : exploredRows) {
 					if(!b.getTopParent().equals(linker.getLinked(b))) {
 						topDifferentLinker = true;
 						break;
@@ -274,6 +278,8 @@ public class BiosampleTableModel extends SpiritExtendTableModel<Biosample> {
 		columns.add(new BiosampleQualityColumn());
 		columns.add(new StatusColumn());
 		if(SpiritProperties.getInstance().isAdvancedMode()) {
+			//Load the families of the explored rows at once, instead of the children of each row and level
+			DAOBiosample.loadFamilies(exploredRows);
 			columns.add(new ChildrenColumn());
 		}
 		if(SpiritProperties.getInstance().isChecked(PropertyKey.TAB_RESULT)) {
@@ -315,6 +321,7 @@ public class BiosampleTableModel extends SpiritExtendTableModel<Biosample> {
 			return new ArrayList<>();
 		} else {
 			try {
+				DAOBiosample.loadFamilies(Collections.singleton(row));
 				Set<Biosample> children = row.getChildren();
 				List<Biosample> res = new ArrayList<>();
 				for (Biosample b : children) {
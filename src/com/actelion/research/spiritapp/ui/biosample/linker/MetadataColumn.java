@@ -26,7 +26,6 @@ import java.awt.Desktop;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.net.URI;
-import java.util.Comparator;
 
 import javax.swing.AbstractAction;
 import javax.swing.JComponent;
@@ -186,19 +185,9 @@ public class MetadataColumn extends AbstractLinkerColumn<String> {
 				BiotypeMetadata mt = getType();
 				DataType datatype = mt.getDataType();
 				if(datatype==DataType.DATE) {
-					table.sortBy(MetadataColumn.this, 0, new Comparator<Biosample>() {
-						@Override
-						public int compare(Biosample o1, Biosample o2) {
-							return CompareUtils.DATE_COMPARATOR.compare(MetadataColumn.this.getValue(o1), MetadataColumn.this.getValue(o2));
-						}
-					});
+					table.sortBy(MetadataColumn.this, 0, MetadataColumn.this::getValue, CompareUtils.DATE_COMPARATOR);
 				} else {
-					table.sortBy(MetadataColumn.this, 0, new Comparator<Biosample>() {
-						@Override
-						public int compare(Biosample o1, Biosample o2) {
-							return CompareUtils.STRING_COMPARATOR.compare(MetadataColumn.this.getValue(o1), MetadataColumn.this.getValue(o2));
-						}
-					});
+					table.sortBy(MetadataColumn.this, 0, MetadataColumn.this::getValue, CompareUtils.STRING_COMPARATOR);
 				}
 			}
 		});
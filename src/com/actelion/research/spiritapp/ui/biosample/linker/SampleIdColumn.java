@@ -145,22 +145,20 @@ public class SampleIdColumn extends AbstractLinkerColumn<String> {
 		popupMenu.add(new AbstractAction("Sort by SampleId") {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				table.sortBy(SampleIdColumn.this, 1, (o1,o2) -> {
-					Biosample l1 = getLinker().getLinked(o1);
-					Biosample l2 = getLinker().getLinked(o2);
-					return CompareUtils.compare(l1==null?"": l1.getSampleId(), l2==null?"": l2.getSampleId());
-				});
+				table.sortBy(SampleIdColumn.this, 1, b -> {
+					Biosample l = getLinker().getLinked(b);
+					return l==null?"": l.getSampleId();
+				}, CompareUtils.STRING_COMPARATOR);
 			}
 		});
 		if(biotype==null || biotype.getSampleNameLabel()!=null ) {
 			popupMenu.add(new AbstractAction("Sort by " + (biotype==null?"SampleName": biotype.getSampleNameLabel())) {
 				@Override
 				public void actionPerformed(ActionEvent e) {
-					table.sortBy(SampleIdColumn.this, 2, (o1,o2) -> {
-						Biosample l1 = getLinker().getLinked(o1);
-						Biosample l2 = getLinker().getLinked(o2);
-						return CompareUtils.compare(l1==null?"": l1.getSampleName(), l2==null?"": l2.getSampleName());
-					});
+					table.sortBy(SampleIdColumn.this, 2, b -> {
+						Biosample l = getLinker().getLinked(b);
+						return l==null?"": l.getSampleName();
+					}, CompareUtils.STRING_COMPARATOR);
 				}
 			});
 		}
@@ -61,6 +61,7 @@ import com.actelion.research.spiritcore.business.location.LocationType;
 import com.actelion.research.spiritcore.services.SpiritUser;
 import com.actelion.research.spiritcore.services.dao.DAOBiosample;
 import com.actelion.research.spiritcore.services.dao.DAOLocation;
+import com.actelion.research.spiritcore.services.dao.DAOLocationOccupancy;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.spiritcore.util.Config;
 import com.actelion.research.util.ui.JCustomLabel;
@@ -342,11 +343,6 @@ public class CheckinDlg extends JSpiritEscapeDialog {
 			bottomRadioButton.setEnabled(true);
 			rightRadioButton.setEnabled(true);
 			patternRadioButton.setEnabled(true);
-
-			//preview if empty rack
-			Set<Biosample> present = new HashSet<Biosample>(location.getBiosamples());
-			present.removeAll(containerTable.getRows());
-
 		}
 
 		makePreview();
@@ -371,7 +367,8 @@ public class CheckinDlg extends JSpiritEscapeDialog {
 			}
 			locationDepictor.computeDroppedPoses(min, containers);
 		} else {
-			locationDepictor.computeDroppedPoses( location.getSize()>0?0:-1, containers);
+			//Start the preview at the first free position
+			locationDepictor.computeDroppedPoses(location.getSize()>0? Math.max(0, DAOLocationOccupancy.getNextFreePosition(location, 0)): -1, containers);
 		}
 	}
 
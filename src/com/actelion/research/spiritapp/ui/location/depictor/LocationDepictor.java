@@ -43,6 +43,7 @@ import com.actelion.research.spiritcore.business.biosample.Container;
 import com.actelion.research.spiritcore.business.employee.EmployeeGroup;
 import com.actelion.research.spiritcore.business.location.Location;
 import com.actelion.research.spiritcore.business.location.Privacy;
+import com.actelion.research.spiritcore.services.dao.DAOLocationOccupancy;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.util.FormatterUtils;
 import com.actelion.research.util.ui.FastFont;
@@ -299,9 +300,11 @@ public class LocationDepictor extends JPanel {
 			left += g.getFontMetrics().stringWidth(fullName) + 5;
 
 
-			//Draw Occupancy of the box
-			if(location.getOccupancy()>0) {
-				String s = "(" + location.getOccupancy() + (location.getCols()>0? "/" + (location.getCols()*location.getRows()) :"") + " samples)";
+			//Draw Occupancy of the box (or of its sublocations)
+			int occupancy = location.getOccupancy();
+			int occupancyRec = occupancy>0 || location.getSize()>0? 0: DAOLocationOccupancy.getOccupancyRec(location);
+			if(occupancy>0 || occupancyRec>0) {
+				String s = occupancy>0? "(" + occupancy + (location.getCols()>0? "/" + (location.getCols()*location.getRows()) :"") + " samples)": "(" + occupancyRec + " samples in sublocations)";
 				g.setFont(FastFont.REGULAR);
 				g.drawString(s, left, g.getFont().getSize()+4);
 				left += g.getFontMetrics().stringWidth(s)+5;
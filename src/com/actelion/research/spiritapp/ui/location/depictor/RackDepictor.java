@@ -427,7 +427,7 @@ public class RackDepictor extends JPanel {
 
 
 	public String[][] getLocationLayout() {
-		if(location.getSize()<=0 && location.getBiosamples().isEmpty()) return null;
+		if(location.getSize()<=0 && location.getOccupancy()==0) return null;
 		String[][] res = new String[rows+1][cols+1];
 		for (int r = 0; r < rows; r++) {
 			res[r+1][0] = location.getLabeling()==LocationLabeling.ALPHA? "" + ((char) ('A' + r)): location.getLabeling()==LocationLabeling.NUM? "" + (1+r): "";
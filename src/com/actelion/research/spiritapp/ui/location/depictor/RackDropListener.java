@@ -37,6 +37,7 @@ import java.awt.dnd.DropTargetDropEvent;
 import java.awt.dnd.DropTargetEvent;
 import java.awt.dnd.DropTargetListener;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -46,6 +47,7 @@ import java.util.Set;
 import com.actelion.research.spiritcore.business.biosample.Container;
 import com.actelion.research.spiritcore.business.location.Direction;
 import com.actelion.research.spiritcore.business.location.Location;
+import com.actelion.research.spiritcore.business.location.LocationLabeling;
 import com.actelion.research.util.ui.JExceptionDialog;
 
 /**
@@ -230,7 +232,9 @@ public class RackDropListener implements DropTargetListener, DragSourceListener,
 			smallestPos = Math.min(smallestPos, oriPos);
 		}
 
-		Map<Integer, Container> pos2containers = location.getContainersMap();
+		//The occupied positions are read from the bitmap (without loading the biosamples), except for locations without positions
+		Map<Integer, Container> pos2containers = location.getLabeling()==LocationLabeling.NONE? location.getContainersMap(): null;
+		BitSet occupiedPoses = pos2containers==null? location.getOccupiedPositions(): null;
 		for (Container c : containers) {
 			int pos;
 			if(mouseOffsetPosition>=0) {
@@ -257,7 +261,12 @@ public class RackDropListener implements DropTargetListener, DragSourceListener,
 				}
 				index++;
 			}
-			boolean occupied = pos2containers.get(pos)!=null && !containers.contains(pos2containers.get(pos));
+			boolean occupied;
+			if(pos2containers!=null) {
+				occupied = pos2containers.get(pos)!=null && !containers.contains(pos2containers.get(pos));
+			} else {
+				occupied = pos>=0 && occupiedPoses.get(pos) && !isMovedFrom(containers, location, pos);
+			}
 
 			boolean ok;
 			if(pos==c.getPos() && location.equals(c.getLocation()) ) {
@@ -289,6 +298,16 @@ public class RackDropListener implements DropTargetListener, DragSourceListener,
 		return droppedPoses.size()==containers.size();
 	}
 
+	/**
+	 * Returns true if the position is occupied by one of the moved containers (so that it will be freed)
+	 */
+	private static boolean isMovedFrom(Collection<Container> containers, Location location, int pos) {
+		for (Container c : containers) {
+			if(c.getPos()==pos && location.equals(c.getLocation())) return true;
+		}
+		return false;
+	}
+
 	public List<Integer> getDroppedPoses() {
 		return droppedPoses;
 	}
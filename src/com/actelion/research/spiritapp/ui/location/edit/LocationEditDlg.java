@@ -79,7 +79,7 @@ public class LocationEditDlg extends JSpiritEscapeDialog {
 	public static LocationEditDlg duplicate(List<Location> locations) {
 		Set<Location> tree = new HashSet<>();
 		for (Location l : locations) {
-			tree.addAll(l.getChildrenRec(10));
+			tree.addAll(DAOLocation.getChildrenRec(l, 10));
 		}
 
 		if(tree.size()!=locations.size()) {
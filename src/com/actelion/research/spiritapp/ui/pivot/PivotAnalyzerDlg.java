@@ -29,8 +29,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.StringReader;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
@@ -61,6 +59,7 @@ import com.actelion.research.spiritcore.business.result.Result;
 import com.actelion.research.spiritcore.business.result.ResultQuery;
 import com.actelion.research.spiritcore.business.study.Study;
 import com.actelion.research.spiritcore.services.dao.DAOResult;
+import com.actelion.research.spiritcore.services.dao.FetchPlan;
 import com.actelion.research.spiritcore.util.MiscUtils;
 import com.actelion.research.util.UsageLog;
 import com.actelion.research.util.ui.JEscapeDialog;
@@ -122,7 +121,7 @@ public class PivotAnalyzerDlg extends JEscapeDialog {
 				if(results==null && study!=null) {
 					ResultQuery q = new ResultQuery();
 					q.setSid(study.getId());
-					results = DAOResult.queryResults(q, SpiritFrame.getUser());
+					results = DAOResult.queryResults(q, SpiritFrame.getUser(), FetchPlan.RESULT_FOR_PIVOT);
 				}
 				if(results==null) throw new Exception("There are no results");
 
@@ -188,12 +187,7 @@ public class PivotAnalyzerDlg extends JEscapeDialog {
 									config.setViewNames(views);
 
 									//Export to DW
-									StringBuilder sb = DataWarriorExporter.getDwar(results, config, SpiritFrame.getUser());
-									File f = File.createTempFile("spirit_", ".dwar");
-									FileWriter w = new FileWriter(f);
-									com.actelion.research.util.IOUtils.redirect(new StringReader(sb.toString()), w);
-									w.close();
-
+									File f = DataWarriorExporter.exportDwar(results, config, SpiritFrame.getUser());
 									Desktop.getDesktop().open(f);
 
 
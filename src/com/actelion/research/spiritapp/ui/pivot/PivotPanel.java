@@ -318,12 +318,7 @@ public class PivotPanel extends JPanel {
 				config.setCustomTemplate(tpl);
 
 				//Export to DW
-				StringBuilder sb = DataWarriorExporter.getDwar(results, config, SpiritFrame.getUser());
-				File f = File.createTempFile("spirit_", ".dwar");
-				FileWriter w = new FileWriter(f);
-				IOUtils.redirect(new StringReader(sb.toString()), w);
-				w.close();
-
+				File f = DataWarriorExporter.exportDwar(results, config, SpiritFrame.getUser());
 				Desktop.getDesktop().open(f);
 				return;
 			} else if (tableTab instanceof IExportable) {
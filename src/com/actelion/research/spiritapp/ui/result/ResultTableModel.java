@@ -175,7 +175,7 @@ public class ResultTableModel extends ExtendTableModel<Result> {
 
 	protected void initColumns() {
 
-		Set<Biosample> biosamples = Result.getBiosamples(getRows());
+		Set<Biosample> biosamples = Result.getBiosamples(getRowsToExplore());
 		Set<Biosample> topSamples = Biosample.getTopParentsInSameStudy(biosamples);
 		boolean sameTops = biosamples.equals(topSamples);
 
@@ -209,7 +209,7 @@ public class ResultTableModel extends ExtendTableModel<Result> {
 		int maxOutput = 0;
 		int maxInfos = 0;
 		int maxDocs = 0;
-		Set<Test> tests = Result.getTests(getRows());
+		Set<Test> tests = Result.getTests(getRowsToExplore());
 		for (Test t : tests) {
 			maxInput = Math.max(maxInput, t.getAttributes(OutputType.INPUT).size());
 			maxOutput = Math.max(maxOutput, t.getAttributes(OutputType.OUTPUT).size());
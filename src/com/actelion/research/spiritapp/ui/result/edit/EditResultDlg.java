@@ -580,7 +580,7 @@ public class EditResultDlg extends JSpiritEscapeDialog {
 						Correction<TestAttribute, Result> correction = correctionMap.getCorrection(att, value);
 
 						if(correction==null) {
-							correction = correctionMap.addCorrection(att, value, new ArrayList<String>(possibleValues), true);
+							correction = correctionMap.addCorrection(att, value, possibleValues, true);
 						}
 						correction.getAffectedData().add(result);
 						//						obviousProblems++;
@@ -592,7 +592,7 @@ public class EditResultDlg extends JSpiritEscapeDialog {
 					if(!possibleValues.contains(value)) {
 						Correction<TestAttribute, Result> correction = correctionMap.getCorrection(att, value);
 						if(correction==null) {
-							correction = correctionMap.addCorrection(att, value, new ArrayList<String>(possibleValues), false);
+							correction = correctionMap.addCorrection(att, value, possibleValues, false);
 						}
 						correction.getAffectedData().add(result);
 						//						if(correction.getSuggestedValue()!=null) obviousProblems++;
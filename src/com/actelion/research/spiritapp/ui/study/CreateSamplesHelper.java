@@ -137,6 +137,7 @@ public class CreateSamplesHelper {
 
 			////////////////////////////////////////
 			//Check samples to be deleted
+			DAOBiosample.loadFamilies(study.getParticipants());
 			for(Biosample top: study.getParticipantsSorted()) {
 				//Skip dead/necropsied/...
 				if(!top.getStatus().isAvailable()) continue;
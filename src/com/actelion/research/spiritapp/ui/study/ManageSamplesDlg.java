@@ -60,6 +60,7 @@ import com.actelion.research.spiritcore.business.study.Phase;
 import com.actelion.research.spiritcore.business.study.Study;
 import com.actelion.research.spiritcore.services.dao.DAOStudy;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
+import com.actelion.research.spiritcore.services.dao.DAOBiosample;
 import com.actelion.research.util.ui.JCustomTextField;
 import com.actelion.research.util.ui.JEscapeDialog;
 import com.actelion.research.util.ui.JExceptionDialog;
@@ -204,6 +205,7 @@ public class ManageSamplesDlg extends JEscapeDialog implements ISpiritChangeObse
 						Study s = JPAUtil.reattach(study);
 						allSamples = new LinkedHashSet<>();
 						Collection<Biosample> tops = s.getParticipantsSorted();
+						DAOBiosample.loadFamilies(tops);
 						for (Biosample animal : tops) {
 							if(animals!=null && !animals.contains(animal)) continue;
 							allSamples.addAll(animal.getHierarchy(HierarchyMode.CHILDREN));
@@ -37,7 +37,7 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
 import com.actelion.research.spiritapp.report.AbstractReport;
-import com.actelion.research.spiritapp.report.MixedReport;
+import com.actelion.research.spiritapp.report.ReportEngine;
 import com.actelion.research.spiritapp.report.ReportFactory;
 import com.actelion.research.spiritapp.ui.SpiritFrame;
 import com.actelion.research.spiritcore.business.study.Study;
@@ -66,7 +66,7 @@ public class ReportDlg extends JEscapeDialog {
 		this.s = s;
 
 		if(!SpiritRights.canEditBiosamples(s, SpiritFrame.getUser())) {
-			JExceptionDialog.showError("You must have read rights on the study to view the reports");
+			JExceptionDialog.showError("You must have the rights to edit the biosamples of the study to view the reports");
 			return;
 		}
 		if(SpiritRights.isBlind(s, SpiritFrame.getUser())) {
@@ -134,8 +134,7 @@ public class ReportDlg extends JEscapeDialog {
 	}
 
 	private void createReports() throws Exception {
-		MixedReport rep = new MixedReport(reportList.getSelectedValuesList());
-		rep.populateReport(s);
+		AbstractReport rep = new ReportEngine(SpiritFrame.getUser()).generate(s, reportList.getSelectedValuesList());
 		rep.export(null);
 	}
 
@@ -49,6 +49,8 @@ import com.actelion.research.spiritcore.business.result.ResultQuery;
 import com.actelion.research.spiritcore.business.study.Study;
 import com.actelion.research.spiritcore.services.SpiritRights;
 import com.actelion.research.spiritcore.services.dao.DAOResult;
+import com.actelion.research.spiritcore.services.dao.DAOStudy;
+import com.actelion.research.spiritcore.services.dao.FetchPlan;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.spiritcore.services.dao.SpiritProperties;
 import com.actelion.research.util.ui.JCustomTabbedPane;
@@ -77,6 +79,8 @@ public class StudyDetailPanel extends JPanel {
 	private final StudyQuickLinksPane quickLinkPanel = new StudyQuickLinksPane();
 	private final BiosampleTable participantTable = new BiosampleTable();
 	private final GraphPanel graphPanel = new GraphPanel();
+	private final StudyTable relatedTable = new StudyTable();
+	private final JScrollPane relatedPane = new JScrollPane(relatedTable);
 	private final JSplitPane studySplitPane;
 
 	//	private CardLayout cardLayout = new CardLayout();
@@ -114,6 +118,7 @@ public class StudyDetailPanel extends JPanel {
 		if(SpiritProperties.getInstance().isChecked(PropertyKey.TAB_RESULT)) {
 			infoTabbedPane.add("Data", quickViewSplitPane);
 		}
+		infoTabbedPane.add("Related", relatedPane);
 
 		studySplitPane = new JSplitPaneWithZeroSizeDivider(orientation, new JScrollPane(studyDepictor), infoTabbedPane);
 		SwingUtilities.invokeLater(() -> {
@@ -151,6 +156,7 @@ public class StudyDetailPanel extends JPanel {
 			StudyActions.attachPopup(studyDepictor);
 			StudyActions.attachPopup(editorPane);
 			BiosampleActions.attachPopup(participantTable);
+			StudyActions.attachPopup(relatedTable);
 		}
 
 	}
@@ -182,6 +188,7 @@ public class StudyDetailPanel extends JPanel {
 		studyDepictor.setStudy(null);
 		editorPane.setStudy(null);
 		graphPanel.setResults(new ArrayList<>());
+		relatedTable.setRows(new ArrayList<>());
 		if(SpiritRights.canRead(study, SpiritFrame.getUser())) {
 			studyDepictor.setStudy(null);
 			editorPane.setStudy(null);
@@ -203,7 +210,21 @@ public class StudyDetailPanel extends JPanel {
 
 	private void refreshTabbedPane() {
 		if(study==null) return;
-		if(infoTabbedPane.getSelectedIndex()==0) {
+		if(infoTabbedPane.getSelectedComponent()==relatedPane) {
+			if(forRevision) return;
+			new SwingWorkerExtended("Loading Related Studies", relatedPane, SwingWorkerExtended.FLAG_ASYNCHRONOUS100MS) {
+				private List<Study> related = null;
+				@Override
+				protected void doInBackground() throws Exception {
+					related = DAOStudy.getRelatedStudies(JPAUtil.reattach(study), SpiritFrame.getUser());
+				}
+
+				@Override
+				protected void done() {
+					relatedTable.setRows(related);
+				}
+			};
+		} else if(infoTabbedPane.getSelectedIndex()==0) {
 			new SwingWorkerExtended("Loading Details", editorPane, forRevision? SwingWorkerExtended.FLAG_SYNCHRONOUS: SwingWorkerExtended.FLAG_ASYNCHRONOUS100MS) {
 				@Override
 				protected void done() {
@@ -238,7 +259,7 @@ public class StudyDetailPanel extends JPanel {
 						if(study==null) return;
 						ResultQuery q = ResultQuery.createQueryForSids(Collections.singleton(study.getId()));
 						q.setMaxResults(4000);
-						results = DAOResult.queryResults(q, SpiritFrame.getUser());
+						results = DAOResult.queryResults(q, SpiritFrame.getUser(), FetchPlan.RESULT_FOR_PIVOT);
 					}
 
 					@Override
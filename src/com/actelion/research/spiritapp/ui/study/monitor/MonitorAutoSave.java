@@ -0,0 +1,289 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritapp.ui.study.monitor;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritapp.ui.SpiritFrame;
+import com.actelion.research.spiritcore.business.result.Result;
+import com.actelion.research.spiritcore.services.SpiritUser;
+import com.actelion.research.spiritcore.services.dao.DAOResult;
+import com.actelion.research.spiritcore.services.dao.JPAUtil;
+import com.actelion.research.util.ui.JCustomTextField;
+import com.actelion.research.util.ui.TaskExecutor;
+import com.actelion.research.util.ui.TaskExecutor.Lane;
+
+/**
+ * Write-behind saving of the values entered in the monitoring fields.
+ * <ul>
+ * <li>an edit is acknowledged immediately (orange border), and the edits of a same result are coalesced
+ * <li>the pending results are saved in one transaction, FLUSH_DELAY_MS after the first pending edit, or when the dialog is closed
+ * <li>the batches are saved in the BULK lane of the TaskExecutor, with their own EntityManager, so that the EDT is never blocked by the DB
+ * <li>the border of each field then shows if the value was saved (blue) or not (red), and the status label shows the state of the last batch
+ * <li>the failed results are saved again after a delay, doubled after each consecutive failure (up to MAX_RETRY_DELAY_MS)
+ * </ul>
+ *
+ * All methods, except {@link #save(Collection)}, must be called from the EDT.
+ * The dialogs must call {@link #flush()} before recreating the fields, and {@link #canBeClosed()} when closing.
+ *
+ * @author Joel Freyss
+ */
+public class MonitorAutoSave {
+
+	public static final int FLUSH_DELAY_MS = 1500;
+	public static final int MAX_RETRY_DELAY_MS = 60000;
+
+	public static final Color COLOR_PENDING = Color.ORANGE;
+	public static final Color COLOR_SAVED = Color.BLUE;
+	public static final Color COLOR_FAILED = Color.RED;
+
+	/**
+	 * Batch being saved in the background. The future returns the exception, or null if the batch was saved
+	 */
+	private static class Batch {
+		private final Map<Result, Set<JCustomTextField>> results;
+		private final CompletableFuture<Exception> future = new CompletableFuture<>();
+
+		public Batch(Map<Result, Set<JCustomTextField>> results) {
+			this.results = results;
+		}
+	}
+
+	private final Component parent;
+	private final SpiritUser user;
+	private final Map<Result, Set<JCustomTextField>> pending = new LinkedHashMap<>();
+	private final Timer timer;
+	private final JLabel statusLabel = new JLabel(" ");
+	private Batch inFlight;
+	private int failures;
+
+	public MonitorAutoSave(Component parent) {
+		this(parent, SpiritFrame.getUser());
+	}
+
+	public MonitorAutoSave(Component parent, SpiritUser user) {
+		this.parent = parent;
+		this.user = user;
+		this.timer = new Timer(FLUSH_DELAY_MS, e -> startBatch());
+		this.timer.setRepeats(false);
+	}
+
+	/**
+	 * Records that the result was edited through the given field. The result will be saved with the next batch
+	 * @param result
+	 * @param field
+	 */
+	public void edited(Result result, JCustomTextField field) {
+		Set<JCustomTextField> fields = pending.get(result);
+		if(fields==null) {
+			fields = new LinkedHashSet<>();
+			pending.put(result, fields);
+		}
+		fields.add(field);
+		field.setBorderColor(COLOR_PENDING);
+		if(!timer.isRunning() && inFlight==null && failures==0) timer.start();
+	}
+
+	public int getPendingCount() {
+		return pending.size() + (inFlight==null? 0: inFlight.results.size());
+	}
+
+	/**
+	 * Returns the label showing the state of the saving, to be added to the dialog
+	 */
+	public JLabel getStatusLabel() {
+		return statusLabel;
+	}
+
+	/**
+	 * Returns the delay before the next try (FLUSH_DELAY_MS if the last batch was successful)
+	 */
+	public int getRetryDelay() {
+		return (int) Math.min(MAX_RETRY_DELAY_MS, (long) FLUSH_DELAY_MS << Math.min(failures, 16));
+	}
+
+	/**
+	 * Starts saving the pending results in the background, unless a batch is already being saved
+	 */
+	private void startBatch() {
+		timer.stop();
+		if(inFlight!=null || pending.isEmpty()) return;
+		final Batch batch = new Batch(new LinkedHashMap<>(pending));
+		pending.clear();
+		inFlight = batch;
+		setStatus("Saving " + batch.results.size() + " results...", Color.GRAY);
+
+		TaskExecutor.submit("MonitorAutoSave", Lane.BULK, TaskExecutor.PRIORITY_HIGH, () -> {
+			Exception error = null;
+			try {
+				save(batch.results.keySet());
+			} catch(Exception ex) {
+				error = ex;
+			}
+			batch.future.complete(error);
+			SwingUtilities.invokeLater(this::completeBatch);
+		});
+	}
+
+	/**
+	 * Updates the fields of the batch, once saved. Does nothing if the batch is still running or if it was already completed
+	 */
+	private void completeBatch() {
+		final Batch batch = inFlight;
+		if(batch==null || !batch.future.isDone()) return;
+		inFlight = null;
+		Exception ex = batch.future.getNow(null);
+		if(ex==null) {
+			failures = 0;
+			for (Map.Entry<Result, Set<JCustomTextField>> e : batch.results.entrySet()) {
+				for (JCustomTextField field : e.getValue()) {
+					if(pending.containsKey(e.getKey())) continue;
+					field.setBorderColor(COLOR_SAVED);
+					field.setToolTipText((field.getToolTipText()==null?"<html>":field.getToolTipText()+"<br>") + "Updated value: "+MonitoringCagePanel.formatTooltipText(field.getText(), e.getKey().getUpdUser(), e.getKey().getUpdDate()));
+				}
+			}
+			setStatus("Saved at " + new SimpleDateFormat("HH:mm:ss").format(new Date()), Color.BLUE);
+		} else {
+			//Keep the failed results, with the fields edited in the meantime
+			failures++;
+			for (Map.Entry<Result, Set<JCustomTextField>> e : batch.results.entrySet()) {
+				for (JCustomTextField field : e.getValue()) {
+					field.setBorderColor(COLOR_FAILED);
+				}
+				Set<JCustomTextField> fields = pending.get(e.getKey());
+				if(fields!=null) fields.addAll(e.getValue());
+			}
+			Map<Result, Set<JCustomTextField>> edited = new LinkedHashMap<>(pending);
+			pending.clear();
+			for (Map.Entry<Result, Set<JCustomTextField>> e : batch.results.entrySet()) {
+				if(!edited.containsKey(e.getKey())) pending.put(e.getKey(), e.getValue());
+			}
+			pending.putAll(edited);
+			LoggerFactory.getLogger(MonitorAutoSave.class).warn("Could not save " + batch.results.size() + " results (try " + failures + "): " + ex);
+			setStatus(pending.size() + " results not saved, retry in " + (getRetryDelay()/1000) + "s: " + ex.getMessage(), COLOR_FAILED);
+			statusLabel.setToolTipText(String.valueOf(ex));
+		}
+
+		//Save the next batch (the edits made while saving), or retry later
+		if(!pending.isEmpty()) {
+			timer.setInitialDelay(getRetryDelay());
+			timer.restart();
+		}
+	}
+
+	private void setStatus(String text, Color color) {
+		statusLabel.setText(text);
+		statusLabel.setForeground(color);
+		statusLabel.setToolTipText(null);
+	}
+
+	/**
+	 * Saves the results in one transaction, with a new EntityManager. Called from the background thread.
+	 * The values, set by the EDT, are read when the results are merged: a value changed in the meantime is saved again with the next batch
+	 * @param results
+	 * @throws Exception
+	 */
+	protected void save(Collection<Result> results) throws Exception {
+		long s = System.currentTimeMillis();
+		EntityManager session = JPAUtil.createManager();
+		EntityTransaction txn = null;
+		try {
+			Date now = JPAUtil.getCurrentDateFromDatabase();
+			for (Result result : results) {
+				result.setUpdDate(now);
+			}
+			txn = session.getTransaction();
+			txn.begin();
+			DAOResult.persistResults(session, new ArrayList<>(results), user);
+			txn.commit();
+			txn = null;
+			LoggerFactory.getLogger(MonitorAutoSave.class).debug("Saved " + results.size() + " results in " + (System.currentTimeMillis()-s) + "ms");
+		} finally {
+			if(txn!=null && txn.isActive()) try{txn.rollback();}catch (Exception e) {e.printStackTrace();}
+			session.close();
+		}
+	}
+
+	/**
+	 * Saves all pending results, and waits until they are saved (used before recreating the fields and when closing).
+	 * The results are still saved in the background, only the EDT waits
+	 * @return true if there was nothing to save, or if the results were saved
+	 */
+	public boolean flush() {
+		timer.stop();
+		for (int i = 0; i < 2; i++) {
+			//Wait for the batch in progress, then save the edits made in the meantime
+			if(inFlight==null) startBatch();
+			if(inFlight==null) break;
+			try {
+				inFlight.future.get();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch(ExecutionException e) {
+				return false;
+			}
+			timer.stop();
+			completeBatch();
+			timer.stop();
+			if(failures>0) break;
+		}
+		if(!pending.isEmpty() && failures>0) {
+			timer.setInitialDelay(getRetryDelay());
+			timer.restart();
+		}
+		return pending.isEmpty();
+	}
+
+	/**
+	 * Saves the pending results before closing the dialog
+	 * @return true if the dialog can be closed
+	 */
+	public boolean canBeClosed() {
+		if(flush()) return true;
+		int res = JOptionPane.showConfirmDialog(parent, pending.size() + " results could not be saved (" + statusLabel.getText() + ").\nDo you want to close without saving them?", "Close", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+		if(res!=JOptionPane.YES_OPTION) return false;
+		timer.stop();
+		pending.clear();
+		return true;
+	}
+}
@@ -21,31 +21,27 @@
 
 package com.actelion.research.spiritapp.ui.study.monitor;
 
-import java.awt.Color;
-import java.util.Collections;
-import java.util.Date;
-
 import javax.swing.JComponent;
 
 import com.actelion.research.spiritapp.Spirit;
-import com.actelion.research.spiritapp.ui.SpiritFrame;
 import com.actelion.research.spiritcore.business.result.Result;
-import com.actelion.research.spiritcore.services.dao.DAOResult;
-import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.util.ui.JCustomTextField;
-import com.actelion.research.util.ui.JExceptionDialog;
 import com.actelion.research.util.ui.TextChangeListener;
 
 /**
- * Listener responsible for the saving a value to the DB immediately after being entered
+ * Listener responsible for the saving a value to the DB after being entered.
+ * The value is set immediately, and the result is saved by the MonitorAutoSave with the next batch
  * @author freyssj
  *
  */
 public class MonitorTextChangeListener implements TextChangeListener {
 	private Result result;
 	private int valueNo;
+	private MonitorAutoSave autoSave;
 	
-	public MonitorTextChangeListener(Result result, int valueNo) {
+	public MonitorTextChangeListener(MonitorAutoSave autoSave, Result result, int valueNo) {
+		assert autoSave!=null;
+		this.autoSave = autoSave;
 		this.result = result;
 		this.valueNo = valueNo;
 	}
@@ -54,23 +50,9 @@ public class MonitorTextChangeListener implements TextChangeListener {
 	public void textChanged(JComponent s) {
 		assert s instanceof JCustomTextField;
 		JCustomTextField src = (JCustomTextField) s;
-		try {
-			JPAUtil.pushEditableContext(SpiritFrame.getUser());
-			
-			Date now = JPAUtil.getCurrentDateFromDatabase();
-			result.getOutputResultValues().get(valueNo).setValue(src.getText());
-			result.setUpdUser(Spirit.askForAuthentication().getUsername());
-			result.setUpdDate(now);
-			
-			DAOResult.persistResults(Collections.singletonList(result), SpiritFrame.getUser());
-			src.setBorderColor(Color.BLUE);					
-			src.setToolTipText((src.getToolTipText()==null?"<html>":src.getToolTipText()+"<br>") + "Updated value: "+MonitoringCagePanel.formatTooltipText(src.getText(), result.getUpdUser(), result.getUpdDate()));
-		} catch(Exception ex) {
-			src.setBorderColor(Color.RED);					
-			JExceptionDialog.showError(src, ex);
-		} finally {
-			JPAUtil.popEditableContext();				
-		}
+		result.getOutputResultValues().get(valueNo).setValue(src.getText());
+		result.setUpdUser(Spirit.askForAuthentication().getUsername());
+		autoSave.edited(result, src);
 	}
 	
 }
\ No newline at end of file
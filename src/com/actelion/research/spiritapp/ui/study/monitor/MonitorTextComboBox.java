@@ -31,7 +31,7 @@ public class MonitorTextComboBox extends JTextComboBox {
 
 	private boolean required;
 
-	public MonitorTextComboBox(Result result, int valueNo, boolean required) {
+	public MonitorTextComboBox(MonitorAutoSave autoSave, Result result, int valueNo, boolean required) {
 		super();
 		assert result!=null;
 		assert result.getBiosample()!=null;
@@ -43,7 +43,7 @@ public class MonitorTextComboBox extends JTextComboBox {
 		String tooltip = "<html><b><u>"+result.getBiosample().getTopParentInSameStudy().getSampleIdName()+"</u> "+(result.getPhase()==null? "": " - " +result.getPhase().toString()) + "</b>";
 		setToolTipText(tooltip);
 		if(result.getId()>0) setToolTipText(getToolTipText() + "<br>Last value: "+ MonitoringCagePanel.formatTooltipText(result.getOutputResultValues().get(valueNo).getValue(), result.getUpdUser(), result.getUpdDate()));
-		addTextChangeListener(new MonitorTextChangeListener(result, valueNo));
+		addTextChangeListener(new MonitorTextChangeListener(autoSave, result, valueNo));
 		
 		setBorderColor(Color.GRAY);
 
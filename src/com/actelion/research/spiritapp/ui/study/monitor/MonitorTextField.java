@@ -36,7 +36,7 @@ public class MonitorTextField extends JCustomTextField {
 	private final int outputNo;
 	private boolean required;
 
-	public MonitorTextField(Result result, int outputNo, boolean required) {
+	public MonitorTextField(MonitorAutoSave autoSave, Result result, int outputNo, boolean required) {
 		super();
 		this.ta = result==null || result.getTest()==null || outputNo<0 || outputNo>=result.getTest().getOutputAttributes().size()? null: result.getTest().getOutputAttributes().get(outputNo);
 		this.result = result;
@@ -56,7 +56,7 @@ public class MonitorTextField extends JCustomTextField {
 		setEnabled(hasSample);
 		setWarningWhenEdited(hasSample);
 
-		addTextChangeListener(new MonitorTextChangeListener(result, outputNo));
+		addTextChangeListener(new MonitorTextChangeListener(autoSave, result, outputNo));
 		addFocusListener(new AutoScrollFocusListener());
 
 	}
@@ -124,7 +124,7 @@ public class MonitoringAnimalPanel extends JPanel {
 
 			//Init field
 			boolean required = (a!=null && a.isMeasureWeight()) || (a!=null && a.getNamedTreatment()!=null);
-			weighTextField = new MonitorTextField(weighResult, 0, required);
+			weighTextField = new MonitorTextField(dlg.getAutoSave(), weighResult, 0, required);
 			if(required) requiredComponents.add(weighTextField);
 
 			weighTextField.addActionListener(e-> {
@@ -158,7 +158,7 @@ public class MonitoringAnimalPanel extends JPanel {
 			lastObsLabel.setText( prevObsResult==null?"": (prevObsResult.getInheritedPhase().getShortName()+ ": " + prevObsResult.getFirstValue()));
 
 			//Init field
-			obsTextField = new MonitorTextComboBox(animal.getAuxResult(DAOTest.getTest(DAOTest.OBSERVATION_TESTNAME), phase), 0, false);
+			obsTextField = new MonitorTextComboBox(dlg.getAutoSave(), animal.getAuxResult(DAOTest.getTest(DAOTest.OBSERVATION_TESTNAME), phase), 0, false);
 			obsTextField.setChoices(Arrays.asList(ObservationConstants.ALL_OBSERVATIONS));
 			obsTextField.setColumns(9);
 			measurementComps.add(new JLabel("Observation: "));
@@ -185,7 +185,7 @@ public class MonitoringAnimalPanel extends JPanel {
 					Result prevResult = SpiritRights.isBlind(phase.getStudy(), SpiritFrame.getUser())? null: Result.getPrevious(result, dlg.getAllPreviousResults());
 					lastMeasurementLabel.setText( prevResult==null || prevResult.getResultValue(ta)==null? "": (prevResult.getInheritedPhase().getShortName()+ ": " + prevResult.getResultValue(ta).getValue()));
 
-					MonitorTextField tf = new MonitorTextField(result, i, required);
+					MonitorTextField tf = new MonitorTextField(dlg.getAutoSave(), result, i, required);
 					measurementComps.add(new JLabel(em.getDescription() + (tas.size()>1?"."+tas.get(i).getName():"")));
 					measurementComps.add(UIUtils.createHorizontalBox(tf, lastMeasurementLabel));
 					if(ta.getDataType()==DataType.FORMULA) {
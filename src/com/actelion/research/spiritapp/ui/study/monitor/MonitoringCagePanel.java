@@ -184,7 +184,7 @@ public class MonitoringCagePanel extends JPanel {
 
 					//Update results of current phase (based on previous tare)
 					if(newFoodCons!=null) {
-						DAOResult.attachOrCreateStudyResultsToTops(phase.getStudy(), container.getBiosamples(), newFoodCons.toPhase, dlg.getElb());
+						dlg.getResultIndex().attach(container.getBiosamples(), newFoodCons.toPhase, dlg.getElb());
 						for (Biosample animal : container.getBiosamples()) {
 							Result r = animal.getAuxResult(DAOTest.getTest(DAOTest.FOODWATER_TESTNAME), newFoodCons.toPhase);
 							r.getOutputResultValues().get(0).setValue(newFoodCons.value==null? null: ""+newFoodCons.value);
@@ -194,7 +194,7 @@ public class MonitoringCagePanel extends JPanel {
 						}
 					}
 					if(newWaterCons!=null) {
-						DAOResult.attachOrCreateStudyResultsToTops(phase.getStudy(), container.getBiosamples(), newWaterCons.toPhase, dlg.getElb());
+						dlg.getResultIndex().attach(container.getBiosamples(), newWaterCons.toPhase, dlg.getElb());
 						for (Biosample animal : container.getBiosamples()) {
 							Result r = animal.getAuxResult(DAOTest.getTest(DAOTest.FOODWATER_TESTNAME), newWaterCons.toPhase);
 							r.getOutputResultValues().get(1).setValue(newWaterCons.value==null? null: ""+newWaterCons.value);
@@ -206,7 +206,7 @@ public class MonitoringCagePanel extends JPanel {
 
 					//Update results of next food phase (if needed, ie nextFood<>null)
 					if(newNextFoodCons!=null) {
-						DAOResult.attachOrCreateStudyResultsToTops(phase.getStudy(), container.getBiosamples(), newNextFoodCons.toPhase, dlg.getElb());
+						dlg.getResultIndex().attach(container.getBiosamples(), newNextFoodCons.toPhase, dlg.getElb());
 						for (Biosample animal : container.getBiosamples()) {
 							Result r2 = animal.getAuxResult(DAOTest.getTest(DAOTest.FOODWATER_TESTNAME), newNextFoodCons.toPhase);
 							String valFood = newNextFoodCons.value==null? null: ""+newNextFoodCons.value;
@@ -219,7 +219,7 @@ public class MonitoringCagePanel extends JPanel {
 
 					//Update result of next water phase (if needed, ie nextWater<>null)
 					if(newNextWaterCons!=null) {
-						DAOResult.attachOrCreateStudyResultsToTops(phase.getStudy(), container.getBiosamples(), newNextWaterCons.toPhase, dlg.getElb());
+						dlg.getResultIndex().attach(container.getBiosamples(), newNextWaterCons.toPhase, dlg.getElb());
 						for (Biosample animal : container.getBiosamples()) {
 							Result r2 = animal.getAuxResult(DAOTest.getTest(DAOTest.FOODWATER_TESTNAME), newNextWaterCons.toPhase);
 							String valWater = newNextWaterCons.value==null? null: ""+newNextWaterCons.value;
@@ -70,6 +70,7 @@ import com.actelion.research.spiritcore.services.dao.DAOFoodWater;
 import com.actelion.research.spiritcore.services.dao.DAOResult;
 import com.actelion.research.spiritcore.services.dao.DAOTest;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
+import com.actelion.research.spiritcore.services.dao.StudyResultIndex;
 import com.actelion.research.util.CompareUtils;
 import com.actelion.research.util.ui.JCustomTextField;
 import com.actelion.research.util.ui.JEscapeDialog;
@@ -105,6 +106,8 @@ public class MonitoringDlg extends JEscapeDialog {
 	private JPanel animalPanel = new JPanel(new GridBagLayout());
 	private List<JTextComponent> requiredComponents = new ArrayList<>();
 	private final String elb;
+	private final MonitorAutoSave autoSave = new MonitorAutoSave(this);
+	private StudyResultIndex resultIndex;
 
 	public MonitoringDlg(Phase p) {
 		super(UIUtils.getMainFrame(), "Live Monitoring");
@@ -115,9 +118,10 @@ public class MonitoringDlg extends JEscapeDialog {
 		List<Biosample> animals = study.getParticipantsSorted();
 		this.elb = DAOResult.suggestElb(SpiritFrame.getUsername());
 
-		// Reload results
+		// Reload results (the index is reused by the cages to update the food/water of other phases)
 		try {
-			DAOResult.attachOrCreateStudyResultsToTops(study, animals, phase, elb);
+			resultIndex = StudyResultIndex.createForTops(study);
+			resultIndex.attach(animals, phase, elb);
 		} catch (Exception e) {
 			JExceptionDialog.showError(e);
 			return;
@@ -155,8 +159,7 @@ public class MonitoringDlg extends JEscapeDialog {
 
 		JButton closeButton = new JButton("Close");
 		closeButton.addActionListener(e-> {
-			dispose();
-
+			eventCancel();
 		});
 
 		// ContentPanel
@@ -188,7 +191,7 @@ public class MonitoringDlg extends JEscapeDialog {
 		setContentPane(UIUtils.createBox(
 				splitPane,
 				filterPanel,
-				UIUtils.createHorizontalBox(HelpBinder.createHelpButton(), balanceDecorator.getBalanceCheckBox(), Box.createHorizontalGlue(), closeButton)));
+				UIUtils.createHorizontalBox(HelpBinder.createHelpButton(), balanceDecorator.getBalanceCheckBox(), Box.createHorizontalStrut(10), autoSave.getStatusLabel(), Box.createHorizontalGlue(), closeButton)));
 		UIUtils.adaptSize(this, 1100, 1200);
 		setVisible(true);
 	}
@@ -197,6 +200,22 @@ public class MonitoringDlg extends JEscapeDialog {
 		return elb;
 	}
 
+	/**
+	 * Returns the index of the results of the study, loaded when opening the dialog
+	 */
+	public StudyResultIndex getResultIndex() {
+		return resultIndex;
+	}
+
+	public MonitorAutoSave getAutoSave() {
+		return autoSave;
+	}
+
+	@Override
+	protected boolean canBeClosed() {
+		return autoSave.canBeClosed();
+	}
+
 	private Set<NamedTreatment> getNamedTreatments() {
 		Set<NamedTreatment> res = new LinkedHashSet<>();
 		res.add(TREATMENT_NONE);
@@ -230,6 +249,9 @@ public class MonitoringDlg extends JEscapeDialog {
 	}
 
 	private void updateView() {
+		// Save the pending values before recreating the fields
+		autoSave.flush();
+
 		// Read Filters
 		NamedTreatment filterTreatment = treatmentComboBox.getSelection();
 		Container filterCage = cageComboBox.getSelection();
@@ -53,6 +53,7 @@ import com.actelion.research.spiritapp.ui.study.CreateSamplesHelper;
 import com.actelion.research.spiritapp.ui.study.GroupComboBox;
 import com.actelion.research.spiritapp.ui.study.PhaseComboBox;
 import com.actelion.research.spiritapp.ui.study.PhaseLabel;
+import com.actelion.research.spiritapp.ui.study.monitor.MonitorAutoSave;
 import com.actelion.research.spiritapp.ui.study.monitor.MonitorTextField;
 import com.actelion.research.spiritapp.ui.study.monitor.MonitoringAnimalPanel;
 import com.actelion.research.spiritapp.ui.util.HelpBinder;
@@ -105,6 +106,7 @@ public class SampleWeighingDlg extends JEscapeDialog {
 
 	//	private int push = 0;
 	private final String elb;
+	private final MonitorAutoSave autoSave = new MonitorAutoSave(this);
 
 	public SampleWeighingDlg(Study s) {
 		super(UIUtils.getMainFrame(), "Sample Weighing - " + s.getStudyId());
@@ -189,6 +191,7 @@ public class SampleWeighingDlg extends JEscapeDialog {
 		//buttons
 		JButton batchButton = new JIconButton(IconType.EDIT.getIcon(), "Edit In Batch Mode");
 		batchButton.addActionListener(e-> {
+			if(!autoSave.flush()) return;
 			try {
 				List<Result> results = new ArrayList<>();
 				Phase phase = phaseComboBox.getSelection();
@@ -240,14 +243,14 @@ public class SampleWeighingDlg extends JEscapeDialog {
 
 		JButton okButton = new JButton("Close");
 		okButton.addActionListener(e-> {
-			dispose();
+			eventCancel();
 		});
 
 
 		//contentPane
 		JPanel contentPane = new JPanel(new BorderLayout());
 		contentPane.add(BorderLayout.CENTER, centerPanel);
-		contentPane.add(BorderLayout.SOUTH, UIUtils.createHorizontalBox(HelpBinder.createHelpButton(), balanceDecorator.getBalanceCheckBox(), Box.createHorizontalGlue(), batchButton, okButton));
+		contentPane.add(BorderLayout.SOUTH, UIUtils.createHorizontalBox(HelpBinder.createHelpButton(), balanceDecorator.getBalanceCheckBox(), Box.createHorizontalStrut(10), autoSave.getStatusLabel(), Box.createHorizontalGlue(), batchButton, okButton));
 
 		//init
 		initViewInBackground();
@@ -258,7 +261,15 @@ public class SampleWeighingDlg extends JEscapeDialog {
 		setVisible(true);
 	}
 
+	@Override
+	protected boolean canBeClosed() {
+		return autoSave.canBeClosed();
+	}
+
 	private void initViewInBackground() {
+		//Save the pending values before recreating the fields
+		autoSave.flush();
+
 		final Group group = groupComboBox.getSelection();
 		final Phase phase = phaseComboBox.getSelection();
 		final Container cage = cageComboBox.getSelection();
@@ -384,9 +395,9 @@ public class SampleWeighingDlg extends JEscapeDialog {
 
 					for (Biosample sample : samples) {
 						//Create the fields
-						MonitorTextField weightTF = new MonitorTextField(sample.getAuxResult(weighTest, phase), 0, false);
-						MonitorTextField lengthTF = new MonitorTextField(sample.getAuxResult(lengthTest, phase), 0, false);
-						MonitorTextField commentsTF = new MonitorTextField(sample.getAuxResult(obsTest, phase), 0, false);
+						MonitorTextField weightTF = new MonitorTextField(autoSave, sample.getAuxResult(weighTest, phase), 0, false);
+						MonitorTextField lengthTF = new MonitorTextField(autoSave, sample.getAuxResult(lengthTest, phase), 0, false);
+						MonitorTextField commentsTF = new MonitorTextField(autoSave, sample.getAuxResult(obsTest, phase), 0, false);
 
 
 						//Find required samples
@@ -435,7 +446,7 @@ public class SampleWeighingDlg extends JEscapeDialog {
 								assert result!=null;
 								for (int i = 0; i < tas.size(); i++) {
 									TestAttribute ta = tas.get(i);
-									MonitorTextField tf = new MonitorTextField(result, i, sample.getAttachedSampling().getMeasurements().contains(m));
+									MonitorTextField tf = new MonitorTextField(autoSave, result, i, sample.getAttachedSampling().getMeasurements().contains(m));
 									tf.setVisible(!showOnlyRequired || tf.isRequired());
 									comps.add(tf);
 
@@ -32,7 +32,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -307,11 +306,11 @@ public class SamplingDlg extends JEscapeDialog {
 			if(data.length()>0 && type.isNameAutocomplete()) {
 
 
-				Set<String> possibleValues = new TreeSet<String>(DAOBiotype.getAutoCompletionFieldsForName(type, null));
+				Set<String> possibleValues = DAOBiotype.getAutoCompletionFieldsForName(type, null);
 				if(!possibleValues.contains(data)) {
 					CorrectionMap<Biotype, JTextComponent> correctionMap1 = new CorrectionMap<Biotype, JTextComponent>();
 
-					Correction<Biotype, JTextComponent> correction = correctionMap1.addCorrection(type, data, new ArrayList<String>( possibleValues), false);
+					Correction<Biotype, JTextComponent> correction = correctionMap1.addCorrection(type, data, possibleValues, false);
 					correction.getAffectedData().add(nameTextField);
 
 					CorrectionDlg<Biotype, JTextComponent> dlg = new CorrectionDlg<Biotype, JTextComponent>(this, correctionMap1) {
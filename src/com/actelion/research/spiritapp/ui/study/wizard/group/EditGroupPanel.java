@@ -51,6 +51,7 @@ import com.actelion.research.spiritcore.business.study.Group;
 import com.actelion.research.spiritcore.business.study.Phase;
 import com.actelion.research.spiritcore.business.study.Study;
 import com.actelion.research.spiritcore.business.study.StudyAction;
+import com.actelion.research.spiritcore.services.dao.DAOBiosample;
 import com.actelion.research.util.ui.JCustomTextField;
 import com.actelion.research.util.ui.JCustomTextField.CustomFieldType;
 import com.actelion.research.util.ui.JExceptionDialog;
@@ -277,6 +278,7 @@ public class EditGroupPanel extends JPanel {
 					public void actionPerformed(ActionEvent e) {
 						try {
 							updateModel();
+							DAOBiosample.loadFamilies(study.getParticipants(group));
 							group.removeSubgroup(index);
 							updateSubGroupPanel();
 							dlg.refreshStudy();
@@ -294,6 +296,7 @@ public class EditGroupPanel extends JPanel {
 					public void actionPerformed(ActionEvent e) {
 						try {
 							updateModel();
+							DAOBiosample.loadFamilies(study.getParticipants(group));
 							group.moveUp(index);
 							updateSubGroupPanel();
 							dlg.refreshStudy();
@@ -49,6 +49,7 @@ import com.actelion.research.spiritcore.business.biosample.Biosample.HierarchyMo
 import com.actelion.research.spiritcore.business.study.Group;
 import com.actelion.research.spiritcore.business.study.Study;
 import com.actelion.research.spiritcore.business.study.StudyAction;
+import com.actelion.research.spiritcore.services.dao.DAOBiosample;
 import com.actelion.research.spiritcore.util.MiscUtils;
 import com.actelion.research.util.CompareUtils;
 import com.actelion.research.util.ui.JEscapeDialog;
@@ -278,6 +279,7 @@ public class StudyGroupDlg extends JEscapeDialog {
 					}
 
 					//Move the biosamples
+					DAOBiosample.loadFamilies(study.getParticipants(group));
 					for(Biosample top: study.getParticipants(group)) {
 						for(Biosample b: top.getHierarchy(HierarchyMode.ATTACHED_SAMPLES)) {
 							b.setInheritedGroup(mergeIntoGroup);
@@ -341,6 +343,7 @@ public class StudyGroupDlg extends JEscapeDialog {
 					}
 
 					//Move the biosamples
+					DAOBiosample.loadFamilies(study.getParticipants(group, subgroup));
 					for(Biosample top: study.getParticipants(group, subgroup)) {
 						for(Biosample b: top.getHierarchy(HierarchyMode.ATTACHED_SAMPLES)) {
 							b.setInheritedGroup(g);
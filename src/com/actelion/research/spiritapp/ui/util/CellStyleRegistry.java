@@ -0,0 +1,124 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritapp.ui.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Registry of the cell styles of a workbook, ensuring that equivalent styles are created only once.
+ * Excel limits the number of styles per workbook (64000), and each style is kept in memory until the workbook is written,
+ * so the styles derived from a base style (ex: to add borders) must be shared by all cells instead of being cloned per cell.
+ *
+ * @author Joel Freyss
+ */
+public class CellStyleRegistry {
+
+	public static final short KEEP = -1;
+
+	private final Workbook wb;
+
+	/** Registered styles by attributes */
+	private final Map<String, CellStyle> key2style = new HashMap<>();
+
+	/** Derived styles by [base style index, border top, border bottom] */
+	private final Map<Long, CellStyle> derived = new HashMap<>();
+
+	public CellStyleRegistry(Workbook wb) {
+		this.wb = wb;
+	}
+
+	public Workbook getWorkbook() {
+		return wb;
+	}
+
+	/**
+	 * Registers a style created by the caller.
+	 * @param style
+	 * @return the equivalent style registered before, or the given style
+	 */
+	public CellStyle register(CellStyle style) {
+		String key = getKey(style, KEEP, KEEP);
+		CellStyle res = key2style.get(key);
+		if(res==null) {
+			key2style.put(key, style);
+			res = style;
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the style having the same attributes than base, except for the top and bottom borders
+	 * @param base
+	 * @param borderTop - the border or KEEP
+	 * @param borderBottom - the border or KEEP
+	 * @return
+	 */
+	public CellStyle getWithBorders(CellStyle base, short borderTop, short borderBottom) {
+		long derivedKey = ((long) base.getIndex() << 32) | ((borderTop & 0xFFFFL) << 16) | (borderBottom & 0xFFFFL);
+		CellStyle res = derived.get(derivedKey);
+		if(res==null) {
+			String key = getKey(base, borderTop, borderBottom);
+			res = key2style.get(key);
+			if(res==null) {
+				res = wb.createCellStyle();
+				res.cloneStyleFrom(base);
+				if(borderTop!=KEEP) res.setBorderTop(borderTop);
+				if(borderBottom!=KEEP) res.setBorderBottom(borderBottom);
+				key2style.put(key, res);
+			}
+			derived.put(derivedKey, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the number of distinct styles
+	 */
+	public int size() {
+		return key2style.size();
+	}
+
+	private static String getKey(CellStyle s, short borderTop, short borderBottom) {
+		return s.getFontIndex()
+				+ "|" + s.getAlignment()
+				+ "|" + s.getVerticalAlignment()
+				+ "|" + (borderTop==KEEP? s.getBorderTop(): borderTop)
+				+ "|" + (borderBottom==KEEP? s.getBorderBottom(): borderBottom)
+				+ "|" + s.getBorderLeft()
+				+ "|" + s.getBorderRight()
+				+ "|" + s.getTopBorderColor()
+				+ "|" + s.getBottomBorderColor()
+				+ "|" + s.getLeftBorderColor()
+				+ "|" + s.getRightBorderColor()
+				+ "|" + s.getFillForegroundColor()
+				+ "|" + s.getFillBackgroundColor()
+				+ "|" + s.getFillPattern()
+				+ "|" + s.getDataFormat()
+				+ "|" + s.getWrapText()
+				+ "|" + s.getRotation()
+				+ "|" + s.getIndention();
+	}
+}
@@ -25,18 +25,16 @@ import java.awt.Desktop;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-
-import com.actelion.research.spiritcore.util.ListHashMap;
-import com.actelion.research.spiritcore.util.MiscUtils;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
@@ -136,10 +134,38 @@ public class POIUtils {
 		HEADERS_TOPLEFT
 	}
 	
-	@SuppressWarnings("rawtypes")
+	/**
+	 * Number of rows kept in memory by the streaming workbooks
+	 */
+	public static final int STREAMING_WINDOW = 200;
+
+	/**
+	 * Exports the table to a temporary file and opens it in Excel
+	 * @param table
+	 * @param exportMode
+	 * @throws IOException
+	 */
 	public static void exportToExcel(String[][] table, ExportMode exportMode) throws IOException {
+		File reportFile = File.createTempFile("xls_", ".xlsx");
+		try(OutputStream out = new FileOutputStream(reportFile)) {
+			exportToExcel(table, exportMode, out);
+		}
+		Desktop.getDesktop().open(reportFile);
+	}
+
+	/**
+	 * Exports the table to the given stream.
+	 * The workbook is streamed: only the last rows are kept in memory, so that the memory does not depend on the number of rows
+	 * @param table
+	 * @param exportMode
+	 * @param out
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	public static void exportToExcel(String[][] table, ExportMode exportMode, OutputStream out) throws IOException {
 		Class[] types = getTypes(table);
-		Workbook wb =  new XSSFWorkbook();
+		SXSSFWorkbook wb =  new SXSSFWorkbook(STREAMING_WINDOW);
+		wb.setCompressTempFiles(true);
 		Map<String, CellStyle> styles = new HashMap<String, CellStyle>();
 		CellStyle style;
 		DataFormat df = wb.createDataFormat();
@@ -261,26 +287,33 @@ public class POIUtils {
 		Sheet sheet = wb.createSheet();
 		sheet.setFitToPage(true);
 
-		Cell cell;
+		//The rows cannot be accessed once flushed: compute the height of the rows before
+		int maxRows = 1;
+		if(exportMode==ExportMode.HEADERS_TOPLEFT) {
+			for (int r = 0; r < table.length; r++) {
+				for (int c = 0; c < table[r].length; c++) {
+					if(table[r][c]!=null) maxRows = Math.max(maxRows, table[r][c].split("\n").length);
+				}
+			}
+		}
 
-		int maxRows = 0;
+		ColumnSampler sampler = new ColumnSampler(wb);
+		Cell cell;
 		for (int r = 0; r < table.length; r++) {
-	        Row row = sheet.createRow(r);	        
+	        Row row = sheet.createRow(r);
 	        if(r==0) {
 	        	row.setRowStyle(styles.get("th"));
 	        }
-	        
-	        int rows = 1;
+
 			for (int c = 0; c < table[r].length; c++) {
 				cell = row.createCell(c);
 				String s = table[r][c];
 				if(s==null) continue;
-				rows = Math.max(rows, s.split("\n").length);
 				try {
 					if(exportMode==ExportMode.HEADERS_TOP && r==0) {
 						cell.setCellStyle(styles.get("th"));
 						cell.setCellValue(s);
-						
+
 					} else if(exportMode==ExportMode.HEADERS_TOPLEFT && (r==0 || c==0)) {
 						if(r==0 && c==0) {
 							cell.setCellStyle(styles.get("td"));
@@ -293,7 +326,7 @@ public class POIUtils {
 						cell.setCellType(Cell.CELL_TYPE_NUMERIC);
 						cell.setCellValue(Double.parseDouble(s));
 					} else if(types[c]==String.class) {
-						cell.setCellStyle(styles.get(exportMode==ExportMode.HEADERS_TOPLEFT? "td-border": "td"));						
+						cell.setCellStyle(styles.get(exportMode==ExportMode.HEADERS_TOPLEFT? "td-border": "td"));
 						cell.setCellType(Cell.CELL_TYPE_NUMERIC);
 						cell.setCellValue(s);
 					} else {
@@ -305,30 +338,25 @@ public class POIUtils {
 					cell.setCellValue(s);
 				}
 			}
-			maxRows = Math.max(maxRows, rows);
-	        row.setHeightInPoints(rows*16f);
-	        
+			sampler.add(row, true);
+			if(exportMode==ExportMode.HEADERS_TOPLEFT && r>0) {
+				row.setHeightInPoints(maxRows*16f);
+			}
 		}
-		
-		autoSizeColumns(sheet);
+
+		sampler.apply(sheet, 10000);
 		if(table.length>0) {
 			for (int c = 0; c < table[0].length; c++) {
 				if(sheet.getColumnWidth(c)>10000) sheet.setColumnWidth(c, 3000);
 			}
 		}
-		
-		if(exportMode==ExportMode.HEADERS_TOPLEFT) {
-			for (int r = 1; r < table.length; r++) {
-				sheet.getRow(r).setHeightInPoints(maxRows*16f);
-			}
+
+		try {
+			wb.write(out);
+		} finally {
+			wb.dispose();
+			wb.close();
 		}
-				
-		File reportFile = File.createTempFile("xls_", ".xlsx");
-		FileOutputStream out = new FileOutputStream(reportFile);
-		wb.write(out);
-		wb.close();
-		out.close();
-		Desktop.getDesktop().open(reportFile);
 	}
 
 	public static boolean isDouble(String s) {
@@ -353,42 +381,119 @@ public class POIUtils {
 	public static void autoSizeColumns(Sheet sheet) {
 		autoSizeColumns(sheet, 10000, true);
 	}
+
+	/**
+	 * Sets the width of the columns according to their content, and optionally the height of the rows.
+	 * Only the rows in memory can be measured (all rows for a XSSFSheet, the last rows for a SXSSFSheet, see {@link ColumnSampler})
+	 * @param sheet
+	 * @param maxColWidth
+	 * @param resizeHeight
+	 */
 	public static void autoSizeColumns(Sheet sheet, int maxColWidth, boolean resizeHeight) {
-		ListHashMap<Integer, Integer> col2lens = new ListHashMap<Integer, Integer>();
-		for (int row = sheet.getFirstRowNum(); row < sheet.getLastRowNum(); row++) {
+		ColumnSampler sampler = new ColumnSampler(sheet.getWorkbook());
+		for (int row = sheet.getFirstRowNum(); row <= sheet.getLastRowNum(); row++) {
 			Row r = sheet.getRow(row);
 			if(r==null) continue;
+			sampler.add(r, resizeHeight);
+		}
+		sampler.apply(sheet, maxColWidth);
+	}
+
+	/**
+	 * Measures the rows of a sheet, while they are written, to compute the width of the columns.
+	 * This is needed for the streaming workbooks, where the rows cannot be accessed after being flushed.
+	 * <ul>
+	 * <li>the width of a column is given by its widest cell, except if it is more than twice the second widest (then the second is used)
+	 * <li>all the rows are measured up to FULL_ROWS, then one row out of STRIDE
+	 * <li>only the 2 widest cells of each column are kept, so that the memory does not depend on the number of rows
+	 * </ul>
+	 */
+	public static class ColumnSampler {
+
+		private static final int FULL_ROWS = 2000;
+		private static final int STRIDE = 10;
+
+		private final Workbook wb;
+		private final Map<Short, Font> fonts = new HashMap<>();
+
+		/** [number of measured cells, widest, second widest] per column */
+		private final Map<Integer, int[]> col2stats = new TreeMap<>();
+		private int rows = 0;
+
+		public ColumnSampler(Workbook wb) {
+			this.wb = wb;
+		}
+
+		/**
+		 * Measures the row
+		 * @param r
+		 * @param resizeHeight - if true, the height of the row is set according to the number of lines
+		 */
+		public void add(Row r, boolean resizeHeight) {
+			boolean sample = rows<FULL_ROWS || rows%STRIDE==0;
+			rows++;
+			if(!sample && !resizeHeight) return;
+			if(r.getFirstCellNum()<0) return;
+
 			short maxH = 0;
-			
 			for (int col = r.getFirstCellNum(); col < r.getLastCellNum(); col++) {
 				Cell c = r.getCell(col);
 				if(c==null || (c.getCellType()!=Cell.CELL_TYPE_STRING && c.getCellType()!=Cell.CELL_TYPE_NUMERIC)) continue;
-				
-				Font font = sheet.getWorkbook().getFontAt(c.getCellStyle().getFontIndex());				
+
+				Font font = fonts.get(c.getCellStyle().getFontIndex());
+				if(font==null) {
+					font = wb.getFontAt(c.getCellStyle().getFontIndex());
+					fonts.put(c.getCellStyle().getFontIndex(), font);
+				}
 				String s = c.getCellType()==Cell.CELL_TYPE_STRING? c.getStringCellValue(): ""+c.getNumericCellValue();
-				String[] lines = MiscUtils.split(s, "\n");
+
+				//Count the lines and the longest line
+				int lines = 1;
 				int maxLen = 1;
-				for (int i = 0; i < lines.length; i++) {
-					maxLen = Math.max(lines[i].length(), maxLen);
+				int len = 0;
+				for (int i = 0; i < s.length(); i++) {
+					if(s.charAt(i)=='\n') {
+						lines++;
+						len = 0;
+					} else {
+						maxLen = Math.max(maxLen, ++len);
+					}
 				}
-				if(font.getFontHeightInPoints()<12) {
-					col2lens.add(col, 700 + maxLen*(int)((font.getFontHeightInPoints()+(font.getBoldweight()>500?1:0))*20));
+				if(sample && font.getFontHeightInPoints()<12) {
+					addWidth(col, 700 + maxLen*(int)((font.getFontHeightInPoints()+(font.getBoldweight()>500?1:0))*20));
 				}
-				maxH = (short) Math.max(maxH, 50 + lines.length * (font.getFontHeight()*1.2));
+				maxH = (short) Math.max(maxH, 50 + lines * (font.getFontHeight()*1.2));
 			}
 			if(resizeHeight) r.setHeight(maxH);
 		}
 
-		for (int col: col2lens.keySet()) {
-			List<Integer> lens = col2lens.get(col);
-			Collections.sort(lens);
-			int len = lens.get(lens.size()-1);
-			if(lens.size()>10 && lens.get(lens.size()-1) > 2*lens.get(lens.size()-2)) {
-				len = lens.get(lens.size()-2);
+		private void addWidth(int col, int width) {
+			int[] stats = col2stats.get(col);
+			if(stats==null) col2stats.put(col, stats = new int[3]);
+			stats[0]++;
+			if(width>=stats[1]) {
+				stats[2] = stats[1];
+				stats[1] = width;
+			} else if(width>stats[2]) {
+				stats[2] = width;
+			}
+		}
+
+		/**
+		 * Sets the width of the measured columns
+		 * @param sheet
+		 * @param maxColWidth - the maximum width or <=0 for no limit
+		 */
+		public void apply(Sheet sheet, int maxColWidth) {
+			for (Map.Entry<Integer, int[]> e : col2stats.entrySet()) {
+				int[] stats = e.getValue();
+				int len = stats[1];
+				if(stats[0]>10 && stats[1] > 2*stats[2]) {
+					len = stats[2];
+				}
+				sheet.setColumnWidth(e.getKey(), Math.max(Math.min((int)(len*1.05), maxColWidth>0? maxColWidth: 300000), 1000));
 			}
-			sheet.setColumnWidth(col, Math.max(Math.min((int)(len*1.05), maxColWidth>0? maxColWidth: 300000), 1000));
 		}
-		
 	}
-	
+
 }
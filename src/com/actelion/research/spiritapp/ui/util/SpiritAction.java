@@ -37,6 +37,7 @@ import com.actelion.research.spiritapp.ui.SpiritFrame;
 import com.actelion.research.spiritapp.ui.admin.ChangePasswordDlg;
 import com.actelion.research.spiritapp.ui.admin.config.ConfigDlg;
 import com.actelion.research.spiritapp.ui.admin.database.DatabaseSettingsDlg;
+import com.actelion.research.spiritapp.ui.admin.database.MetricsDlg;
 import com.actelion.research.spiritapp.ui.admin.database.SpiritPropertyDlg;
 import com.actelion.research.spiritapp.ui.biosample.batchaliquot.BatchAliquotDlg;
 import com.actelion.research.spiritapp.ui.biosample.batchassign.BatchAssignDlg;
@@ -250,6 +251,20 @@ public class SpiritAction {
 		}
 	}
 
+	public static class Action_Metrics extends AbstractAction {
+		private static final long serialVersionUID = 1L;
+
+		public Action_Metrics() {
+			super("Metrics");
+			putValue(AbstractAction.SMALL_ICON, IconType.STATS.getIcon());
+			setEnabled(SpiritRights.isSuperAdmin(SpiritFrame.getUser()));
+		}
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			new MetricsDlg();
+		}
+	}
+
 
 	public static class Action_Scan extends AbstractAction {
 		public Action_Scan() {
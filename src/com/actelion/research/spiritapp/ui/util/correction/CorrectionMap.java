@@ -22,9 +22,19 @@
 package com.actelion.research.spiritapp.ui.util.correction;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.util.FuzzyIndex;
+import com.actelion.research.util.PrefixTrie;
+
 /**
  * Example of use:
  * <pre>
@@ -68,8 +78,18 @@ import java.util.TreeMap;
  * @param <DATA>
  */
 public class CorrectionMap<ATTRIBUTE, DATA> extends TreeMap<ATTRIBUTE, List<Correction<ATTRIBUTE, DATA>>> {
-	
-	
+
+	/**
+	 * Minimal score of a suggestion
+	 */
+	public static final float MIN_SCORE = 0.4f;
+
+	private final Map<ATTRIBUTE, FuzzyIndex> indexes = new TreeMap<>();
+	/** Instance and stamp of the vocabulary of each index, see {@link #getIndex(Object, Collection)} */
+	private final Map<ATTRIBUTE, Collection<String>> indexedValues = new TreeMap<>();
+	private final Map<ATTRIBUTE, Integer> indexedStamps = new TreeMap<>();
+	private final Map<ATTRIBUTE, Set<String>> indexedSets = new TreeMap<>();
+
 	public int getItemsWithSuggestions() {
 		int n = 0;
 		for (ATTRIBUTE key : keySet()) {
@@ -93,162 +113,75 @@ public class CorrectionMap<ATTRIBUTE, DATA> extends TreeMap<ATTRIBUTE, List<Corr
 	public Correction<ATTRIBUTE, DATA> addCorrection(ATTRIBUTE att, String value, String suggestedValue, boolean mustBeChanged) {
 		return addCorrection(att, value, Collections.singletonList(suggestedValue), mustBeChanged);
 	}
-	public Correction<ATTRIBUTE, DATA> addCorrection(ATTRIBUTE att, String value, List<String> suggestedValues, boolean mustBeChanged) {
-		String bestValue = null;
-		float bestScore = 0.4f;
-		for (String suggestedValue : suggestedValues) {
-			float score = getScore(value, suggestedValue);
-			if(score>bestScore) {
-				bestValue = suggestedValue;
-				bestScore = score;
-			}
-		}
+
+	/**
+	 * Adds a correction for the given value, suggesting the closest of the possible values.
+	 * The possible values are indexed once per attribute, so that the same vocabulary can be used to check many values
+	 * @param att
+	 * @param value
+	 * @param possibleValues
+	 * @param mustBeChanged
+	 * @return
+	 */
+	public Correction<ATTRIBUTE, DATA> addCorrection(ATTRIBUTE att, String value, Collection<String> possibleValues, boolean mustBeChanged) {
 		Correction<ATTRIBUTE, DATA> correction = getCorrection(att, value);
-		if(correction==null) {			
+		if(correction==null) {
+			FuzzyIndex index = getIndex(att, possibleValues);
+			String bestValue = index.getBestMatch(value, MIN_SCORE);
+
 			List<Correction<ATTRIBUTE, DATA>> list = get(att);
 			if(list==null) {
 				list = new ArrayList<Correction<ATTRIBUTE, DATA>>();
 				put(att, list);
 			}
 
-			correction = new Correction<ATTRIBUTE, DATA>(att, value, suggestedValues, bestValue, bestValue!=null? bestScore: 0, mustBeChanged);
+			correction = new Correction<ATTRIBUTE, DATA>(att, value, index.getValues(), bestValue, bestValue!=null? getScore(value, bestValue): 0, mustBeChanged);
 			list.add(correction);
-			
-			
 		}
 		return correction;
 	}
-	
-	public static float getScore(String string1, String string2) {
-		string1 = string1.replaceFirst("\\s|\\.|\\-", "");
-		string2 = string2.replaceFirst("\\s|\\.|\\-", "");
-		
-		if(string1.length()==0 || string2.length()==0) return 0f;
-		float score = 0;
 
-		int m = getModifiedLevenshteinDistance(string1, string2);
-		score = Math.max(0, 1 - (m / (10f*Math.max(string1.length(), string2.length()))));
-		
-		System.out.println("Score>>> "+ string1+"-"+string2+" > "+m+" > "+score);
-		return score;
-	}
-	
-	
-	
 	/**
-	   * <p>Find the Levenshtein distance between two Strings.</p>
-	   *
-	   * <p>This is the number of changes needed to change one String into
-	   * another, where each change is a single character modification (deletion,
-	   * insertion or substitution).</p>
-	   *
-	   * <p>The previous implementation of the Levenshtein distance algorithm
-	   * was from <a href="http://www.merriampark.com/ld.htm">http://www.merriampark.com/ld.htm</a></p>
-	   *
-	   * <p>Chas Emerick has written an implementation in Java, which avoids an OutOfMemoryError
-	   * which can occur when my Java implementation is used with very large strings.<br>
-	   * This implementation of the Levenshtein distance algorithm
-	   * is from <a href="http://www.merriampark.com/ldjava.htm">http://www.merriampark.com/ldjava.htm</a></p>
-	   *
-	   * <pre>
-	   * StringUtils.getLevenshteinDistance(null, *)             = IllegalArgumentException
-	   * StringUtils.getLevenshteinDistance(*, null)             = IllegalArgumentException
-	   * StringUtils.getLevenshteinDistance("","")               = 0
-	   * StringUtils.getLevenshteinDistance("","a")              = 1
-	   * StringUtils.getLevenshteinDistance("aaapppp", "")       = 7
-	   * StringUtils.getLevenshteinDistance("frog", "fog")       = 1
-	   * StringUtils.getLevenshteinDistance("fly", "ant")        = 3
-	   * StringUtils.getLevenshteinDistance("elephant", "hippo") = 7
-	   * StringUtils.getLevenshteinDistance("hippo", "elephant") = 7
-	   * StringUtils.getLevenshteinDistance("hippo", "zzzzzzzz") = 8
-	   * StringUtils.getLevenshteinDistance("hello", "hallo")    = 1
-	   * </pre>
-	   *
-	   * @param s  the first String, must not be null
-	   * @param t  the second String, must not be null
-	   * @return result distance
-	   * @throws IllegalArgumentException if either String input <code>null</code>
-	   */
-	  public static int getModifiedLevenshteinDistance(String s, String t) {
-	      if (s == null || t == null) {
-	          throw new IllegalArgumentException("Strings must not be null");
-	      }
-
-	      /*
-	         The difference between this impl. and the previous is that, rather 
-	         than creating and retaining a matrix of size s.length()+1 by t.length()+1, 
-	         we maintain two single-dimensional arrays of length s.length()+1.  The first, d,
-	         is the 'current working' distance array that maintains the newest distance cost
-	         counts as we iterate through the characters of String s.  Each time we increment
-	         the index of String t we are comparing, d is copied to p, the second int[].  Doing so
-	         allows us to retain the previous cost counts as required by the algorithm (taking 
-	         the minimum of the cost count to the left, up one, and diagonally up and to the left
-	         of the current cost count being calculated).  (Note that the arrays aren't really 
-	         copied anymore, just switched...this is clearly much better than cloning an array 
-	         or doing a System.arraycopy() each time  through the outer loop.)
-
-	         Effectively, the difference between the two implementations is this one does not 
-	         cause an out of memory condition when calculating the LD over two very large strings.
-	       */
-
-	      int n = s.length(); // length of s
-	      int m = t.length(); // length of t
-
-	      if (n == 0) {
-	          return m;
-	      } else if (m == 0) {
-	          return n;
-	      }
-
-	      if (n > m) {
-	          // swap the input strings to consume less memory
-	          String tmp = s;
-	          s = t;
-	          t = tmp;
-	          n = m;
-	          m = t.length();
-	      }
-
-	      int p[] = new int[n+1]; //'previous' cost array, horizontally
-	      int d[] = new int[n+1]; // cost array, horizontally
-	      int _d[]; //placeholder to assist in swapping p and d
-
-	      // indexes into strings s and t
-	      int i; // iterates through s
-	      int j; // iterates through t
-
-	      char t_j; // jth character of t
-
-	      int cost; // cost
-
-	      for (i = 0; i<=n; i++) {
-	    	  p[i] = i*10;
-	      }
-	      for (j = 1; j<=m; j++) {
-	          t_j = t.charAt(j-1);
-	          d[0] = j*10;
-
-	          for (i=1; i<=n; i++) {
-	              cost = s.charAt(i-1)==t_j ? 0 : 
-	            	  Character.toUpperCase(s.charAt(i-1))==Character.toUpperCase(t_j)? 1 :
-	            		  10;
-	              // minimum of cell to the left+1, to the top+1, diagonally left and up +cost
-	              d[i] = Math.min(Math.min(d[i-1]+10, p[i]+10),  p[i-1]+cost);
-	          }
+	 * Gets the index of the possible values of the attribute, or builds it if the vocabulary has changed.
+	 * The vocabulary is the same if the same instance is given with the same stamp (the version of a PrefixTrie or the size of other collections).
+	 * Otherwise, the content is compared, as some callers pass a new collection for each value
+	 */
+	private FuzzyIndex getIndex(ATTRIBUTE att, Collection<String> possibleValues) {
+		FuzzyIndex index = indexes.get(att);
+		int stamp = getStamp(possibleValues);
+		if(index!=null && indexedValues.get(att)==possibleValues && Integer.valueOf(stamp).equals(indexedStamps.get(att))) return index;
+
+		if(index==null || !indexedSets.get(att).equals(possibleValues instanceof Set? possibleValues: new HashSet<>(possibleValues))) {
+			long s = System.currentTimeMillis();
+			index = new FuzzyIndex(possibleValues);
+			indexes.put(att, index);
+			indexedSets.put(att, new HashSet<>(possibleValues));
+			LoggerFactory.getLogger(CorrectionMap.class).debug("FuzzyIndex for " + att + ": n=" + index.size() + " in " + (System.currentTimeMillis()-s) + "ms");
+		}
+		indexedValues.put(att, possibleValues);
+		indexedStamps.put(att, stamp);
+		return index;
+	}
 
-	          // copy current distance counts to 'previous row' distance counts
-	          _d = p;
-	          p = d;
-	          d = _d;
-	      }
+	private static int getStamp(Collection<String> values) {
+		return values instanceof PrefixTrie? ((PrefixTrie) values).getVersion(): values.size();
+	}
 
-	      // our last action in the above loop was to switch d and p, so p now 
-	      // actually has the most recent cost counts
-	      return p[n];
-	  }
+	public static float getScore(String string1, String string2) {
+		return FuzzyIndex.getScore(string1, string2);
+	}
 
+	/**
+	 * Levenshtein distance, where a change of case costs 1 and other changes cost 10
+	 * @see FuzzyIndex#getModifiedLevenshteinDistance(String, String, int)
+	 */
+	public static int getModifiedLevenshteinDistance(String s, String t) {
+		if (s == null || t == null) {
+			throw new IllegalArgumentException("Strings must not be null");
+		}
+		return FuzzyIndex.getModifiedLevenshteinDistance(s, t, Integer.MAX_VALUE);
+	}
 
-	  
 	  public static int countOk = 0;
 	  public static int countNOk = 0;
 	  public static void test(String v1, String v2, String res) {
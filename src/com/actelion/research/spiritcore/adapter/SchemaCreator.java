@@ -42,6 +42,7 @@ import com.actelion.research.spiritcore.services.SpiritUser;
 import com.actelion.research.spiritcore.services.dao.DAOEmployee;
 import com.actelion.research.spiritcore.services.dao.DAOExchange;
 import com.actelion.research.spiritcore.services.dao.DAOStudy;
+import com.actelion.research.spiritcore.services.dao.DAOStudyStatistic;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.spiritcore.services.dao.SpiritProperties;
 import com.actelion.research.spiritcore.services.exchange.ExchangeMapping;
@@ -85,6 +86,9 @@ public class SchemaCreator {
 				DAOEmployee.persistEmployees(Collections.singleton(employee), admin);
 			}
 
+			//Build the (empty) statistics, so that they are maintained from now
+			DAOStudyStatistic.rebuild(admin);
+
 			//The version is now the latest: update the version
 			String version = MigrationScript.getExpectedDBVersion();
 			SpiritProperties.getInstance().setDBVersion(version);
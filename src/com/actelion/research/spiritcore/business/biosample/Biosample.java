@@ -95,6 +95,7 @@ import com.actelion.research.spiritcore.business.study.StudyAction;
 import com.actelion.research.spiritcore.services.SpiritRights;
 import com.actelion.research.spiritcore.services.SpiritUser;
 import com.actelion.research.spiritcore.util.DifferenceMap;
+import com.actelion.research.spiritcore.util.IntegerMapCodec;
 import com.actelion.research.spiritcore.util.MiscUtils;
 import com.actelion.research.spiritcore.util.Pair;
 import com.actelion.research.spiritcore.util.SetHashMap;
@@ -350,6 +351,9 @@ public class Biosample implements Comparable<Biosample>, Cloneable, IObject, IAu
 
 	private transient Map<BiotypeMetadata, String> metadataValues = null;
 
+	/**Lazy view of serializedMetadata, used to read single values without decoding the whole map */
+	private transient IntegerMapCodec.Index metadataIndex = null;
+
 	/**Auxiliary infos that can be used for internal code
 	 * This field is transient, meaning that the developer is responsible for the storage
 	 * The values can be null
@@ -647,7 +651,14 @@ public class Biosample implements Comparable<Biosample>, Cloneable, IObject, IAu
 	public String getMetadataValue(BiotypeMetadata bType) {
 		assert bType!=null;
 		if(getBiotype()==null) return null;
-		return getMetadataValues().get(bType);
+		if(metadataValues!=null || bType.getId()<=0 || !getBiotype().equals(bType.getBiotype())) return getMetadataValues().get(bType);
+
+		//Decode only the requested value
+		if(serializedMetadata==null) return null;
+		if(metadataIndex==null || !metadataIndex.isIndexOf(serializedMetadata, serializedMetadata2)) {
+			metadataIndex = new IntegerMapCodec.Index(serializedMetadata, serializedMetadata2);
+		}
+		return metadataIndex.get(bType.getId());
 	}
 
 	public Document getMetadataDocument(String bType) {
@@ -2533,10 +2544,13 @@ public class Biosample implements Comparable<Biosample>, Cloneable, IObject, IAu
 	protected void postLoad() {
 		this.metadataValues = new LinkedHashMap<>();
 		if(getBiotype()==null || this.serializedMetadata==null) return;
-		Map<Integer, String> res = MiscUtils.deserializeIntegerMap(this.serializedMetadata + (this.serializedMetadata2==null?"":this.serializedMetadata2));
+		if(metadataIndex==null || !metadataIndex.isIndexOf(serializedMetadata, serializedMetadata2)) {
+			metadataIndex = new IntegerMapCodec.Index(serializedMetadata, serializedMetadata2);
+		}
 		for (BiotypeMetadata mt : getBiotype().getMetadata()) {
-			this.metadataValues.put(mt, res.get(mt.getId()));
+			this.metadataValues.put(mt, metadataIndex.get(mt.getId()));
 		}
+		metadataIndex = null;
 	}
 
 	/**
@@ -2551,15 +2565,16 @@ public class Biosample implements Comparable<Biosample>, Cloneable, IObject, IAu
 				res.put(bm.getId(), val);
 			}
 
-			String serialized = MiscUtils.serializeIntegerMap(res);
-			if(serialized.length()>7900) throw new Exception("The metadata for "+this+" are too large: "+serialized.length()+" (max:7900)");
-			if(serialized.length()>3950) {
-				this.serializedMetadata = serialized.substring(0, 3950);
-				this.serializedMetadata2 = serialized.substring(3950);
-			} else {
-				this.serializedMetadata = serialized;
-				this.serializedMetadata2 = "";
+			//Split in 2 columns of 3950 bytes max (the columns may be limited in bytes, ex: Oracle VARCHAR2)
+			String[] split;
+			try {
+				split = IntegerMapCodec.split(IntegerMapCodec.encode(res), 3950, 2);
+			} catch(Exception e) {
+				throw new Exception("The metadata for "+this+" are too large: "+e.getMessage());
 			}
+			this.serializedMetadata = split[0];
+			this.serializedMetadata2 = split[1];
+			this.metadataIndex = null;
 		}
 	}
 
@@ -23,6 +23,7 @@ package com.actelion.research.spiritcore.business.location;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -45,9 +46,11 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import javax.persistence.Persistence;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
@@ -59,6 +62,7 @@ import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 import org.hibernate.annotations.SortNatural;
 import org.hibernate.envers.Audited;
+import org.hibernate.envers.NotAudited;
 import org.hibernate.envers.RelationTargetAuditMode;
 
 import com.actelion.research.spiritcore.business.IAuditable;
@@ -68,6 +72,7 @@ import com.actelion.research.spiritcore.business.biosample.Container;
 import com.actelion.research.spiritcore.business.employee.EmployeeGroup;
 import com.actelion.research.spiritcore.business.location.LocationType.LocationCategory;
 import com.actelion.research.spiritcore.services.dao.DAOLocation;
+import com.actelion.research.spiritcore.services.dao.DAOLocationOccupancy;
 import com.actelion.research.spiritcore.util.DifferenceMap;
 import com.actelion.research.spiritcore.util.MiscUtils;
 import com.actelion.research.util.CompareUtils;
@@ -79,7 +84,7 @@ import com.actelion.research.util.CompareUtils;
 @Entity
 @BatchSize(size=64)
 @Audited
-@Table(name="biolocation", uniqueConstraints= {@UniqueConstraint(columnNames= {"name", "parent_id"})})
+@Table(name="biolocation", uniqueConstraints= {@UniqueConstraint(columnNames= {"name", "parent_id"})}, indexes = {@Index(name="biolocation_idpath_index", columnList = "id_path")})
 @SequenceGenerator(name="biolocation_sequence", sequenceName="biolocation_sequence", allocationSize=1)
 public class Location implements Serializable, Comparable<Location>, Cloneable, IObject, IAuditable {
 
@@ -155,9 +160,22 @@ public class Location implements Serializable, Comparable<Location>, Cloneable,
 	@Temporal(TemporalType.TIMESTAMP)
 	private Date creDate;
 
+	/**
+	 * Materialized path of ids (ex: /1/12/34/), used to query the subtree of a location with a single prefix query.
+	 * Maintained by DAOLocation
+	 */
+	@NotAudited
+	@Column(name="id_path", length=256)
+	private String idPath;
 
 	private transient boolean wasUpdated = false;
 
+	/** Cached full hierarchy, valid as long as the name, the parent and the parent's hierarchy are unchanged */
+	private transient String cachedHierarchy;
+	private transient String cachedName;
+	private transient Location cachedParent;
+	private transient String cachedParentHierarchy;
+
 	public Location() {}
 
 	public Location(Location parent, String name) {
@@ -186,16 +204,34 @@ public class Location implements Serializable, Comparable<Location>, Cloneable,
 	public String getName() {
 		return name==null?"":name;
 	}
+
+	/**
+	 * Gets the full hierarchy (ex: Building/Freezer/Rack) with a max of 10 locations.
+	 * The hierarchy is cached per location, so that sorting does not need to rebuild the strings
+	 * @return
+	 */
 	public String getHierarchyFull() {
-		StringBuilder res = new StringBuilder();
-		Location loc = this;
-		int depth = 0;
-		while(loc!=null) {
-			res.insert(0, loc.getName() + (depth>0? Location.SEPARATOR:""));
-			loc = loc.getParent();
-			if(++depth>=10) break;
+		Location[] hierarchy = new Location[10];
+		int n = 0;
+		for(Location loc = this; loc!=null && n<hierarchy.length; loc = loc.getParent()) {
+			hierarchy[n++] = loc;
 		}
-		return res.toString();
+		String res = null;
+		for (int i = n-1; i >= 0; i--) {
+			res = hierarchy[i].getHierarchyFull(i==n-1? null: hierarchy[i+1], res);
+		}
+		return res;
+	}
+
+	private String getHierarchyFull(Location parent, String parentHierarchy) {
+		String name = getName();
+		if(cachedHierarchy==null || cachedParent!=parent || cachedParentHierarchy!=parentHierarchy || !name.equals(cachedName)) {
+			cachedHierarchy = parentHierarchy==null? name: parentHierarchy + Location.SEPARATOR + name;
+			cachedName = name;
+			cachedParent = parent;
+			cachedParentHierarchy = parentHierarchy;
+		}
+		return cachedHierarchy;
 	}
 
 	public String getHierarchyMedium() {
@@ -529,6 +565,14 @@ public class Location implements Serializable, Comparable<Location>, Cloneable,
 		this.creDate = creDate;
 	}
 
+	public String getIdPath() {
+		return idPath;
+	}
+
+	public void setIdPath(String idPath) {
+		this.idPath = idPath;
+	}
+
 	public String formatPosition(int pos) {
 		return getLabeling().formatPosition(this, pos);
 	}
@@ -547,11 +591,31 @@ public class Location implements Serializable, Comparable<Location>, Cloneable,
 
 
 
+	/**
+	 * Gets the number of biosamples in this location.
+	 * If the biosamples were not loaded, the materialized counter is used, so that the biosamples are not loaded
+	 * @return
+	 */
 	public int getOccupancy() {
-		return getBiosamples().size();
+		if(getId()<=0 || Persistence.getPersistenceUtil().isLoaded(this, "biosamples")) return getBiosamples().size();
+		return DAOLocationOccupancy.getOccupancy(this);
 	}
 
 
+	/**
+	 * Gets the bitmap of the occupied positions in this location.
+	 * If the biosamples were not loaded, the positions are queried from the DB, so that the biosamples are not loaded
+	 * @return
+	 */
+	public BitSet getOccupiedPositions() {
+		if(getId()>0 && !Persistence.getPersistenceUtil().isLoaded(this, "biosamples")) return DAOLocationOccupancy.getOccupiedPositions(this);
+		BitSet res = new BitSet(Math.max(0, getSize()));
+		for (Biosample b : getBiosamples()) {
+			if(b.getPos()>=0) res.set(b.getPos());
+		}
+		return res;
+	}
+
 	/**
 	 * To propagate the persist/merge location when a biosample is saved, one must set this flag, otherwise there will be no update
 	 * @param wasUpdated
@@ -0,0 +1,86 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.business.location;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Materialized count of biosamples per location, so that the occupancy of a location can be displayed without loading its biosamples.
+ *
+ * The counters are maintained by DAOLocationOccupancy, when biosamples are saved or deleted.
+ *
+ * @author Joel Freyss
+ */
+@Entity
+@Table(name="location_occupancy")
+public class LocationOccupancy implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@Column(name="location_id", nullable=false)
+	private int locationId;
+
+	@Column(name="counter", nullable=false)
+	private int counter;
+
+	public LocationOccupancy() {}
+
+	public LocationOccupancy(int locationId, int counter) {
+		this.locationId = locationId;
+		this.counter = counter;
+	}
+
+	public int getLocationId() {
+		return locationId;
+	}
+
+	public int getCounter() {
+		return counter;
+	}
+
+	public void setCounter(int counter) {
+		this.counter = counter;
+	}
+
+	@Override
+	public int hashCode() {
+		return locationId;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(obj==this) return true;
+		if(!(obj instanceof LocationOccupancy)) return false;
+		return locationId==((LocationOccupancy) obj).locationId;
+	}
+
+	@Override
+	public String toString() {
+		return "[LocationOccupancy:" + locationId + "=" + counter + "]";
+	}
+}
@@ -307,7 +307,7 @@ public class PivotCell implements Comparable<PivotCell> {
 			
 			for (int i = 0; i < values.size(); i++) {
 				ResultValue v = values.get(i);
-				PivotCellKey key = getCellKey(table.getTemplate(), v);
+				PivotCellKey key = v.getResult()==null? new PivotCellKey(null, ""): table.getCellKey(v);
 				PivotCell values = nestedMap.get(key);
 				if(values==null) {
 					nestedMap.put(key, values = new PivotCell(table));
@@ -320,34 +320,6 @@ public class PivotCell implements Comparable<PivotCell> {
 		}
 	}	
 
-	private static PivotCellKey getCellKey(PivotTemplate template, ResultValue rv) {
-		Result r = rv.getResult();
-		if(r==null) return new PivotCellKey(null, "");		
-		
-		Phase phase = null;
-		StringBuilder sb = new StringBuilder();
-		for (PivotItem item : template.getPivotItems(Where.ASCELL)) {
-			if(phase==null && item.getClassifier()==PivotItemClassifier.STUDY_PHASE) {
-				phase = rv.getResult().getInheritedPhase(); 
-			}
-						
-			//Append the item's title
-			String title = item.getTitle(rv);			
-			if(title!=null) {
-				if(title.length()>=3 && title.charAt(0)=='<' && title.charAt(2)=='>') {
-					title = title.substring(3);
-				}
-				if(title!=null && title.length()>0) {
-					if(sb.length()>0) sb.append("; ");
-					sb.append(title);
-				}
-			}
-		}
-		
-				
-		return new PivotCellKey(phase, sb.toString());			 
-	}
-	
 	@Override
 	public String toString() {
 		calculateStats();
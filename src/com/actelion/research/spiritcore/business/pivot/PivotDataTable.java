@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,6 +37,7 @@ import com.actelion.research.spiritcore.business.result.ResultValue;
 import com.actelion.research.spiritcore.business.result.Test;
 import com.actelion.research.spiritcore.business.result.TestAttribute;
 import com.actelion.research.spiritcore.business.result.TestAttribute.OutputType;
+import com.actelion.research.spiritcore.business.study.Phase;
 import com.actelion.research.spiritcore.util.MiscUtils;
 
 /**
@@ -59,6 +61,12 @@ public class PivotDataTable {
 	private List<PivotColumn> pivotColumns = new ArrayList<>();
 	private List<Result> results;
 
+	/**Titles of the pivot items, computed once per distinct source*/
+	private final PivotTitleCache titleCache = new PivotTitleCache();
+	/**Canonical cell keys, by titles of the ASCELL items and phase*/
+	private final Map<PivotKey, PivotCellKey> key2cellKey = new HashMap<>();
+	private PivotKey cellProbe;
+
 	/**
 	 * Creates and populate a PivotTable from the given results and using the given template
 	 * @param results
@@ -100,8 +108,10 @@ public class PivotDataTable {
 		}
 
 
-		Map<String, PivotRow> key2pivotRow = new HashMap<>();
-		Map<String, PivotColumn> key2pivotColumn = new HashMap<>();
+		Map<PivotKey, PivotRow> key2pivotRow = new LinkedHashMap<>();
+		Map<PivotKey, PivotColumn> key2pivotColumn = new LinkedHashMap<>();
+		PivotKey rowProbe = template.createKey(Where.ASROW);
+		PivotKey colProbe = template.createKey(Where.ASCOL);
 		Set<Test> skippableTests = new HashSet<>();
 		Set<Biosample> skippableSamples = new HashSet<>();
 		Set<String> skippable = new HashSet<>();
@@ -158,22 +168,23 @@ public class PivotDataTable {
 					skippable.add(test.getId()+"_"+r.getBiosample().getId());
 
 					//Create the row if needed
-					String rowKey = template.getRowKey(rv);
-					PivotRow row = key2pivotRow.get(rowKey);
+					//(the keys are only formatted for new rows)
+					template.fillKey(Where.ASROW, rv, titleCache, rowProbe);
+					PivotRow row = key2pivotRow.get(rowProbe);
 					if(row==null) {
-						row = new PivotRow(this, rv, rowKey);
-						key2pivotRow.put(rowKey, row);
+						row = new PivotRow(this, rv, template.formatKey(Where.ASROW, rowProbe));
+						key2pivotRow.put(rowProbe.copy(), row);
 					}
 
 					//Create the column if needed
-					String colKey = template.getColKey(rv);
-					PivotColumn column = key2pivotColumn.get(colKey);
+					template.fillKey(Where.ASCOL, rv, titleCache, colProbe);
+					PivotColumn column = key2pivotColumn.get(colProbe);
 					if(column==null) {
 						column = new PivotColumn(this,
 								hasPhaseInColumn? r.getInheritedPhase(): null,
 										hasAttributeInColumn? att: null,
-												colKey);
-						key2pivotColumn.put(colKey, column);
+												template.formatKey(Where.ASCOL, colProbe));
+						key2pivotColumn.put(colProbe.copy(), column);
 					}
 
 					//Add the value at the cell defined by the pivotrow and pivot column
@@ -210,6 +221,50 @@ public class PivotDataTable {
 		return template;
 	}
 
+	public PivotTitleCache getTitleCache() {
+		return titleCache;
+	}
+
+	/**
+	 * Returns the key of the nested cell of the given value, as defined by the ASCELL items of the template.
+	 * The keys are created once per distinct titles and phase
+	 * @param rv
+	 * @return
+	 */
+	synchronized PivotCellKey getCellKey(ResultValue rv) {
+		List<PivotItem> items = template.getPivotItems(Where.ASCELL);
+		if(cellProbe==null || cellProbe.size()!=items.size()+1) cellProbe = new PivotKey(items.size()+1);
+
+		Phase phase = null;
+		for (int i = 0; i < items.size(); i++) {
+			PivotItem item = items.get(i);
+			if(phase==null && item.getClassifier()==PivotItemClassifier.STUDY_PHASE) {
+				phase = rv.getResult().getInheritedPhase();
+			}
+			cellProbe.set(i, titleCache.getTitle(item, rv));
+		}
+		cellProbe.set(items.size(), phase);
+
+		PivotCellKey key = key2cellKey.get(cellProbe);
+		if(key==null) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < items.size(); i++) {
+				String title = (String) cellProbe.get(i);
+				if(title==null) continue;
+				if(title.length()>=3 && title.charAt(0)=='<' && title.charAt(2)=='>') {
+					title = title.substring(3);
+				}
+				if(title.length()>0) {
+					if(sb.length()>0) sb.append("; ");
+					sb.append(title);
+				}
+			}
+			key = new PivotCellKey(phase, sb.toString());
+			key2cellKey.put(cellProbe.copy(), key);
+		}
+		return key;
+	}
+
 	//	public Set<TestAttribute> getSkippedAttributes() {
 	//		return skippedAttributes;
 	//	}
@@ -93,6 +93,16 @@ public abstract class PivotItem implements Comparable<PivotItem>, Serializable {
 	
 	
 	public abstract String getTitle(ResultValue rv);
+
+	/**
+	 * Returns the object from which the title is derived (entity or immutable value), so that the title is computed once per distinct source (see PivotTitleCache).
+	 * The title must only depend on the returned object. Returns null if the title cannot be cached (default)
+	 * @param rv
+	 * @return
+	 */
+	public Object getTitleSource(ResultValue rv) {
+		return null;
+	}
 	
 	public String getTitleCleaned(ResultValue rv) {
 		String s = getTitle(rv);
@@ -138,6 +148,7 @@ public abstract class PivotItem implements Comparable<PivotItem>, Serializable {
 	 */
 	public boolean isDiscriminating(List<Result> results) {
 		if(results==null || results.isEmpty()) return false;
+		PivotTitleCache cache = new PivotTitleCache();
 		boolean isAlwaysShown = 
 				this==PivotItemFactory.RESULT_INPUT
 				|| this==PivotItemFactory.STUDY_GROUP		
@@ -149,7 +160,7 @@ public abstract class PivotItem implements Comparable<PivotItem>, Serializable {
 			for (Result result : results) {
 				for (ResultValue rv : result.getResultValues()) {
 					if(rv.getAttribute().getOutputType()!=OutputType.OUTPUT) continue;
-					String value = getTitle(rv);
+					String value = cache.getTitle(this, rv);
 					if(value!=null && value.length()>0) {
 						return true;
 					}
@@ -162,7 +173,7 @@ public abstract class PivotItem implements Comparable<PivotItem>, Serializable {
 			for (Result result : results) {
 				for(ResultValue rv: result.getResultValues()) {
 					if(rv.getAttribute().getOutputType()!=OutputType.OUTPUT) continue;
-					String value = getTitle(rv);
+					String value = cache.getTitle(this, rv);
 					if(first) {
 						first = false;
 						seenValue = value;
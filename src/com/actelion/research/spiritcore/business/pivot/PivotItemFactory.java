@@ -51,7 +51,21 @@ import com.actelion.research.util.FormatterUtils;
 
 public class PivotItemFactory {
 
+	/**
+	 * Returns the group of the result's biosample (source of the group titles), or null if the biosample is not in a study
+	 */
+	private static Group getGroupSource(ResultValue rv) {
+		Biosample b = rv.getResult().getBiosample();
+		if(b==null || b.getInheritedStudy()==null) return null;
+		return b.getInheritedGroup();
+	}
+
 	public static final PivotItem STUDY_STUDYID = new PivotItem(PivotItemClassifier.STUDY_GROUP, "StudyId") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			Biosample b = rv.getResult().getBiosample();
+			return b==null? null: b.getInheritedStudy();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -65,6 +79,10 @@ public class PivotItemFactory {
 
 
 	public static final PivotItem STUDY_GROUP = new PivotItem(PivotItemClassifier.STUDY_GROUP, "GroupName") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return getGroupSource(rv);
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -81,6 +99,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem STUDY_GROUP1 = new PivotItem(PivotItemClassifier.STUDY_GROUP, "Group1") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return getGroupSource(rv);
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -99,6 +121,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem STUDY_GROUP2 = new PivotItem(PivotItemClassifier.STUDY_GROUP, "GroupA") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return getGroupSource(rv);
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -133,6 +159,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem STUDY_TREATMENT = new PivotItem(PivotItemClassifier.STUDY_GROUP, "Treatment") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return getGroupSource(rv);
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -173,6 +203,10 @@ public class PivotItemFactory {
 		}
 	};
 	public static final PivotItem RESULT_TEST = new PivotItem(PivotItemClassifier.RESULT, "TestName") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getTest();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -183,6 +217,11 @@ public class PivotItemFactory {
 
 
 	public static final PivotItem BIOSAMPLE_CONTAINERTYPE = new PivotItem(PivotItemClassifier.LOCATION, "ContainerType") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			Biosample b = rv.getResult().getBiosample();
+			return b==null? null: b.getContainerType();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -194,6 +233,11 @@ public class PivotItemFactory {
 		}
 	};
 	public static final PivotItem BIOSAMPLE_CONTAINERID = new PivotItem(PivotItemClassifier.LOCATION, "ContainerId") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			Biosample b = rv.getResult().getBiosample();
+			return b==null? null: b.getContainerId();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -205,6 +249,11 @@ public class PivotItemFactory {
 		}
 	};
 	public static final PivotItem BIOSAMPLE_FULLLOCATION = new PivotItem(PivotItemClassifier.LOCATION, "FullLocation") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			Biosample b = rv.getResult().getBiosample();
+			return b==null? null: b.getLocation();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -216,6 +265,11 @@ public class PivotItemFactory {
 		}
 	};
 	public static final PivotItem BIOSAMPLE_PARENTLOCATION = new PivotItem(PivotItemClassifier.LOCATION, "ParentLocation") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			Biosample b = rv.getResult().getBiosample();
+			return b==null || b.getLocation()==null? null: b.getLocation().getParent();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -227,6 +281,11 @@ public class PivotItemFactory {
 		}
 	};
 	public static final PivotItem BIOSAMPLE_LOCATION = new PivotItem(PivotItemClassifier.LOCATION, "Location") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			Biosample b = rv.getResult().getBiosample();
+			return b==null? null: b.getLocation();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -238,6 +297,10 @@ public class PivotItemFactory {
 		}
 	};
 	public static final PivotItem BIOSAMPLE_POS = new PivotItem(PivotItemClassifier.LOCATION, "Pos") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getBiosample();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -251,6 +314,11 @@ public class PivotItemFactory {
 
 
 	public static final PivotItem BIOSAMPLE_TOPID = new PivotItem(PivotItemClassifier.PARTICIPANT, "ParticipantId") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			Biosample b = rv.getResult().getBiosample();
+			return b==null? null: b.getTopParent();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -261,6 +329,10 @@ public class PivotItemFactory {
 		}
 	};
 	public static final PivotItem BIOSAMPLE_TOPNAME = new PivotItem(PivotItemClassifier.PARTICIPANT, "ParticipantName") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getBiosample();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -278,6 +350,11 @@ public class PivotItemFactory {
 		}
 	};
 	public static final PivotItem BIOSAMPLE_BIOTYPE = new PivotItem(PivotItemClassifier.BIOSAMPLE, "Biotype") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			Biosample b = rv.getResult().getBiosample();
+			return b==null? null: b.getBiotype();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -291,6 +368,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem BIOSAMPLE_SAMPLEID = new PivotItem(PivotItemClassifier.BIOSAMPLE, "SampleId") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getBiosample();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -302,6 +383,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem BIOSAMPLE_NAME = new PivotItem(PivotItemClassifier.BIOSAMPLE, "SampleName") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getBiosample();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -317,6 +402,11 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem BIOSAMPLE_NAMEDSAMPLING = new PivotItem(PivotItemClassifier.BIOSAMPLE, "SamplingTemplate") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			Biosample b = rv.getResult().getBiosample();
+			return b==null? null: b.getAttachedSampling()!=null? b.getAttachedSampling(): b;
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -329,6 +419,12 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem BIOSAMPLE_SAMPLING = new PivotItem(PivotItemClassifier.BIOSAMPLE, "SamplingDescription") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			Biosample b = rv.getResult().getBiosample();
+			if(b==null || b.getBiotype()==null) return null;
+			return b.getAttachedSampling()!=null? b.getAttachedSampling(): b.getBiotype();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -341,6 +437,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem BIOSAMPLE_METADATA = new PivotItem(PivotItemClassifier.BIOSAMPLE, "Metadata") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getBiosample();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -358,6 +458,10 @@ public class PivotItemFactory {
 
 
 	public static final PivotItem BIOSAMPLE_COMMENTS = new PivotItem(PivotItemClassifier.BIOSAMPLE, "Comments") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getBiosample();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -377,6 +481,11 @@ public class PivotItemFactory {
 			this.linker = linker;
 		}
 
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getBiosample();
+		}
+
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -417,6 +526,10 @@ public class PivotItemFactory {
 	//	};
 
 	public static final PivotItem RESULT_INPUT = new PivotItem(PivotItemClassifier.RESULT, "Input") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -432,6 +545,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem STUDY_PHASE_SINCEFIRST = new PivotItem(PivotItemClassifier.STUDY_PHASE, "Since 1st treatment") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -444,6 +561,10 @@ public class PivotItemFactory {
 
 
 	public static final PivotItem STUDY_PHASE_DATE = new PivotItem(PivotItemClassifier.STUDY_PHASE, "Phase") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getInheritedPhase();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -460,6 +581,10 @@ public class PivotItemFactory {
 
 
 	public static final PivotItem STUDY_PHASE_DAYS = new PivotItem(PivotItemClassifier.STUDY_PHASE, "Days") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getInheritedPhase();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -473,6 +598,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem STUDY_PHASE_HOURS = new PivotItem(PivotItemClassifier.STUDY_PHASE, "Hours") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getInheritedPhase();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -486,6 +615,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem STUDY_PHASE_LABEL = new PivotItem(PivotItemClassifier.STUDY_PHASE, "PhaseLabel") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult().getInheritedPhase();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -494,6 +627,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem RESULT_OUTPUT = new PivotItem(PivotItemClassifier.RESULT, "Output") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getAttribute();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			//Skip the output attribute if it is not discriminant
@@ -519,6 +656,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem RESULT_CREDATE = new PivotItem(PivotItemClassifier.RESULT, "CreDate") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -527,6 +668,10 @@ public class PivotItemFactory {
 	};
 
 	public static final PivotItem RESULT_CRETIME = new PivotItem(PivotItemClassifier.RESULT, "CreTime") {
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult();
+		}
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -550,6 +695,11 @@ public class PivotItemFactory {
 			this.att = att;
 		}
 
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			return rv.getResult();
+		}
+
 		@Override
 		public String getTitle(ResultValue rv) {
 			Result r = rv.getResult();
@@ -569,6 +719,12 @@ public class PivotItemFactory {
 			this.metadata = metadata;
 		}
 
+		@Override
+		public Object getTitleSource(ResultValue rv) {
+			ResultValue rv2 = rv.getResult().getResultValue(valueWithLinkedBiosample);
+			return rv2==null? null: rv2.getLinkedBiosample();
+		}
+
 		@Override
 		public String getTitle(ResultValue rv) {
 			ResultValue rv2 = rv.getResult().getResultValue(valueWithLinkedBiosample);
@@ -0,0 +1,87 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.business.pivot;
+
+import java.util.Arrays;
+
+/**
+ * Composite key of a ResultValue in one dimension of the pivot table (rows, columns or cells),
+ * made of the interned titles given by a PivotTitleCache.
+ *
+ * The key is mutable, so that one instance can be filled for each value and used to probe the maps without allocation.
+ * Only a copy must be stored in a map, when a new row, column or cell is created.
+ *
+ * @author Joel Freyss
+ */
+public final class PivotKey {
+
+	private final Object[] components;
+	private int hash;
+
+	public PivotKey(int size) {
+		this.components = new Object[size];
+	}
+
+	private PivotKey(Object[] components, int hash) {
+		this.components = components;
+		this.hash = hash;
+	}
+
+	public int size() {
+		return components.length;
+	}
+
+	public Object get(int index) {
+		return components[index];
+	}
+
+	public void set(int index, Object component) {
+		components[index] = component;
+		hash = 0;
+	}
+
+	/**
+	 * Returns an immutable copy of this key, to be stored in a map
+	 */
+	public PivotKey copy() {
+		return new PivotKey(components.clone(), hash);
+	}
+
+	@Override
+	public int hashCode() {
+		if(hash==0) hash = Arrays.hashCode(components);
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj) return true;
+		if(!(obj instanceof PivotKey)) return false;
+		PivotKey k = (PivotKey) obj;
+		return hashCode()==k.hashCode() && Arrays.equals(components, k.components);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(components);
+	}
+}
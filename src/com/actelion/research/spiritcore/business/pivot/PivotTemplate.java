@@ -207,12 +207,17 @@ public class PivotTemplate implements Serializable {
 	}
 
 	public boolean isMultiColumns(List<Result> results)  {
-		Set<String> columnKeys = new HashSet<>();
+		PivotTitleCache cache = new PivotTitleCache();
+		PivotKey probe = createKey(Where.ASCOL);
+		PivotKey first = null;
 		for (Result result : results) {
 			for (ResultValue rv : result.getOutputResultValues()) {
-				String key = getColKey(rv);
-				columnKeys.add(key);
-				if(columnKeys.size()>1) return true;
+				fillKey(Where.ASCOL, rv, cache, probe);
+				if(first==null) {
+					first = probe.copy();
+				} else if(!first.equals(probe)) {
+					return true;
+				}
 			}
 		}
 		return false;
@@ -377,52 +382,70 @@ public class PivotTemplate implements Serializable {
 	}
 
 
-	public String getRowKey(ResultValue rv) {
-		StringBuilder key = new StringBuilder();
-		for(PivotItem item: getPivotItems(Where.ASROW)) {
-			String s = item.getTitle(rv);
-			if(s!=null) key.append(s);
-			key.append("\n");
-		}
-		return key.toString();
+	/**
+	 * Creates an empty key for the items at the given position (ASROW, ASCOL or ASCELL), to be filled with fillKey
+	 * @param where
+	 * @return
+	 */
+	public PivotKey createKey(Where where) {
+		return new PivotKey(getPivotItems(where).size());
 	}
 
-	public String getColKey(ResultValue rv) {
-		StringBuilder key = new StringBuilder();
-		for(PivotItem item: getPivotItems(Where.ASCOL)) {
-			String s = item.getTitle(rv);
-			if(s!=null) key.append(s);
-			key.append("\n");
-		}
-		if(key.length()==0) {
-			key.append(getAggregation().getName()); //Generic name
-		}
+	/**
+	 * Fills the key with the titles of the items at the given position, as given by the cache (null titles are set as "")
+	 * @param where
+	 * @param rv
+	 * @param cache
+	 * @param key - a key created by createKey(where)
+	 * @return the given key
+	 */
+	public PivotKey fillKey(Where where, ResultValue rv, PivotTitleCache cache, PivotKey key) {
+		fillKey(getPivotItems(where), rv, cache, key, 0);
+		return key;
+	}
 
-		return key.toString();
+	private static int fillKey(List<PivotItem> items, ResultValue rv, PivotTitleCache cache, PivotKey key, int offset) {
+		for (PivotItem item : items) {
+			String title = cache.getTitle(item, rv);
+			key.set(offset++, title==null? "": title);
+		}
+		return offset;
 	}
 
-	private String getCellKey(ResultValue rv) {
-		StringBuilder key = new StringBuilder();
-		for(PivotItem item: getPivotItems(Where.ASCELL)) {
-			String s = item.getTitle(rv);
-			if(s!=null) key.append(s);
-			key.append("\n");
+	/**
+	 * Formats the key as displayed in the table: the titles separated by newlines, or the aggregation name for an empty column/cell key
+	 * @param where
+	 * @param key
+	 * @return
+	 */
+	public String formatKey(Where where, PivotKey key) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < key.size(); i++) {
+			sb.append(key.get(i)).append("\n");
 		}
-		if(key.length()==0) {
-			key.append(getAggregation().getName()); //Generic name
+		if(sb.length()==0 && where!=Where.ASROW) {
+			sb.append(getAggregation().getName()); //Generic name
 		}
+		return sb.toString();
+	}
 
-		return key.toString();
+	public String getRowKey(ResultValue rv) {
+		return formatKey(Where.ASROW, fillKey(Where.ASROW, rv, new PivotTitleCache(), createKey(Where.ASROW)));
+	}
+
+	public String getColKey(ResultValue rv) {
+		return formatKey(Where.ASCOL, fillKey(Where.ASCOL, rv, new PivotTitleCache(), createKey(Where.ASCOL)));
 	}
 
 	public static boolean hasMoreOrEqualThanNValues(PivotItem discrimator, List<Result> results, int n) {
+		PivotTitleCache cache = new PivotTitleCache();
 		Set<String> values = new HashSet<>();
 		for(Result result: results) {
 			for(ResultValue rv: result.getOutputResultValues()) {
 
 				if(rv.getValue()==null || rv.getValue().length()==0) continue;
 
-				String value = discrimator.getTitle(rv);
+				String value = cache.getTitle(discrimator, rv);
 				if(value!=null && value.length()>0) {
 					values.add(value);
 					if(values.size()>=n) return true;
@@ -444,8 +467,17 @@ public class PivotTemplate implements Serializable {
 	 * @return
 	 */
 	public boolean isDiscriminating(PivotItem item, List<Result> results, double percentage) {
-		Set<String> keysWithout = new HashSet<>();
-		Set<String> keysWith = new HashSet<>();
+		PivotTitleCache cache = new PivotTitleCache();
+		List<PivotItem> rowItems = getPivotItems(Where.ASROW);
+		List<PivotItem> colItems = getPivotItems(Where.ASCOL);
+		List<PivotItem> cellItems = getPivotItems(Where.ASCELL);
+		int n = rowItems.size() + colItems.size() + cellItems.size();
+
+		//Keys of the value, without and with the title of the item
+		PivotKey key = new PivotKey(n);
+		PivotKey key2 = new PivotKey(n+1);
+		Set<PivotKey> keysWithout = new HashSet<>();
+		Set<PivotKey> keysWith = new HashSet<>();
 
 		int count = 0;
 		for(int i=0; i<results.size(); i++) {
@@ -454,18 +486,24 @@ public class PivotTemplate implements Serializable {
 
 				if(rv.getValue()==null || rv.getValue().length()==0) continue;
 
-				String key = getRowKey(rv) + "|" + getColKey(rv) + "|" + getCellKey(rv);
-				String key2 = key + "|" + item.getTitle(rv);
+				int offset = fillKey(rowItems, rv, cache, key, 0);
+				offset = fillKey(colItems, rv, cache, key, offset);
+				fillKey(cellItems, rv, cache, key, offset);
+				for (int k = 0; k < n; k++) {
+					key2.set(k, key.get(k));
+				}
+				key2.set(n, cache.getTitle(item, rv));
+
 				if(keysWithout.contains(key)) {
 					if(!keysWith.contains(key2)) {
 						//The item will led to more than 2 new keys, and it is threrefore discriminating
 						if(percentage==0) return true;
 						count++;
+						keysWith.add(key2.copy());
 					}
-					keysWith.add(key2);
 				} else {
-					keysWithout.add(key);
-					keysWith.add(key2);
+					keysWithout.add(key.copy());
+					if(!keysWith.contains(key2)) keysWith.add(key2.copy());
 				}
 			}
 			if(percentage>0) {
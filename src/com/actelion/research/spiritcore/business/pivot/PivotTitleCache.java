@@ -0,0 +1,85 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.business.pivot;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.actelion.research.spiritcore.business.result.ResultValue;
+
+/**
+ * Cache of the titles of the pivot items, used while pivoting a set of results.
+ * <ul>
+ * <li>the title of an item is computed once per distinct source (see PivotItem.getTitleSource), ie. per group, phase, biosample, ...
+ * <li>the titles are interned, so that equal titles are the same instance, and the composite keys (PivotKey) are compared by reference
+ * </ul>
+ *
+ * The sources are compared by identity: the cache must not outlive the entities of the pivoted results.
+ *
+ * @author Joel Freyss
+ */
+public class PivotTitleCache {
+
+	private final Map<PivotItem, Map<Object, String>> item2titles = new HashMap<>();
+	private final Map<String, String> pool = new HashMap<>();
+
+	/**
+	 * Returns the interned title of the given item for the given value
+	 * @param item
+	 * @param rv
+	 * @return
+	 */
+	public String getTitle(PivotItem item, ResultValue rv) {
+		Object source = item.getTitleSource(rv);
+		if(source==null) return intern(item.getTitle(rv));
+
+		Map<Object, String> titles = item2titles.get(item);
+		if(titles==null) {
+			titles = new IdentityHashMap<>();
+			item2titles.put(item, titles);
+		}
+		String title = titles.get(source);
+		if(title==null && !titles.containsKey(source)) {
+			title = intern(item.getTitle(rv));
+			titles.put(source, title);
+		}
+		return title;
+	}
+
+	private String intern(String title) {
+		if(title==null) return null;
+		String res = pool.get(title);
+		if(res==null) {
+			pool.put(title, title);
+			res = title;
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the number of distinct titles
+	 */
+	public int size() {
+		return pool.size();
+	}
+}
@@ -22,14 +22,22 @@
 package com.actelion.research.spiritcore.business.pivot.datawarrior;
 
 import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import com.actelion.research.spiritcore.business.biosample.Biosample;
+import org.slf4j.LoggerFactory;
+
 import com.actelion.research.spiritcore.business.pivot.Computed;
 import com.actelion.research.spiritcore.business.pivot.ExpandedPivotTemplate;
 import com.actelion.research.spiritcore.business.pivot.PivotCell;
@@ -41,14 +49,18 @@ import com.actelion.research.spiritcore.business.pivot.PivotRow;
 import com.actelion.research.spiritcore.business.pivot.PivotTemplate;
 import com.actelion.research.spiritcore.business.pivot.PivotTemplate.Where;
 import com.actelion.research.spiritcore.business.result.Result;
+import com.actelion.research.spiritcore.business.result.TestAttribute.OutputType;
 import com.actelion.research.spiritcore.business.study.Group;
+import com.actelion.research.spiritcore.business.study.Phase;
 import com.actelion.research.spiritcore.services.SpiritUser;
 import com.actelion.research.spiritcore.util.MiscUtils;
+import com.actelion.research.spiritcore.util.SetHashMap;
 import com.actelion.research.util.CompareUtils;
 
 public class DataWarriorExporter {
 
 	public static final int MAX_VIEWS = 10;
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
 	private DataWarriorConfig config;
 	private PivotTemplate tpl;
 	private PivotDataTable pivotTable;
@@ -87,10 +99,10 @@ public class DataWarriorExporter {
 	 * Simple export to DW without templates or graphs (like Excel)
 	 *
 	 * @param pivotTable
-	 * @return
+	 * @param w - the writer, which is flushed but not closed
 	 * @throws Exception
 	 */
-	public static StringBuilder getDwar(PivotDataTable pivotTable) throws Exception {
+	public static void writeDwar(PivotDataTable pivotTable, Writer w) throws Exception {
 		assert pivotTable!=null;
 		assert pivotTable.getTemplate()!=null;
 		if(pivotTable.getTemplate().getPivotItems(Where.ASCELL).size()>0) {
@@ -105,18 +117,36 @@ public class DataWarriorExporter {
 		}
 		//Export with a default DW Config: automatic
 		DataWarriorExporter exporter = new DataWarriorExporter(pivotTable, new DataWarriorConfig());
-		return exporter.buildDataWarrior();
+		exporter.write(w);
 	}
 
 	/**
-	 *
-	 * @param pivotTable
+	 * Export to DW, with the views defined by the model
+	 * @param results
 	 * @param model
-	 * @return
+	 * @param user
+	 * @param w - the writer, which is flushed but not closed
+	 * @throws Exception
 	 */
-	public static StringBuilder getDwar(List<Result> results, DataWarriorConfig model, SpiritUser user) throws Exception {
+	public static void writeDwar(List<Result> results, DataWarriorConfig model, SpiritUser user, Writer w) throws Exception {
 		DataWarriorExporter exporter = new DataWarriorExporter(results, model, user);
-		return exporter.buildDataWarrior();
+		exporter.write(w);
+	}
+
+	/**
+	 * Export to DW in a temporary file
+	 * @param results
+	 * @param model
+	 * @param user
+	 * @return the created file
+	 * @throws Exception
+	 */
+	public static File exportDwar(List<Result> results, DataWarriorConfig model, SpiritUser user) throws Exception {
+		File f = File.createTempFile("spirit_", ".dwar");
+		try(Writer w = new BufferedWriter(new FileWriter(f))) {
+			writeDwar(results, model, user, w);
+		}
+		return f;
 	}
 
 	/**
@@ -144,156 +174,128 @@ public class DataWarriorExporter {
 		return res;
 	}
 
+	/**
+	 * Summary of the results of a view column, collected while writing the rows, and used to define the view
+	 */
+	private static class ViewSummary {
+		private final SetHashMap<String, Phase> key2phases = new SetHashMap<>();
+		private final Set<Group> groups = new HashSet<>();
+		private boolean phaseDependant;
+
+		private void add(Result r) {
+			if(r.getBiosample()==null) return;
+			if(r.getBiosample().getInheritedGroup()!=null) groups.add(r.getBiosample().getInheritedGroup());
+
+			//Same logic as Result.isPhaseDependant
+			if(phaseDependant || r.getInheritedPhase()==null) return;
+			String key = r.getBiosample().getTopParent().getId() + "_" + r.getTest().getId() + "_" +r.getResultValues(OutputType.INPUT);
+			key2phases.add(key, r.getInheritedPhase());
+			if(key2phases.get(key).size()>1) {
+				phaseDependant = true;
+				key2phases.clear();
+			}
+		}
+	}
+
 	/***************************
-	 * Build the DW content
-	 * @return
+	 * Writes the DW content, row by row.
+	 * The custom orders and the views are computed from the distinct values and the summaries collected while writing the rows,
+	 * so that the table is never fully kept in memory
+	 * @param w
+	 * @throws IOException
 	 */
-	private StringBuilder buildDataWarrior() {
+	private void write(Writer w) throws IOException {
+		long s = System.currentTimeMillis();
 
 		List<String> views;
-
 		if(config.getViewNames()==null) {
 			views = getViewNames();
 			if(views.size()>MAX_VIEWS) views = views.subList(0, MAX_VIEWS);
 		} else {
 			views = config.getViewNames();
 		}
+		views = new ArrayList<>(views);
 
-		// Orbit? if in Actelion domain
-		//		ListHashMap<Integer, RawDataFile> bid2raw = null;
-		/*
-		//TODO Fix confusion Container.id, Biosample.id in Orbit
-		if (SpiritAdapter.getInstance().isInActelionDomain() && tpl.getWhere(PivotItem.BIOSAMPLE_TOPID) == Where.ASROW) {
-			bid2raw = new ListHashMap<Integer, RawDataFile>();
-			List<Integer> ids = new ArrayList<Integer>();
-			for (int row = 0; row < pivotTable.getPivotRows().size(); row++) {
-				for (Biosample b : pivotTable.getPivotRows().get(row).getBiosamples()) {
-					ids.add((int) b.getTopParent().getId());
-				}
-			}
-			try {
-				List<RawDataFile> raws = DAODataFile.LoadRawDataFilesByBioSample(ids);
-				for (RawDataFile rawDataFile : raws) {
-					bid2raw.add(rawDataFile.getBioSampleId(), rawDataFile);
-				}
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-
-			if (bid2raw.size() == 0) {
-				bid2raw = null;
-			}
+		boolean computed = tpl.getComputed() != null && tpl.getComputed() != Computed.NONE;
+		List<PivotItem> rowItems = tpl.getPivotItems(Where.ASROW);
+		List<PivotColumn> columns = new ArrayList<>();
+		for (PivotColumn column : pivotTable.getPivotColumns()) {
+			if(config.isExportAll() || views.contains(column.getTitle())) columns.add(column);
 		}
-		 */
 
 		// DW header
-		StringBuilder sb = new StringBuilder();
-		sb.append("<datawarrior-fileinfo>\n");
-		sb.append("<version=\"3.1\">\n");
-		sb.append("<rowcount=\"" + pivotTable.getPivotRows().size() + "\">\n");
-		sb.append("</datawarrior-fileinfo>\n");
-		//		if (bid2raw != null) {
-		//			sb.append("<column properties>\n");
-		//			sb.append("<columnName=\"" + PivotItem.BIOSAMPLE_TOPID.getName() + "\">\n");
-		//			sb.append("<columnProperty=\"detailSource0	orbit/preview\">\n");
-		//			sb.append("<columnProperty=\"detailName0	Orbit Preview\">\n");
-		//			sb.append("<columnProperty=\"detailType0	image/jpeg\">\n");
-		//			sb.append("<columnProperty=\"detailCount	1\">\n");
-		//			sb.append("</column properties>\n");
-		//		}
-
-		int rows = pivotTable.getPivotRows().size();
-		int columns = tpl.getPivotItems(Where.ASROW).size()
-				+ (config.isExportAll()? pivotTable.getPivotColumns().size(): views.size()) * (tpl.getComputed() != null && tpl.getComputed() != Computed.NONE ? 2 : 1);
-		String[][] table = new String[rows + 1][columns];
+		w.write("<datawarrior-fileinfo>\n");
+		w.write("<version=\"3.1\">\n");
+		w.write("<rowcount=\"" + pivotTable.getPivotRows().size() + "\">\n");
+		w.write("</datawarrior-fileinfo>\n");
 
 		// /////////////////////////////////////////////////////////////////////
 		// First the headers
-		int c = 0;
-		for (PivotItem item : tpl.getPivotItems(Where.ASROW)) {
-			table[0][c++] = MiscUtils.removeHtmlAndNewLines(item.getFullName());
+		List<String> rowHeaders = new ArrayList<>();
+		List<String> line = new ArrayList<>();
+		for (PivotItem item : rowItems) {
+			String cn = MiscUtils.removeHtmlAndNewLines(item.getFullName());
+			rowHeaders.add(cn);
+			line.add(cn);
 		}
-
-		for (int col = 0; col < pivotTable.getPivotColumns().size(); col++) {
-			PivotColumn column = pivotTable.getPivotColumns().get(col);
+		for (PivotColumn column : columns) {
 			String cn = MiscUtils.removeHtmlAndNewLines(column.getTitle());
-			if(!config.isExportAll() && !views.contains(column.getTitle())) continue;
-			table[0][c++] = cn;
-
-			if (tpl.getComputed() != null && tpl.getComputed() != Computed.NONE) {
-				table[0][c++] = cn + " (" + tpl.getComputed() + ")";
-			}
+			line.add(cn);
+			if (computed) line.add(cn + " (" + tpl.getComputed() + ")");
 		}
+		writeLine(w, line);
 
 		// /////////////////////////////////////////////////////////////////////
-		// Then the data
-		for (int r = 0; r < rows; r++) {
-			PivotRow pivotRow = pivotTable.getPivotRows().get(r);
-
-			// standard data
-			c = 0;
-			for (PivotItem item : tpl.getPivotItems(Where.ASROW)) {
-
-				String cn = MiscUtils.removeHtmlAndNewLines(item.getTitle(pivotRow.getRepresentative()));
-				if (cn == null)
-					cn = "";
-				table[r + 1][c] = cn;
-
-				if (item == PivotItemFactory.BIOSAMPLE_TOPID) {
-					//					if (bid2raw != null) {
-					//						// Orbit attachment?
-					//						// Find topIds
-					//						List<Integer> ids = new ArrayList<Integer>();
-					//						for (Biosample b : pivotRow.getBiosamples())
-					//							ids.add((int) b.getTopParent().getId());
-					//						for (Integer id : ids) {
-					//							List<RawDataFile> raws = bid2raw.get(id);
-					//							if (raws != null) {
-					//								for (RawDataFile rawDataFile : raws) {
-					//									table[r + 1][c] += "|#|0:" + rawDataFile.getRawDataFileId();
-					//								}
-					//							}
-					//						}
-					//					}
-				}
-				c++;
-
+		// Then the data, while collecting the distinct values (for the custom orders) and the summaries of the views
+		List<Set<String>> distinctValues = new ArrayList<>();
+		for (int i = 0; i < rowItems.size(); i++) {
+			distinctValues.add(new HashSet<>());
+		}
+		Map<PivotColumn, ViewSummary> summaries = new HashMap<>();
+		for (PivotColumn column : columns) {
+			if(views.contains(column.getTitle())) summaries.put(column, new ViewSummary());
+		}
+		Set<Group> groups = new HashSet<>();
+		for (Result r : pivotTable.getResults()) {
+			if(r.getBiosample()!=null && r.getBiosample().getInheritedGroup()!=null) groups.add(r.getBiosample().getInheritedGroup());
+		}
+		List<Group> allGroups = new ArrayList<>(groups);
+		Collections.sort(allGroups, CompareUtils.STRING_COMPARATOR);
+
+		for (PivotRow pivotRow : pivotTable.getPivotRows()) {
+			line.clear();
+			for (int i = 0; i < rowItems.size(); i++) {
+				String cn = MiscUtils.removeHtmlAndNewLines(rowItems.get(i).getTitle(pivotRow.getRepresentative()));
+				line.add(cn);
+				distinctValues.get(i).add(cn);
 			}
 
-			for (int col = 0; col < pivotTable.getPivotColumns().size(); col++) {
-				PivotColumn pivotColumn = pivotTable.getPivotColumns().get(col);
-				if(!config.isExportAll() && !views.contains(pivotColumn.getTitle())) continue;
-
-
+			for (PivotColumn pivotColumn : columns) {
 				PivotCell pivotCell = pivotRow.getPivotCell(pivotColumn);
 				Object val = pivotCell.getValue();
-				String cn = val==null? "": MiscUtils.removeHtmlAndNewLines(val.toString());
+				line.add(val==null? "": MiscUtils.removeHtmlAndNewLines(val.toString()));
+				if (computed) line.add(pivotCell.getComputed() == null ? "" : pivotCell.getComputed().toString());
 
-
-				if (c < table[r + 1].length)
-					table[r + 1][c++] = cn;
-
-				if (tpl.getComputed() != null && tpl.getComputed() != Computed.NONE) {
-					cn = pivotCell.getComputed() == null ? "" : pivotCell.getComputed().toString();
-					if (c < table[r + 1].length)
-						table[r + 1][c++] = cn;
+				ViewSummary summary = summaries.get(pivotColumn);
+				if(summary!=null) {
+					for (Result r : pivotCell.getResults()) {
+						summary.add(r);
+					}
 				}
-
 			}
+			writeLine(w, line);
 		}
-		sb.append(MiscUtils.concatenate(table, true));
 
 		// Write the template
-		int n = tpl.getPivotItems(Where.ASROW).size();
-		sb.append("<datawarrior properties>\n");
+		w.write("<datawarrior properties>\n");
 
 		// General
 		String mainView = "2D View";
-		sb.append("<filter0=\"#category#\t" + PivotItemFactory.RESULT_TEST.getFullName() + "\">\n");
-		sb.append("<filter1=\"#category#\t" + PivotItemFactory.RESULT_INPUT.getFullName() + "\">\n");
-		sb.append("<filter2=\"#category#\t" + PivotItemFactory.BIOSAMPLE_BIOTYPE.getFullName() + "\">\n");
-		sb.append("<filter3=\"#category#\t" + PivotItemFactory.BIOSAMPLE_BIOTYPE.getFullName() + "\">\n");
-		sb.append("<filter4=\"#category#\t" + PivotItemFactory.BIOSAMPLE_NAME.getFullName() + "\">\n");
+		w.write("<filter0=\"#category#\t" + PivotItemFactory.RESULT_TEST.getFullName() + "\">\n");
+		w.write("<filter1=\"#category#\t" + PivotItemFactory.RESULT_INPUT.getFullName() + "\">\n");
+		w.write("<filter2=\"#category#\t" + PivotItemFactory.BIOSAMPLE_BIOTYPE.getFullName() + "\">\n");
+		w.write("<filter3=\"#category#\t" + PivotItemFactory.BIOSAMPLE_BIOTYPE.getFullName() + "\">\n");
+		w.write("<filter4=\"#category#\t" + PivotItemFactory.BIOSAMPLE_NAME.getFullName() + "\">\n");
 
 		//Log scale
 		if(config.isLogScale()) {
@@ -301,39 +303,32 @@ public class DataWarriorExporter {
 			for (int i = 0; i < views.size(); i++) {
 				sb2.append((i>0?"\t":"") + MiscUtils.removeHtmlAndNewLines(views.get(i)));
 			}
-			sb.append("<logarithmicView=\"" + sb2 + "\">\n");
+			w.write("<logarithmicView=\"" + sb2 + "\">\n");
 		}
 
 		// Custom Order
-		sb.append("<customOrderCount=\"" + n + "\">\n");
-		for (int i = 0; i < n; i++) {
-			PivotItem item = tpl.getPivotItems(Where.ASROW).get(i);
-
-			Set<String> values = new HashSet<String>();
-			for (int r = 1; r < table.length; r++) {
-				values.add(table[r][i]);
-			}
-
+		w.write("<customOrderCount=\"" + rowItems.size() + "\">\n");
+		for (int i = 0; i < rowItems.size(); i++) {
 			// Order the values
-			List<String> ordered = new ArrayList<String>(values);
-			if (item == PivotItemFactory.STUDY_PHASE_DATE) {
+			List<String> ordered = new ArrayList<String>(distinctValues.get(i));
+			if (rowItems.get(i) == PivotItemFactory.STUDY_PHASE_DATE) {
 				Collections.sort(ordered, PHASE_COMPARATOR);
 			} else {
 				Collections.sort(ordered, CompareUtils.STRING_COMPARATOR);
 			}
-			System.out.println("DataWarriorExporter.buildDataWarrior() "+i+" "+MiscUtils.flatten(ordered, "\t"));
-			sb.append("<customOrder_" + i + "=\"" + table[0][i] + "\t" + MiscUtils.flatten(ordered, "\t") + "\">\n");
+			w.write("<customOrder_" + i + "=\"" + rowHeaders.get(i) + "\t" + MiscUtils.flatten(ordered, "\t") + "\">\n");
 		}
 
 		int viewNo = 0;
 
 		if (views.size() == 0) views.add("2D");
 
-		sb.append("<mainViewName0=\"Table\">\n");
-		sb.append("<mainViewType0=\"tableView\">\n");
-		sb.append("<mainView=\"" + mainView + "\">\n");
-		sb.append("<mainViewCount=\"" + (1 + views.size()) + "\">\n");
+		w.write("<mainViewName0=\"Table\">\n");
+		w.write("<mainViewType0=\"tableView\">\n");
+		w.write("<mainView=\"" + mainView + "\">\n");
+		w.write("<mainViewCount=\"" + (1 + views.size()) + "\">\n");
 
+		String groupColumn = PivotDataType.GROUP.getColumnName(pivotTable);
 		for (int i = 0; i < views.size(); i++) {
 			viewNo++;
 			String viewName = MiscUtils.removeHtmlAndNewLines(views.get(i));
@@ -342,41 +337,40 @@ public class DataWarriorExporter {
 			if(config.getXAxis()==null) {
 				//Auto (boxplot per group or by phase)
 				PivotColumn pivotColumn = pivotTable.getPivotColumn(viewName);
-				boolean byPhase = /*pivotColumn==null? false:*/ Result.isPhaseDependant(pivotColumn.getResults());
-				if(byPhase) {
+				ViewSummary summary = pivotColumn==null? null: summaries.get(pivotColumn);
+				if(summary!=null && summary.phaseDependant) {
 					String xAxis = MiscUtils.removeHtmlAndNewLines(PivotDataType.PHASE.getColumnName(pivotTable));
-					sb.append("<axisColumn_" + viewName + "_0=\"" + xAxis + "\">\n");
-					sb.append("<connectionColumn_" + viewName + "=\"<connectCases>\">\n");
-					String separate = MiscUtils.removeHtmlAndNewLines(PivotDataType.GROUP.getColumnName(pivotTable));
+					w.write("<axisColumn_" + viewName + "_0=\"" + xAxis + "\">\n");
+					w.write("<connectionColumn_" + viewName + "=\"<connectCases>\">\n");
+					String separate = MiscUtils.removeHtmlAndNewLines(groupColumn);
 					if (separate != null) {
-						sb.append("<caseSeparationColumn_" + viewName + "=\"" + separate + "\">\n");
-						sb.append("<caseSeparationValue_" + viewName + "=\"0.5\">\n");
+						w.write("<caseSeparationColumn_" + viewName + "=\"" + separate + "\">\n");
+						w.write("<caseSeparationValue_" + viewName + "=\"0.5\">\n");
 					}
-
-				} else if(Biosample.getGroups(Result.getBiosamples(pivotColumn.getResults())).size()>1) {
-					String xAxis = MiscUtils.removeHtmlAndNewLines(PivotDataType.GROUP.getColumnName(pivotTable));
-					sb.append("<axisColumn_" + viewName + "_0=\"" + xAxis + "\">\n");
+				} else if(summary!=null && summary.groups.size()>1) {
+					String xAxis = MiscUtils.removeHtmlAndNewLines(groupColumn);
+					w.write("<axisColumn_" + viewName + "_0=\"" + xAxis + "\">\n");
 				} else {
 					String xAxis = MiscUtils.removeHtmlAndNewLines(PivotDataType.TOPSAMPLE.getColumnName(pivotTable));
-					sb.append("<axisColumn_" + viewName + "_0=\"" + xAxis + "\">\n");
+					w.write("<axisColumn_" + viewName + "_0=\"" + xAxis + "\">\n");
 				}
 
 			} else {
 				//XAxis
 				String xAxis = MiscUtils.removeHtmlAndNewLines(config.getXAxis().getColumnName(pivotTable));
 				if (xAxis != null) {
-					sb.append("<axisColumn_" + viewName + "_0=\"" + xAxis + "\">\n");
+					w.write("<axisColumn_" + viewName + "_0=\"" + xAxis + "\">\n");
 				}
 				if (config.getXAxis() == PivotDataType.PHASE) {
-					sb.append("<connectionColumn_" + viewName + "=\"<connectCases>\">\n");
+					w.write("<connectionColumn_" + viewName + "=\"<connectCases>\">\n");
 				}
 
 				//Separate
 				if (config.getSeparate() != null) {
 					String separate = MiscUtils.removeHtmlAndNewLines(config.getSeparate().getColumnName(pivotTable));
 					if (separate != null) {
-						sb.append("<caseSeparationColumn_" + viewName + "=\"" + separate + "\">\n");
-						sb.append("<caseSeparationValue_" + viewName + "=\"" + 0.5 + "\">\n");
+						w.write("<caseSeparationColumn_" + viewName + "=\"" + separate + "\">\n");
+						w.write("<caseSeparationValue_" + viewName + "=\"" + 0.5 + "\">\n");
 					}
 				}
 			}
@@ -384,46 +378,53 @@ public class DataWarriorExporter {
 			//Y Axis
 			String yAxis = MiscUtils.removeHtmlAndNewLines(views.get(i));
 			if (yAxis != null) {
-				if(tpl.getComputed()!=null && tpl.getComputed()!=Computed.NONE) {
+				if(computed) {
 					yAxis+= " (" + tpl.getComputed() + ")";
 				}
-				sb.append("<axisColumn_" + viewName + "_1=\"" + yAxis + "\">\n");
+				w.write("<axisColumn_" + viewName + "_1=\"" + yAxis + "\">\n");
 			}
-			//			sb.append("<colorColumnBackground__TableGroupName=\"GroupName\">\n");
-			sb.append("<markersize_" + viewName + "=\"" + 0.5 + "\">\n");
-			sb.append("<sizeAdaption_" + viewName + "=\"false\">\n");
-			sb.append("<chartType_" + viewName + "=\"" + config.getType() + "\">\n");
+			w.write("<markersize_" + viewName + "=\"" + 0.5 + "\">\n");
+			w.write("<sizeAdaption_" + viewName + "=\"false\">\n");
+			w.write("<chartType_" + viewName + "=\"" + config.getType() + "\">\n");
 
-			String color = PivotDataType.GROUP.getColumnName(pivotTable);
-			if(color!=null) sb.append("<colorColumn_" + viewName + "=\"" + color + "\">\n");
+			if(groupColumn!=null) w.write("<colorColumn_" + viewName + "=\"" + groupColumn + "\">\n");
 
 			int count = 0;
-			List<Group> allGroups = new ArrayList<>(Biosample.getGroups(Result.getBiosamples(pivotTable.getResults())));
-			Collections.sort(allGroups, CompareUtils.STRING_COMPARATOR);
-			sb.append("<colorCount_" + viewName + "=\"" + allGroups.size() + "\">\n");
-			sb.append("<colorListMode_" + viewName + "=\"Categories\">\n");
+			w.write("<colorCount_" + viewName + "=\"" + allGroups.size() + "\">\n");
+			w.write("<colorListMode_" + viewName + "=\"Categories\">\n");
 			for (Group g : allGroups) {
 				int rgb = g != null && g.getColorRgb() != null? g.getColorRgb().intValue(): Color.LIGHT_GRAY.getRGB();
-				sb.append("<color_" + viewName + "_" + (count++) + "=\"" + rgb + "\">\n");
-				System.out.println("DataWarriorExporter.buildDataWarrior() "+count+" >"+g+">"+rgb);
+				w.write("<color_" + viewName + "_" + (count++) + "=\"" + rgb + "\">\n");
 			}
 
 			if (config.getSplit() != null) {
 				String split = MiscUtils.removeHtmlAndNewLines(config.getSplit().getColumnName(pivotTable));
 				if (split != null) {
-					sb.append("<splitViewColumn1_" + viewName + "=\"" + split + "\">\n");
+					w.write("<splitViewColumn1_" + viewName + "=\"" + split + "\">\n");
 				}
 			}
 
-			sb.append("<filter0=\"#browser#\t<disabled>\">\n");
-			sb.append("<boxplotMeanMode_" + viewName + "=\"median\">\n");
-			sb.append("<mainViewName" + viewNo + "=\"" + viewName + "\">\n");
-			sb.append("<mainViewType" + viewNo + "=\"2Dview\">\n");
+			w.write("<filter0=\"#browser#\t<disabled>\">\n");
+			w.write("<boxplotMeanMode_" + viewName + "=\"median\">\n");
+			w.write("<mainViewName" + viewNo + "=\"" + viewName + "\">\n");
+			w.write("<mainViewType" + viewNo + "=\"2Dview\">\n");
 		}
-		sb.append("</datawarrior properties>\n");
+		w.write("</datawarrior properties>\n");
+		w.flush();
+
+		LoggerFactory.getLogger(DataWarriorExporter.class).debug("Exported " + pivotTable.getPivotRows().size() + " rows x " + columns.size() + " columns to DW in " + (System.currentTimeMillis()-s) + "ms");
+	}
 
-		System.out.println("DataWarriorExporter.buildDataWarrior() "+sb);
-		return sb;
+	/**
+	 * Writes a tab-delimited line (same format as MiscUtils.concatenate)
+	 */
+	private static void writeLine(Writer w, List<String> cells) throws IOException {
+		for (int i = 0; i < cells.size(); i++) {
+			if(i>0) w.write('\t');
+			String s = cells.get(i);
+			if(s!=null) w.write(s.replaceAll("\t|\n", " "));
+		}
+		w.write(LINE_SEPARATOR);
 	}
 
 	/**
@@ -0,0 +1,184 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.business.study;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Materialized count of biosamples/results per study, used by the dashboards instead of aggregating the biosample/result tables.
+ * The key is (studyId, type, refId, user), where refId is the id of the biotype, test or phase (depending of the type), and studyId is 0 when there is no study.
+ *
+ * The statistics are maintained by DAOStudyStatistic, and can be rebuilt by an admin.
+ *
+ * @author Joel Freyss
+ */
+@Entity
+@Table(name="study_statistic", indexes = {@Index(name="study_statistic_study_index", columnList = "study_id")})
+@IdClass(StudyStatistic.Key.class)
+public class StudyStatistic implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The composite primary key (studyId, type, refId, user)
+	 */
+	public static class Key implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private int studyId;
+		private StatisticType type;
+		private int refId;
+		private String user;
+
+		public Key() {}
+
+		public Key(StudyStatistic stat) {
+			this.studyId = stat.studyId;
+			this.type = stat.type;
+			this.refId = stat.refId;
+			this.user = stat.user;
+		}
+
+		@Override
+		public int hashCode() {
+			return studyId*31 + refId*7 + (type==null? 0: type.hashCode()) + (user==null? 0: user.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(obj==this) return true;
+			if(!(obj instanceof Key)) return false;
+			Key k = (Key) obj;
+			return studyId==k.studyId && type==k.type && refId==k.refId && (user==null? k.user==null: user.equals(k.user));
+		}
+	}
+
+	public static enum StatisticType {
+		/** Count of biosamples per biotype */
+		BIOTYPE,
+		/** Count of results per test */
+		TEST,
+		/** Count of biosamples per phase */
+		BIOSAMPLE_PHASE,
+		/** Count of results per phase */
+		RESULT_PHASE,
+		/** Marker set when the statistics were built (lastDate is the build date) */
+		BUILD
+	}
+
+	@Id
+	@Column(name="study_id", nullable=false)
+	private int studyId;
+
+	@Id
+	@Enumerated(EnumType.STRING)
+	@Column(name="stat_type", length=16, nullable=false)
+	private StatisticType type;
+
+	@Id
+	@Column(name="ref_id", nullable=false)
+	private int refId;
+
+	@Id
+	@Column(name="upd_user", length=20, nullable=false)
+	private String user;
+
+	@Column(name="counter", nullable=false)
+	private int counter;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name="upd_date")
+	private Date lastDate;
+
+	public StudyStatistic() {}
+
+	public StudyStatistic(int studyId, StatisticType type, int refId, String user, int counter, Date lastDate) {
+		this.studyId = studyId;
+		this.type = type;
+		this.refId = refId;
+		this.user = user==null? "NA": user;
+		this.counter = counter;
+		this.lastDate = lastDate;
+	}
+
+	public int getStudyId() {
+		return studyId;
+	}
+
+	public StatisticType getType() {
+		return type;
+	}
+
+	public int getRefId() {
+		return refId;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public int getCounter() {
+		return counter;
+	}
+
+	public void setCounter(int counter) {
+		this.counter = counter;
+	}
+
+	public Date getLastDate() {
+		return lastDate;
+	}
+
+	public void setLastDate(Date lastDate) {
+		this.lastDate = lastDate;
+	}
+
+	@Override
+	public int hashCode() {
+		return studyId*31 + refId*7 + (type==null? 0: type.hashCode()) + (user==null? 0: user.hashCode());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(obj==this) return true;
+		if(!(obj instanceof StudyStatistic)) return false;
+		StudyStatistic s = (StudyStatistic) obj;
+		return studyId==s.studyId && type==s.type && refId==s.refId && (user==null? s.user==null: user.equals(s.user));
+	}
+
+	@Override
+	public String toString() {
+		return "[StudyStatistic:" + studyId + "," + type + "," + refId + "," + user + "=" + counter + "]";
+	}
+}
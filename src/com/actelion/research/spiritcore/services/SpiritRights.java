@@ -340,10 +340,20 @@ public class SpiritRights {
 	 */
 	public static boolean canRead(Biosample biosample, SpiritUser user) {
 		if(user==null) return false;
-		if(biosample==null || biosample.getId()<=0) return true;
+		if(biosample==null) return true;
+		return canReadBiosample(biosample.getId(), biosample.getInheritedStudy(), biosample.getCreUser(), biosample.getUpdUser(), biosample.getEmployeeGroup(), biosample.getLocation(), user);
+	}
+
+	/**
+	 * True if the user can read the biosample, given the fields used to check the rights.
+	 * This function is used to filter the biosamples in the DB query, without loading them (see {@link #canRead(Biosample, SpiritUser)})
+	 */
+	public static boolean canReadBiosample(int id, Study inheritedStudy, String creUser, String updUser, EmployeeGroup employeeGroup, Location location, SpiritUser user) {
+		if(user==null) return false;
+		if(id<=0) return true;
 
 		//Study right
-		if(biosample.getInheritedStudy()!=null && !canRead(biosample.getInheritedStudy(), user)) return false;
+		if(inheritedStudy!=null && !canRead(inheritedStudy, user)) return false;
 
 		//Check generic roles
 		for (String role : user.getRoles()) {
@@ -352,19 +362,18 @@ public class SpiritRights {
 
 		//Check group/hierarchy rights (if needed)
 		if(SpiritProperties.getInstance().isChecked(PropertyKey.USER_USEGROUPS)) {
-			if(biosample.getCreUser().equals(user.getUsername()) && SpiritProperties.getInstance().isChecked(ActionType.READ_BIOSAMPLE, UserType.CREATOR)) return true;
-			if(biosample.getUpdUser().equals(user.getUsername()) && SpiritProperties.getInstance().isChecked(ActionType.READ_BIOSAMPLE, UserType.UPDATER)) return true;
+			if(creUser.equals(user.getUsername()) && SpiritProperties.getInstance().isChecked(ActionType.READ_BIOSAMPLE, UserType.CREATOR)) return true;
+			if(updUser.equals(user.getUsername()) && SpiritProperties.getInstance().isChecked(ActionType.READ_BIOSAMPLE, UserType.UPDATER)) return true;
 			for(String uid: user.getManagedUsers()) {
-				if(biosample.getCreUser().equals(uid) && SpiritProperties.getInstance().isChecked(ActionType.READ_BIOSAMPLE, UserType.CREATOR)) return true;
-				if(biosample.getUpdUser().equals(uid) && SpiritProperties.getInstance().isChecked(ActionType.READ_BIOSAMPLE, UserType.UPDATER)) return true;
+				if(creUser.equals(uid) && SpiritProperties.getInstance().isChecked(ActionType.READ_BIOSAMPLE, UserType.CREATOR)) return true;
+				if(updUser.equals(uid) && SpiritProperties.getInstance().isChecked(ActionType.READ_BIOSAMPLE, UserType.UPDATER)) return true;
 			}
 
 			//Everybody in the group has the rights
-			if(biosample.getEmployeeGroup()!=null && user.isMember(biosample.getEmployeeGroup())) return true;
+			if(employeeGroup!=null && user.isMember(employeeGroup)) return true;
 		}
 
 		//Otherwise it depends of the location: public, protected (biosample shown without location), or member of private location
-		Location location = biosample.getLocation();
 		if(location!=null && location.getInheritedPrivacy()==Privacy.PUBLIC) return true;
 		else if(location!=null && location.getInheritedPrivacy()==Privacy.PRIVATE && location.getInheritedEmployeeGroup()!=null && !user.isMember(location.getInheritedEmployeeGroup())) return false;
 
@@ -400,10 +409,19 @@ public class SpiritRights {
 	public static boolean canEdit(Biosample biosample, SpiritUser user) {
 		if(user==null) return false;
 		if(biosample==null) return true;
+		return canEditBiosample(biosample.getId(), biosample.getInheritedStudy(), biosample.getCreUser(), biosample.getUpdUser(), biosample.getEmployeeGroup(), user);
+	}
+
+	/**
+	 * True if the user can edit the biosample, given the fields used to check the rights.
+	 * This function is used to filter the biosamples in the DB query, without loading them (see {@link #canEdit(Biosample, SpiritUser)})
+	 */
+	public static boolean canEditBiosample(int id, Study inheritedStudy, String creUser, String updUser, EmployeeGroup employeeGroup, SpiritUser user) {
+		if(user==null) return false;
 
 		//Study rights
-		if(biosample.getInheritedStudy()!=null) {
-			if(!canEditBiosamples(biosample.getInheritedStudy(), user) && !canBlind(biosample.getInheritedStudy(), user)) return false;
+		if(inheritedStudy!=null) {
+			if(!canEditBiosamples(inheritedStudy, user) && !canBlind(inheritedStudy, user)) return false;
 		}
 
 		//Check generic roles
@@ -414,16 +432,16 @@ public class SpiritRights {
 		//Check group/hierarchy rights (if needed)
 		if(SpiritProperties.getInstance().isChecked(PropertyKey.USER_USEGROUPS)) {
 			for(String uid: user.getManagedUsers()) {
-				if(uid.equals(biosample.getCreUser()) && SpiritProperties.getInstance().isChecked(ActionType.EDIT_BIOSAMPLE, UserType.CREATOR)) return true;
-				if(uid.equals(biosample.getUpdUser()) && SpiritProperties.getInstance().isChecked(ActionType.EDIT_BIOSAMPLE, UserType.UPDATER)) return true;
+				if(uid.equals(creUser) && SpiritProperties.getInstance().isChecked(ActionType.EDIT_BIOSAMPLE, UserType.CREATOR)) return true;
+				if(uid.equals(updUser) && SpiritProperties.getInstance().isChecked(ActionType.EDIT_BIOSAMPLE, UserType.UPDATER)) return true;
 			}
-			if(biosample.getEmployeeGroup()!=null && user.isMember(biosample.getEmployeeGroup())) return true;
+			if(employeeGroup!=null && user.isMember(employeeGroup)) return true;
 
 			//Check generic roles
 			for (String role : user.getRoles()) {
 				if(SpiritProperties.getInstance().isChecked(ActionType.EDIT_BIOSAMPLE, role)) return true;
 			}
-			return biosample.getId()<=0 || biosample.getInheritedStudy()!=null && (canEditBiosamples(biosample.getInheritedStudy(), user) || canBlind(biosample.getInheritedStudy(), user));
+			return id<=0 || inheritedStudy!=null && (canEditBiosamples(inheritedStudy, user) || canBlind(inheritedStudy, user));
 		}
 
 		//Return true by default if roles have not been defined
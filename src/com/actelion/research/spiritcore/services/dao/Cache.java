@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -47,6 +48,8 @@ public class Cache {
 
 	private final static Cache instance = new Cache();
 	private final Map<String, CachedObject> cache = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
 
 	static {
 		Thread cleaningThread = new Thread() {
@@ -97,7 +100,11 @@ public class Cache {
 
 	public Object get(String name) {
 		CachedObject o = cache.get(name);
-		if(o==null || o.object==null) return null;
+		if(o==null || o.object==null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
 		if(o.object instanceof ArrayList) return ((ArrayList)o.object).clone(); //keep the order
 		return o.object;
 	}
@@ -116,7 +123,23 @@ public class Cache {
 		instance.clear();
 	}
 
+	/**
+	 * Returns the number of successful get since the last resetStatistics
+	 */
+	public long getHits() {
+		return hits.get();
+	}
 
+	/**
+	 * Returns the number of get returning null since the last resetStatistics
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
 
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+	}
 
 }
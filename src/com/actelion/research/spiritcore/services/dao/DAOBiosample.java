@@ -38,6 +38,9 @@ import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceUtil;
 import javax.persistence.Query;
 
 import org.slf4j.Logger;
@@ -56,6 +59,7 @@ import com.actelion.research.spiritcore.business.biosample.Container;
 import com.actelion.research.spiritcore.business.biosample.LocPos;
 import com.actelion.research.spiritcore.business.biosample.LocationFormat;
 import com.actelion.research.spiritcore.business.biosample.Status;
+import com.actelion.research.spiritcore.business.employee.EmployeeGroup;
 import com.actelion.research.spiritcore.business.location.Location;
 import com.actelion.research.spiritcore.business.location.LocationLabeling;
 import com.actelion.research.spiritcore.business.result.Result;
@@ -65,6 +69,7 @@ import com.actelion.research.spiritcore.business.study.Phase;
 import com.actelion.research.spiritcore.business.study.Study;
 import com.actelion.research.spiritcore.services.SpiritRights;
 import com.actelion.research.spiritcore.services.SpiritUser;
+import com.actelion.research.spiritcore.services.dao.DAOStudyStatistic.Snapshot;
 import com.actelion.research.spiritcore.services.helper.ExpressionHelper;
 import com.actelion.research.spiritcore.util.ListHashMap;
 import com.actelion.research.spiritcore.util.MiscUtils;
@@ -86,7 +91,7 @@ public class DAOBiosample {
 	public static Biosample getBiosampleById(int id) {
 		String hql = "from Biosample b where b.id = " + id;
 		EntityManager session = JPAUtil.getManager();
-		List<Biosample> l = session.createQuery(hql).getResultList();
+		List<Biosample> l = QueryLog.createQuery(session, hql).getResultList();
 		return l.size()==1? l.get(0): null;
 	}
 
@@ -104,7 +109,7 @@ public class DAOBiosample {
 		Map<String, Biosample> res = new HashMap<>();
 		if(sampleIds.size()==0) return res;
 		EntityManager session = JPAUtil.getManager();
-		for (Biosample b : (List<Biosample>) session.createQuery("from Biosample b where " + QueryTokenizer.expandForIn("b.sampleId", sampleIds)).getResultList()) {
+		for (Biosample b : (List<Biosample>) QueryLog.createQuery(session, "from Biosample b where " + QueryTokenizer.expandForIn("b.sampleId", sampleIds)).getResultList()) {
 			res.put(b.getSampleId(), b);
 		}
 		return res;
@@ -114,7 +119,7 @@ public class DAOBiosample {
 		Map<String, Integer> res = new HashMap<>();
 		if(sampleIds.size()==0) return res;
 		EntityManager session = JPAUtil.getManager();
-		for (Object[] objects : (List<Object[]>) session.createQuery("select b.sampleId, id from Biosample b where " + QueryTokenizer.expandForIn("b.sampleId", sampleIds)).getResultList()) {
+		for (Object[] objects : (List<Object[]>) QueryLog.createQuery(session, "select b.sampleId, id from Biosample b where " + QueryTokenizer.expandForIn("b.sampleId", sampleIds)).getResultList()) {
 			res.put((String)objects[0], (Integer) objects[1]);
 		}
 		return res;
@@ -126,12 +131,12 @@ public class DAOBiosample {
 
 		Set<String> toSearch = new HashSet<>(containerIds);
 		EntityManager session = JPAUtil.getManager();
-		for (Biosample b : (List<Biosample>) session.createQuery("from Biosample b where " + QueryTokenizer.expandForIn("b.container.containerId", toSearch)).getResultList()) {
+		for (Biosample b : (List<Biosample>) QueryLog.createQuery(session, "from Biosample b where " + QueryTokenizer.expandForIn("b.container.containerId", toSearch)).getResultList()) {
 			res.put(b.getContainerId(), b);
 			toSearch.remove(b.getContainerId());
 		}
 		if(toSearch.size()>0) {
-			for (Biosample b : (List<Biosample>) session.createQuery("from Biosample b where " + QueryTokenizer.expandForIn("b.sampleId", toSearch)).getResultList()) {
+			for (Biosample b : (List<Biosample>) QueryLog.createQuery(session, "from Biosample b where " + QueryTokenizer.expandForIn("b.sampleId", toSearch)).getResultList()) {
 				res.put(b.getSampleId(), b);
 			}
 		}
@@ -173,9 +178,9 @@ public class DAOBiosample {
 				sb.append((sb.length() > 0 ? "," : "") + "'" + (animalIdOrNo.get(i).replace("'", "''")) + "'");
 			}
 			if (study == null) {
-				query = session.createQuery("from Biosample b where b.sampleId in (" + sb + ")");
+				query = QueryLog.createQuery(session, "from Biosample b where b.sampleId in (" + sb + ")");
 			} else {
-				query = session.createQuery("from Biosample b where (b.sampleId in (" + sb + ") or b.name in (" + sb + ")) and b.inheritedStudy = ?1").setParameter(1, study);
+				query = QueryLog.createQuery(session, "from Biosample b where (b.sampleId in (" + sb + ") or b.name in (" + sb + ")) and b.inheritedStudy = ?1").setParameter(1, study);
 			}
 			//			query.setHint("org.hibernate.readOnly", !JPAUtil.isEditableContext());
 			biosamples.addAll(query.getResultList());
@@ -194,14 +199,29 @@ public class DAOBiosample {
 		return queryBiosamples(JPAUtil.getManager(), q, user);
 	}
 
-	public static List<Biosample> queryBiosamples(EntityManager session, BiosampleQuery q, SpiritUser user) throws Exception {
-		assert q!=null;
-
-
-		StringBuilder clause = new StringBuilder();
-		List<Object> parameters = new ArrayList<>();
+	/**
+	 * Queries the biosamples, and loads the associations of the given plan
+	 * @param q
+	 * @param user
+	 * @param plan - ex: BIOSAMPLE_FOR_TABLE, or null
+	 * @return
+	 * @throws Exception
+	 */
+	public static List<Biosample> queryBiosamples(BiosampleQuery q, SpiritUser user, FetchPlan plan) throws Exception {
+		List<Biosample> biosamples = queryBiosamples(JPAUtil.getManager(), q, user);
+		if(plan!=null) plan.load(biosamples);
+		return biosamples;
+	}
 
-		long start = System.currentTimeMillis();
+	/**
+	 * Builds the where clause (starting with " and") of the given query and fills the parameters
+	 * @param session
+	 * @param q
+	 * @param user
+	 * @param clause
+	 * @param parameters
+	 */
+	private static void buildClause(EntityManager session, BiosampleQuery q, SpiritUser user, StringBuilder clause, List<Object> parameters) {
 		List<Entry<BiosampleLinker, String>> postprocessFilters = new ArrayList<>();
 
 		if ((q.getBiotypes() == null || q.getBiotypes().length == 0) && user != null && !user.isSuperAdmin()) {
@@ -303,8 +323,14 @@ public class DAOBiosample {
 			}
 			if(q.getLocationRoot()!=null) {
 				Location l = session.merge(q.getLocationRoot());
-				List<Location> locs = new ArrayList<Location>(l.getChildrenRec(8));
-				clause.append(" and " + QueryTokenizer.expandForIn("b.location.id", JPAUtil.getIds(locs)));
+				if(l.getIdPath()!=null && LocationIndex.getInstance().isValidIdPaths()) {
+					//Prefix query on the materialized path
+					clause.append(" and b.location.idPath like ?");
+					parameters.add(l.getIdPath() + "%");
+				} else {
+					List<Location> locs = new ArrayList<Location>(l.getChildrenRec(8));
+					clause.append(" and " + QueryTokenizer.expandForIn("b.location.id", JPAUtil.getIds(locs)));
+				}
 			}
 			if(q.getLocations()!=null && q.getLocations().size()>0) {
 				clause.append(" and " + QueryTokenizer.expandForIn("b.location.id", JPAUtil.getIds(q.getLocations())));
@@ -488,21 +514,153 @@ public class DAOBiosample {
 
 			}
 		}
+	}
+
+	/**
+	 * Creates the JPQL query: select + " from Biosample b where ..."
+	 */
+	private static Query createQuery(EntityManager session, String select, BiosampleQuery q, SpiritUser user) {
+		return createQuery(session, select, "", q, user, "");
+	}
 
+	/**
+	 * Creates the JPQL query: select + " from Biosample b" + joins + " where ..." + orderBy
+	 */
+	private static Query createQuery(EntityManager session, String select, String joins, BiosampleQuery q, SpiritUser user, String orderBy) {
+		StringBuilder clause = new StringBuilder();
+		List<Object> parameters = new ArrayList<>();
+		buildClause(session, q, user, clause, parameters);
 
-		String jpql = "from Biosample b";
+		String jpql = select + "from Biosample b" + joins;
 		if (clause.length() > 0) {
 			assert clause.substring(0, 4).equals(" and");
 			jpql += " where " + clause.substring(4);
 		}
+		jpql += orderBy;
 		jpql = JPAUtil.makeQueryJPLCompatible(jpql);
 
-		//Execute query
-		Query query = session.createQuery(jpql);
+		Query query = QueryLog.createQuery(session, jpql);
 		for (int i = 0; i < parameters.size(); i++) {
 			query.setParameter(1 + i, parameters.get(i));
 		}
-		List<Biosample> biosamples = query.getResultList();
+		return query;
+	}
+
+	/**
+	 * Returns true if the query can be evaluated in the DB only (no filters on linked data, phases, or select-one mode)
+	 */
+	private static boolean isQueryableById(BiosampleQuery q) {
+		if(q.getLinker2values().size()>0) return false;
+		if(q.getPhases()!=null && q.getPhases().length()>0) return false;
+		if(q.getSelectOneMode()!=BiosampleQuery.SELECT_ALL) return false;
+		return true;
+	}
+
+	private static final String NATURAL_ORDER_JOINS = " left join b.inheritedStudy bs left join b.inheritedGroup bg left join b.inheritedPhase bp left join b.biotype bt";
+	private static final String NATURAL_ORDER_BY = " order by bs.studyId desc, bg.name, bp.name, bt.name, b.name, b.sampleId";
+
+	/**
+	 * Returns the ids of the biosamples matching the query, without loading the biosamples.
+	 * Returns null if the query can only be evaluated after loading the biosamples (filters on linked data, phases, select-one mode).
+	 * The rights are checked like in {@link #queryBiosamples(BiosampleQuery, SpiritUser)}, from the columns selected with the ids, so that only the readable
+	 * (or editable if isSearchMySamples) biosamples are returned.
+	 *
+	 * The ids are sorted in the DB, as close as possible to the natural order of the biosamples (study desc, group, phase, biotype, name, sampleId).
+	 * The hierarchy and the numeric comparisons of {@link Biosample#COMPARATOR_NATURAL} cannot be expressed in SQL.
+	 *
+	 * @param q
+	 * @param user
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Integer> queryBiosampleIds(BiosampleQuery q, SpiritUser user) {
+		assert q!=null;
+		if(!isQueryableById(q)) return null;
+
+		long start = System.currentTimeMillis();
+		EntityManager session = JPAUtil.getManager();
+		List<Object[]> rows = createQuery(session, "select b.id, bs.id, b.creUser, b.updUser, beg.id, bl.id ", NATURAL_ORDER_JOINS + " left join b.group beg left join b.location bl", q, user, NATURAL_ORDER_BY).getResultList();
+
+		//Check the rights (the studies, groups and locations are loaded once)
+		Map<Integer, Study> studies = new HashMap<>();
+		Map<Integer, EmployeeGroup> groups = new HashMap<>();
+		Map<Integer, Location> locations = new HashMap<>();
+		List<Integer> ids = new ArrayList<>();
+		for (Object[] row : rows) {
+			int id = (Integer) row[0];
+			Study study = row[1]==null? null: studies.computeIfAbsent((Integer) row[1], k -> session.find(Study.class, k));
+			EmployeeGroup group = row[4]==null? null: groups.computeIfAbsent((Integer) row[4], k -> session.find(EmployeeGroup.class, k));
+			Location location = row[5]==null? null: locations.computeIfAbsent((Integer) row[5], k -> session.find(Location.class, k));
+			if(user!=null && !SpiritRights.canReadBiosample(id, study, (String) row[2], (String) row[3], group, location, user)) continue;
+			if(user!=null && q.isSearchMySamples() && !SpiritRights.canEditBiosample(id, study, (String) row[2], (String) row[3], group, user)) continue;
+			ids.add(id);
+		}
+		logger.debug("BiosampleQuery: ids queried in " + (System.currentTimeMillis() - start) + "ms : n="+rows.size()+" readable="+ids.size());
+		return ids;
+	}
+
+	/**
+	 * Loads the biosamples of the given ids, and filters the ones that the user cannot read (or edit if onlyEditable is set)
+	 * @param ids
+	 * @param onlyEditable
+	 * @param user
+	 * @return a map of id to biosample
+	 */
+	public static Map<Integer, Biosample> getBiosamplesByIds(Collection<Integer> ids, boolean onlyEditable, SpiritUser user) {
+		Map<Integer, Biosample> res = new HashMap<>();
+		if(ids.size()==0) return res;
+		EntityManager session = JPAUtil.getManager();
+		for (Biosample b : (List<Biosample>) QueryLog.createQuery(session, "from Biosample b where " + QueryTokenizer.expandForIn("b.id", ids)).getResultList()) {
+			if(user!=null && !SpiritRights.canRead(b, user)) continue;
+			if(user!=null && onlyEditable && !SpiritRights.canEdit(b, user)) continue;
+			res.put(b.getId(), b);
+		}
+		return res;
+	}
+
+	/**
+	 * Loads the families of the given biosamples (the top parents and all their descendants) in one query by topParent,
+	 * fetching the children of each member, so that the hierarchy can then be traversed in memory, whatever its depth.
+	 *
+	 * Only the biosamples managed by the current EntityManager and whose children are not loaded yet are considered.
+	 * The query does not flush the pending changes.
+	 * @param biosamples
+	 * @return the number of loaded biosamples
+	 */
+	@SuppressWarnings("unchecked")
+	public static int loadFamilies(Collection<Biosample> biosamples) {
+		PersistenceUtil util = Persistence.getPersistenceUtil();
+		List<Biosample> toLoad = new ArrayList<>();
+		for (Biosample b : biosamples) {
+			if(b==null || b.getId()<=0 || util.isLoaded(b, "children")) continue;
+			toLoad.add(b);
+		}
+		if(toLoad.isEmpty()) return 0;
+
+		EntityManager session = JPAUtil.getManager();
+		Set<Integer> topIds = new HashSet<>();
+		for (Biosample b : toLoad) {
+			if(session.contains(b)) topIds.add(b.getTopParent().getId());
+		}
+		topIds.remove(0);
+		if(topIds.isEmpty()) return 0;
+
+		long s = System.currentTimeMillis();
+		Query query = QueryLog.createQuery(session, "select distinct b from Biosample b left join fetch b.children"
+				+ " where " + QueryTokenizer.expandForIn("b.topParent.id", topIds) + " or " + QueryTokenizer.expandForIn("b.id", topIds));
+		query.setFlushMode(FlushModeType.COMMIT);
+		List<Biosample> res = query.getResultList();
+		logger.debug("Loaded " + res.size() + " biosamples from " + topIds.size() + " families in " + (System.currentTimeMillis()-s) + "ms");
+		return res.size();
+	}
+
+	public static List<Biosample> queryBiosamples(EntityManager session, BiosampleQuery q, SpiritUser user) throws Exception {
+		assert q!=null;
+
+		long start = System.currentTimeMillis();
+
+		//Execute query
+		List<Biosample> biosamples = createQuery(session, "", q, user).getResultList();
 
 		logger.debug("BiosampleQuery: queried in " + (System.currentTimeMillis() - start) + "ms : n="+biosamples.size());
 
@@ -577,6 +735,7 @@ public class DAOBiosample {
 		}
 
 
+		SpiritMetrics.getInstance().record("DAOBiosample.queryBiosamples", start, biosamples.size());
 		LoggerFactory.getLogger(DAOBiosample.class).debug("filtered in " + (System.currentTimeMillis() - start) + "ms: n="+biosamples.size());
 		return biosamples;
 	}
@@ -613,7 +772,7 @@ public class DAOBiosample {
 		}
 
 		String query = "select count(*) from Biosample b, IN(b.linkedBiosamples) lb where " +QueryTokenizer.expandForIn("lb.id", JPAUtil.getIds(biosamples));
-		Long res = (Long) session.createQuery(query).getSingleResult();
+		Long res = (Long) QueryLog.createQuery(session, query).getSingleResult();
 		if(res>0) {
 			throw new Exception(res + " biosamples are linked to the samples you want to remove.");
 		}
@@ -625,6 +784,9 @@ public class DAOBiosample {
 		//Sort to delete first the children
 		List<Biosample> list = new ArrayList<>(biosamples);
 		Collections.sort(list, Collections.reverseOrder());
+		Snapshot snapshot = DAOStudyStatistic.snapshotBiosamples(session, list);
+		Map<Integer, Integer> locationSnapshot = DAOLocationOccupancy.snapshotBiosamples(session, list);
+		Map<Integer, List<String[]>> autoCompletionSnapshot = DAOBiotype.snapshotAutoCompletionFields(session, list);
 
 		//Delete
 		for (Biosample biosample : list) {
@@ -633,6 +795,9 @@ public class DAOBiosample {
 			}
 			session.remove(biosample);
 		}
+		DAOStudyStatistic.applyBiosamples(session, snapshot, list, true);
+		DAOLocationOccupancy.applyBiosamples(session, locationSnapshot, list, true);
+		DAOBiotype.updateAutoCompletionFields(session, autoCompletionSnapshot, list, true);
 	}
 
 	/**
@@ -667,6 +832,11 @@ public class DAOBiosample {
 
 		testConcurrentModification(session, biosamples);
 
+		//Capture the statistics and the locations before the dependent studies are flushed
+		Snapshot snapshot = DAOStudyStatistic.snapshotBiosamples(session, biosamples);
+		Map<Integer, Integer> locationSnapshot = DAOLocationOccupancy.snapshotBiosamples(session, biosamples);
+		Map<Integer, List<String[]>> autoCompletionSnapshot = DAOBiotype.snapshotAutoCompletionFields(session, biosamples);
+
 		try {
 
 			/////////////////////////////////////////////////
@@ -743,13 +913,14 @@ public class DAOBiosample {
 			}
 
 			//Open the transaction
-			res = persistBiosamples(session, biosamples, user);
+			res = persistBiosamples(session, biosamples, user, snapshot, locationSnapshot, autoCompletionSnapshot);
 
 			txn.commit();
 			txn = null;
 		} finally {
 			if (txn != null && txn.isActive())try {txn.rollback();} catch (Exception e2) {e2.printStackTrace();}
 		}
+		SpiritMetrics.getInstance().record("DAOBiosample.persistBiosamples", start, biosamples.size());
 		logger.info("Persist "+biosamples.size()+" biosamples: done in "+(System.currentTimeMillis()-start));
 		return res;
 	}
@@ -762,7 +933,7 @@ public class DAOBiosample {
 
 		// Test that nobody else modified the samples
 		String jpql = "select b.updDate, b.updUser, b.id from Biosample b where " + QueryTokenizer.expandForIn("b.id", id2biosample.keySet());
-		lastUpdates = session.createQuery(jpql).getResultList();
+		lastUpdates = QueryLog.createQuery(session, jpql).getResultList();
 
 		for (Object[] lastUpdate : lastUpdates) {
 			Date lastDate = (Date) lastUpdate[0];
@@ -785,6 +956,10 @@ public class DAOBiosample {
 	 * @throws Exception
 	 */
 	public static List<Biosample> persistBiosamples(EntityManager session, Collection<Biosample> biosamples, SpiritUser user) throws Exception {
+		return persistBiosamples(session, biosamples, user, DAOStudyStatistic.snapshotBiosamples(session, biosamples), DAOLocationOccupancy.snapshotBiosamples(session, biosamples), DAOBiotype.snapshotAutoCompletionFields(session, biosamples));
+	}
+
+	private static List<Biosample> persistBiosamples(EntityManager session, Collection<Biosample> biosamples, SpiritUser user, Snapshot snapshot, Map<Integer, Integer> locationSnapshot, Map<Integer, List<String[]>> autoCompletionSnapshot) throws Exception {
 		assert session!=null;
 		assert session.getTransaction().isActive();
 
@@ -799,7 +974,7 @@ public class DAOBiosample {
 			try {
 				newEm = JPAUtil.createManager();
 				Set<Integer> biosampleIdsToSave = new HashSet<>(JPAUtil.getIds(biosamples));
-				List<Object[]> l = session.createQuery("select b.id, b.container.containerId, b.location.id, b.pos from Biosample b where b.pos>=0 and " + QueryTokenizer.expandForIn("b.location.id", JPAUtil.getIds(locations))).getResultList();
+				List<Object[]> l = QueryLog.createQuery(session, "select b.id, b.container.containerId, b.location.id, b.pos from Biosample b where b.pos>=0 and " + QueryTokenizer.expandForIn("b.location.id", JPAUtil.getIds(locations))).getResultList();
 				for (Object[] object : l) {
 					int biosampleId = (Integer) object[0];
 					String containerId = (String) object[1];
@@ -870,7 +1045,7 @@ public class DAOBiosample {
 			}
 		}
 		if(biotype2name2sample.size()>0) {
-			for(Biosample b: (List<Biosample>) session.createQuery("from Biosample b where  " + QueryTokenizer.expandForIn("b.name", Biosample.getSampleNames(biosamples))).getResultList()) {
+			for(Biosample b: (List<Biosample>) QueryLog.createQuery(session, "from Biosample b where  " + QueryTokenizer.expandForIn("b.name", Biosample.getSampleNames(biosamples))).getResultList()) {
 				Map<String, Biosample> map = biotype2name2sample.get(b.getBiotype());
 				if(map==null) continue;
 				Biosample b2 = map.get(b.getSampleName());
@@ -1033,7 +1208,7 @@ public class DAOBiosample {
 		Set<String> containerIds = Biosample.getContainerIds(res);
 		Map<String, Container> cid2container = new HashMap<>();
 		if(containerIds.size()>0) {
-			List<Biosample> inBiosamples = session.createQuery("from Biosample b where " + QueryTokenizer.expandForIn("b.container.containerId", containerIds)).getResultList();
+			List<Biosample> inBiosamples = QueryLog.createQuery(session, "from Biosample b where " + QueryTokenizer.expandForIn("b.container.containerId", containerIds)).getResultList();
 			cid2container.putAll(Container.mapContainerId(Biosample.getContainers(inBiosamples, true)));
 		}
 
@@ -1069,6 +1244,7 @@ public class DAOBiosample {
 		}
 
 		// Propagate the study information to children
+		List<Biosample> propagated = new ArrayList<>(res);
 		for (Biosample b : res) {
 			List<Biosample> toCheck = new LinkedList<>();
 			toCheck.addAll(b.getChildren());
@@ -1077,6 +1253,7 @@ public class DAOBiosample {
 
 				// Stop at samples attached to study
 				if(tmp.getAttachedStudy()!=null) continue;
+				if(snapshot.add(tmp)) propagated.add(tmp);
 
 				// Update the study of child
 				tmp.setInheritedStudy(b.getInheritedStudy());
@@ -1103,6 +1280,9 @@ public class DAOBiosample {
 			}
 		}
 		session.flush();
+		DAOStudyStatistic.applyBiosamples(session, snapshot, propagated, false);
+		DAOLocationOccupancy.applyBiosamples(session, locationSnapshot, res, false);
+		DAOBiotype.updateAutoCompletionFields(session, autoCompletionSnapshot, res, false);
 
 
 
@@ -1110,7 +1290,7 @@ public class DAOBiosample {
 		// Update the inverse values of the linked biosamples if needed (to create a new version)
 		{
 			String query = "select b from Biosample b, IN(b.linkedBiosamples) lb where " +QueryTokenizer.expandForIn("lb.id", JPAUtil.getIds(biosamples));
-			List<Biosample> linked = session.createQuery(query).getResultList();
+			List<Biosample> linked = QueryLog.createQuery(session, query).getResultList();
 			for (Biosample b : linked) {
 				for (BiotypeMetadata bm : b.getBiotype().getMetadata()) {
 					if (bm.getDataType()==DataType.BIOSAMPLE && b.getMetadataBiosample(bm) != null) {
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +34,7 @@ import java.util.TreeSet;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
 import javax.persistence.Query;
 
 import org.slf4j.Logger;
@@ -46,7 +48,9 @@ import com.actelion.research.spiritcore.business.biosample.BiotypeMetadata;
 import com.actelion.research.spiritcore.business.study.Study;
 import com.actelion.research.spiritcore.services.SpiritUser;
 import com.actelion.research.spiritcore.util.MiscUtils;
+import com.actelion.research.spiritcore.util.QueryTokenizer;
 import com.actelion.research.util.CompareUtils;
+import com.actelion.research.util.PrefixTrie;
 
 /**
  * DAO functions linked to biotypes
@@ -58,6 +62,11 @@ public class DAOBiotype {
 
 	private static Logger logger = LoggerFactory.getLogger(DAOBiotype.class);
 
+	/**
+	 * Maximum number of sampleIds in the autocompletion (the most recent ones)
+	 */
+	public static final int MAX_AUTOCOMPLETION_SAMPLEIDS = 3000;
+
 	public static void deleteBiotype(Biotype biotype, SpiritUser user) throws Exception {
 		if(user==null || !user.isSuperAdmin()) throw new Exception("You must be am admin");
 		if(biotype==null) throw new Exception("Biotype is null");
@@ -152,105 +161,215 @@ public class DAOBiotype {
 		return null;
 	}
 
-	public static Set<String> getAutoCompletionFields(BiotypeMetadata metadataType, Study study) {
-		if(metadataType==null || metadataType.getId()<=0) return new TreeSet<String>();
+	/**
+	 * Returns the values of the given metadata (for the given study if not null), as a trie ranked by frequency.
+	 * The trie is cached, and updated when biosamples are saved
+	 * @param metadataType
+	 * @param study
+	 * @return
+	 */
+	public static PrefixTrie getAutoCompletionFields(BiotypeMetadata metadataType, Study study) {
+		if(metadataType==null || metadataType.getId()<=0) return new PrefixTrie();
 
 		//Use Cache
 		String key = "biotype_autocompletion_"+metadataType.getId()+"_"+(study==null?"": study.getId());
-		Set<String> res = (Set<String>) Cache.getInstance().get(key);
+		PrefixTrie res = (PrefixTrie) Cache.getInstance().get(key);
 		if(res==null) {
-			res = new TreeSet<String>(CompareUtils.STRING_COMPARATOR);
+			long s = System.currentTimeMillis();
+			res = new PrefixTrie();
 			try {
 				EntityManager session = JPAUtil.getManager();
 				int id = metadataType.getId();
-				//Select first 500 non empty rows
-				Query query = session.createQuery("select distinct(b.serializedMetadata) from Biosample b "
-						+ " WHERE concat(';', b.serializedMetadata, '%') like '%;"+id+"=%'"
+				Query query = session.createQuery("select b.serializedMetadata, count(b) from Biosample b "
+						+ " WHERE b.biotype.id = " + metadataType.getBiotype().getId()
+						+ " AND concat(';', b.serializedMetadata, '%') like '%;"+id+"=%'"
 						+ " AND NOT concat(';', b.serializedMetadata, '%') like '%;"+id+"=;%'"
-						+ (study!=null? " AND b.inheritedStudy = ?2 ":""));
+						+ (study!=null? " AND b.inheritedStudy = ?2 ":"")
+						+ " group by b.serializedMetadata");
 				if(study!=null) query.setParameter(2, study);
-				query.setMaxResults(3000);
-				for (String s : (List<String>) query.getResultList()) {
-					String tok = MiscUtils.deserializeIntegerMap(s).get(id);
-					if(tok!=null) res.add(tok);
+				for (Object[] row : (List<Object[]>) query.getResultList()) {
+					String tok = MiscUtils.deserializeIntegerMap((String) row[0]).get(id);
+					if(tok!=null) res.add(tok, ((Number) row[1]).intValue());
 				}
 			} catch(Exception e) {
 				e.printStackTrace();
 			}
-
-			Cache.getInstance().add(key, res, 60);
+			logger.debug("Load autocompletion of " + metadataType + ": n=" + res.size() + " in " + (System.currentTimeMillis()-s) + "ms");
+			Cache.getInstance().add(key, res);
 		}
 		return res;
 	}
 
-	public static Set<String> getAutoCompletionFieldsForSampleId(Biotype biotype) {
-		if(biotype==null || biotype.getId()<=0) return new TreeSet<String>();
+	/**
+	 * Returns the most recent sampleIds of the given biotype, as a trie.
+	 * The trie is cached, and updated when biosamples are saved
+	 * @param biotype
+	 * @return
+	 */
+	public static PrefixTrie getAutoCompletionFieldsForSampleId(Biotype biotype) {
+		if(biotype==null || biotype.getId()<=0) return new PrefixTrie();
 
 		//Use Cache
 		String key = "biotype_autocompletion_sampleid_"+biotype.getId();
-		Set<String> res = (Set<String>) Cache.getInstance().get(key);
+		PrefixTrie res = (PrefixTrie) Cache.getInstance().get(key);
 		if(res==null) {
+			//Only the most recent sampleIds
 			EntityManager session = JPAUtil.getManager();
-			Query query = session.createQuery("SELECT distinct(b.sampleId) FROM Biosample b WHERE b.biotype = ?1");
+			Query query = session.createQuery("SELECT b.sampleId FROM Biosample b WHERE b.biotype = ?1 ORDER BY b.id desc");
 			query.setParameter(1, biotype);
-			query.setMaxResults(3000);
-			res = new TreeSet<String>(CompareUtils.STRING_COMPARATOR);
-			res.addAll(query.getResultList());
+			query.setMaxResults(MAX_AUTOCOMPLETION_SAMPLEIDS);
+			res = new PrefixTrie(query.getResultList());
 
-			Cache.getInstance().add(key, res, Cache.FAST);
+			Cache.getInstance().add(key, res);
 		}
 		return res;
 	}
 
-	public static Set<String> getAutoCompletionFieldsForName(Biotype biotype, Study study) {
+	public static PrefixTrie getAutoCompletionFieldsForName(Biotype biotype, Study study) {
 
-		if(biotype==null || biotype.getId()<=0) return new TreeSet<String>();
+		if(biotype==null || biotype.getId()<=0) return new PrefixTrie();
 
 		//Use Cache
 		String key = "biotype_autocompletion_name_"+biotype.getId()+"_"+(study==null?"": study.getId());
-		Set<String> res = (Set<String>) Cache.getInstance().get(key);
+		PrefixTrie res = (PrefixTrie) Cache.getInstance().get(key);
 		if(res==null) {
 
 			EntityManager session = JPAUtil.getManager();
 			Query query = session.createQuery(
-					"SELECT distinct(b.name) FROM Biosample b WHERE b.biotype = ?1 AND length(b.name)>0  " +
-							(study!=null? " AND b.inheritedStudy = ?2 ":""));
+					"SELECT b.name, count(b) FROM Biosample b WHERE b.biotype = ?1 AND length(b.name)>0  " +
+							(study!=null? " AND b.inheritedStudy = ?2 ":"") +
+					" GROUP BY b.name");
 			query.setParameter(1, biotype);
 			if(study!=null) query.setParameter(2, study);
-			query.setMaxResults(3000);
-			res = new TreeSet<String>(CompareUtils.STRING_COMPARATOR);
-			res.addAll(query.getResultList());
+			res = toTrie(query.getResultList());
 
-
-			Cache.getInstance().add(key, res, Cache.FAST);
+			Cache.getInstance().add(key, res);
 		}
 		return res;
 	}
 
-	public static Set<String> getAutoCompletionFieldsForComments(Biotype biotype, Study study) {
+	public static PrefixTrie getAutoCompletionFieldsForComments(Biotype biotype, Study study) {
 
-		if(biotype==null || biotype.getId()<=0) return new TreeSet<String>();
+		if(biotype==null || biotype.getId()<=0) return new PrefixTrie();
 
 		//Use Cache
 		String key = "biotype_autocompletion_comments_"+biotype.getId()+"_"+(study==null?"": study.getId());
-		Set<String> res = (Set<String>) Cache.getInstance().get(key);
+		PrefixTrie res = (PrefixTrie) Cache.getInstance().get(key);
 		if(res==null) {
 
 			EntityManager session = JPAUtil.getManager();
 			Query query = session.createQuery(
-					"SELECT distinct(b.comments) FROM Biosample b WHERE b.biotype = ?1 AND length(b.comments)>0 " +
-							(study!=null? " AND b.inheritedStudy = ?2 ":""));
+					"SELECT b.comments, count(b) FROM Biosample b WHERE b.biotype = ?1 AND length(b.comments)>0 " +
+							(study!=null? " AND b.inheritedStudy = ?2 ":"") +
+					" GROUP BY b.comments");
 			query.setParameter(1, biotype);
 			if(study!=null) query.setParameter(2, study);
-			query.setMaxResults(3000);
-			res = new TreeSet<String>(CompareUtils.STRING_COMPARATOR);
-			res.addAll(query.getResultList());
+			res = toTrie(query.getResultList());
+
+			Cache.getInstance().add(key, res);
+		}
+		return res;
+	}
+
+	private static PrefixTrie toTrie(List<Object[]> valueCounts) {
+		PrefixTrie res = new PrefixTrie();
+		for (Object[] row : valueCounts) {
+			res.add((String) row[0], ((Number) row[1]).intValue());
+		}
+		return res;
+	}
+
+	/**
+	 * Captures the autocompletion values of the given biosamples, as saved in the DB. This must be called before the changes are flushed.
+	 * @param session
+	 * @param biosamples
+	 * @return the values [key, studyId, value] by biosample id
+	 */
+	public static Map<Integer, List<String[]>> snapshotAutoCompletionFields(EntityManager session, Collection<Biosample> biosamples) {
+		Map<Integer, List<String[]>> res = new HashMap<>();
+		List<Integer> ids = JPAUtil.getIds(biosamples);
+		if(ids.size()==0) return res;
+		List<Object[]> rows = session.createQuery("select b.id, bt.id, s.id, b.serializedMetadata, b.sampleId, b.name, b.comments from Biosample b join b.biotype bt left join b.inheritedStudy s"
+				+ " where " + QueryTokenizer.expandForIn("b.id", ids))
+				.setFlushMode(FlushModeType.COMMIT)
+				.getResultList();
+		for (Object[] row : rows) {
+			Map<Integer, String> metadata = MiscUtils.deserializeIntegerMap((String) row[3]);
+			res.put((Integer) row[0], getAutoCompletionValues((Integer) row[1], (Integer) row[2], metadata, (String) row[4], (String) row[5], (String) row[6]));
+		}
+		return res;
+	}
+
+	/**
+	 * Updates the frequencies of the autocompletion tries, which are in the cache, once the transaction is committed:
+	 * the values before the changes are decremented (and removed when they are not used anymore), and the saved values are incremented
+	 * @param session
+	 * @param before the values captured by {@link #snapshotAutoCompletionFields(EntityManager, Collection)}
+	 * @param biosamples
+	 * @param deleted
+	 */
+	public static void updateAutoCompletionFields(EntityManager session, Map<Integer, List<String[]>> before, Collection<Biosample> biosamples, boolean deleted) {
+		List<String[]> removed = new ArrayList<>();
+		List<String[]> added = new ArrayList<>();
+		for (Biosample b : biosamples) {
+			List<String[]> old = before.get(b.getId());
+			if(old!=null) removed.addAll(old);
+			if(deleted || b.getBiotype()==null) continue;
+			Map<Integer, String> metadata = new HashMap<>();
+			for (BiotypeMetadata mt : b.getBiotype().getMetadata()) {
+				metadata.put(mt.getId(), b.getMetadataValue(mt));
+			}
+			added.addAll(getAutoCompletionValues(b.getBiotype().getId(), b.getInheritedStudy()==null? null: b.getInheritedStudy().getId(), metadata, b.getSampleId(), b.getSampleName(), b.getComments()));
+		}
+		if(removed.isEmpty() && added.isEmpty()) return;
+		JPAUtil.runAfterCommit(session, () -> {
+			for (String[] v : removed) {
+				updateAutoCompletion(v, -1);
+			}
+			for (String[] v : added) {
+				updateAutoCompletion(v, 1);
+			}
+		});
+	}
 
-			Cache.getInstance().add(key, res, Cache.FAST);
+	/**
+	 * Returns the values of a biosample, as [key of the trie, studyId (or null), value]
+	 */
+	private static List<String[]> getAutoCompletionValues(int biotypeId, Integer studyId, Map<Integer, String> metadata, String sampleId, String name, String comments) {
+		List<String[]> res = new ArrayList<>();
+		String sid = studyId==null? null: "" + studyId;
+		for (Map.Entry<Integer, String> e : metadata.entrySet()) {
+			addAutoCompletionValue(res, "biotype_autocompletion_"+e.getKey()+"_", sid, e.getValue());
 		}
+		addAutoCompletionValue(res, "biotype_autocompletion_sampleid_"+biotypeId, null, sampleId);
+		addAutoCompletionValue(res, "biotype_autocompletion_name_"+biotypeId+"_", sid, name);
+		addAutoCompletionValue(res, "biotype_autocompletion_comments_"+biotypeId+"_", sid, comments);
 		return res;
 	}
 
+	private static void addAutoCompletionValue(List<String[]> res, String key, String studyId, String value) {
+		if(value==null || value.length()==0) return;
+		res.add(new String[] {key, studyId, value});
+	}
+
+	/**
+	 * Changes the frequency of the value in the cached tries (for all studies, and for its study)
+	 */
+	private static void updateAutoCompletion(String[] v, int n) {
+		String key = v[0];
+		String studyId = v[1];
+		String value = v[2];
+		for (String k : studyId==null? new String[] {key}: new String[] {key, key+studyId}) {
+			PrefixTrie trie = (PrefixTrie) Cache.getInstance().get(k);
+			if(trie==null) continue;
+			if(n>0) {
+				trie.add(value, n);
+			} else {
+				trie.remove(value, -n);
+			}
+		}
+	}
+
 	public static void persistBiotype(Biotype biotype, SpiritUser user) throws Exception {
 		if(biotype==null) return;
 		persistBiotypes(Collections.singletonList(biotype), user);
@@ -86,7 +86,7 @@ public class DAOLocation {
 		Map<Integer, Integer> id2cols = new HashMap<>();
 		Map<Integer, Location> id2location = JPAUtil.mapIds(locations);
 		if(id2location.size()>0) {
-			List<Object[]> lastUpdates = session.createQuery("select l.id, l.rows, l.cols, l.updDate, l.updUser from Location l where " + QueryTokenizer.expandForIn("l.id", id2location.keySet())).getResultList();
+			List<Object[]> lastUpdates = QueryLog.createQuery(session, "select l.id, l.rows, l.cols, l.updDate, l.updUser from Location l where " + QueryTokenizer.expandForIn("l.id", id2location.keySet())).getResultList();
 			for (Object[] lastUpdate : lastUpdates) {
 				Location l = id2location.get(lastUpdate[0]);
 				Integer rows = (Integer) lastUpdate[1];
@@ -130,7 +130,7 @@ public class DAOLocation {
 			//Name is unique for each parent
 			List<Location> sieblings;
 			if(location.getParent()==null) {
-				sieblings = session.createQuery("from Location l where l.parent is null").getResultList();
+				sieblings = QueryLog.createQuery(session, "from Location l where l.parent is null").getResultList();
 			} else {
 				sieblings = new ArrayList<>(location.getParent().getChildren());
 			}
@@ -214,6 +214,7 @@ public class DAOLocation {
 			} else {
 				map.put(location, location);
 			}
+			updateIdPath(session, map.get(location));
 
 			//Update all samples in the updated location, and their children
 			for (Biosample b : map.get(location).getBiosamples()) {
@@ -269,24 +270,109 @@ public class DAOLocation {
 		}
 		Cache.getInstance().remove("locationRoots");
 		Cache.getInstance().remove("locations");
+		LocationIndex.invalidate();
+	}
+
+	/**
+	 * Computes the materialized path of ids (ex: /1/12/34/) of the location, or null if the location or one of its parents is not persistent
+	 * @param location
+	 * @return
+	 */
+	public static String getIdPath(Location location) {
+		StringBuilder sb = new StringBuilder();
+		Set<Location> seen = new HashSet<>();
+		for(Location l = location; l!=null; l = l.getParent()) {
+			if(l.getId()<=0 || !seen.add(l)) return null;
+			sb.insert(0, Location.SEPARATOR + l.getId());
+		}
+		return sb.append(Location.SEPARATOR).toString();
+	}
+
+	/**
+	 * Updates the materialized path of the location, and of its descendants if the location was moved
+	 * @param session
+	 * @param location (must be attached)
+	 */
+	@SuppressWarnings("unchecked")
+	private static void updateIdPath(EntityManager session, Location location) {
+		String oldPath = location.getIdPath();
+		String newPath = getIdPath(location);
+		if(newPath==null || newPath.equals(oldPath)) return;
+		location.setIdPath(newPath);
+		if(oldPath!=null) {
+			List<Location> descendants = QueryLog.createQuery(session, "from Location l where l.idPath like ?1")
+					.setParameter(1, oldPath + "%")
+					.getResultList();
+			for (Location l : descendants) {
+				if(l.equals(location) || !l.getIdPath().startsWith(oldPath)) continue;
+				l.setIdPath(newPath + l.getIdPath().substring(oldPath.length()));
+			}
+		}
 	}
 
 
 	public static Location getLocation(int id) {
 		EntityManager session = JPAUtil.getManager();
-		List<Location> list = session.createQuery("from Location l where l.id = "+id).getResultList();
+		List<Location> list = QueryLog.createQuery(session, "from Location l where l.id = "+id).getResultList();
 		return list.size()==1? list.get(0): null;
 	}
 
+	/**
+	 * Loads the locations of the given ids (the order is not kept)
+	 * @param ids
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Location> getLocations(Collection<Integer> ids) {
+		if(ids==null || ids.size()==0) return new ArrayList<>();
+		EntityManager session = JPAUtil.getManager();
+		return QueryLog.createQuery(session, "from Location l where " + QueryTokenizer.expandForIn("l.id", ids)).getResultList();
+	}
+
+	/**
+	 * Returns the location and its children recursively, loaded with a single prefix query on the materialized path.
+	 * The location must be persistent: use Location.getChildrenRec otherwise
+	 * @param location
+	 * @param maxDepth
+	 * @return a non empty set
+	 */
+	@SuppressWarnings("unchecked")
+	public static Set<Location> getChildrenRec(Location location, int maxDepth) {
+		if(location.getId()<=0 || location.getIdPath()==null || !LocationIndex.getInstance().isValidIdPaths()) {
+			return location.getChildrenRec(maxDepth);
+		}
+		EntityManager session = JPAUtil.getManager();
+		List<Location> descendants = QueryLog.createQuery(session, "from Location l where l.idPath like ?1")
+				.setParameter(1, location.getIdPath() + "%")
+				.getResultList();
+		int depth = getDepth(location.getIdPath());
+		Set<Location> res = new HashSet<>();
+		res.add(location);
+		for (Location l : descendants) {
+			if(getDepth(l.getIdPath())-depth<=maxDepth) {
+				res.add(l);
+			}
+		}
+		return res;
+	}
+
+	private static int getDepth(String idPath) {
+		int depth = 0;
+		for (int i = 0; i < idPath.length(); i++) {
+			if(idPath.charAt(i)==Location.SEPARATOR.charAt(0)) depth++;
+		}
+		return depth;
+	}
+
 	public static Location getLocation(Location parent, String name) {
 		EntityManager session = JPAUtil.getManager();
 		if(parent==null || parent.getId()<=0) {
-			List<Location> list = session.createQuery("from Location l where l.name = ?1 and l.parent is null")
+			List<Location> list = QueryLog.createQuery(session, "from Location l where l.name = ?1 and l.parent is null")
 					.setParameter(1, name)
 					.getResultList();
 			return list.size()==1? list.get(0): null;
 		} else {
-			List<Location> list = session.createQuery("from Location l where l.name = ?1 and l.parent = ?2")
+			List<Location> list = QueryLog.createQuery(session, "from Location l where l.name = ?1 and l.parent = ?2")
 					.setParameter(1, name)
 					.setParameter(2, parent)
 					.getResultList();
@@ -306,7 +392,7 @@ public class DAOLocation {
 		}
 
 		EntityManager session = JPAUtil.getManager();
-		Query query = session.createQuery("from Location location where location.parent is null and location.locationType in (" + sb + ")");
+		Query query = QueryLog.createQuery(session, "from Location location where location.parent is null and location.locationType in (" + sb + ")");
 		res = query.getResultList();
 		Collections.sort(res);
 
@@ -386,7 +472,7 @@ public class DAOLocation {
 
 
 		jpql = JPAUtil.makeQueryJPLCompatible(jpql);
-		Query query = session.createQuery(jpql);
+		Query query = QueryLog.createQuery(session, jpql);
 		for (int i = 0; i < parameters.size(); i++) {
 			query.setParameter(i+1, parameters.get(i));
 		}
@@ -454,8 +540,10 @@ public class DAOLocation {
 			}
 			session.remove(location);
 		}
+		DAOLocationOccupancy.deleteLocations(session, JPAUtil.getIds(locations));
 
 		Cache.getInstance().remove("locationRoots");
+		LocationIndex.invalidate();
 	}
 
 
@@ -504,6 +592,27 @@ public class DAOLocation {
 	 */
 	public static Set<Location> queryLocations(String mediumLocation, SpiritUser user) throws Exception {
 
+		//Resolve the hierarchy through the index
+		String curatedLoc2 = mediumLocation.replaceAll("\\s*"+Location.SEPARATOR+"\\s*", Location.SEPARATOR).trim();
+		LocationIndex index = LocationIndex.getInstance();
+		LocationIndex.Node node = index.getNode(mediumLocation);
+		if(node!=null) {
+			Location location = getLocation(node.getId());
+			if(location!=null && location.getHierarchyFull().equals(mediumLocation)) return Collections.singleton(location);
+		} else {
+			List<Integer> ids = index.getIdsEndingWith(curatedLoc2);
+			if(ids.size()>0) {
+				Set<Location> possibles = new HashSet<>();
+				for (Location location : getLocations(ids)) {
+					if(!(Location.SEPARATOR + location.getHierarchyFull()).endsWith(Location.SEPARATOR + curatedLoc2)) continue;
+					if(user!=null && !SpiritRights.canRead(location, user)) continue;
+					possibles.add(location);
+				}
+				if(possibles.size()>0) return possibles;
+			}
+		}
+
+		//Otherwise, the location may have been created by an other client since the index was built: query the DB
 		//Is the location fully given?
 		String[] split = mediumLocation.split(Location.SEPARATOR, -1);
 		Location current = null;
@@ -529,7 +638,6 @@ public class DAOLocation {
 		q.setName(last);
 		List<Location> locations = queryLocation(q, user);
 
-		String curatedLoc2 = mediumLocation.replaceAll("\\s*"+Location.SEPARATOR+"\\s*", Location.SEPARATOR).trim();
 		for (Location location : locations) {
 			String curatedLoc1 = location.getHierarchyFull();
 			if(!(Location.SEPARATOR + curatedLoc1).endsWith(Location.SEPARATOR + curatedLoc2)) continue;
@@ -587,12 +695,13 @@ public class DAOLocation {
 				l.setParent(parent);
 				l.setUpdUser(user.getUsername());
 				l.setUpdDate(now);
-				session.merge(l);
+				updateIdPath(session, session.merge(l));
 			}
 
 			txn.commit();
 			Cache.getInstance().remove("locationRoots");
 			Cache.getInstance().remove("locations");
+			LocationIndex.invalidate();
 		} finally {
 			if(txn!=null && txn.isActive()) try{txn.rollback();}catch (Exception e) {e.printStackTrace();}
 		}
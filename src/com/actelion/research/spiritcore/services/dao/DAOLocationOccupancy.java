@@ -0,0 +1,259 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.dao;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.business.biosample.Biosample;
+import com.actelion.research.spiritcore.business.location.Location;
+import com.actelion.research.spiritcore.business.location.LocationOccupancy;
+import com.actelion.research.spiritcore.util.QueryTokenizer;
+
+/**
+ * DAO functions to maintain and read the materialized occupancy of the locations (count of biosamples per location).
+ *
+ * The counters are updated incrementally by DAOBiosample: the locations of the biosamples are captured before the changes,
+ * and the differences are applied in the same transaction with atomic updates (the missing counters being first created in a separate transaction).
+ * The other paths saving biosamples (ex: DAORevision) recount the affected locations.
+ *
+ * @author Joel Freyss
+ */
+@SuppressWarnings("unchecked")
+public class DAOLocationOccupancy {
+
+	private static Logger logger = LoggerFactory.getLogger(DAOLocationOccupancy.class);
+
+	private static final String CACHE_KEY = "locationOccupancy";
+
+	/**
+	 * Captures the locationIds of the given biosamples, as saved in the DB. This must be called before the changes are flushed.
+	 * @param session
+	 * @param biosamples
+	 * @return a map of biosampleId to locationId (only for the biosamples having a location)
+	 */
+	public static Map<Integer, Integer> snapshotBiosamples(EntityManager session, Collection<Biosample> biosamples) {
+		Map<Integer, Integer> res = new HashMap<>();
+		List<Integer> ids = JPAUtil.getIds(biosamples);
+		if(ids.size()==0) return res;
+		List<Object[]> rows = session.createQuery("select b.id, b.location.id from Biosample b where b.location is not null and " + QueryTokenizer.expandForIn("b.id", ids))
+				.setFlushMode(FlushModeType.COMMIT)
+				.getResultList();
+		for (Object[] row : rows) {
+			res.put((Integer) row[0], (Integer) row[1]);
+		}
+		return res;
+	}
+
+	/**
+	 * Applies the differences between the snapshot and the given biosamples (which are saved or deleted)
+	 * @param session
+	 * @param before
+	 * @param biosamples
+	 * @param deleted
+	 */
+	public static void applyBiosamples(EntityManager session, Map<Integer, Integer> before, Collection<Biosample> biosamples, boolean deleted) {
+		Map<Integer, Integer> deltas = new HashMap<>();
+		for (Biosample b : biosamples) {
+			Integer oldLocationId = before.get(b.getId());
+			Integer newLocationId = deleted || b.getLocation()==null || b.getLocation().getId()<=0? null: b.getLocation().getId();
+			if(oldLocationId!=null && oldLocationId.equals(newLocationId)) continue;
+			if(oldLocationId!=null) deltas.merge(oldLocationId, -1, Integer::sum);
+			if(newLocationId!=null) deltas.merge(newLocationId, 1, Integer::sum);
+		}
+		if(deltas.size()==0) return;
+
+		long s = System.currentTimeMillis();
+		List<Integer> increased = new ArrayList<>();
+		for (Map.Entry<Integer, Integer> e : deltas.entrySet()) {
+			if(e.getValue()>0) increased.add(e.getKey());
+		}
+		createMissingCounters(increased);
+		for (Map.Entry<Integer, Integer> e : deltas.entrySet()) {
+			if(e.getValue()==0) continue;
+			int n = session.createQuery("update LocationOccupancy o set o.counter = o.counter + ?1 where o.locationId = ?2")
+					.setParameter(1, e.getValue())
+					.setParameter(2, e.getKey())
+					.executeUpdate();
+			if(n==0 && e.getValue()>0) {
+				//The counter was deleted in the meantime (deleted location)
+				session.persist(new LocationOccupancy(e.getKey(), e.getValue()));
+			}
+		}
+		Cache.getInstance().remove(CACHE_KEY);
+		logger.debug("Updated the occupancy of " + deltas.size() + " locations in " + (System.currentTimeMillis()-s) + "ms");
+	}
+
+	/**
+	 * Creates the missing counters (with a value of 0) in a separate transaction, so that the counters are then only updated atomically
+	 * (an update followed by an insert would fail if 2 transactions insert the same counter).
+	 * The counters are never deleted, except with their location, so that a created counter cannot disappear before it is updated.
+	 * If a concurrent transaction creates the same counter, the insert fails and is retried once.
+	 * @param locationIds
+	 */
+	private static void createMissingCounters(Collection<Integer> locationIds) {
+		if(locationIds.size()==0) return;
+		EntityManager em = JPAUtil.createManager();
+		try {
+			for (int attempt = 0; attempt < 2; attempt++) {
+				EntityTransaction txn = em.getTransaction();
+				try {
+					Set<Integer> missing = new HashSet<>(locationIds);
+					missing.removeAll(em.createQuery("select o.locationId from LocationOccupancy o where " + QueryTokenizer.expandForIn("o.locationId", locationIds)).getResultList());
+					if(missing.size()==0) return;
+					txn.begin();
+					for (Integer id : missing) {
+						em.persist(new LocationOccupancy(id, 0));
+					}
+					txn.commit();
+					return;
+				} catch(PersistenceException e) {
+					logger.debug("Could not create the counters (concurrent insert?): " + e.getMessage());
+					if(txn.isActive()) txn.rollback();
+					em.clear();
+				}
+			}
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Recounts the occupancy of the locations of the given biosamples (before and after the changes), from the biosamples in the DB.
+	 * This is used when the biosamples are saved without going through DAOBiosample (ex: restoring a revision), so that the counters do not drift.
+	 * @param session
+	 * @param before - the snapshot taken before the changes
+	 * @param biosamples
+	 */
+	public static void recountBiosamples(EntityManager session, Map<Integer, Integer> before, Collection<Biosample> biosamples) {
+		Set<Integer> locationIds = new HashSet<>(before.values());
+		for (Biosample b : biosamples) {
+			if(b.getLocation()!=null && b.getLocation().getId()>0) locationIds.add(b.getLocation().getId());
+		}
+		if(locationIds.size()==0) return;
+
+		createMissingCounters(locationIds);
+		session.flush();
+		session.createQuery("update LocationOccupancy o set o.counter = (select count(b.id) from Biosample b where b.location.id = o.locationId) where " + QueryTokenizer.expandForIn("o.locationId", locationIds))
+				.executeUpdate();
+		Cache.getInstance().remove(CACHE_KEY);
+	}
+
+	/**
+	 * Removes the counters of deleted locations
+	 * @param session
+	 * @param locationIds
+	 */
+	public static void deleteLocations(EntityManager session, Collection<Integer> locationIds) {
+		if(locationIds.size()==0) return;
+		session.createQuery("delete from LocationOccupancy o where " + QueryTokenizer.expandForIn("o.locationId", locationIds)).executeUpdate();
+		Cache.getInstance().remove(CACHE_KEY);
+	}
+
+	/**
+	 * Returns the cached map of locationId to number of biosamples (the empty locations are not included)
+	 * @return
+	 */
+	private static Map<Integer, Integer> getCounters() {
+		Map<Integer, Integer> res = (Map<Integer, Integer>) Cache.getInstance().get(CACHE_KEY);
+		if(res==null) {
+			res = new HashMap<>();
+			List<Object[]> rows = JPAUtil.getManager().createQuery("select o.locationId, o.counter from LocationOccupancy o").getResultList();
+			for (Object[] row : rows) {
+				if((Integer) row[1]>0) res.put((Integer) row[0], (Integer) row[1]);
+			}
+			Cache.getInstance().add(CACHE_KEY, res, Cache.FAST);
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the number of biosamples in the given location, without loading them
+	 * @param location
+	 * @return
+	 */
+	public static int getOccupancy(Location location) {
+		if(location==null || location.getId()<=0) return 0;
+		Integer n = getCounters().get(location.getId());
+		return n==null? 0: n;
+	}
+
+	/**
+	 * Returns the number of biosamples in the given location and all its descendants, without loading them
+	 * @param location
+	 * @return
+	 */
+	public static int getOccupancyRec(Location location) {
+		if(location==null || location.getId()<=0) return 0;
+		Map<Integer, Integer> counters = getCounters();
+		int res = 0;
+		for (int id : LocationIndex.getInstance().getChildrenRecIds(location.getId(), 10)) {
+			Integer n = counters.get(id);
+			if(n!=null) res += n;
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the bitmap of the occupied positions of the given location (sized from rows*cols), loaded from the positions saved in the DB.
+	 * Prefer {@link Location#getOccupiedPositions()}, which also considers the unsaved changes if the biosamples are loaded.
+	 * @param location
+	 * @return
+	 */
+	public static BitSet getOccupiedPositions(Location location) {
+		BitSet res = new BitSet(Math.max(0, location.getSize()));
+		if(location.getId()<=0) return res;
+		List<Integer> positions = JPAUtil.getManager().createQuery("select b.pos from Biosample b where b.location.id = ?1 and b.pos >= 0")
+				.setParameter(1, location.getId())
+				.getResultList();
+		for (Integer pos : positions) {
+			res.set(pos);
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the first free position of the given location, starting from startPos (or -1 if the location is full or has no positions)
+	 * @param location
+	 * @param startPos
+	 * @return
+	 */
+	public static int getNextFreePosition(Location location, int startPos) {
+		if(location.getSize()<=0) return -1;
+		int pos = location.getOccupiedPositions().nextClearBit(Math.max(0, startPos));
+		return pos<location.getSize()? pos: -1;
+	}
+}
@@ -24,50 +24,116 @@ package com.actelion.research.spiritcore.services.dao;
 import java.net.InetAddress;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
 import javax.persistence.Query;
 
+import org.slf4j.LoggerFactory;
+
 import com.actelion.research.spiritcore.business.audit.LogEntry;
 import com.actelion.research.spiritcore.util.QueryTokenizer;
+import com.actelion.research.util.WriteBehindQueue;
 
 /**
  * Class responsible for logging user activity (login success, login failure).
  *
+ * The log entries are queued and written by batches in a background thread, so that the caller never waits on the DB.
+ *
  * @author Joel Freyss
  */
 public class DAOLog {
 
+	private static final int QUEUE_CAPACITY = 1000;
+	private static final long FLUSH_INTERVAL_MS = 2000;
+
+	private static String ipAddress;
+
+	private static final WriteBehindQueue<LogEntry> queue = new WriteBehindQueue<LogEntry>("DAOLog", QUEUE_CAPACITY, FLUSH_INTERVAL_MS,
+			log -> log.getUser() + "_" + log.getAction() + "_" + log.getDate().getTime(),
+			DAOLog::persistLogs);
+
 	public static void log(String user, LogEntry.Action action) {
 		log(user, action, "");
 	}
 
+	/**
+	 * Queues a log entry, without blocking. The entry is persisted by the background thread.
+	 * The date is the local date (the difference with the DB time is applied when the entry is persisted)
+	 * @param user
+	 * @param action
+	 * @param comments
+	 */
 	public static void log(String user, LogEntry.Action action, String comments) {
 		assert user!=null;
 		assert action!=null;
 
-		String pcName = "";
-		try {
-			InetAddress localMachine = InetAddress.getLocalHost();
-			pcName = localMachine==null? null: localMachine.getHostAddress();
-		} catch(Exception e) {
-			System.err.println(e);
-		}
-
 		LogEntry log = new LogEntry();
 		log.setUser(user);
-		log.setDate(JPAUtil.getCurrentDateFromDatabase());
+		log.setDate(new Date());
 		log.setAction(action);
 		log.setComments(comments);
-		log.setIpAddress(pcName);
+		queue.offer(log);
+	}
+
+	/**
+	 * Writes the pending log entries (called by the background thread, or to force the write).
+	 * Waits for the batch being written, if any. Called by JPAUtil.closeFactory, before the factory is closed
+	 */
+	public static void flush() {
+		queue.flush();
+	}
+
+	/**
+	 * Persists a batch of logs in one transaction.
+	 * If the batch fails, the logs are persisted one by one, so that only the failing entries are skipped
+	 * @param logs
+	 */
+	private static void persistLogs(List<LogEntry> logs) {
+		//Convert the local dates to DB dates, and make sure the keys are unique
+		long timeDiff = JPAUtil.getCurrentDateFromDatabase().getTime() - System.currentTimeMillis();
+		Set<String> keys = new HashSet<>();
+		String ip = getIpAddress();
+		for (LogEntry log : logs) {
+			long time = log.getDate().getTime() + timeDiff;
+			while(!keys.add(log.getUser() + "_" + log.getAction() + "_" + time)) time++;
+			log.setDate(new Date(time));
+			log.setIpAddress(ip);
+		}
+
+		try {
+			persist(logs);
+		} catch(Exception e) {
+			if(logs.size()==1) throw e;
+			LoggerFactory.getLogger(DAOLog.class).warn("Could not persist " + logs.size() + " logs in one transaction, retrying one by one: " + e);
+			int skipped = 0;
+			RuntimeException firstError = null;
+			for (LogEntry log : logs) {
+				try {
+					persist(Collections.singletonList(log));
+				} catch(RuntimeException e2) {
+					LoggerFactory.getLogger(DAOLog.class).warn("Skip log " + log.getUser() + " " + log.getAction() + " " + log.getDate() + ": " + e2);
+					if(firstError==null) firstError = e2;
+					skipped++;
+				}
+			}
+			//Nothing could be written (ex: the DB is not reachable)
+			if(skipped==logs.size()) throw firstError;
+		}
+	}
 
+	private static void persist(List<LogEntry> logs) {
 		EntityManager em = JPAUtil.createManager();
 		EntityTransaction txn = em.getTransaction();
 		try {
 			txn.begin();
-			em.persist(log);
+			for (LogEntry log : logs) {
+				em.persist(log);
+			}
 			txn.commit();
 		} catch(Exception e) {
 			if(txn!=null && txn.isActive()) txn.rollback();
@@ -77,7 +143,27 @@ public class DAOLog {
 		}
 	}
 
+	/**
+	 * Returns the IP address of this computer (resolved once)
+	 * @return
+	 */
+	private static String getIpAddress() {
+		if(ipAddress==null) {
+			try {
+				InetAddress localMachine = InetAddress.getLocalHost();
+				ipAddress = localMachine==null? "": localMachine.getHostAddress();
+			} catch(Exception e) {
+				System.err.println(e);
+				ipAddress = "";
+			}
+		}
+		return ipAddress;
+	}
+
 	public static List<LogEntry> getLogs(String user, LogEntry.Action action, int sinceDays) {
+		//Make sure the pending logs are visible
+		flush();
+
 		EntityManager em = JPAUtil.createManager();
 		try {
 			Query query = em.createQuery("from LogEntry l where 1=1" +
@@ -62,6 +62,7 @@ import com.actelion.research.spiritcore.business.study.Phase;
 import com.actelion.research.spiritcore.business.study.Study;
 import com.actelion.research.spiritcore.services.SpiritRights;
 import com.actelion.research.spiritcore.services.SpiritUser;
+import com.actelion.research.spiritcore.services.dao.DAOStudyStatistic.Snapshot;
 import com.actelion.research.spiritcore.services.helper.ExpressionHelper;
 import com.actelion.research.spiritcore.util.ListHashMap;
 import com.actelion.research.spiritcore.util.MiscUtils;
@@ -91,11 +92,25 @@ public class DAOResult {
 
 	public static List<Result> getResults(Collection<Integer> ids) throws Exception  {
 		EntityManager session = JPAUtil.getManager();
-		List<Result> results = session.createQuery("from Result r left join fetch r.biosample where " + QueryTokenizer.expandForIn("r.id", ids)).getResultList();
+		List<Result> results = QueryLog.createQuery(session, "from Result r left join fetch r.biosample where " + QueryTokenizer.expandForIn("r.id", ids)).getResultList();
 		postLoad(results);
 		return results;
 	}
 
+	/**
+	 * Queries the results, and loads the associations of the given plan
+	 * @param q
+	 * @param user
+	 * @param plan - ex: RESULT_FOR_PIVOT, or null
+	 * @return
+	 * @throws Exception
+	 */
+	public static List<Result> queryResults(ResultQuery q, SpiritUser user, FetchPlan plan) throws Exception  {
+		List<Result> results = queryResults(JPAUtil.getManager(), q, user);
+		if(plan!=null) plan.load(results);
+		return results;
+	}
+
 	public static List<Result> queryResults(EntityManager session, ResultQuery q, SpiritUser user) throws Exception  {
 		//Create a new query per Test
 		long s = System.currentTimeMillis();
@@ -112,13 +127,14 @@ public class DAOResult {
 			}
 		}
 		postLoad(results);
+		SpiritMetrics.getInstance().record("DAOResult.queryResults", s, results.size());
 		logger.debug("Query done in "+(System.currentTimeMillis()-s)+"ms > unique results="+results.size());
 
 
 		return results;
 	}
 
-	private static void postLoad(Collection<Result> results) {
+	static void postLoad(Collection<Result> results) {
 		//Load linked biosamples
 		ListHashMap<String,  ResultValue> sampleId2rvs = new ListHashMap<>();
 		Map<Test, List<Result>> map = Result.mapTest(results);
@@ -183,7 +199,10 @@ public class DAOResult {
 		return updated;
 	}
 
-	private static List<Result> getResults(EntityManager session, ResultQuery q) throws Exception {
+	/**
+	 * Creates the JPQL query, starting with the given select (which must define r, the result, and b, the biosample)
+	 */
+	private static Query createQuery(EntityManager session, String select, ResultQuery q) {
 		StringBuilder clause = new StringBuilder();
 		List<Object> parameters = new ArrayList<>();
 
@@ -342,7 +361,7 @@ public class DAOResult {
 			clause.append(" and (" + QueryTokenizer.expandQuery(expr.toString(), q.getKeywords(), true, true) + ")");
 		}
 
-		String jpql = "SELECT r FROM Result r left join fetch r.biosample b ";
+		String jpql = select;
 
 		if(clause.length()>0) {
 			assert clause.subSequence(0,4).equals(" and"): "clause == '"+clause+"'";
@@ -351,15 +370,18 @@ public class DAOResult {
 
 		jpql = JPAUtil.makeQueryJPLCompatible(jpql);
 
-		Query jpaQuery = session.createQuery(jpql);
+		Query jpaQuery = QueryLog.createQuery(session, jpql);
 		for (int i = 0; i < parameters.size(); i++) {
 			jpaQuery.setParameter(i+1, parameters.get(i));
 		}
 		if(q.getMaxResults()>0) {
 			jpaQuery.setMaxResults(q.getMaxResults());
 		}
+		return jpaQuery;
+	}
 
-		List<Result> results = jpaQuery.getResultList();
+	private static List<Result> getResults(EntityManager session, ResultQuery q) throws Exception {
+		List<Result> results = createQuery(session, "SELECT r FROM Result r left join fetch r.biosample b ", q).getResultList();
 
 		//Post filters
 		if(q.getPhases()!=null && q.getPhases().length()>0) {
@@ -407,12 +429,14 @@ public class DAOResult {
 			if(!SpiritRights.canDelete(result, user)) throw new Exception(user+" is not allowed to delete "+result);
 		}
 
+		Snapshot snapshot = DAOStudyStatistic.snapshotResults(session, results);
 		for (Result result : results) {
 			if(!session.contains(result)) {
 				result = session.merge(result);
 			}
 			session.remove(result);
 		}
+		DAOStudyStatistic.applyResults(session, snapshot, results, true);
 	}
 
 
@@ -499,6 +523,7 @@ public class DAOResult {
 		assert session.getTransaction().isActive();
 
 		Date now = JPAUtil.getCurrentDateFromDatabase();
+		Snapshot snapshot = DAOStudyStatistic.snapshotResults(session, results);
 
 		//Quick check of integrity constraints
 		for (Result r : results) {
@@ -518,7 +543,7 @@ public class DAOResult {
 
 
 			Map<Integer, Result> id2result = JPAUtil.mapIds(results);
-			List<Object[]> lastUpdates = session.createQuery("select b.updDate, b.updUser, b.id from Result b where " + QueryTokenizer.expandForIn("b.id", id2result.keySet())).getResultList();
+			List<Object[]> lastUpdates = QueryLog.createQuery(session, "select b.updDate, b.updUser, b.id from Result b where " + QueryTokenizer.expandForIn("b.id", id2result.keySet())).getResultList();
 			for (Object[] lastUpdate : lastUpdates) {
 				Date lastDate = (Date) lastUpdate[0];
 				String lastUser = (String) lastUpdate[1];
@@ -539,13 +564,19 @@ public class DAOResult {
 			Map<Integer, Result> id2after = JPAUtil.mapIds(results);
 			if(removeOlderResults) {
 				//Delete outdated results
+				List<Result> removed = new ArrayList<>();
 				for (Result b : before) {
 					if(!id2after.containsKey(b.getId())) {
-						b.setUpdUser(user.getUsername());
-						b.setUpdDate(now);
-						session.remove(b);
+						removed.add(b);
 					}
 				}
+				Snapshot removedSnapshot = DAOStudyStatistic.snapshotResults(session, removed);
+				for (Result b : removed) {
+					b.setUpdUser(user.getUsername());
+					b.setUpdDate(now);
+					session.remove(b);
+				}
+				DAOStudyStatistic.applyResults(session, removedSnapshot, removed, true);
 			}
 		}
 
@@ -591,6 +622,7 @@ public class DAOResult {
 				logger.debug(count+"/"+results.size()+" rows processed");
 			}
 		}
+		DAOStudyStatistic.applyResults(session, snapshot, results, false);
 
 	}
 
@@ -602,7 +634,7 @@ public class DAOResult {
 			txn = session.getTransaction();
 			txn.begin();
 
-			List<Result> results = session.createQuery("select v.result from ResultValue v where v.value = ?1 and v.attribute.id = ?2")
+			List<Result> results = QueryLog.createQuery(session, "select v.result from ResultValue v where v.value = ?1 and v.attribute.id = ?2")
 					.setParameter(1, value)
 					.setParameter(2, att.getId())
 					.getResultList();
@@ -673,7 +705,7 @@ public class DAOResult {
 		Calendar cal = Calendar.getInstance();
 		cal.set(Calendar.MONTH, cal.get(Calendar.MONTH)-1);
 
-		return session.createQuery("select distinct(r.elb) from Result r where r.creUser = ?1 and r.creDate > ?2")
+		return QueryLog.createQuery(session, "select distinct(r.elb) from Result r where r.creUser = ?1 and r.creDate > ?2")
 				.setParameter(1, user.getUsername())
 				.setParameter(2, cal.getTime())
 				.getResultList();
@@ -844,7 +876,7 @@ public class DAOResult {
 
 		EntityManager session = JPAUtil.getManager();
 		try {
-			List<String> res = session.createQuery("select distinct(r.elb) from Result r where " + QueryTokenizer.expandOrQuery("r.study.studyId = ?", studyIds)).getResultList();
+			List<String> res = QueryLog.createQuery(session, "select distinct(r.elb) from Result r where " + QueryTokenizer.expandOrQuery("r.study.studyId = ?", studyIds)).getResultList();
 			Collections.sort(res);
 			return res;
 		} catch(Exception e) {
@@ -902,7 +934,8 @@ public class DAOResult {
 	}
 
 	/**
-	 * Load the results of Weighing, FoodWater, Observation, extraMesurements that could be performed on the top specimen
+	 * Load the results of Weighing, FoodWater, Observation, extraMesurements that could be performed on the top specimen.
+	 * Use StudyResultIndex.createForTops to reuse the loaded results for several calls
 	 * @param study
 	 * @param allBiosamples
 	 * @param phaseFilter
@@ -911,17 +944,7 @@ public class DAOResult {
 	 */
 	public static void attachOrCreateStudyResultsToTops(Study study, Collection<Biosample> allBiosamples, Phase phaseFilter, String elbForCreatingMissingOnes) throws Exception  {
 		if(allBiosamples==null) allBiosamples = study.getParticipants();
-		Test weighingTest = DAOTest.getTest(DAOTest.WEIGHING_TESTNAME);
-		Test fwTest = DAOTest.getTest(DAOTest.FOODWATER_TESTNAME);
-		Test obsTest = DAOTest.getTest(DAOTest.OBSERVATION_TESTNAME);
-		if(weighingTest==null || fwTest==null || obsTest==null) throw new Exception("You must create the tests: " + DAOTest.WEIGHING_TESTNAME + "(output=weight [g]), " + DAOTest.FOODWATER_TESTNAME + "(output=[food [g], water [ml]]) , " + DAOTest.OBSERVATION_TESTNAME + "(output=observation)");
-
-		List<Test> tests = new ArrayList<>();
-		tests.add(weighingTest);
-		tests.add(fwTest);
-		tests.add(obsTest);
-		tests.addAll(Measurement.getTests(study.getAllMeasurementsFromActions()));
-		attachOrCreateStudyResults(study, false, allBiosamples, tests, phaseFilter, elbForCreatingMissingOnes);
+		StudyResultIndex.createForTops(study).attach(allBiosamples, phaseFilter, elbForCreatingMissingOnes);
 	}
 
 
@@ -939,80 +962,7 @@ public class DAOResult {
 	 */
 	public static void attachOrCreateStudyResultsToSamples(Study study, Collection<Biosample> allBiosamples, Phase phaseFilter, String elbForCreatingMissingOnes) throws Exception  {
 		if(allBiosamples==null) allBiosamples = study.getParticipants();
-		Test weighingTest = DAOTest.getTest(DAOTest.WEIGHING_TESTNAME);
-		Test lengthTest = DAOTest.getTest(DAOTest.LENGTH_TESTNAME);
-		Test obsTest = DAOTest.getTest(DAOTest.OBSERVATION_TESTNAME);
-		if(weighingTest==null || lengthTest==null || obsTest==null) throw new Exception("You must create the tests: " + DAOTest.WEIGHING_TESTNAME + "(output=weight [g]), " + DAOTest.LENGTH_TESTNAME + "(output=length) , " + DAOTest.OBSERVATION_TESTNAME + "(output=observation)");
-
-		List<Test> tests = new ArrayList<>();
-		tests.add(weighingTest);
-		tests.add(lengthTest);
-		tests.add(obsTest);
-		tests.addAll(Measurement.getTests(study.getAllMeasurementsFromSamplings()));
-		attachOrCreateStudyResults(study, true, allBiosamples, tests, phaseFilter, elbForCreatingMissingOnes);
-	}
-
-
-	/**
-	 * Load result from the DB or create new ones
-	 * @param study
-	 * @param allBiosamples
-	 * @param phaseFilter - not null to return only results for the specified phase + the weight of the animal at this phase
-	 * @param user
-	 * @throws Exception
-	 */
-	private static void attachOrCreateStudyResults(Study study, boolean skipEmptyPhase, Collection<Biosample> biosamples, Collection<Test> tests, Phase phaseFilter, String elbForCreatingMissingOnes) throws Exception  {
-		Set<Biosample> allBiosamples = new HashSet<>(biosamples);
-		//Clean previous data
-		if(phaseFilter!=null) {
-			for (Biosample biosample : allBiosamples) {
-				biosample.clearAuxResults(phaseFilter);
-			}
-		}
-
-
-		//Query all results associated to those samples
-		ResultQuery q = new ResultQuery();
-		q.setQuality(null);
-		q.setBids(JPAUtil.getIds(allBiosamples));
-		q.getTestIds().addAll(JPAUtil.getIds(tests));
-		q.setPhase(phaseFilter);
-
-		List<Result> results = queryResults(q, null);
-
-		//Map the result to the associated biosample
-		Map<Integer,Biosample> map = JPAUtil.mapIds(allBiosamples);
-		for (Result result : results) {
-			Phase p = result.getInheritedPhase();
-
-			if(p==null) continue;
-			if(phaseFilter==null && skipEmptyPhase && result.getBiosample().getInheritedPhase()==null) continue; //if no phase filter -> returns only samples
-			if(phaseFilter!=null && !phaseFilter.equals(p)) continue; //if phase filter -> returns only results with samples and animals at this phase
-
-			Biosample b = map.get(result.getBiosample().getId());
-			if(b!=null) b.addAuxResult(result);
-		}
-
-		//Create missing results
-		if(elbForCreatingMissingOnes!=null) {
-			for (Biosample biosample : allBiosamples) {
-				Phase p = biosample.getAttachedStudy()==null? biosample.getInheritedPhase(): phaseFilter;
-
-				if(phaseFilter==null && skipEmptyPhase && biosample.getInheritedPhase()==null) continue; //if no phase filter -> returns only samples
-				if(phaseFilter!=null && !phaseFilter.equals(p)) continue; //if phase filter -> returns only results with samples and animals at this phase
-
-				for(Test test: tests) {
-					if(biosample.getAuxResult(test, p)==null) {
-						Result r = new Result(test);
-						r.setElb(elbForCreatingMissingOnes);
-						r.setBiosample(biosample);
-						r.setPhase(biosample.getAttachedStudy()==null? null: phaseFilter);
-						biosample.addAuxResult(r);
-					}
-				}
-			}
-		}
-
+		StudyResultIndex.createForSamples(study).attach(allBiosamples, phaseFilter, elbForCreatingMissingOnes);
 	}
 
 
@@ -1063,7 +1013,7 @@ public class DAOResult {
 
 
 
-		Query jpaQuery = session.createQuery(jpql.toString());
+		Query jpaQuery = QueryLog.createQuery(session, jpql.toString());
 		List<Biotype> res = jpaQuery.getResultList();
 
 		return res;
@@ -1114,6 +1064,7 @@ public class DAOResult {
 	 * Lazy loading of all attributes linked to results
 	 */
 	public static void fullLoad(Collection<Result> results) {
+		FetchPlan.RESULT_FOR_PIVOT.load(results);
 		Set<Biosample> biosamples = new HashSet<>();
 		for (Result result : results) {
 			biosamples.add(result.getBiosample());
@@ -141,6 +141,7 @@ public class DAORevision {
 			query.addOrder(AuditEntity.revisionNumber().desc());
 		}
 		List<Revision> revisions = getRevisions(query.getResultList());
+		SpiritMetrics.getInstance().record("DAORevision.getLastRevisions", s, revisions.size());
 		LoggerFactory.getLogger(DAORevision.class).debug("Loaded revisions for " + claz.getSimpleName() + "("+entityId + ") maxRevId="+maxRevId + "-" + n + " in " + (System.currentTimeMillis()-s)+"ms");
 		return revisions;
 	}
@@ -208,6 +209,7 @@ public class DAORevision {
 			session.detach(t);
 		}
 
+		SpiritMetrics.getInstance().record("DAORevision.getHistory", s, res.size());
 		LoggerFactory.getLogger(DAORevision.class).debug("Loaded history for " + claz.getSimpleName() + ": (" + objectId + ") in " + (System.currentTimeMillis()-s) + "ms");
 		return res;
 	}
@@ -254,6 +256,7 @@ public class DAORevision {
 		if(query.isAdmin()) entityClasses.add(SpiritProperty.class);
 
 		List<Revision> revisions = getRevisions(queryForRevisions(reader, entityClasses, rev1, rev2, query.getUserIdFilter(), query.getSidFilter(), query.getStudyIdFilter()));
+		SpiritMetrics.getInstance().record("DAORevision.queryRevisions", s, revisions.size());
 		LoggerFactory.getLogger(DAORevision.class).debug("Loaded revisions in "+(System.currentTimeMillis()-s)+"ms");
 
 		//Post filter per study
@@ -383,12 +386,18 @@ public class DAORevision {
 			if(comments==null || comments.trim().length()==0) throw new Exception("You must give a reason");
 			txn.begin();
 			Date now = JPAUtil.getCurrentDateFromDatabase();
+			List<Biosample> biosamples = new ArrayList<>();
+			for (IObject entity : objects) {
+				if(entity instanceof Biosample) biosamples.add((Biosample) entity);
+			}
+			Map<Integer, Integer> locationSnapshot = DAOLocationOccupancy.snapshotBiosamples(session, biosamples);
 			Map<String, IObject> mapMerged = new HashMap<>();
 			for (IObject entity : objects) {
 				remap(session, entity, now, user, comments, mapMerged);
 				session.merge(entity);
 				mapMerged.put(entity.getClass() + "_" + entity.getId(), null);
 			}
+			DAOLocationOccupancy.recountBiosamples(session, locationSnapshot, biosamples);
 			txn.commit();
 			txn = null;
 		} catch (Exception e) {
@@ -423,6 +432,8 @@ public class DAORevision {
 
 			//Query modified entities during this revision
 			Map<String, IObject> mapMerged = new HashMap<>();
+			List<Biosample> biosamples = new ArrayList<>();
+			Map<Integer, Integer> locationSnapshot = new HashMap<>();
 			txn.begin();
 
 			for(Class<IObject> claz : new Class[]{Biotype.class, Test.class, Study.class, Location.class, Biosample.class, Result.class}) {
@@ -453,6 +464,11 @@ public class DAORevision {
 				}
 
 				LoggerFactory.getLogger(DAORevision.class).debug(claz+" >  toMerge="+toMerge.size()+" toDelete="+toDelete.size());
+				if(Biosample.class.equals(claz)) {
+					for (IObject o : toMerge) biosamples.add((Biosample) o);
+					for (IObject o : toDelete) biosamples.add((Biosample) o);
+					locationSnapshot.putAll(DAOLocationOccupancy.snapshotBiosamples(session, biosamples));
+				}
 				int step = 0;
 				while(toMerge.size()>0 && step++<10) {
 					for (IObject o : new ArrayList<>(toMerge)) {
@@ -470,6 +486,7 @@ public class DAORevision {
 					session.remove(o);
 				}
 			}
+			DAOLocationOccupancy.recountBiosamples(session, locationSnapshot, biosamples);
 			txn.commit();
 			txn = null;
 		} catch (Exception e) {
@@ -65,6 +65,7 @@ import com.actelion.research.spiritcore.business.study.Sampling;
 import com.actelion.research.spiritcore.business.study.Study;
 import com.actelion.research.spiritcore.business.study.StudyAction;
 import com.actelion.research.spiritcore.business.study.StudyQuery;
+import com.actelion.research.spiritcore.business.study.StudyStatistic.StatisticType;
 import com.actelion.research.spiritcore.services.SpiritRights;
 import com.actelion.research.spiritcore.services.SpiritUser;
 import com.actelion.research.spiritcore.util.MiscUtils;
@@ -140,8 +141,20 @@ public class DAOStudy {
 	}
 
 	protected static void postLoad(Collection<Study> studies) {
+		postLoad(studies, null);
+	}
+
+	/**
+	 * Loads the associations of the given plan (STUDY_DESIGN by default), and the tests from the serialized measurements
+	 * @param studies
+	 * @param plan - a plan including STUDY_DESIGN, or null
+	 */
+	protected static void postLoad(Collection<Study> studies, FetchPlan plan) {
 		if(studies==null) return;
 
+		//1st pass: load the design (actions and samplings are needed below)
+		(plan==null? FetchPlan.STUDY_DESIGN: plan).load(studies);
+
 		//2nd loading pass: load the tests from the serialized measurements
 		Set<Integer> testIds = new HashSet<>();
 		for (Study study : studies) {
@@ -182,31 +195,55 @@ public class DAOStudy {
 	}
 
 	public static Study getStudy(int id) {
+		return getStudy(id, null);
+	}
+
+	/**
+	 * Loads the study with the associations of the given plan
+	 * @param id
+	 * @param plan - STUDY_DESIGN, STUDY_WITH_PARTICIPANTS or null for the design
+	 * @return
+	 */
+	public static Study getStudy(int id, FetchPlan plan) {
 		EntityManager session = JPAUtil.getManager();
 		List<Study> res = session.createQuery("select s from Study s where s.id = ?1")
 				.setParameter(1, id)
 				.getResultList();
 		Study s = res.size()==1? res.get(0): null;
-		if(s!=null) postLoad(Collections.singleton(s));
+		if(s!=null) postLoad(Collections.singleton(s), plan);
 		return s;
 	}
 
 	public static Study getStudyByStudyId(String studyId) {
+		return getStudyByStudyId(studyId, null);
+	}
+
+	/**
+	 * Loads the study with the associations of the given plan
+	 * @param studyId
+	 * @param plan - STUDY_DESIGN, STUDY_WITH_PARTICIPANTS or null for the design
+	 * @return
+	 */
+	public static Study getStudyByStudyId(String studyId, FetchPlan plan) {
 		EntityManager session = JPAUtil.getManager();
 		List<Study> res = session.createQuery("select s from Study s where s.studyId = ?1")
 				.setParameter(1, studyId)
 				.getResultList();
 		Study s = res.size()==1? res.get(0): null;
-		if(s!=null) postLoad(Collections.singleton(s));
+		if(s!=null) postLoad(Collections.singleton(s), plan);
 		return s;
 	}
 
 	public static List<Study> getStudyByLocalIdOrStudyIds(String ids) {
+		return getStudyByLocalIdOrStudyIds(ids, null);
+	}
+
+	public static List<Study> getStudyByLocalIdOrStudyIds(String ids, FetchPlan plan) {
 		EntityManager session = JPAUtil.getManager();
 		try {
 			String sql = "select s from Study s where " + QueryTokenizer.expandOrQuery("s.localId = ? or s.studyId = ?", ids);
 			List<Study> res = session.createQuery(sql).getResultList();
-			postLoad(res);
+			postLoad(res, plan);
 			return res;
 		} catch(Exception e) {
 			throw new RuntimeException(e);
@@ -362,6 +399,7 @@ public class DAOStudy {
 				if(!SpiritRights.canRead(study, user)) iterator.remove();
 			}
 		}
+		SpiritMetrics.getInstance().record("DAOStudy.queryStudies", s, studies.size());
 		LoggerFactory.getLogger(DAOStudy.class).info("queryStudies() in "+(System.currentTimeMillis()-s)+"ms");
 		return studies;
 	}
@@ -476,6 +514,7 @@ public class DAOStudy {
 		}
 		Cache.getInstance().remove("studies_"+user);
 		Cache.getInstance().remove("allstudies");
+		StudySimilarityIndex.invalidate(res);
 		return res;
 	}
 
@@ -553,13 +592,16 @@ public class DAOStudy {
 			}
 
 			//Remove
+			int studyId = study.getId();
 			study.remove();
 			session.remove(study);
 			session.flush();
+			DAOStudyStatistic.deleteStudies(session, Collections.singleton(studyId));
 		}
 
 		Cache.getInstance().remove("studies_"+user);
 		Cache.getInstance().remove("allstudies");
+		StudySimilarityIndex.invalidate(studies);
 	}
 
 	public static String getNextStudyId() {
@@ -717,142 +759,19 @@ public class DAOStudy {
 		return updated;
 	}
 
-	/*
-	public static List<Study> getRelatedStudies(List<Study> studies, SpiritUser user) {
-		List<Study> res = new ArrayList<>();
-		if(studies.size()==0) {
-			return res;
-		}
-		res.addAll(getRelatedStudies(studies.get(0), user));
-		for (int i = 1; i < studies.size(); i++) {
-			List<Study> r = getRelatedStudies(studies.get(i), user);
-			res.retainAll(r);
-		}
-		res.removeAll(studies);
-		return res;
-	}
-
-	private static String tos(double[] a) {
-		StringBuilder sb = new StringBuilder();
-		for (int j = 0; j < a.length; j++) {
-			sb.append((j>0?",":"") + Formatter.format2(a[j]));
-		}
-		return "["+sb.toString()+"]";
-	}
+	/**
+	 * Returns the studies, whose design is the most similar to the given study (using the StudySimilarityIndex)
+	 * @param study
+	 * @param user (if not null, only the readable studies are returned)
+	 * @return
+	 */
 	public static List<Study> getRelatedStudies(Study study, SpiritUser user) {
-		List<Study> res = new ArrayList<Study>();
-		double[] desc1 = getDescriptors(study);
-		PriorityQueue<Study> queue = new PriorityQueue<Study>();
-		int last1 = study.getLastPhase()==null? 0: study.getLastPhase().getDays();
-		for(Study s: getStudies()) {
-			if(s==study) continue;
-			double score = 0;
-			Set<String> compounds = new HashSet<String>(study.getCompounds());
-			if(compounds.size()>0) {
-				compounds.retainAll(s.getCompounds());
-				score += compounds.size()>0?0: 1;
-			} else if(s.getCompounds().size()>0) {
-				score += .5;
-			}
-//			if(CompareUtils.compare(s.getProject(), study.getProject())!=0) {
-//				score += 1;
-//			}
-
-			int last2 = s.getLastPhase()==null? 0:s.getLastPhase().getDays();
-			score += 3.0 * Math.abs(last1-last2) / Math.max(1, (last1+last2)/2);
-
-
-
-			double[] desc2 = getDescriptors(s);
-			for (int i = 0; i < desc2.length; i++) {
-//				score += Math.abs(desc1[i]-desc2[i]) * 4.0 /desc2.length;
-				score += Math.min(1, Math.abs(desc1[i]-desc2[i]) / ((.2+desc1[i]+desc2[i])/2)) * 4.0 /desc2.length;
-			}
-
-			queue.add(s, score);
-		}
-		for(@SuppressWarnings("rawtypes") Elt e: queue.getList()) {
-			if(res.size()>5) break;
-			Study s = (Study) e.obj;
-			System.out.println("# "+study+" - " + s+" > " + Formatter.format2(e.val) +" > "+ s.getCompounds() + " > " +tos(getDescriptors(s)));
-			res.add(s);
+		List<Study> candidates = new ArrayList<>();
+		for (Study s : getStudies()) {
+			if(user==null || SpiritRights.canRead(s, user)) candidates.add(s);
 		}
-
-		return res;
+		return StudySimilarityIndex.getRelatedStudies(study, candidates);
 	}
-	public static double[] getDescriptors(Study s) {
-		int nMeasurements = 0;
-		int nWeighings = 0;
-		int nTreatments = 0;
-		int nSamplings = 0;
-		int nValid = 0;
-		int nTotal = 0;
-		double maxMeasurements = 0;
-		double maxWeighings = 0;
-		double maxTreatments = 0;
-		double maxSamplings = 0;
-		int nGroupsWithRnd = 0;
-		int nGroupsWithFrom = 0;
-//		int nGroupsWithStrats = 0;
-		int nGroups = 0;
-		for(Group g: s.getGroups()) {
-			nGroups++;
-			if(g.getFromGroup()!=null) nGroupsWithFrom++;
-			if(g.getFromPhase()!=null) nGroupsWithRnd++;
-//			if(g.getSubgroupSize()>1) nGroupsWithStrats++;
-			for(int i=0; i<g.getNSubgroups(); i++) {
-
-				int measurements = 0;
-				int weighings = 0;
-				int treatments = 0;
-				int samplings = 0;
-				int valid = 0;
-				int total = 0;
-				boolean ended = false;
-				for(Phase p: s.getPhases()) {
-					total++;
-					if(g.getEndPhase(i)==p) ended = true;
-					if(!ended) valid++;
-					StudyAction a = s.getStudyAction(g, p, i);
-					if(a==null) continue;
-					if(a.getNamedTreatment()!=null) treatments++;
-					if(a.getNamedSampling1()!=null || a.getNamedSampling2()!=null) samplings++;
-					if(a.hasMeasurements()) measurements++;
-					if(a.isMeasureWeight()) weighings++;
-				}
-				if(total==0) total=1;
-				maxTreatments = Math.max(maxTreatments, (double)treatments/total);
-				maxSamplings = Math.max(maxSamplings, (double)samplings/total);
-				maxMeasurements = Math.max(maxMeasurements, (double)measurements/total);
-				maxWeighings = Math.max(maxWeighings, (double)weighings/total);
-				nTotal+=total;
-
-				nTreatments+=treatments;
-				nSamplings+=samplings;
-				nMeasurements+=measurements;
-				nWeighings+=weighings;
-				nValid+=valid;
-
-			}
-		}
-		if(nTotal==0) nTotal=1;
-		if(nGroups==0) nGroups=1;
-		return new double[] {
-				(double) nGroupsWithFrom/nGroups,
-				(double) nGroupsWithRnd/nGroups,
-				(double)nTreatments/nTotal,
-				maxTreatments,
-				(double)nMeasurements/nTotal,
-				maxMeasurements,
-				(double)nWeighings/nTotal,
-				(double)nSamplings/nTotal,
-				maxSamplings,
-				maxWeighings,
-				(double) nValid/nTotal};
-
-	}
-
-	 */
 
 
 	public static Map<Biotype, Triple<Integer, String, Date>> countRecentSamplesByBiotype(Date minDate) {
@@ -871,6 +790,22 @@ public class DAOStudy {
 	 * @return
 	 */
 	private static Map<Study, Map<Biotype, Triple<Integer, String, Date>>> countSamplesByStudyBiotype(Collection<Study> studies, Date minDate) {
+		if(studies!=null && minDate==null && DAOStudyStatistic.isBuilt()) {
+			//Read the materialized statistics
+			Map<Integer, Biotype> id2biotype = JPAUtil.mapIds(DAOBiotype.getBiotypes());
+			Map<Study, Map<Biotype, Triple<Integer, String, Date>>> res = new HashMap<>();
+			Map<Integer, Study> id2study = JPAUtil.mapIds(studies);
+			for (Map.Entry<Integer, Map<Integer, Triple<Integer, String, Date>>> e : DAOStudyStatistic.getStatistics(id2study.keySet(), StatisticType.BIOTYPE).entrySet()) {
+				Map<Biotype, Triple<Integer, String, Date>> m2 = new TreeMap<>();
+				for (Map.Entry<Integer, Triple<Integer, String, Date>> e2 : e.getValue().entrySet()) {
+					Biotype biotype = id2biotype.get(e2.getKey());
+					if(biotype!=null) m2.put(biotype, e2.getValue());
+				}
+				res.put(id2study.get(e.getKey()), m2);
+			}
+			return res;
+		}
+
 		EntityManager session = JPAUtil.getManager();
 
 		Map<Study, Map<Biotype, Triple<Integer, String, Date>>> res = new HashMap<>();
@@ -934,6 +869,21 @@ public class DAOStudy {
 	public static Map<Study, Map<Test, Triple<Integer, String, Date>>> countResultsByStudyTest(Collection<Study> studies) {
 		assert studies!=null;
 
+		if(DAOStudyStatistic.isBuilt()) {
+			//Read the materialized statistics
+			Map<Study, Map<Test, Triple<Integer, String, Date>>> res = new HashMap<>();
+			Map<Integer, Study> id2study = JPAUtil.mapIds(studies);
+			for (Map.Entry<Integer, Map<Integer, Triple<Integer, String, Date>>> e : DAOStudyStatistic.getStatistics(id2study.keySet(), StatisticType.TEST).entrySet()) {
+				Map<Test, Triple<Integer, String, Date>> m2 = new TreeMap<>();
+				for (Map.Entry<Integer, Triple<Integer, String, Date>> e2 : e.getValue().entrySet()) {
+					Test t = DAOTest.getTest(e2.getKey());
+					if(t!=null) m2.put(t, e2.getValue());
+				}
+				res.put(id2study.get(e.getKey()), m2);
+			}
+			return res;
+		}
+
 		EntityManager session = JPAUtil.getManager();
 
 		Map<Study, Map<Test, Triple<Integer, String, Date>>> res = new HashMap<>();
@@ -1011,6 +961,16 @@ public class DAOStudy {
 		EntityManager session = JPAUtil.getManager();
 
 		Map<Phase, Pair<Integer, Integer>> res = new TreeMap<>();
+		if(DAOStudyStatistic.isBuilt()) {
+			//Read the materialized statistics
+			Map<Integer, int[]> counts = DAOStudyStatistic.getPhaseStatistics(study.getPhases());
+			for (Phase p : study.getPhases()) {
+				int[] c = counts.get(p.getId());
+				res.put(p, new Pair<Integer, Integer>(c==null? 0: c[0], c==null? 0: c[1]));
+			}
+			return res;
+		}
+
 		List<Object[]> results;
 		String sql = "select p, (select count(*) from Biosample b where b.inheritedPhase = p), (select count(*) from Result r where r.phase = p)"
 				+ " from Phase p where p.study.id = " + study.getId();
@@ -1047,24 +1007,12 @@ public class DAOStudy {
 	 * Fully load a study for the display (attached, sampling, treatment, actions)
 	 * @param study
 	 */
-	@SuppressWarnings("unused")
 	public static void fullLoad(Study study) {
 		if(study!=null) {
-			for(Biosample b: study.getParticipants()) {
-
-			}
-			for(Group g: study.getGroups()) {
-				g.getFromGroup();
-				g.getFromPhase();
-			}
-
+			FetchPlan.STUDY_WITH_PARTICIPANTS.load(Collections.singleton(study));
 			for(Phase p: study.getPhases()) {
 				p.getRandomization();
 			}
-
-			for(NamedTreatment ns: study.getNamedTreatments()) {}
-			for(NamedSampling ns: study.getNamedSamplings()) {}
-			for(StudyAction a: study.getStudyActions()) {}
 		}
 	}
 
@@ -0,0 +1,445 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.business.biosample.Biosample;
+import com.actelion.research.spiritcore.business.result.Result;
+import com.actelion.research.spiritcore.business.study.Phase;
+import com.actelion.research.spiritcore.business.study.StudyStatistic;
+import com.actelion.research.spiritcore.business.study.StudyStatistic.StatisticType;
+import com.actelion.research.spiritcore.services.SpiritRights;
+import com.actelion.research.spiritcore.services.SpiritUser;
+import com.actelion.research.spiritcore.util.QueryTokenizer;
+import com.actelion.research.spiritcore.util.Triple;
+
+/**
+ * DAO functions to maintain and read the materialized study statistics (count of biosamples/results per study and biotype/test/phase/user).
+ *
+ * The statistics are updated incrementally by the persist/delete functions of DAOBiosample and DAOResult:
+ * the keys of the objects are captured before the changes (Snapshot), and the differences are applied once the transaction is committed,
+ * in a separate transaction, so that a failure of the statistics never rolls back the saved objects (the statistics are then disabled until they are rebuilt).
+ * They are only maintained and used after they have been built by an admin, otherwise the dashboards keep aggregating the biosample/result tables.
+ *
+ * @author Joel Freyss
+ */
+@SuppressWarnings("unchecked")
+public class DAOStudyStatistic {
+
+	private static Logger logger = LoggerFactory.getLogger(DAOStudyStatistic.class);
+
+	private static final String CACHE_BUILT = "studystatistic_built";
+
+	/**
+	 * The statistic keys of the objects (as saved in the DB), captured before they are updated or deleted
+	 */
+	public static class Snapshot {
+		private final Map<Integer, List<StudyStatistic>> id2keys = new HashMap<>();
+		private final Map<Integer, Integer> id2study = new HashMap<>();
+		private final boolean enabled;
+
+		private Snapshot(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		/**
+		 * Captures the keys of a saved biosample from its current values (used for the children, which are updated by propagation)
+		 * @param b
+		 * @return true if the biosample was not yet captured
+		 */
+		public boolean add(Biosample b) {
+			if(!enabled || b.getId()<=0 || id2keys.containsKey(b.getId())) return false;
+			int studyId = b.getInheritedStudy()==null? 0: b.getInheritedStudy().getId();
+			id2keys.put(b.getId(), getKeys(studyId, b.getBiotype().getId(), b.getInheritedPhase()==null? null: b.getInheritedPhase().getId(), b.getUpdUser(), StatisticType.BIOTYPE, StatisticType.BIOSAMPLE_PHASE));
+			id2study.put(b.getId(), studyId);
+			return true;
+		}
+	}
+
+	/**
+	 * Returns true if the statistics were built, and can be used instead of aggregating the biosample/result tables.
+	 * The result is cached, so that the statistics do not cost a query for each save
+	 * @return
+	 */
+	public static boolean isBuilt() {
+		Boolean built = (Boolean) Cache.getInstance().get(CACHE_BUILT);
+		if(built==null) {
+			built = isBuilt(JPAUtil.getManager());
+			Cache.getInstance().add(CACHE_BUILT, built, Cache.FAST);
+		}
+		return built;
+	}
+
+	private static boolean isBuilt(EntityManager session) {
+		return session.createQuery("select s.lastDate from StudyStatistic s where s.type = ?1")
+				.setParameter(1, StatisticType.BUILD)
+				.setFlushMode(FlushModeType.COMMIT)
+				.setMaxResults(1)
+				.getResultList().size()>0;
+	}
+
+	/**
+	 * Captures the keys of the given biosamples, as saved in the DB. This must be called before the changes are flushed.
+	 * @param session
+	 * @param biosamples
+	 * @return
+	 */
+	public static Snapshot snapshotBiosamples(EntityManager session, Collection<Biosample> biosamples) {
+		Snapshot snapshot = new Snapshot(isBuilt());
+		List<Integer> ids = JPAUtil.getIds(biosamples);
+		if(!snapshot.enabled || ids.size()==0) return snapshot;
+
+		List<Object[]> rows = session.createQuery("select b.id, s.id, bt.id, p.id, b.updUser from Biosample b join b.biotype bt left join b.inheritedStudy s left join b.inheritedPhase p"
+				+ " where " + QueryTokenizer.expandForIn("b.id", ids))
+				.setFlushMode(FlushModeType.COMMIT)
+				.getResultList();
+		for (Object[] row : rows) {
+			int studyId = row[1]==null? 0: (Integer) row[1];
+			snapshot.id2keys.put((Integer) row[0], getKeys(studyId, (Integer) row[2], (Integer) row[3], (String) row[4], StatisticType.BIOTYPE, StatisticType.BIOSAMPLE_PHASE));
+			snapshot.id2study.put((Integer) row[0], studyId);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Captures the keys of the given results, as saved in the DB. This must be called before the changes are flushed.
+	 * @param session
+	 * @param results
+	 * @return
+	 */
+	public static Snapshot snapshotResults(EntityManager session, Collection<Result> results) {
+		Snapshot snapshot = new Snapshot(isBuilt());
+		List<Integer> ids = JPAUtil.getIds(results);
+		if(!snapshot.enabled || ids.size()==0) return snapshot;
+
+		List<Object[]> rows = session.createQuery("select r.id, s.id, t.id, p.id, r.updUser from Result r join r.test t left join r.biosample b left join b.inheritedStudy s left join r.phase p"
+				+ " where " + QueryTokenizer.expandForIn("r.id", ids))
+				.setFlushMode(FlushModeType.COMMIT)
+				.getResultList();
+		for (Object[] row : rows) {
+			int studyId = row[1]==null? 0: (Integer) row[1];
+			snapshot.id2keys.put((Integer) row[0], getKeys(studyId, (Integer) row[2], (Integer) row[3], (String) row[4], StatisticType.TEST, StatisticType.RESULT_PHASE));
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Applies the differences between the snapshot and the given biosamples (which are saved or deleted)
+	 * @param session
+	 * @param before
+	 * @param biosamples
+	 * @param deleted
+	 */
+	public static void applyBiosamples(EntityManager session, Snapshot before, Collection<Biosample> biosamples, boolean deleted) {
+		if(!before.enabled) return;
+		Map<StudyStatistic, StudyStatistic> deltas = new LinkedHashMap<>();
+		Map<Integer, Integer> movedBiosampleIds = new HashMap<>();
+		for (Biosample b : biosamples) {
+			add(deltas, before.id2keys.get(b.getId()), -1, null);
+			if(deleted) continue;
+			int studyId = b.getInheritedStudy()==null? 0: b.getInheritedStudy().getId();
+			add(deltas, getKeys(studyId, b.getBiotype().getId(), b.getInheritedPhase()==null? null: b.getInheritedPhase().getId(), b.getUpdUser(), StatisticType.BIOTYPE, StatisticType.BIOSAMPLE_PHASE), 1, b.getUpdDate());
+
+			//The results of a biosample, which changed of study, are moved to the new study
+			Integer oldStudyId = before.id2study.get(b.getId());
+			if(oldStudyId!=null && oldStudyId!=studyId) movedBiosampleIds.put(b.getId(), studyId);
+		}
+		applyAfterCommit(session, deltas, movedBiosampleIds, before.id2study);
+	}
+
+	/**
+	 * Applies the differences between the snapshot and the given results (which are saved or deleted)
+	 * @param session
+	 * @param before
+	 * @param results
+	 * @param deleted
+	 */
+	public static void applyResults(EntityManager session, Snapshot before, Collection<Result> results, boolean deleted) {
+		if(!before.enabled) return;
+		Map<StudyStatistic, StudyStatistic> deltas = new LinkedHashMap<>();
+		for (Result r : results) {
+			add(deltas, before.id2keys.get(r.getId()), -1, null);
+			if(deleted || r.getId()<=0) continue;
+			int studyId = r.getBiosample()==null || r.getBiosample().getInheritedStudy()==null? 0: r.getBiosample().getInheritedStudy().getId();
+			add(deltas, getKeys(studyId, r.getTest().getId(), r.getPhase()==null? null: r.getPhase().getId(), r.getUpdUser(), StatisticType.TEST, StatisticType.RESULT_PHASE), 1, r.getUpdDate());
+		}
+		applyAfterCommit(session, deltas, new HashMap<>(), before.id2study);
+	}
+
+	/**
+	 * Removes the statistics of deleted studies
+	 * @param session
+	 * @param studyIds
+	 */
+	public static void deleteStudies(EntityManager session, Collection<Integer> studyIds) {
+		if(studyIds.size()==0) return;
+		session.createQuery("delete from StudyStatistic s where " + QueryTokenizer.expandForIn("s.studyId", studyIds)).executeUpdate();
+	}
+
+	private static List<StudyStatistic> getKeys(int studyId, int refId, Integer phaseId, String user, StatisticType type, StatisticType phaseType) {
+		List<StudyStatistic> res = new ArrayList<>();
+		res.add(new StudyStatistic(studyId, type, refId, user, 0, null));
+		if(phaseId!=null) res.add(new StudyStatistic(studyId, phaseType, phaseId, user, 0, null));
+		return res;
+	}
+
+	private static void add(Map<StudyStatistic, StudyStatistic> deltas, List<StudyStatistic> keys, int n, Date date) {
+		if(keys==null) return;
+		for (StudyStatistic key : keys) {
+			add(deltas, key, n, date);
+		}
+	}
+
+	private static void add(Map<StudyStatistic, StudyStatistic> deltas, StudyStatistic key, int n, Date date) {
+		StudyStatistic delta = deltas.get(key);
+		if(delta==null) {
+			deltas.put(key, delta = new StudyStatistic(key.getStudyId(), key.getType(), key.getRefId(), key.getUser(), 0, null));
+		}
+		delta.setCounter(delta.getCounter() + n);
+		if(date!=null && (delta.getLastDate()==null || delta.getLastDate().before(date))) delta.setLastDate(date);
+	}
+
+	/**
+	 * Applies the deltas once the current transaction of the session is committed
+	 * @param session
+	 * @param deltas
+	 * @param movedBiosampleIds - the biosamples, which changed of study (biosampleId->new studyId): their results are moved to the new study
+	 * @param id2oldStudy - the study of the biosamples before the changes
+	 */
+	private static void applyAfterCommit(EntityManager session, Map<StudyStatistic, StudyStatistic> deltas, Map<Integer, Integer> movedBiosampleIds, Map<Integer, Integer> id2oldStudy) {
+		if(deltas.size()==0 && movedBiosampleIds.size()==0) return;
+		JPAUtil.runAfterCommit(session, () -> apply(deltas, movedBiosampleIds, id2oldStudy));
+	}
+
+	/**
+	 * Applies the deltas in a separate transaction, with atomic updates, so that concurrent transactions do not overwrite each other's counts.
+	 * The missing statistics are first created (with a counter of 0) in their own transaction, which is retried once if a concurrent transaction created the same statistic.
+	 * If the statistics cannot be updated, they are disabled (they may have drifted) until an admin rebuilds them.
+	 */
+	private static void apply(Map<StudyStatistic, StudyStatistic> deltas, Map<Integer, Integer> movedBiosampleIds, Map<Integer, Integer> id2oldStudy) {
+		long s = System.currentTimeMillis();
+		EntityManager em = JPAUtil.createManager();
+		EntityTransaction txn = null;
+		try {
+			if(movedBiosampleIds.size()>0) {
+				List<Object[]> rows = em.createQuery("select r.biosample.id, r.test.id, r.updUser, count(r) from Result r where " + QueryTokenizer.expandForIn("r.biosample.id", movedBiosampleIds.keySet())
+						+ " group by r.biosample.id, r.test.id, r.updUser")
+						.getResultList();
+				for (Object[] row : rows) {
+					int n = ((Number) row[3]).intValue();
+					add(deltas, new StudyStatistic(id2oldStudy.get(row[0]), StatisticType.TEST, (Integer) row[1], (String) row[2], 0, null), -n, null);
+					add(deltas, new StudyStatistic(movedBiosampleIds.get(row[0]), StatisticType.TEST, (Integer) row[1], (String) row[2], 0, null), n, null);
+				}
+			}
+
+			createMissingStatistics(em, deltas.values());
+
+			txn = em.getTransaction();
+			txn.begin();
+			for (StudyStatistic delta : deltas.values()) {
+				if(delta.getCounter()==0 && delta.getLastDate()==null) continue;
+
+				em.createQuery("update StudyStatistic s set s.counter = s.counter + ?1 where s.studyId = ?2 and s.type = ?3 and s.refId = ?4 and s.user = ?5")
+						.setParameter(1, delta.getCounter())
+						.setParameter(2, delta.getStudyId())
+						.setParameter(3, delta.getType())
+						.setParameter(4, delta.getRefId())
+						.setParameter(5, delta.getUser())
+						.executeUpdate();
+				if(delta.getLastDate()!=null) {
+					em.createQuery("update StudyStatistic s set s.lastDate = ?1 where s.studyId = ?2 and s.type = ?3 and s.refId = ?4 and s.user = ?5 and (s.lastDate is null or s.lastDate < ?1)")
+					.setParameter(1, delta.getLastDate())
+					.setParameter(2, delta.getStudyId())
+					.setParameter(3, delta.getType())
+					.setParameter(4, delta.getRefId())
+					.setParameter(5, delta.getUser())
+					.executeUpdate();
+				}
+			}
+			txn.commit();
+			txn = null;
+			logger.debug("Updated " + deltas.size() + " statistics in " + (System.currentTimeMillis()-s) + "ms");
+		} catch (Exception e) {
+			logger.error("The statistics could not be updated: they are disabled until they are rebuilt", e);
+			if(txn!=null && txn.isActive()) try{txn.rollback();}catch (Exception e2) {e2.printStackTrace();}
+			txn = null;
+			disable(em);
+		} finally {
+			if(txn!=null && txn.isActive()) try{txn.rollback();}catch (Exception e) {e.printStackTrace();}
+			em.close();
+		}
+	}
+
+	/**
+	 * Creates the statistics, which will be incremented and do not exist yet, with a counter of 0.
+	 * The statistics are never deleted (except by a rebuild or with their study), so that a created statistic cannot disappear before it is updated.
+	 */
+	private static void createMissingStatistics(EntityManager em, Collection<StudyStatistic> deltas) {
+		for (int attempt = 0; ; attempt++) {
+			EntityTransaction txn = em.getTransaction();
+			try {
+				txn.begin();
+				for (StudyStatistic delta : deltas) {
+					if(delta.getCounter()<=0 && delta.getLastDate()==null) continue;
+					if(em.find(StudyStatistic.class, new StudyStatistic.Key(delta))!=null) continue;
+					em.persist(new StudyStatistic(delta.getStudyId(), delta.getType(), delta.getRefId(), delta.getUser(), 0, null));
+				}
+				txn.commit();
+				return;
+			} catch (PersistenceException e) {
+				//A concurrent transaction created the same statistic
+				if(txn.isActive()) txn.rollback();
+				em.clear();
+				if(attempt>=1) throw e;
+			}
+		}
+	}
+
+	/**
+	 * Removes the build marker, so that the dashboards aggregate the biosample/result tables until the statistics are rebuilt
+	 */
+	private static void disable(EntityManager em) {
+		EntityTransaction txn = em.getTransaction();
+		try {
+			txn.begin();
+			em.createQuery("delete from StudyStatistic s where s.type = ?1").setParameter(1, StatisticType.BUILD).executeUpdate();
+			txn.commit();
+		} catch (Exception e) {
+			logger.error("The statistics could not be disabled", e);
+			if(txn.isActive()) try{txn.rollback();}catch (Exception e2) {e2.printStackTrace();}
+		}
+		Cache.getInstance().remove(CACHE_BUILT);
+	}
+
+	/**
+	 * Returns a map of studyId->(refId->(count, lastUser, lastDate)) for the given type.
+	 * studyIds can be null to retrieve the statistics of the objects without study
+	 * @param studyIds
+	 * @param type
+	 * @return
+	 */
+	public static Map<Integer, Map<Integer, Triple<Integer, String, Date>>> getStatistics(Collection<Integer> studyIds, StatisticType type) {
+		Map<Integer, Map<Integer, Triple<Integer, String, Date>>> res = new HashMap<>();
+		if(studyIds!=null && studyIds.size()==0) return res;
+		List<StudyStatistic> stats = JPAUtil.getManager().createQuery("from StudyStatistic s where s.type = ?1 and s.counter > 0 and " + (studyIds==null? "s.studyId = 0": QueryTokenizer.expandForIn("s.studyId", studyIds)))
+				.setParameter(1, type)
+				.getResultList();
+
+		//Merge the users: sum the counts, and keep the last user
+		for (StudyStatistic stat : stats) {
+			Map<Integer, Triple<Integer, String, Date>> m = res.get(stat.getStudyId());
+			if(m==null) {
+				res.put(stat.getStudyId(), m = new HashMap<>());
+			}
+			Triple<Integer, String, Date> e = m.get(stat.getRefId());
+			if(e==null) {
+				m.put(stat.getRefId(), new Triple<Integer, String, Date>(stat.getCounter(), stat.getUser(), stat.getLastDate()));
+			} else {
+				boolean last = e.getThird()==null || (stat.getLastDate()!=null && stat.getLastDate().after(e.getThird()));
+				m.put(stat.getRefId(), new Triple<Integer, String, Date>(e.getFirst() + stat.getCounter(), last? stat.getUser(): e.getSecond(), last? stat.getLastDate(): e.getThird()));
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Returns a map of phaseId->(n.Biosamples, n.Results)
+	 * @param phases
+	 * @return
+	 */
+	public static Map<Integer, int[]> getPhaseStatistics(Collection<Phase> phases) {
+		Map<Integer, int[]> res = new HashMap<>();
+		List<Integer> phaseIds = JPAUtil.getIds(phases);
+		if(phaseIds.size()==0) return res;
+		List<Object[]> rows = JPAUtil.getManager().createQuery("select s.refId, s.type, sum(s.counter) from StudyStatistic s where (s.type = ?1 or s.type = ?2) and " + QueryTokenizer.expandForIn("s.refId", phaseIds) + " group by s.refId, s.type")
+				.setParameter(1, StatisticType.BIOSAMPLE_PHASE)
+				.setParameter(2, StatisticType.RESULT_PHASE)
+				.getResultList();
+		for (Object[] row : rows) {
+			int[] counts = res.get(row[0]);
+			if(counts==null) res.put((Integer) row[0], counts = new int[2]);
+			counts[row[1]==StatisticType.BIOSAMPLE_PHASE? 0: 1] = ((Number) row[2]).intValue();
+		}
+		return res;
+	}
+
+	/**
+	 * Rebuilds all the statistics from the biosample/result tables. This is an admin job.
+	 * @param user
+	 * @return the number of statistics
+	 * @throws Exception
+	 */
+	public static int rebuild(SpiritUser user) throws Exception {
+		if(user==null || !SpiritRights.isSuperAdmin(user)) throw new Exception("You must be an admin to rebuild the statistics");
+
+		long s = System.currentTimeMillis();
+		EntityManager session = JPAUtil.getManager();
+		EntityTransaction txn = null;
+		int count = 0;
+		try {
+			txn = session.getTransaction();
+			txn.begin();
+			session.createQuery("delete from StudyStatistic").executeUpdate();
+
+			count += rebuild(session, StatisticType.BIOTYPE, "select s.id, bt.id, b.updUser, count(b), max(b.updDate) from Biosample b join b.biotype bt left join b.inheritedStudy s group by s.id, bt.id, b.updUser");
+			count += rebuild(session, StatisticType.BIOSAMPLE_PHASE, "select s.id, p.id, b.updUser, count(b), max(b.updDate) from Biosample b join b.inheritedPhase p left join b.inheritedStudy s group by s.id, p.id, b.updUser");
+			count += rebuild(session, StatisticType.TEST, "select s.id, t.id, r.updUser, count(r), max(r.updDate) from Result r join r.test t left join r.biosample b left join b.inheritedStudy s group by s.id, t.id, r.updUser");
+			count += rebuild(session, StatisticType.RESULT_PHASE, "select s.id, p.id, r.updUser, count(r), max(r.updDate) from Result r join r.phase p left join r.biosample b left join b.inheritedStudy s group by s.id, p.id, r.updUser");
+			session.persist(new StudyStatistic(0, StatisticType.BUILD, 0, user.getUsername(), count, JPAUtil.getCurrentDateFromDatabase()));
+
+			txn.commit();
+			txn = null;
+		} finally {
+			if(txn!=null && txn.isActive()) try{txn.rollback();}catch (Exception e) {e.printStackTrace();}
+		}
+		Cache.getInstance().remove(CACHE_BUILT);
+		logger.info("Rebuilt " + count + " statistics in " + (System.currentTimeMillis()-s) + "ms");
+		return count;
+	}
+
+	private static int rebuild(EntityManager session, StatisticType type, String jpql) {
+		Map<StudyStatistic, StudyStatistic> stats = new LinkedHashMap<>();
+		for (Object[] row : (List<Object[]>) session.createQuery(jpql).getResultList()) {
+			int studyId = row[0]==null? 0: (Integer) row[0];
+			add(stats, new StudyStatistic(studyId, type, (Integer) row[1], (String) row[2], 0, null), ((Number) row[3]).intValue(), (Date) row[4]);
+		}
+		for (StudyStatistic stat : stats.values()) {
+			session.persist(stat);
+		}
+		return stats.size();
+	}
+}
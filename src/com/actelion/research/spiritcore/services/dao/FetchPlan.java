@@ -0,0 +1,159 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.business.IObject;
+import com.actelion.research.spiritcore.business.biosample.Biosample;
+import com.actelion.research.spiritcore.business.result.Result;
+import com.actelion.research.spiritcore.business.study.Study;
+import com.actelion.research.spiritcore.util.QueryTokenizer;
+
+/**
+ * Named fetch plans, describing which associations a screen needs.
+ * Each fetch of a plan is one join-fetch query executed on the ids of the given entities (by batch of BATCH_SIZE):
+ * the associations are then initialized in the persistence context, instead of being lazy-loaded one by one.
+ *
+ * The collections of a same entity are fetched by separate queries, to avoid the cartesian product of the joins.
+ * A fetch is written as a JPQL query ending with the path of the id ("... where e.id"), which is expanded to an IN clause.
+ *
+ * @author Joel Freyss
+ */
+public enum FetchPlan {
+
+	/**
+	 * The design of the study: groups, phases, treatments, samplings and actions
+	 */
+	STUDY_DESIGN(Study.class, null,
+			"select distinct e from Study e left join fetch e.groups g left join fetch g.fromGroup left join fetch g.fromPhase where e.id",
+			"select distinct e from Study e left join fetch e.phases where e.id",
+			"select distinct e from Study e left join fetch e.namedTreatments where e.id",
+			"select distinct e from Study e left join fetch e.namedSamplings where e.id",
+			"select distinct e from NamedSampling e left join fetch e.samplings where e.study.id",
+			"select distinct e from Study e left join fetch e.actions where e.id"),
+
+	/**
+	 * The design of the study and its participants
+	 */
+	STUDY_WITH_PARTICIPANTS(Study.class, STUDY_DESIGN,
+			"select distinct e from Study e left join fetch e.participants p left join fetch p.biotype where e.id"),
+
+	/**
+	 * The biosamples with the associations displayed by the BiosampleTable
+	 */
+	BIOSAMPLE_FOR_TABLE(Biosample.class, null,
+			"select distinct e from Biosample e left join fetch e.biotype left join fetch e.parent left join fetch e.topParent"
+			+ " left join fetch e.inheritedStudy left join fetch e.inheritedGroup left join fetch e.inheritedPhase"
+			+ " left join fetch e.attachedSampling left join fetch e.location where e.id"),
+
+	/**
+	 * The results with the associations needed to pivot them (biosample, top parent, group, phase, values)
+	 */
+	RESULT_FOR_PIVOT(Result.class, null,
+			"select distinct e from Result e left join fetch e.test left join fetch e.study left join fetch e.phase"
+			+ " left join fetch e.biosample b left join fetch b.topParent left join fetch b.inheritedGroup left join fetch b.inheritedPhase where e.id",
+			"select distinct e from Result e left join fetch e.values where e.id");
+
+	/**
+	 * Max number of ids per query
+	 */
+	public static final int BATCH_SIZE = 1000;
+
+	private final Class<? extends IObject> entityClass;
+	private final List<String> fetches;
+
+	private FetchPlan(Class<? extends IObject> entityClass, FetchPlan base, String... fetches) {
+		this.entityClass = entityClass;
+		List<String> list = new ArrayList<>();
+		if(base!=null) list.addAll(base.fetches);
+		list.addAll(Arrays.asList(fetches));
+		this.fetches = Collections.unmodifiableList(list);
+	}
+
+	public Class<? extends IObject> getEntityClass() {
+		return entityClass;
+	}
+
+	/**
+	 * Returns the JPQL queries of the plan, each ending with the path of the id
+	 */
+	public List<String> getFetches() {
+		return fetches;
+	}
+
+	/**
+	 * Returns the number of queries needed to load n entities
+	 * @param n
+	 */
+	public int getQueryCount(int n) {
+		return n<=0? 0: fetches.size() * ((n-1)/BATCH_SIZE + 1);
+	}
+
+	/**
+	 * Initializes the associations of the plan on the given entities.
+	 * Only the persisted entities, managed by the current EntityManager are considered.
+	 * The queries are executed with FlushModeType.COMMIT, so that the edits in progress are not flushed.
+	 *
+	 * @param entities
+	 * @return the number of executed queries
+	 */
+	public int load(Collection<? extends IObject> entities) {
+		if(entities==null || entities.isEmpty()) return 0;
+		EntityManager session = JPAUtil.getManager();
+		Set<Integer> ids = new LinkedHashSet<>();
+		for (IObject o : entities) {
+			if(o==null || o.getId()<=0 || !entityClass.isInstance(o) || !session.contains(o)) continue;
+			ids.add(o.getId());
+		}
+		if(ids.isEmpty()) return 0;
+
+		long s = System.currentTimeMillis();
+		List<Integer> list = new ArrayList<>(ids);
+		int n = 0;
+		for (String fetch : fetches) {
+			int index = fetch.lastIndexOf(" where ");
+			String jpql = fetch.substring(0, index + 7);
+			String idPath = fetch.substring(index + 7);
+			for (int i = 0; i < list.size(); i+=BATCH_SIZE) {
+				List<Integer> batch = list.subList(i, Math.min(list.size(), i+BATCH_SIZE));
+				session.createQuery(jpql + QueryTokenizer.expandForIn(idPath, batch))
+					.setFlushMode(FlushModeType.COMMIT)
+					.getResultList();
+				n++;
+			}
+		}
+		LoggerFactory.getLogger(FetchPlan.class).debug(this + ": loaded " + ids.size() + " " + entityClass.getSimpleName() + " in " + n + " queries in " + (System.currentTimeMillis()-s) + "ms");
+		return n;
+	}
+}
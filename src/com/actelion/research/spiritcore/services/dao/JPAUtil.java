@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
@@ -35,7 +36,11 @@ import javax.persistence.EntityManagerFactory;
 import javax.persistence.FlushModeType;
 import javax.persistence.Persistence;
 
+import org.hibernate.SessionFactory;
 import org.hibernate.Version;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.stat.Statistics;
 import org.slf4j.LoggerFactory;
 
 import com.actelion.research.spiritcore.adapter.DBAdapter;
@@ -164,7 +169,10 @@ public class JPAUtil {
 	//	}
 
 
-	private static List<EntityManager> all = new ArrayList<>();
+	/**
+	 * All the entityManagers created by the threadLocals (the threads can be workers of an executor)
+	 */
+	private static List<EntityManager> all = Collections.synchronizedList(new ArrayList<>());
 
 	private static class MyThreadLocal extends ThreadLocal<EntityManager> {
 
@@ -182,6 +190,19 @@ public class JPAUtil {
 			}
 		}
 
+		/**
+		 * Rollback and close the entityManager of the current thread, and release it from this threadLocal
+		 */
+		public void release() {
+			EntityManager em = super.get();
+			all.remove(em);
+			if(em.isOpen()) {
+				if(em.getTransaction().isActive()) em.getTransaction().rollback();
+				em.close();
+			}
+			super.remove();
+		}
+
 		/**
 		 * Clear the cache of all entityManagers associated to all threads.
 		 * Make sure all related threads are stopped
@@ -225,6 +246,7 @@ public class JPAUtil {
 
 			//If not alive, recreate a connection
 			if(!connected) {
+				if(em!=null) all.remove(em);
 				em  = initialValue();
 				set(em);
 
@@ -305,6 +327,9 @@ public class JPAUtil {
 	}
 
 	public static void closeFactory() {
+		//Write the pending logs while the factory is still open
+		if(factory!=null) DAOLog.flush();
+
 		if(jpaMode!=JPAMode.REQUEST) {
 			try {
 
@@ -332,10 +357,19 @@ public class JPAUtil {
 			thread2entityManager.clear();
 		}
 
-		for (EntityManager em : all) {
-			if(em.isOpen()) {
-				LoggerFactory.getLogger(JPAUtil.class).debug("Close session: "+em);
-				em.close();
+		List<EntityManager> toClose;
+		synchronized (all) {
+			toClose = new ArrayList<>(all);
+			all.clear();
+		}
+		for (EntityManager em : toClose) {
+			try {
+				if(em.isOpen()) {
+					LoggerFactory.getLogger(JPAUtil.class).debug("Close session: "+em);
+					em.close();
+				}
+			} catch(Exception e) {
+				LoggerFactory.getLogger(JPAUtil.class).warn("Could not close session: ", e);
 			}
 		}
 
@@ -352,6 +386,19 @@ public class JPAUtil {
 		SpiritProperties.reset();
 	}
 
+	/**
+	 * Closes the EntityManager of the current thread.
+	 * This must be called by the worker threads (ex: executors), which would otherwise keep their EntityManager open until the factory is closed
+	 */
+	public static void closeManager() {
+		if(jpaMode==JPAMode.REQUEST) {
+			closeRequest();
+			return;
+		}
+		if(readEntityManager!=null) readEntityManager.release();
+		if(writeEntityManager!=null) writeEntityManager.release();
+	}
+
 	public static void closeRequest() {
 		assert jpaMode == JPAMode.REQUEST;
 		Thread thread = Thread.currentThread();
@@ -369,6 +416,23 @@ public class JPAUtil {
 		dest.setScannedPosition(src.getScannedPosition());
 	}
 
+	/**
+	 * Registers a task, which is executed after the current transaction of the given EntityManager has been committed successfully (and never if it is rolled back).
+	 * The task runs in the committing thread. Its failures are logged and cannot roll back the committed transaction.
+	 * @param session
+	 * @param task
+	 */
+	public static void runAfterCommit(EntityManager session, Runnable task) {
+		session.unwrap(SessionImplementor.class).getActionQueue().registerProcess((success, s) -> {
+			if(!success) return;
+			try {
+				task.run();
+			} catch (Exception e) {
+				LoggerFactory.getLogger(JPAUtil.class).error("Error after commit", e);
+			}
+		});
+	}
+
 	/**
 	 * Create a new EntityManager - be ABSOLUTELY SURE to close it
 	 * @return
@@ -446,8 +510,9 @@ public class JPAUtil {
 
 		assert factory == null;
 		try {
+			long s = System.currentTimeMillis();
 			initFactory();
-			getCurrentDateFromDatabase();
+			LoggerFactory.getLogger(JPAUtil.class).debug("Startup: JPA factory ready in " + (System.currentTimeMillis()-s) + "ms");
 		} catch (RuntimeException ex) {
 			throw ex;
 		} catch (Throwable ex2) {
@@ -485,6 +550,8 @@ public class JPAUtil {
 		properties.put("hibernate.connection.username", adapter.getDBUsername());
 		properties.put("hibernate.connection.password", new String(new StringEncrypter("program from joel").decrypt(adapter.getDBPassword())));
 		properties.put("hibernate.show_sql", "true".equalsIgnoreCase(System.getProperty("show_sql")));
+		properties.put("hibernate.generate_statistics", "true".equalsIgnoreCase(System.getProperty("spirit.statistics")));
+		properties.put("hibernate.session_factory.statement_inspector", new SqlInspector());
 		properties.put("hibernate.hbm2ddl.auto", mode);
 		properties.put("hibernate.connection.url", adapter.getDBConnectionURL());
 		properties.put("hibernate.default_schema", "spirit");
@@ -503,6 +570,69 @@ public class JPAUtil {
 	}
 
 
+	/**
+	 * Gives the generated SQL to the QueryLog (for the explain plan of the slow queries)
+	 */
+	private static class SqlInspector implements StatementInspector {
+		@Override
+		public String inspect(String sql) {
+			QueryLog.inspect(sql);
+			return sql;
+		}
+	}
+
+	/**
+	 * Returns the Hibernate statistics of the factory, or null if the factory is not initialized
+	 */
+	private static Statistics getStatistics() {
+		if(factory==null || !factory.isOpen()) return null;
+		return factory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	public static boolean isHibernateStatisticsEnabled() {
+		Statistics stats = getStatistics();
+		return stats!=null && stats.isStatisticsEnabled();
+	}
+
+	/**
+	 * Enables the Hibernate statistics at runtime (they can also be enabled at startup with -Dspirit.statistics=true)
+	 * @param enabled
+	 */
+	public static void setHibernateStatisticsEnabled(boolean enabled) {
+		Statistics stats = getStatistics();
+		if(stats!=null) stats.setStatisticsEnabled(enabled);
+	}
+
+	public static void clearHibernateStatistics() {
+		Statistics stats = getStatistics();
+		if(stats!=null) stats.clear();
+	}
+
+	/**
+	 * Returns the main Hibernate statistics (entity/collection loads and fetches, queries, second level cache), or an empty map if not enabled
+	 */
+	public static Map<String, Long> getHibernateStatistics() {
+		Map<String, Long> res = new LinkedHashMap<>();
+		Statistics stats = getStatistics();
+		if(stats==null || !stats.isStatisticsEnabled()) return res;
+		res.put("sessionOpen", stats.getSessionOpenCount());
+		res.put("prepareStatement", stats.getPrepareStatementCount());
+		res.put("entityLoad", stats.getEntityLoadCount());
+		res.put("entityFetch", stats.getEntityFetchCount());
+		res.put("entityInsert", stats.getEntityInsertCount());
+		res.put("entityUpdate", stats.getEntityUpdateCount());
+		res.put("entityDelete", stats.getEntityDeleteCount());
+		res.put("collectionLoad", stats.getCollectionLoadCount());
+		res.put("collectionFetch", stats.getCollectionFetchCount());
+		res.put("queryExecution", stats.getQueryExecutionCount());
+		res.put("queryExecutionMaxTimeMs", stats.getQueryExecutionMaxTime());
+		res.put("secondLevelCacheHit", stats.getSecondLevelCacheHitCount());
+		res.put("secondLevelCacheMiss", stats.getSecondLevelCacheMissCount());
+		res.put("flush", stats.getFlushCount());
+		res.put("transaction", stats.getTransactionCount());
+		return res;
+	}
+
 	public static boolean isEditableContext() {
 		return jpaMode == JPAMode.WRITE || jpaMode == JPAMode.REQUEST;
 	}
@@ -698,6 +828,7 @@ public class JPAUtil {
 			}
 		}
 
+		SpiritMetrics.getInstance().record("JPAUtil.reattach", s, res.size());
 		LoggerFactory.getLogger(JPAUtil.class).debug("Reattach "+claz.getSimpleName()+": n="+toBeReloadedIds.size()+" done in "+(System.currentTimeMillis()-s)+"ms");
 		return res;
 	}
@@ -0,0 +1,271 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.business.location.Location;
+import com.actelion.research.spiritcore.business.location.Privacy;
+
+/**
+ * In-memory index of the location tree, built from a single query on the location table.
+ * Each node caches its full hierarchy, its depth, its inherited privacy/department and its children, so that
+ * the hierarchy can be resolved without loading the locations and their parents.
+ *
+ * The index is cached, and removed from the cache by DAOLocation, whenever a location is saved, moved or deleted.
+ *
+ * @author Joel Freyss
+ */
+public class LocationIndex {
+
+	private static final String CACHE_KEY = "locationIndex";
+
+	public static class Node {
+		private final int id;
+		private final int parentId;
+		private final String name;
+		private final Privacy privacy;
+		private final int employeeGroupId;
+		private final String idPath;
+		private String hierarchyFull;
+		private int depth;
+		private Privacy inheritedPrivacy;
+		private int inheritedEmployeeGroupId;
+		private int[] childrenIds = new int[0];
+
+		private Node(int id, int parentId, String name, Privacy privacy, int employeeGroupId, String idPath) {
+			this.id = id;
+			this.parentId = parentId;
+			this.name = name==null? "": name;
+			this.privacy = privacy;
+			this.employeeGroupId = employeeGroupId;
+			this.idPath = idPath;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * @return the id of the parent or 0
+		 */
+		public int getParentId() {
+			return parentId;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getHierarchyFull() {
+			return hierarchyFull;
+		}
+
+		/**
+		 * @return the depth of the location (0 for a root)
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		public Privacy getInheritedPrivacy() {
+			return inheritedPrivacy;
+		}
+
+		/**
+		 * @return the id of the inherited department or 0
+		 */
+		public int getInheritedEmployeeGroupId() {
+			return inheritedEmployeeGroupId;
+		}
+
+		public int[] getChildrenIds() {
+			return childrenIds;
+		}
+
+		@Override
+		public String toString() {
+			return hierarchyFull;
+		}
+	}
+
+	private final Map<Integer, Node> id2node = new HashMap<>();
+	private final Map<String, Node> hierarchy2node = new HashMap<>();
+	private boolean validIdPaths = true;
+
+	private LocationIndex() {}
+
+	/**
+	 * Gets the cached index, or builds it if it was invalidated
+	 * @return
+	 */
+	public static LocationIndex getInstance() {
+		LocationIndex index = (LocationIndex) Cache.getInstance().get(CACHE_KEY);
+		if(index==null) {
+			index = build(JPAUtil.getManager());
+			Cache.getInstance().add(CACHE_KEY, index, Cache.LONG);
+		}
+		return index;
+	}
+
+	/**
+	 * Removes the index from the cache (to be called when locations are saved, moved or deleted)
+	 */
+	public static void invalidate() {
+		Cache.getInstance().remove(CACHE_KEY);
+	}
+
+	private static LocationIndex build(EntityManager session) {
+		long s = System.currentTimeMillis();
+		LocationIndex index = new LocationIndex();
+		List<Object[]> rows = session.createQuery("select l.id, p.id, l.name, l.privacy, g.id, l.idPath from Location l left join l.parent p left join l.employeeGroup g", Object[].class).getResultList();
+		for (Object[] row : rows) {
+			Node node = new Node((Integer) row[0], row[1]==null? 0: (Integer) row[1], (String) row[2], (Privacy) row[3], row[4]==null? 0: (Integer) row[4], (String) row[5]);
+			index.id2node.put(node.id, node);
+		}
+
+		//Link the children
+		Map<Integer, List<Integer>> parent2children = new HashMap<>();
+		for (Node node : index.id2node.values()) {
+			if(node.parentId<=0) continue;
+			List<Integer> children = parent2children.get(node.parentId);
+			if(children==null) parent2children.put(node.parentId, children = new ArrayList<>());
+			children.add(node.id);
+		}
+		for (Map.Entry<Integer, List<Integer>> e : parent2children.entrySet()) {
+			Node parent = index.id2node.get(e.getKey());
+			if(parent==null) continue;
+			Collections.sort(e.getValue());
+			parent.childrenIds = new int[e.getValue().size()];
+			for (int i = 0; i < parent.childrenIds.length; i++) {
+				parent.childrenIds[i] = e.getValue().get(i);
+			}
+		}
+
+		//Compute the hierarchy of each node from its parent
+		for (Node node : index.id2node.values()) {
+			index.resolve(node, 0);
+			if(index.validIdPaths && !index.getIdPath(node).equals(node.idPath)) index.validIdPaths = false;
+		}
+		LoggerFactory.getLogger(LocationIndex.class).debug("LocationIndex built: n=" + index.id2node.size() + " validIdPaths=" + index.validIdPaths + " in " + (System.currentTimeMillis()-s) + "ms");
+		return index;
+	}
+
+	private void resolve(Node node, int recursion) {
+		if(node.hierarchyFull!=null) return;
+		Node parent = node.parentId<=0? null: id2node.get(node.parentId);
+		if(parent==null || recursion>=10) {
+			//Root (or cycle, with the same limit as Location.getHierarchyFull)
+			node.hierarchyFull = node.name;
+			node.depth = 0;
+			node.inheritedPrivacy = node.privacy==null || node.privacy==Privacy.INHERITED? Privacy.PUBLIC: node.privacy;
+			node.inheritedEmployeeGroupId = node.privacy==null || node.privacy==Privacy.INHERITED? 0: node.employeeGroupId;
+		} else {
+			resolve(parent, recursion+1);
+			node.hierarchyFull = parent.hierarchyFull + Location.SEPARATOR + node.name;
+			node.depth = parent.depth+1;
+			node.inheritedPrivacy = node.privacy==null || node.privacy==Privacy.INHERITED? parent.inheritedPrivacy: node.privacy;
+			node.inheritedEmployeeGroupId = node.privacy==null || node.privacy==Privacy.INHERITED? parent.inheritedEmployeeGroupId: node.employeeGroupId;
+		}
+		hierarchy2node.put(node.hierarchyFull, node);
+	}
+
+	private String getIdPath(Node node) {
+		StringBuilder sb = new StringBuilder();
+		for(Node n = node; n!=null && sb.length()<256; n = n.parentId<=0? null: id2node.get(n.parentId)) {
+			sb.insert(0, Location.SEPARATOR + n.id);
+		}
+		return sb.append(Location.SEPARATOR).toString();
+	}
+
+	public Node getNode(int id) {
+		return id2node.get(id);
+	}
+
+	/**
+	 * Gets the node from its full hierarchy (ex: Building/Freezer/Rack)
+	 * @param hierarchyFull
+	 * @return
+	 */
+	public Node getNode(String hierarchyFull) {
+		return hierarchy2node.get(hierarchyFull);
+	}
+
+	/**
+	 * Returns the ids of the locations, whose hierarchy ends with the given path (ex: Freezer/Rack)
+	 * @param path
+	 * @return
+	 */
+	public List<Integer> getIdsEndingWith(String path) {
+		String suffix = Location.SEPARATOR + path;
+		List<Integer> res = new ArrayList<>();
+		for (Node node : id2node.values()) {
+			if((Location.SEPARATOR + node.hierarchyFull).endsWith(suffix)) {
+				res.add(node.id);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the ids of the given location and all its descendants up to maxDepth
+	 * @param id
+	 * @param maxDepth
+	 * @return
+	 */
+	public List<Integer> getChildrenRecIds(int id, int maxDepth) {
+		List<Integer> res = new ArrayList<>();
+		Node node = id2node.get(id);
+		if(node!=null) addChildrenRec(node, maxDepth, res);
+		return res;
+	}
+
+	private void addChildrenRec(Node node, int maxDepth, List<Integer> res) {
+		res.add(node.id);
+		if(maxDepth<=0) return;
+		for (int childId : node.childrenIds) {
+			Node child = id2node.get(childId);
+			if(child!=null) addChildrenRec(child, maxDepth-1, res);
+		}
+	}
+
+	/**
+	 * Returns true if the materialized id paths stored in the location table are all up to date, ie. if they can be used for prefix queries.
+	 * This is not the case if the migration could not fill them.
+	 * @return
+	 */
+	public boolean isValidIdPaths() {
+		return validIdPaths;
+	}
+
+	public int size() {
+		return id2node.size();
+	}
+}
@@ -0,0 +1,349 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.dao;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.adapter.DBAdapter;
+import com.actelion.research.spiritcore.util.SQLConverter.SQLVendor;
+
+/**
+ * Slow query log of the JPQL queries.
+ *
+ * The DAOs build their JPQL by concatenation (ids expanded by QueryTokenizer.expandForIn, escaped values), so that the same query appears as many distinct strings.
+ * Each query created through QueryLog.createQuery is:
+ * <ul>
+ * <li>normalized into a fingerprint (literals and parameters replaced by ?, in-lists collapsed)
+ * <li>timed, and its latency/rows recorded per fingerprint in SpiritMetrics (as "JPQL: fingerprint")
+ * <li>if slower than the threshold (-Dspirit.slowQuery.ms, default 1000ms, 0 to disable), logged in ${user.home}/.spirit/slow-queries.log
+ * with the generated SQL and the explain plan of the vendor (once per fingerprint)
+ * </ul>
+ * The explain plan and the logging are done in a background thread, and never affect the query.
+ *
+ * @author Joel Freyss
+ */
+public class QueryLog {
+
+	private static final int MAX_FINGERPRINTS = 500;
+	private static final int MAX_LOGGED_LENGTH = 8000;
+
+	private static long thresholdMs = Long.getLong("spirit.slowQuery.ms", 1000L);
+	private static File logFile = new File(System.getProperty("user.home"), ".spirit/slow-queries.log");
+
+	private static final Map<String, String> jpql2fingerprint = new ConcurrentHashMap<>();
+	private static final Set<String> fingerprints = ConcurrentHashMap.newKeySet();
+	private static final Set<String> explainedFingerprints = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * SQL statements generated by Hibernate while a query is executed in the current thread (null if no query is monitored)
+	 */
+	private static final ThreadLocal<List<String>> capturedSql = new ThreadLocal<>();
+
+	private static final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Spirit-SlowQueryLog");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?[\\s,\\?]*\\)"); //no repeated group: the lists can have 1000 items
+	private static final Pattern REPEATED_IN = Pattern.compile("([\\w\\.]+ in \\(\\?\\+\\))( or \\1)+");
+	private static final Pattern REPEATED_OR = Pattern.compile("([\\w\\.]+ (?:=|like) \\?)( or \\1)+");
+	private static final Pattern WRAPPED = Pattern.compile("(?<![\\w\\.])\\(([\\w\\.]+ (?:in \\(\\?\\+\\)|(?:=|like) \\?))\\)");
+
+	public static long getThresholdMs() {
+		return thresholdMs;
+	}
+
+	/**
+	 * Sets the threshold (ms) above which a query is logged (0 to disable the logging)
+	 * @param thresholdMs
+	 */
+	public static void setThresholdMs(long thresholdMs) {
+		QueryLog.thresholdMs = thresholdMs;
+	}
+
+	public static File getLogFile() {
+		return logFile;
+	}
+
+	public static void setLogFile(File logFile) {
+		QueryLog.logFile = logFile;
+	}
+
+	/**
+	 * Creates a query, whose execution is monitored by the QueryLog
+	 * @param session
+	 * @param jpql
+	 * @return
+	 */
+	public static Query createQuery(EntityManager session, String jpql) {
+		Query query = session.createQuery(jpql);
+		return (Query) Proxy.newProxyInstance(QueryLog.class.getClassLoader(), new Class<?>[] {Query.class}, new MonitoredQuery(query, jpql));
+	}
+
+	/**
+	 * Called by Hibernate (see JPAUtil) for each generated SQL statement
+	 * @param sql
+	 */
+	public static void inspect(String sql) {
+		List<String> sqls = capturedSql.get();
+		if(sqls!=null) sqls.add(sql);
+	}
+
+	private static class MonitoredQuery implements InvocationHandler {
+		private final Query query;
+		private final String jpql;
+
+		public MonitoredQuery(Query query, String jpql) {
+			this.query = query;
+			this.jpql = jpql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			boolean execute = name.equals("getResultList") || name.equals("getSingleResult") || name.equals("executeUpdate");
+			List<String> previous = null;
+			long s = 0;
+			if(execute) {
+				previous = capturedSql.get();
+				capturedSql.set(new ArrayList<>());
+				s = System.currentTimeMillis();
+			}
+			try {
+				Object res = method.invoke(query, args);
+				if(execute) {
+					int rows = name.equals("executeUpdate")? (Integer) res: res instanceof Collection? ((Collection<?>) res).size(): 1;
+					record(jpql, s, rows, capturedSql.get());
+				}
+				//Keep the chaining (setParameter, setMaxResults, ...) on the proxy
+				return res==query? proxy: res;
+			} catch(InvocationTargetException e) {
+				throw e.getCause();
+			} finally {
+				if(execute) capturedSql.set(previous);
+			}
+		}
+	}
+
+	/**
+	 * Records the execution of a query
+	 * @param jpql
+	 * @param startMs
+	 * @param rows
+	 * @param sqls - the SQL generated by Hibernate (can be null)
+	 */
+	public static void record(String jpql, long startMs, int rows, List<String> sqls) {
+		String fingerprint = getFingerprint(jpql);
+		if(fingerprints.size()<MAX_FINGERPRINTS || fingerprints.contains(fingerprint)) {
+			fingerprints.add(fingerprint);
+		} else {
+			fingerprint = "<other>";
+		}
+		long ms = SpiritMetrics.getInstance().record("JPQL: " + fingerprint, startMs, rows);
+		if(thresholdMs>0 && ms>=thresholdMs) {
+			logSlowQuery(fingerprint, jpql, ms, rows, sqls==null? new ArrayList<>(): new ArrayList<>(sqls));
+		}
+	}
+
+	/**
+	 * Normalizes a JPQL statement, so that queries with the same shape have the same fingerprint:
+	 * <ul>
+	 * <li>string and numeric literals, and parameters (?1, :name) are replaced by ?
+	 * <li>in-lists are collapsed to (?+), and repeated 'or' clauses (from expandForIn/expandOrQuery) are collapsed
+	 * <li>whitespaces are collapsed
+	 * </ul>
+	 * @param jpql
+	 * @return
+	 */
+	public static String getFingerprint(String jpql) {
+		if(jpql==null) return "";
+		String res = jpql2fingerprint.get(jpql);
+		if(res!=null) return res;
+
+		StringBuilder sb = new StringBuilder(Math.min(jpql.length(), 1024));
+		int len = jpql.length();
+		for (int i = 0; i < len; i++) {
+			char c = jpql.charAt(i);
+			char prev = sb.length()==0? ' ': sb.charAt(sb.length()-1);
+			if(c=='\'') {
+				//String literal, with '' as escape
+				i++;
+				while(i<len && (jpql.charAt(i)!='\'' || (i+1<len && jpql.charAt(i+1)=='\''))) {
+					if(jpql.charAt(i)=='\'') i++;
+					i++;
+				}
+				sb.append('?');
+			} else if(c=='?' || c==':' && i+1<len && Character.isJavaIdentifierStart(jpql.charAt(i+1))) {
+				//Parameter
+				i++;
+				while(i<len && Character.isJavaIdentifierPart(jpql.charAt(i))) i++;
+				i--;
+				sb.append('?');
+			} else if(Character.isDigit(c) && !Character.isJavaIdentifierPart(prev) && prev!='.') {
+				//Numeric literal
+				while(i+1<len && (Character.isDigit(jpql.charAt(i+1)) || jpql.charAt(i+1)=='.')) i++;
+				sb.append('?');
+			} else if(Character.isWhitespace(c)) {
+				if(prev!=' ') sb.append(' ');
+			} else {
+				sb.append(c);
+			}
+		}
+		res = sb.toString().trim();
+		res = IN_LIST.matcher(res).replaceAll("(?+)");
+		res = REPEATED_IN.matcher(res).replaceAll("$1");
+		res = REPEATED_OR.matcher(res).replaceAll("$1");
+		res = WRAPPED.matcher(res).replaceAll("$1");
+
+		//Only cache the short queries: the long ones have expanded ids and are unlikely to be repeated
+		if(jpql.length()<512 && jpql2fingerprint.size()<5000) jpql2fingerprint.put(jpql, res);
+		return res;
+	}
+
+	private static void logSlowQuery(String fingerprint, String jpql, long ms, int rows, List<String> sqls) {
+		Date date = new Date();
+		String thread = Thread.currentThread().getName();
+		LoggerFactory.getLogger(QueryLog.class).warn("Slow query (" + ms + "ms, rows=" + rows + "): " + fingerprint);
+		writer.submit(() -> {
+			StringBuilder sb = new StringBuilder();
+			sb.append("# " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(date) + " thread=" + thread + " time=" + ms + "ms rows=" + rows + "\n");
+			sb.append("fingerprint: " + fingerprint + "\n");
+			sb.append("jpql: " + abbreviate(jpql) + "\n");
+			for (String sql : sqls) {
+				sb.append("sql: " + abbreviate(sql) + "\n");
+			}
+			if(explainedFingerprints.add(fingerprint)) {
+				for (String sql : sqls) {
+					sb.append("plan:\n" + explain(sql) + "\n");
+				}
+			}
+			sb.append("\n");
+			try {
+				logFile.getParentFile().mkdirs();
+				try(Writer w = new FileWriter(logFile, true)) {
+					w.write(sb.toString());
+				}
+			} catch(Exception e) {
+				LoggerFactory.getLogger(QueryLog.class).warn("Could not write the slow query log " + logFile + ": " + e);
+			}
+		});
+	}
+
+	private static String abbreviate(String s) {
+		return s.length()<=MAX_LOGGED_LENGTH? s: s.substring(0, MAX_LOGGED_LENGTH) + "... (" + s.length() + " chars)";
+	}
+
+	/**
+	 * Returns the explain plan of the given SQL (executed on a separate connection), or the error message
+	 * Parameters are bound to null, which may give a different plan than the actual values.
+	 * @param sql
+	 * @return
+	 */
+	public static String explain(String sql) {
+		DBAdapter adapter = DBAdapter.getInstance();
+		StringBuilder sb = new StringBuilder();
+		try(Connection conn = adapter.getConnection()) {
+			SQLVendor vendor = adapter.getVendor();
+			if(vendor==SQLVendor.ORACLE) {
+				String statementId = "spirit" + Math.abs(sql.hashCode());
+				try(PreparedStatement stmt = conn.prepareStatement("explain plan set statement_id = '" + statementId + "' for " + sql)) {
+					bindNulls(stmt);
+					stmt.execute();
+				}
+				try(Statement stmt = conn.createStatement()) {
+					append(stmt.executeQuery("select plan_table_output from table(dbms_xplan.display('PLAN_TABLE', '" + statementId + "', 'TYPICAL'))"), sb);
+					stmt.execute("delete from plan_table where statement_id = '" + statementId + "'");
+				}
+			} else {
+				try(PreparedStatement stmt = conn.prepareStatement((vendor==SQLVendor.MYSQL? "explain ": "explain plan for ") + sql)) {
+					bindNulls(stmt);
+					append(stmt.executeQuery(), sb);
+				}
+			}
+		} catch(Exception e) {
+			sb.append("explain failed: " + e.getMessage());
+		}
+		return sb.toString();
+	}
+
+	private static void bindNulls(PreparedStatement stmt) throws Exception {
+		ParameterMetaData md = stmt.getParameterMetaData();
+		for (int i = 1; i <= md.getParameterCount(); i++) {
+			stmt.setNull(i, Types.VARCHAR);
+		}
+	}
+
+	private static void append(ResultSet rs, StringBuilder sb) throws Exception {
+		try {
+			ResultSetMetaData md = rs.getMetaData();
+			while(rs.next()) {
+				for (int i = 1; i <= md.getColumnCount(); i++) {
+					if(i>1) sb.append("\t");
+					sb.append(rs.getString(i));
+				}
+				sb.append("\n");
+			}
+		} finally {
+			rs.close();
+		}
+	}
+
+	/**
+	 * Removes the per-fingerprint caches (the statistics are reset through SpiritMetrics)
+	 */
+	public static void reset() {
+		jpql2fingerprint.clear();
+		fingerprints.clear();
+		explainedFingerprints.clear();
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.dao;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the query and persistence metrics, so that the slow operations can be diagnosed in production:
+ * <ul>
+ * <li>latency per DAO method (count, mean, max, histogram, number of returned rows)
+ * <li>counters
+ * <li>hit rate of the Cache
+ * <li>entity/collection loads and fetches of Hibernate, if the statistics are enabled (-Dspirit.statistics=true or setHibernateStatisticsEnabled)
+ * </ul>
+ *
+ * The registry is exposed through JMX (see SpiritMetricsMBean). Recording is thread-safe and lock-free.
+ *
+ * @author Joel Freyss
+ */
+public class SpiritMetrics implements SpiritMetricsMBean {
+
+	public static final String OBJECT_NAME = "com.actelion.research.spirit:type=Metrics";
+
+	/**
+	 * Upper bounds (ms, inclusive) of the buckets of the latency histograms
+	 */
+	public static final long[] BUCKETS_MS = new long[] {1, 5, 10, 50, 100, 500, 1000, 5000, 30000, Long.MAX_VALUE};
+
+	/**
+	 * Latency statistics of one operation
+	 */
+	public static class LatencyStat {
+		private final String name;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalMs = new AtomicLong();
+		private final AtomicLong maxMs = new AtomicLong();
+		private final AtomicLong rows = new AtomicLong();
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS_MS.length);
+
+		private LatencyStat(String name) {
+			this.name = name;
+		}
+
+		private void record(long ms, int n) {
+			count.incrementAndGet();
+			totalMs.addAndGet(ms);
+			if(n>0) rows.addAndGet(n);
+			long max;
+			while((max = maxMs.get())<ms && !maxMs.compareAndSet(max, ms)) {}
+			int bucket = 0;
+			while(ms>BUCKETS_MS[bucket]) bucket++;
+			histogram.incrementAndGet(bucket);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getTotalMs() {
+			return totalMs.get();
+		}
+
+		public double getMeanMs() {
+			long n = count.get();
+			return n==0? 0: (double) totalMs.get() / n;
+		}
+
+		public long getMaxMs() {
+			return maxMs.get();
+		}
+
+		public long getRows() {
+			return rows.get();
+		}
+
+		public long[] getHistogram() {
+			long[] res = new long[histogram.length()];
+			for (int i = 0; i < res.length; i++) {
+				res[i] = histogram.get(i);
+			}
+			return res;
+		}
+
+		/**
+		 * Returns the upper bound of the bucket containing the given percentile (capped by the max)
+		 * @param percentile (ex: 95)
+		 */
+		public long getPercentileMs(int percentile) {
+			long[] h = getHistogram();
+			long total = 0;
+			for (long n : h) total += n;
+			if(total==0) return 0;
+			long threshold = (long) Math.ceil(total * percentile / 100.0);
+			long cumul = 0;
+			for (int i = 0; i < h.length; i++) {
+				cumul += h[i];
+				if(cumul>=threshold) return Math.min(BUCKETS_MS[i], getMaxMs());
+			}
+			return getMaxMs();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-50s n=%-7d mean=%-9.1f p95<=%-7d max=%-7d rows=%d", name, getCount(), getMeanMs(), getPercentileMs(95), getMaxMs(), getRows());
+		}
+	}
+
+	private static final SpiritMetrics instance = new SpiritMetrics();
+
+	private final Map<String, LatencyStat> stats = new ConcurrentHashMap<>();
+	private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+	static {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(!server.isRegistered(name)) server.registerMBean(instance, name);
+		} catch(Throwable e) {
+			LoggerFactory.getLogger(SpiritMetrics.class).warn("Could not register the metrics in JMX: " + e);
+		}
+	}
+
+	private SpiritMetrics() {}
+
+	public static SpiritMetrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Records the duration of an operation, started at startMs (System.currentTimeMillis)
+	 * @param name - the operation, ex: DAOBiosample.queryBiosamples
+	 * @param startMs
+	 * @param rows - the number of returned objects, or -1
+	 * @return the duration in ms
+	 */
+	public long record(String name, long startMs, int rows) {
+		long ms = Math.max(0, System.currentTimeMillis() - startMs);
+		LatencyStat stat = stats.get(name);
+		if(stat==null) stat = stats.computeIfAbsent(name, LatencyStat::new);
+		stat.record(ms, rows);
+		return ms;
+	}
+
+	public void increment(String counter) {
+		increment(counter, 1);
+	}
+
+	public void increment(String counter, long n) {
+		AtomicLong c = counters.get(counter);
+		if(c==null) c = counters.computeIfAbsent(counter, k -> new AtomicLong());
+		c.addAndGet(n);
+	}
+
+	public LatencyStat getStat(String name) {
+		return stats.get(name);
+	}
+
+	/**
+	 * Returns the latency statistics, sorted by name
+	 */
+	public List<LatencyStat> getStats() {
+		List<LatencyStat> res = new ArrayList<>(stats.values());
+		Collections.sort(res, (s1, s2) -> s1.getName().compareTo(s2.getName()));
+		return res;
+	}
+
+	/**
+	 * Returns the counters, sorted by name
+	 */
+	public Map<String, Long> getCounters() {
+		Map<String, Long> res = new TreeMap<>();
+		for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+			res.put(e.getKey(), e.getValue().get());
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the Hibernate statistics (loads, fetches, queries, cache), or an empty map if not enabled
+	 */
+	public Map<String, Long> getHibernateStatistics() {
+		return JPAUtil.getHibernateStatistics();
+	}
+
+	@Override
+	public boolean isHibernateStatisticsEnabled() {
+		return JPAUtil.isHibernateStatisticsEnabled();
+	}
+
+	@Override
+	public void setHibernateStatisticsEnabled(boolean enabled) {
+		JPAUtil.setHibernateStatisticsEnabled(enabled);
+	}
+
+	@Override
+	public long getCacheHits() {
+		return Cache.getInstance().getHits();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return Cache.getInstance().getMisses();
+	}
+
+	@Override
+	public String[] getTimerNames() {
+		List<String> res = new ArrayList<>();
+		for (LatencyStat stat : getStats()) {
+			res.add(stat.getName());
+		}
+		return res.toArray(new String[res.size()]);
+	}
+
+	@Override
+	public long getCount(String timerName) {
+		LatencyStat stat = stats.get(timerName);
+		return stat==null? 0: stat.getCount();
+	}
+
+	@Override
+	public double getMeanMs(String timerName) {
+		LatencyStat stat = stats.get(timerName);
+		return stat==null? 0: stat.getMeanMs();
+	}
+
+	@Override
+	public long getMaxMs(String timerName) {
+		LatencyStat stat = stats.get(timerName);
+		return stat==null? 0: stat.getMaxMs();
+	}
+
+	@Override
+	public long getPercentileMs(String timerName, int percentile) {
+		LatencyStat stat = stats.get(timerName);
+		return stat==null? 0: stat.getPercentileMs(percentile);
+	}
+
+	/**
+	 * Returns a text report of all metrics, one line per metric
+	 */
+	@Override
+	public String[] getReport() {
+		List<String> res = new ArrayList<>();
+		for (LatencyStat stat : getStats()) {
+			res.add(stat.toString());
+		}
+		for (Map.Entry<String, Long> e : getCounters().entrySet()) {
+			res.add(e.getKey() + "=" + e.getValue());
+		}
+		long hits = getCacheHits();
+		long misses = getCacheMisses();
+		res.add("Cache: hits=" + hits + " misses=" + misses + (hits+misses>0? " hitRate=" + (100*hits/(hits+misses)) + "%": ""));
+		for (Map.Entry<String, Long> e : getHibernateStatistics().entrySet()) {
+			res.add("Hibernate." + e.getKey() + "=" + e.getValue());
+		}
+		return res.toArray(new String[res.size()]);
+	}
+
+	@Override
+	public void reset() {
+		stats.clear();
+		counters.clear();
+		Cache.getInstance().resetStatistics();
+		QueryLog.reset();
+		JPAUtil.clearHibernateStatistics();
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.business.DataType;
+import com.actelion.research.spiritcore.business.biosample.Biosample;
+import com.actelion.research.spiritcore.business.result.Result;
+import com.actelion.research.spiritcore.business.result.Test;
+import com.actelion.research.spiritcore.business.result.TestAttribute;
+import com.actelion.research.spiritcore.business.study.Measurement;
+import com.actelion.research.spiritcore.business.study.Phase;
+import com.actelion.research.spiritcore.business.study.Study;
+import com.actelion.research.spiritcore.util.ListHashMap;
+import com.actelion.research.spiritcore.util.QueryTokenizer;
+
+/**
+ * In-memory index of the study results (weighing, food/water, observation, measurements), by biosample and phase,
+ * used to attach the results to the biosamples (as auxiliary results) and to create the missing ones.
+ *
+ * The results of a biosample are loaded once, for all phases and tests, with a dedicated query (no rights check, no joins on the query filters).
+ * The index is then reused for the next calls (other cages, other phases), and the created results are added to it,
+ * so that the same instances are returned, and saved, by the following calls.
+ *
+ * The index is bound to the EntityManager of the thread creating it, and must not be shared with other threads.
+ *
+ * @author Joel Freyss
+ */
+public class StudyResultIndex {
+
+	private final boolean skipEmptyPhase;
+	private final List<Test> tests;
+	private final boolean hasLinkedBiosamples;
+
+	/** Results by biosampleId and inherited phase */
+	private final Map<Integer, ListHashMap<Phase, Result>> index = new HashMap<>();
+
+	private StudyResultIndex(boolean skipEmptyPhase, List<Test> tests) {
+		this.skipEmptyPhase = skipEmptyPhase;
+		this.tests = Collections.unmodifiableList(tests);
+		boolean linked = false;
+		for (Test test : tests) {
+			for (TestAttribute ta : test.getAttributes()) {
+				if(ta.getDataType()==DataType.BIOSAMPLE) linked = true;
+			}
+		}
+		this.hasLinkedBiosamples = linked;
+	}
+
+	/**
+	 * Creates the index of the results of Weighing, FoodWater, Observation, extraMesurements that could be performed on the top specimen
+	 * @param study
+	 * @return
+	 * @throws Exception
+	 */
+	public static StudyResultIndex createForTops(Study study) throws Exception {
+		Test weighingTest = DAOTest.getTest(DAOTest.WEIGHING_TESTNAME);
+		Test fwTest = DAOTest.getTest(DAOTest.FOODWATER_TESTNAME);
+		Test obsTest = DAOTest.getTest(DAOTest.OBSERVATION_TESTNAME);
+		if(weighingTest==null || fwTest==null || obsTest==null) throw new Exception("You must create the tests: " + DAOTest.WEIGHING_TESTNAME + "(output=weight [g]), " + DAOTest.FOODWATER_TESTNAME + "(output=[food [g], water [ml]]) , " + DAOTest.OBSERVATION_TESTNAME + "(output=observation)");
+
+		List<Test> tests = new ArrayList<>();
+		tests.add(weighingTest);
+		tests.add(fwTest);
+		tests.add(obsTest);
+		tests.addAll(Measurement.getTests(study.getAllMeasurementsFromActions()));
+		return new StudyResultIndex(false, tests);
+	}
+
+	/**
+	 * Creates the index of the results of Weighing, Length, Observation that could be performed on the samples
+	 * @param study
+	 * @return
+	 * @throws Exception
+	 */
+	public static StudyResultIndex createForSamples(Study study) throws Exception {
+		Test weighingTest = DAOTest.getTest(DAOTest.WEIGHING_TESTNAME);
+		Test lengthTest = DAOTest.getTest(DAOTest.LENGTH_TESTNAME);
+		Test obsTest = DAOTest.getTest(DAOTest.OBSERVATION_TESTNAME);
+		if(weighingTest==null || lengthTest==null || obsTest==null) throw new Exception("You must create the tests: " + DAOTest.WEIGHING_TESTNAME + "(output=weight [g]), " + DAOTest.LENGTH_TESTNAME + "(output=length) , " + DAOTest.OBSERVATION_TESTNAME + "(output=observation)");
+
+		List<Test> tests = new ArrayList<>();
+		tests.add(weighingTest);
+		tests.add(lengthTest);
+		tests.add(obsTest);
+		tests.addAll(Measurement.getTests(study.getAllMeasurementsFromSamplings()));
+		return new StudyResultIndex(true, tests);
+	}
+
+	public List<Test> getTests() {
+		return tests;
+	}
+
+	/**
+	 * Attaches the results to the given biosamples, and creates the missing ones
+	 * @param biosamples
+	 * @param phaseFilter - not null to attach only the results of the specified phase
+	 * @param elbForCreatingMissingOnes - not null to create the missing results
+	 * @throws Exception
+	 */
+	public void attach(Collection<Biosample> biosamples, Phase phaseFilter, String elbForCreatingMissingOnes) throws Exception {
+		load(biosamples);
+
+		for (Biosample biosample : biosamples) {
+			//Clean previous data
+			if(phaseFilter!=null) biosample.clearAuxResults(phaseFilter);
+
+			ListHashMap<Phase, Result> phase2results = index.get(biosample.getId());
+			if(phase2results==null) continue;
+			for (Map.Entry<Phase, List<Result>> e : phase2results.entrySet()) {
+				if(phaseFilter!=null && !phaseFilter.equals(e.getKey())) continue; //if phase filter -> returns only results with samples and animals at this phase
+				List<Result> attached = biosample.getAuxResults();
+				for (Result result : e.getValue()) {
+					if(phaseFilter==null && skipEmptyPhase && result.getBiosample().getInheritedPhase()==null) continue; //if no phase filter -> returns only samples
+					if(!attached.contains(result)) biosample.addAuxResult(result);
+				}
+			}
+		}
+
+		//Create missing results
+		if(elbForCreatingMissingOnes!=null) {
+			for (Biosample biosample : biosamples) {
+				Phase p = biosample.getAttachedStudy()==null? biosample.getInheritedPhase(): phaseFilter;
+
+				if(phaseFilter==null && skipEmptyPhase && biosample.getInheritedPhase()==null) continue; //if no phase filter -> returns only samples
+				if(phaseFilter!=null && !phaseFilter.equals(p)) continue; //if phase filter -> returns only results with samples and animals at this phase
+
+				for(Test test: tests) {
+					if(biosample.getAuxResult(test, p)==null) {
+						Result r = new Result(test);
+						r.setElb(elbForCreatingMissingOnes);
+						r.setBiosample(biosample);
+						r.setPhase(biosample.getAttachedStudy()==null? null: phaseFilter);
+						biosample.addAuxResult(r);
+						add(biosample.getId(), r);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads the results of the biosamples, which are not yet in the index
+	 */
+	private void load(Collection<Biosample> biosamples) {
+		List<Integer> ids = new ArrayList<>();
+		for (Biosample b : biosamples) {
+			if(b.getId()>0 && !index.containsKey(b.getId())) ids.add(b.getId());
+		}
+		if(ids.isEmpty() || tests.isEmpty()) return;
+
+		long s = System.currentTimeMillis();
+		EntityManager session = JPAUtil.getManager();
+		@SuppressWarnings("unchecked")
+		List<Result> results = session.createQuery("select distinct r from Result r left join fetch r.values"
+				+ " where " + QueryTokenizer.expandForIn("r.biosample.id", ids)
+				+ " and " + QueryTokenizer.expandForIn("r.test.id", JPAUtil.getIds(tests)))
+				.setFlushMode(FlushModeType.COMMIT)
+				.getResultList();
+		if(hasLinkedBiosamples) DAOResult.postLoad(results);
+
+		for (Integer id : ids) {
+			index.put(id, new ListHashMap<>());
+		}
+		for (Result result : results) {
+			add(result.getBiosample().getId(), result);
+		}
+		LoggerFactory.getLogger(StudyResultIndex.class).debug("Indexed " + results.size() + " results of " + ids.size() + " biosamples in " + (System.currentTimeMillis()-s) + "ms");
+	}
+
+	private void add(int biosampleId, Result result) {
+		Phase p = result.getInheritedPhase();
+		if(biosampleId<=0 || p==null) return;
+		ListHashMap<Phase, Result> phase2results = index.get(biosampleId);
+		if(phase2results==null) {
+			phase2results = new ListHashMap<>();
+			index.put(biosampleId, phase2results);
+		}
+		phase2results.add(p, result);
+	}
+}
@@ -0,0 +1,445 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.business.study.Group;
+import com.actelion.research.spiritcore.business.study.Measurement;
+import com.actelion.research.spiritcore.business.study.NamedTreatment;
+import com.actelion.research.spiritcore.business.study.Phase;
+import com.actelion.research.spiritcore.business.study.Study;
+import com.actelion.research.spiritcore.business.study.StudyAction;
+import com.actelion.research.spiritcore.util.QueryTokenizer;
+
+/**
+ * Index of the study descriptors, used to find related studies.
+ *
+ * The descriptors (design vector, duration, compounds) are computed once per study version (updDate), and kept in a bounded LRU cache until the study is saved again.
+ * The descriptors of the candidates are computed from projections (phases, groups, actions, compounds), so that the design of the other studies is never loaded as entities:
+ * <ul>
+ * <li>the duration and the compounds of all candidates are loaded first, and give a lower bound of their distance
+ * <li>the candidates are then scored by increasing lower bound, and the design vectors are loaded by chunks, until the lower bound cannot beat the related studies found so far
+ * </ul>
+ *
+ * @author Joel Freyss
+ */
+public class StudySimilarityIndex {
+
+	/**
+	 * Number of related studies returned
+	 */
+	public static final int MAX_RELATED = 6;
+
+	/**
+	 * Maximum number of cached studies
+	 */
+	public static final int MAX_ENTRIES = 5000;
+
+	/**
+	 * Number of studies, whose design vectors are loaded in one query
+	 */
+	private static final int CHUNK_SIZE = 100;
+
+	private static final int FLAG_TREATMENT = 1;
+	private static final int FLAG_SAMPLING = 2;
+	private static final int FLAG_MEASUREMENT = 4;
+	private static final int FLAG_WEIGHING = 8;
+	private static final int FLAG_NECROPSY = 16;
+
+	/**
+	 * Cached descriptors of one study version. The design vector is null until it is needed
+	 */
+	private static class Entry {
+		private final int studyId;
+		private final Date updDate;
+		private final int lastDays;
+		private final Set<String> compounds;
+		private volatile double[] descriptors;
+
+		public Entry(int studyId, Date updDate, int lastDays, Set<String> compounds) {
+			this.studyId = studyId;
+			this.updDate = updDate;
+			this.lastDays = lastDays;
+			this.compounds = compounds;
+		}
+
+		public boolean isUpToDate(Study study) {
+			return updDate==null? study.getUpdDate()==null: updDate.equals(study.getUpdDate());
+		}
+	}
+
+	/**
+	 * Design of a study, reduced to what is needed to compute the descriptors
+	 */
+	private static class Design {
+		/** Ids of the phases, sorted by time */
+		private final List<Integer> phaseIds = new ArrayList<>();
+		/** Ids of the groups with their number of subgroups */
+		private final Map<Integer, Integer> group2nSubgroups = new HashMap<>();
+		private int nGroupsWithFrom;
+		private int nGroupsWithRnd;
+		/** Flags of the actions, by group_subgroup_phase */
+		private final Map<String, Integer> actions = new HashMap<>();
+
+		private static String getKey(int groupId, int subGroup, int phaseId) {
+			return groupId + "_" + subGroup + "_" + phaseId;
+		}
+
+		private void addAction(int groupId, int subGroup, int phaseId, int flags) {
+			actions.merge(getKey(groupId, subGroup, phaseId), flags, (f1, f2) -> f1 | f2);
+		}
+	}
+
+	/**
+	 * Descriptors by study id, the least recently used being removed first
+	 */
+	private static final Map<Integer, Entry> id2entry = new LinkedHashMap<Integer, Entry>(16, .75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+			return size()>MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * Removes the cached descriptors of the given studies (to be called when the studies are saved or deleted)
+	 * @param studies
+	 */
+	public static synchronized void invalidate(Collection<Study> studies) {
+		for (Study study : studies) {
+			id2entry.remove(study.getId());
+		}
+	}
+
+	public static synchronized void clear() {
+		id2entry.clear();
+	}
+
+	/**
+	 * Returns the studies, whose design is the most similar to the given study
+	 * @param study
+	 * @param candidates
+	 * @return the related studies, sorted by similarity
+	 */
+	public static List<Study> getRelatedStudies(Study study, Collection<Study> candidates) {
+		long s = System.currentTimeMillis();
+		Entry e1 = createEntry(study);
+
+		//Get the duration and the compounds of the candidates, and sort them by lower bound
+		Map<Study, Entry> study2entry = getEntries(candidates);
+		List<Object[]> bounds = new ArrayList<>();
+		for (Map.Entry<Study, Entry> e : study2entry.entrySet()) {
+			if(e.getKey().getId()==study.getId()) continue;
+			bounds.add(new Object[] {e.getKey(), e.getValue(), getLowerBound(e1, e.getValue())});
+		}
+		Collections.sort(bounds, (o1, o2) -> Double.compare((Double) o1[2], (Double) o2[2]));
+
+		//Keep the MAX_RELATED best candidates, the worst being on top of the heap
+		PriorityQueue<Object[]> queue = new PriorityQueue<>(MAX_RELATED+1, (o1, o2) -> Double.compare((Double) o2[1], (Double) o1[1]));
+		int scored = 0;
+		loop: for (int offset = 0; offset < bounds.size(); offset += CHUNK_SIZE) {
+			List<Object[]> chunk = bounds.subList(offset, Math.min(bounds.size(), offset + CHUNK_SIZE));
+			List<Entry> toLoad = new ArrayList<>();
+			for (Object[] o : chunk) {
+				Entry e = (Entry) o[1];
+				if(e.descriptors==null) toLoad.add(e);
+			}
+			loadDescriptors(toLoad);
+
+			for (Object[] o : chunk) {
+				if(queue.size()>=MAX_RELATED && (Double) o[2]>=(Double) queue.peek()[1]) break loop;
+				double score = getScore(e1, (Entry) o[1]);
+				scored++;
+				if(queue.size()<MAX_RELATED) {
+					queue.add(new Object[] {o[0], score});
+				} else if(score<(Double) queue.peek()[1]) {
+					queue.poll();
+					queue.add(new Object[] {o[0], score});
+				}
+			}
+		}
+
+		List<Object[]> sorted = new ArrayList<>(queue);
+		Collections.sort(sorted, (o1, o2) -> Double.compare((Double) o1[1], (Double) o2[1]));
+		List<Study> res = new ArrayList<>();
+		for (Object[] o : sorted) {
+			res.add((Study) o[0]);
+		}
+		LoggerFactory.getLogger(StudySimilarityIndex.class).debug("Related studies of " + study + " in " + (System.currentTimeMillis()-s) + "ms (" + scored + "/" + bounds.size() + " scored): " + res);
+		return res;
+	}
+
+	/**
+	 * Gets the cached entries of the candidates, or creates them (without their design vector) if the studies were updated
+	 * @param candidates
+	 * @return
+	 */
+	private static Map<Study, Entry> getEntries(Collection<Study> candidates) {
+		Map<Study, Entry> res = new LinkedHashMap<>();
+		Map<Integer, Study> toLoad = new HashMap<>();
+		synchronized (StudySimilarityIndex.class) {
+			for (Study study : candidates) {
+				Entry e = id2entry.get(study.getId());
+				if(e!=null && e.isUpToDate(study)) {
+					res.put(study, e);
+				} else if(study.getId()>0) {
+					res.put(study, null);
+					toLoad.put(study.getId(), study);
+				}
+			}
+		}
+		if(toLoad.isEmpty()) return res;
+
+		//Load the duration and the compounds of the missing studies
+		EntityManager session = JPAUtil.getManager();
+		Map<Integer, List<Phase>> id2phases = new HashMap<>();
+		for (Object[] row : loadRows(session, "select p.study.id, p.name from Phase p where ", "p.study.id", toLoad.keySet())) {
+			id2phases.computeIfAbsent((Integer) row[0], k -> new ArrayList<>()).add(new Phase((String) row[1]));
+		}
+		Map<Integer, Set<String>> id2compounds = new HashMap<>();
+		for (Object[] row : loadRows(session, "select t.study.id, t.compoundName, t.compoundName2 from NamedTreatment t where ", "t.study.id", toLoad.keySet())) {
+			Set<String> compounds = id2compounds.computeIfAbsent((Integer) row[0], k -> new HashSet<>());
+			addCompound(compounds, (String) row[1]);
+			addCompound(compounds, (String) row[2]);
+		}
+
+		synchronized (StudySimilarityIndex.class) {
+			for (Study study : toLoad.values()) {
+				List<Phase> phases = id2phases.getOrDefault(study.getId(), Collections.emptyList());
+				int lastDays = phases.isEmpty()? 0: Collections.max(phases).getDays();
+				Entry e = new Entry(study.getId(), study.getUpdDate(), lastDays, id2compounds.getOrDefault(study.getId(), Collections.emptySet()));
+				id2entry.put(e.studyId, e);
+				res.put(study, e);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Loads the design vector of the given entries, from the phases, groups and actions of their studies
+	 * @param entries
+	 */
+	private static void loadDescriptors(List<Entry> entries) {
+		if(entries.isEmpty()) return;
+		Map<Integer, Entry> id2toLoad = new HashMap<>();
+		Map<Integer, Design> id2design = new HashMap<>();
+		for (Entry e : entries) {
+			id2toLoad.put(e.studyId, e);
+			id2design.put(e.studyId, new Design());
+		}
+
+		EntityManager session = JPAUtil.getManager();
+		List<Object[]> phases = new ArrayList<>();
+		for (Object[] row : loadRows(session, "select p.study.id, p.id, p.name from Phase p where ", "p.study.id", id2toLoad.keySet())) {
+			phases.add(new Object[] {row[0], row[1], new Phase((String) row[2])});
+		}
+		Collections.sort(phases, (o1, o2) -> ((Phase) o1[2]).compareTo((Phase) o2[2]));
+		for (Object[] row : phases) {
+			id2design.get(row[0]).phaseIds.add((Integer) row[1]);
+		}
+
+		for (Object[] row : loadRows(session, "select s.id, g.id, fg.id, fp.id, g.subgroupSizeFlat from Study s join s.groups g left join g.fromGroup fg left join g.fromPhase fp where ", "s.id", id2toLoad.keySet())) {
+			Design design = id2design.get(row[0]);
+			String flat = (String) row[4];
+			design.group2nSubgroups.put((Integer) row[1], flat==null || flat.length()==0? 1: flat.split(",", -1).length);
+			if(row[2]!=null) design.nGroupsWithFrom++;
+			if(row[3]!=null) design.nGroupsWithRnd++;
+		}
+
+		for (Object[] row : loadRows(session, "select a.study.id, ag.id, a.subGroup, ap.id, nt.id, ns1.id, ns1.necropsy, ns2.id, ns2.necropsy, a.measureFood, a.measureWater, a.measureWeight, a.extraMeasurement"
+				+ " from StudyAction a left join a.group ag left join a.phase ap left join a.namedTreatment nt left join a.namedSampling1 ns1 left join a.namedSampling2 ns2 where ", "a.study.id", id2toLoad.keySet())) {
+			if(row[1]==null || row[3]==null) continue;
+			int flags = 0;
+			if(row[4]!=null) flags |= FLAG_TREATMENT;
+			if(row[5]!=null || row[7]!=null) flags |= FLAG_SAMPLING;
+			if(row[6]==Boolean.TRUE || row[8]==Boolean.TRUE) flags |= FLAG_NECROPSY;
+			if(row[9]==Boolean.TRUE || row[10]==Boolean.TRUE || row[11]==Boolean.TRUE || Measurement.deserialize((String) row[12]).size()>0) flags |= FLAG_MEASUREMENT;
+			if(row[11]==Boolean.TRUE) flags |= FLAG_WEIGHING;
+			id2design.get(row[0]).addAction((Integer) row[1], row[2]==null? 0: (Integer) row[2], (Integer) row[3], flags);
+		}
+
+		synchronized (StudySimilarityIndex.class) {
+			for (Entry e : entries) {
+				e.descriptors = getDescriptors(id2design.get(e.studyId));
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object[]> loadRows(EntityManager session, String jpql, String idLabel, Collection<Integer> studyIds) {
+		return QueryLog.createQuery(session, jpql + QueryTokenizer.expandForIn(idLabel, studyIds)).getResultList();
+	}
+
+	/**
+	 * Creates the descriptors of the given study (which may be edited), from its loaded design
+	 */
+	private static Entry createEntry(Study study) {
+		Set<String> compounds = new HashSet<>();
+		for (NamedTreatment t : study.getNamedTreatments()) {
+			addCompound(compounds, t.getCompoundName1());
+			addCompound(compounds, t.getCompoundName2());
+		}
+		Entry e = new Entry(study.getId(), study.getUpdDate(), study.getLastPhase()==null? 0: study.getLastPhase().getDays(), compounds);
+		e.descriptors = getDescriptors(study);
+		return e;
+	}
+
+	private static void addCompound(Set<String> compounds, String compound) {
+		if(compound!=null && compound.length()>0) compounds.add(compound);
+	}
+
+	/**
+	 * Lower bound of the distance between 2 studies, computed without the design vectors
+	 */
+	private static double getLowerBound(Entry e1, Entry e2) {
+		double score = 0;
+		if(e1.compounds.size()>0) {
+			score += Collections.disjoint(e1.compounds, e2.compounds)? 1: 0;
+		} else if(e2.compounds.size()>0) {
+			score += .5;
+		}
+
+		score += 3.0 * Math.abs(e1.lastDays-e2.lastDays) / Math.max(1, (e1.lastDays+e2.lastDays)/2);
+		return score;
+	}
+
+	/**
+	 * Distance between 2 studies (0=similar)
+	 */
+	private static double getScore(Entry e1, Entry e2) {
+		double score = getLowerBound(e1, e2);
+		double[] desc1 = e1.descriptors;
+		double[] desc2 = e2.descriptors;
+		for (int i = 0; i < desc2.length; i++) {
+			score += Math.min(1, Math.abs(desc1[i]-desc2[i]) / ((.2+desc1[i]+desc2[i])/2)) * 4.0 /desc2.length;
+		}
+		return score;
+	}
+
+	/**
+	 * Computes the descriptors of the study design: ratio of groups with randomization, ratio of treatments, samplings, measurements...
+	 * @param s
+	 * @return
+	 */
+	public static double[] getDescriptors(Study s) {
+		Design design = new Design();
+		for(Phase p: s.getPhases()) {
+			design.phaseIds.add(p.getId());
+		}
+		for(Group g: s.getGroups()) {
+			design.group2nSubgroups.put(g.getId(), g.getNSubgroups());
+			if(g.getFromGroup()!=null) design.nGroupsWithFrom++;
+			if(g.getFromPhase()!=null) design.nGroupsWithRnd++;
+		}
+		for(StudyAction a: s.getStudyActions()) {
+			if(a.getGroup()==null || a.getPhase()==null) continue;
+			int flags = 0;
+			if(a.getNamedTreatment()!=null) flags |= FLAG_TREATMENT;
+			if(a.getNamedSampling1()!=null || a.getNamedSampling2()!=null) flags |= FLAG_SAMPLING;
+			if((a.getNamedSampling1()!=null && a.getNamedSampling1().isNecropsy()) || (a.getNamedSampling2()!=null && a.getNamedSampling2().isNecropsy())) flags |= FLAG_NECROPSY;
+			if(a.hasMeasurements()) flags |= FLAG_MEASUREMENT;
+			if(a.isMeasureWeight()) flags |= FLAG_WEIGHING;
+			design.addAction(a.getGroup().getId(), a.getSubGroup(), a.getPhase().getId(), flags);
+		}
+		return getDescriptors(design);
+	}
+
+	/**
+	 * Computes the descriptors of the design. A subgroup ends at its first necropsy
+	 */
+	private static double[] getDescriptors(Design design) {
+		int nMeasurements = 0;
+		int nWeighings = 0;
+		int nTreatments = 0;
+		int nSamplings = 0;
+		int nValid = 0;
+		int nTotal = 0;
+		double maxMeasurements = 0;
+		double maxWeighings = 0;
+		double maxTreatments = 0;
+		double maxSamplings = 0;
+		int nGroups = design.group2nSubgroups.size();
+		for(Map.Entry<Integer, Integer> g: design.group2nSubgroups.entrySet()) {
+			for(int i=0; i<g.getValue(); i++) {
+
+				int measurements = 0;
+				int weighings = 0;
+				int treatments = 0;
+				int samplings = 0;
+				int valid = 0;
+				int total = 0;
+				boolean ended = false;
+				for(int phaseId: design.phaseIds) {
+					total++;
+					Integer flags = design.actions.get(Design.getKey(g.getKey(), i, phaseId));
+					if(flags!=null && (flags & FLAG_NECROPSY)>0) ended = true;
+					if(!ended) valid++;
+					if(flags==null) continue;
+					if((flags & FLAG_TREATMENT)>0) treatments++;
+					if((flags & FLAG_SAMPLING)>0) samplings++;
+					if((flags & FLAG_MEASUREMENT)>0) measurements++;
+					if((flags & FLAG_WEIGHING)>0) weighings++;
+				}
+				if(total==0) total=1;
+				maxTreatments = Math.max(maxTreatments, (double)treatments/total);
+				maxSamplings = Math.max(maxSamplings, (double)samplings/total);
+				maxMeasurements = Math.max(maxMeasurements, (double)measurements/total);
+				maxWeighings = Math.max(maxWeighings, (double)weighings/total);
+				nTotal+=total;
+
+				nTreatments+=treatments;
+				nSamplings+=samplings;
+				nMeasurements+=measurements;
+				nWeighings+=weighings;
+				nValid+=valid;
+			}
+		}
+		if(nTotal==0) nTotal=1;
+		if(nGroups==0) nGroups=1;
+		return new double[] {
+				(double) design.nGroupsWithFrom/nGroups,
+				(double) design.nGroupsWithRnd/nGroups,
+				(double)nTreatments/nTotal,
+				maxTreatments,
+				(double)nMeasurements/nTotal,
+				maxMeasurements,
+				(double)nWeighings/nTotal,
+				(double)nSamplings/nTotal,
+				maxSamplings,
+				maxWeighings,
+				(double) nValid/nTotal};
+	}
+}
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -356,88 +357,25 @@ public class BiosampleCreationHelper {
 
 
 
-		//Validation
-		Map<String, Biosample> sampleId2sample = new HashMap<>();
-		boolean askValidChoice = true;
-		List<Biosample> toSave = new ArrayList<>();
-		Map<String, Integer> sampleId2Ids = DAOBiosample.getIdFromSampleIds(Biosample.getSampleIds(biosamples));
-		List<Biosample> toClones = new ArrayList<>();
-		List<Biosample> toCloneConflicts = new ArrayList<>();
-		for (Biosample b : biosamples) {
+		//Validation: collect all violations, and report them at once
+		BiosampleValidator.Result result = BiosampleValidator.validate(biosamples, editor==null? null: editor.getModel().getReadOnlyRows(), allowCloning, SpiritFrame.getUser());
+		result.throwErrors();
 
-			if(b==null || b.isEmpty()) continue;
-			if(editor!=null && editor.getModel().getReadOnlyRows().contains(b)) continue;
-
-			//Check that we have edit rights
-			boolean canEdit = SpiritRights.canEdit(b, SpiritFrame.getUser());
-			if(!canEdit) throw new ValidationException("You cannot allowed to update " + b, b, "SampleId");
-
-			//Validate
-			if(b.getSampleId()==null || b.getSampleId().length()==0) throw new ValidationException("The sampleId cannot be empty", b, "SampleId");
-			if(b.getBiotype()==null) throw new ValidationException("Biotype cannot be empty", b, "SampleId");
-
-			if(b.getBiotype().getSampleNameLabel()!=null && b.getBiotype().isNameRequired() && (b.getSampleName()==null || b.getSampleName().length()==0)){
-				throw new ValidationException("The field '" + b.getBiotype().getSampleNameLabel() + "' is required", b, "Name");
-			}
-
-			for (BiotypeMetadata metadataType : b.getBiotype().getMetadata()) {
-				String val = b.getMetadataValue(metadataType);
-				if(metadataType.isRequired() && (val==null || val.length()==0)) {
-					throw new ValidationException("The field '" +  metadataType.getName()+"' is required", b, metadataType.getName());
-				}
-				if(askValidChoice && metadataType.getDataType()==DataType.LIST) {
-					if(val!=null && val.length()>0 && !metadataType.extractChoices().contains(val)) {
-						int res = JOptionPane.showConfirmDialog(opener, val + " is not a valid "+metadataType.getName()+".\nWould you like to proceed anyways?", "Invalid Choice", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
-						if(res!=JOptionPane.YES_OPTION) {
-							throw new ValidationException(val + " is not a valid "+metadataType.getName(), b, metadataType.getName());
-						}
-						askValidChoice = false;
-					}
-				}
-			}
-
-			//Check uniqueness
-			Integer existingId = sampleId2Ids.get(b.getSampleId());
-			if(allowCloning) {
-				if(sampleId2sample.get(b.getSampleId())!=null ) {
-					//There is a conflict among samples in the list
-					toClones.add(b);
-					toCloneConflicts.add(sampleId2sample.get(b.getSampleId()));
-				} else if(existingId!=null && existingId!=b.getId()) {
-					//There is a conflict among samples in the db
-					toClones.add(b);
-					toCloneConflicts.add(DAOBiosample.getBiosampleById(existingId));
-				}
-			} else {
-				assert !allowCloning;
-				if(sampleId2sample.get(b.getSampleId())!=null) {
-					throw new ValidationException("The sample with the id '"+b.getSampleId()+"' is duplicated", b, "SampleId");
-				}
-				if(existingId!=null && existingId!=b.getId()) {
-					throw new ValidationException("The sampleId "+b.getSampleId()+" exists already in Spirit", b, "SampleId");
-				}
-			}
-
-
-			if(!sampleId2sample.containsKey(b.getSampleId())) {
-				sampleId2sample.put(b.getSampleId(), b);
-			}
-			toSave.add(b);
-		}
-
-
-		//Relink parents (must be donebefore cloning)
-		for (Biosample b : toSave) {
-			if(b.getParent()!=null) {
-				Biosample parent = b.getParent();
-				if(parent.getId()<=0) {
-					Biosample ref = sampleId2sample.get(parent.getSampleId());
-					if(ref!=null) {
-						b.setParent(ref);
-					}
-				}
+		//Invalid choices: confirm all of them at once
+		List<BiosampleValidator.Violation> warnings = result.getWarnings();
+		if(warnings.size()>0 && !allowDialogs) {
+			throw warnings.get(0).toException();
+		} else if(warnings.size()>0) {
+			Set<String> messages = new LinkedHashSet<>();
+			for (BiosampleValidator.Violation v : warnings) {
+				messages.add(v.getMessage());
 			}
+			int res = JOptionPane.showConfirmDialog(opener, MiscUtils.flatten(new ArrayList<>(messages).subList(0, Math.min(15, messages.size())), "\n") + (messages.size()>15? "\n...": "") + "\n\nWould you like to proceed anyways?", "Invalid Choice", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+			if(res!=JOptionPane.YES_OPTION) throw warnings.get(0).toException();
 		}
+		List<Biosample> toSave = result.getToSave();
+		List<Biosample> toClones = result.getToClones();
+		List<Biosample> toCloneConflicts = result.getToCloneConflicts();
 
 		//Error message for duplicate samples or cloning?
 		if(toClones.size()>0) {
@@ -465,11 +403,11 @@ public class BiosampleCreationHelper {
 					String value = b.getSampleName();
 					if(value==null || value.length()==0) continue;
 
-					Set<String> possibleValues = new TreeSet<>(DAOBiotype.getAutoCompletionFieldsForName(b.getBiotype(), null));
+					Set<String> possibleValues = DAOBiotype.getAutoCompletionFieldsForName(b.getBiotype(), null);
 					if(possibleValues.contains(value)) continue;
 
 					Correction<Biotype, Biosample> correction = correctionMap1.getCorrection(b.getBiotype(), value);
-					if(correction==null) correction = correctionMap1.addCorrection(b.getBiotype(), value, new ArrayList<>(possibleValues), false);
+					if(correction==null) correction = correctionMap1.addCorrection(b.getBiotype(), value, possibleValues, false);
 					correction.getAffectedData().add(b);
 				}
 			}
@@ -508,7 +446,7 @@ public class BiosampleCreationHelper {
 						if(possibleValues.contains(value)) continue;
 
 						Correction<BiotypeMetadata, Biosample> correction = correctionMap2.getCorrection(att, value);
-						if(correction==null) correction = correctionMap2.addCorrection(att, value, new ArrayList<String>( possibleValues), false);
+						if(correction==null) correction = correctionMap2.addCorrection(att, value, possibleValues, false);
 						correction.getAffectedData().add(b);
 					}
 				}
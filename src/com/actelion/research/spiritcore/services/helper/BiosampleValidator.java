@@ -0,0 +1,335 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.helper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.business.DataType;
+import com.actelion.research.spiritcore.business.ValidationException;
+import com.actelion.research.spiritcore.business.biosample.Biosample;
+import com.actelion.research.spiritcore.business.biosample.Biotype;
+import com.actelion.research.spiritcore.business.biosample.BiotypeMetadata;
+import com.actelion.research.spiritcore.services.SpiritRights;
+import com.actelion.research.spiritcore.services.SpiritUser;
+import com.actelion.research.spiritcore.services.dao.DAOBiosample;
+
+/**
+ * Headless validation of biosamples before saving.
+ *
+ * The validation collects all violations in one pass, instead of stopping at the first one:
+ * <ul>
+ * <li>the entities are prepared sequentially (rights, biotypes and their metadata), as lazy associations cannot be loaded concurrently
+ * <li>the field rules (sampleId, biotype, required fields, choices) are then evaluated in parallel over the batch
+ * <li>the uniqueness is checked with one query, and the conflicting samples are loaded with one query
+ * </ul>
+ *
+ * The caller (UI or batch) is responsible to report the violations, and to confirm the warnings.
+ *
+ * @author Joel Freyss
+ */
+public class BiosampleValidator {
+
+	/**
+	 * Min number of samples to evaluate the rules in parallel
+	 */
+	private static final int PARALLEL_THRESHOLD = 500;
+
+	public static class Violation {
+		private final Biosample biosample;
+		private final String field;
+		private final String message;
+		private final boolean warning;
+
+		public Violation(Biosample biosample, String field, String message, boolean warning) {
+			this.biosample = biosample;
+			this.field = field;
+			this.message = message;
+			this.warning = warning;
+		}
+
+		public Biosample getBiosample() {
+			return biosample;
+		}
+
+		public String getField() {
+			return field;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * A warning (ex: invalid choice) can be ignored after confirmation
+		 */
+		public boolean isWarning() {
+			return warning;
+		}
+
+		public ValidationException toException() {
+			return new ValidationException(message, biosample, field);
+		}
+
+		@Override
+		public String toString() {
+			return (biosample==null || biosample.getSampleId()==null? "": biosample.getSampleId() + ": ") + message;
+		}
+	}
+
+	public static class Result {
+		private final List<Violation> violations = new ArrayList<>();
+		private final List<Biosample> toSave = new ArrayList<>();
+		private final List<Biosample> toClones = new ArrayList<>();
+		private final List<Biosample> toCloneConflicts = new ArrayList<>();
+
+		/**
+		 * Returns the violations, sorted by sample
+		 */
+		public List<Violation> getViolations() {
+			return violations;
+		}
+
+		public List<Violation> getErrors() {
+			List<Violation> res = new ArrayList<>();
+			for (Violation v : violations) {
+				if(!v.isWarning()) res.add(v);
+			}
+			return res;
+		}
+
+		public List<Violation> getWarnings() {
+			List<Violation> res = new ArrayList<>();
+			for (Violation v : violations) {
+				if(v.isWarning()) res.add(v);
+			}
+			return res;
+		}
+
+		public boolean hasErrors() {
+			return getErrors().size()>0;
+		}
+
+		/**
+		 * Returns the valid samples, which are not read-only
+		 */
+		public List<Biosample> getToSave() {
+			return toSave;
+		}
+
+		/**
+		 * Returns the samples, whose sampleId is already used in the list or in the DB (only if cloning is allowed)
+		 */
+		public List<Biosample> getToClones() {
+			return toClones;
+		}
+
+		/**
+		 * Returns the samples conflicting with getToClones() (same order)
+		 */
+		public List<Biosample> getToCloneConflicts() {
+			return toCloneConflicts;
+		}
+
+		/**
+		 * Returns a message describing the first violations
+		 * @param violations
+		 * @param max
+		 * @return
+		 */
+		public static String getSummary(List<Violation> violations, int max) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < violations.size() && i<max; i++) {
+				sb.append(violations.get(i) + "\n");
+			}
+			if(violations.size()>max) sb.append("... and " + (violations.size()-max) + " more\n");
+			return sb.toString();
+		}
+
+		/**
+		 * Throws an exception pointing to the first error, and describing the other errors
+		 * @throws ValidationException
+		 */
+		public void throwErrors() throws ValidationException {
+			List<Violation> errors = getErrors();
+			if(errors.isEmpty()) return;
+			if(errors.size()==1) throw errors.get(0).toException();
+			throw new ValidationException(errors.size() + " errors were found:\n" + getSummary(errors, 15), errors.get(0).getBiosample(), errors.get(0).getField());
+		}
+	}
+
+	/**
+	 * Rules of one biotype, computed once per validation
+	 */
+	private static class BiotypeRules {
+		private final List<BiotypeMetadata> required = new ArrayList<>();
+		private final Map<BiotypeMetadata, Set<String>> choices = new LinkedHashMap<>();
+		private final boolean nameRequired;
+		private final String nameLabel;
+
+		public BiotypeRules(Biotype biotype) {
+			nameLabel = biotype.getSampleNameLabel();
+			nameRequired = nameLabel!=null && biotype.isNameRequired();
+			for (BiotypeMetadata mt : biotype.getMetadata()) {
+				if(mt.isRequired()) required.add(mt);
+				if(mt.getDataType()==DataType.LIST) choices.put(mt, new HashSet<>(mt.extractChoices()));
+			}
+		}
+	}
+
+	/**
+	 * Validates the biosamples
+	 * @param biosamples - the biosamples to validate (null or empty rows are skipped)
+	 * @param readOnlyRows - the biosamples, which are not validated nor saved (can be null)
+	 * @param allowCloning - if true, the samples with an existing sampleId are returned in getToClones, otherwise they are errors
+	 * @param user
+	 * @return
+	 */
+	public static Result validate(List<Biosample> biosamples, Collection<Biosample> readOnlyRows, boolean allowCloning, SpiritUser user) {
+		long s = System.currentTimeMillis();
+		Result result = new Result();
+
+		//Prepare the entities sequentially: check the rights and load the biotypes
+		List<Biosample> rows = new ArrayList<>();
+		Map<Biosample, Violation> rightViolations = new IdentityHashMap<>();
+		Map<Biotype, BiotypeRules> biotype2rules = new HashMap<>();
+		for (Biosample b : biosamples) {
+			if(b==null || b.isEmpty()) continue;
+			if(readOnlyRows!=null && readOnlyRows.contains(b)) continue;
+			rows.add(b);
+			if(!SpiritRights.canEdit(b, user)) {
+				rightViolations.put(b, new Violation(b, "SampleId", "You are not allowed to update " + b, false));
+			}
+			if(b.getBiotype()!=null && !biotype2rules.containsKey(b.getBiotype())) {
+				biotype2rules.put(b.getBiotype(), new BiotypeRules(b.getBiotype()));
+			}
+		}
+
+		//Evaluate the rules of each sample
+		List<List<Violation>> violations = new ArrayList<>(Collections.nCopies(rows.size(), null));
+		IntStream stream = IntStream.range(0, rows.size());
+		if(rows.size()>=PARALLEL_THRESHOLD) stream = stream.parallel();
+		stream.forEach(i -> {
+			Biosample b = rows.get(i);
+			List<Violation> res = evaluate(b, rightViolations.get(b), b.getBiotype()==null? null: biotype2rules.get(b.getBiotype()));
+			synchronized (violations) {
+				violations.set(i, res);
+			}
+		});
+
+		//Check the uniqueness
+		Map<String, Integer> sampleId2Ids = DAOBiosample.getIdFromSampleIds(Biosample.getSampleIds(rows));
+		Map<String, Biosample> sampleId2sample = new HashMap<>();
+		Map<Biosample, Integer> toCloneConflictIds = new IdentityHashMap<>();
+		for (int i = 0; i < rows.size(); i++) {
+			Biosample b = rows.get(i);
+			result.violations.addAll(violations.get(i));
+			if(b.getSampleId()==null || b.getSampleId().length()==0) continue;
+
+			Integer existingId = sampleId2Ids.get(b.getSampleId());
+			if(allowCloning) {
+				if(sampleId2sample.get(b.getSampleId())!=null) {
+					//There is a conflict among samples in the list
+					result.toClones.add(b);
+					result.toCloneConflicts.add(sampleId2sample.get(b.getSampleId()));
+				} else if(existingId!=null && existingId!=b.getId()) {
+					//There is a conflict among samples in the db
+					result.toClones.add(b);
+					result.toCloneConflicts.add(null);
+					toCloneConflictIds.put(b, existingId);
+				}
+			} else {
+				if(sampleId2sample.get(b.getSampleId())!=null) {
+					result.violations.add(new Violation(b, "SampleId", "The sample with the id '" + b.getSampleId() + "' is duplicated", false));
+				} else if(existingId!=null && existingId!=b.getId()) {
+					result.violations.add(new Violation(b, "SampleId", "The sampleId " + b.getSampleId() + " exists already in Spirit", false));
+				}
+			}
+			if(!sampleId2sample.containsKey(b.getSampleId())) {
+				sampleId2sample.put(b.getSampleId(), b);
+			}
+			result.toSave.add(b);
+		}
+
+		//Load the conflicting samples from the DB in one query
+		if(toCloneConflictIds.size()>0) {
+			Map<Integer, Biosample> id2conflict = DAOBiosample.getBiosamplesByIds(toCloneConflictIds.values(), false, null);
+			for (int i = 0; i < result.toClones.size(); i++) {
+				Integer id = toCloneConflictIds.get(result.toClones.get(i));
+				if(id!=null) result.toCloneConflicts.set(i, id2conflict.get(id));
+			}
+		}
+
+		//Relink the new parents to the samples of the list (must be done before cloning)
+		for (Biosample b : result.toSave) {
+			Biosample parent = b.getParent();
+			if(parent!=null && parent.getId()<=0) {
+				Biosample ref = sampleId2sample.get(parent.getSampleId());
+				if(ref!=null) b.setParent(ref);
+			}
+		}
+
+		LoggerFactory.getLogger(BiosampleValidator.class).debug("Validated " + rows.size() + " biosamples: " + result.violations.size() + " violations, " + result.toClones.size() + " to clone in " + (System.currentTimeMillis()-s) + "ms");
+		return result;
+	}
+
+	/**
+	 * Evaluates the field rules of one sample. This function does not load any association and can be called concurrently
+	 */
+	private static List<Violation> evaluate(Biosample b, Violation rightViolation, BiotypeRules rules) {
+		List<Violation> res = new ArrayList<>();
+		if(rightViolation!=null) res.add(rightViolation);
+		if(b.getSampleId()==null || b.getSampleId().length()==0) res.add(new Violation(b, "SampleId", "The sampleId cannot be empty", false));
+		if(rules==null) {
+			res.add(new Violation(b, "SampleId", "Biotype cannot be empty", false));
+			return res;
+		}
+
+		if(rules.nameRequired && (b.getSampleName()==null || b.getSampleName().length()==0)) {
+			res.add(new Violation(b, "Name", "The field '" + rules.nameLabel + "' is required", false));
+		}
+		for (BiotypeMetadata mt : rules.required) {
+			String val = b.getMetadataValue(mt);
+			if(val==null || val.length()==0) {
+				res.add(new Violation(b, mt.getName(), "The field '" + mt.getName() + "' is required", false));
+			}
+		}
+		for (Map.Entry<BiotypeMetadata, Set<String>> e : rules.choices.entrySet()) {
+			String val = b.getMetadataValue(e.getKey());
+			if(val!=null && val.length()>0 && !e.getValue().contains(val)) {
+				res.add(new Violation(b, e.getKey().getName(), val + " is not a valid " + e.getKey().getName(), true));
+			}
+		}
+		return res;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.migration;
+
+import java.sql.Connection;
+
+import com.actelion.research.spiritcore.util.SQLConverter.SQLVendor;
+
+/**
+ * Data migration coded in Java, executed by chunks after the SQL of a MigrationScript.
+ *
+ * The rows are migrated by increasing key (keyset paging): each chunk migrates the rows whose key is greater than the last migrated key.
+ * The MigrationRunner commits each chunk together with its last key, so that an interrupted migration can be resumed from the last chunk.
+ * A chunk must therefore not commit by itself, and it must be idempotent.
+ *
+ * @author Joel Freyss
+ */
+public abstract class DataMigration {
+
+	/**
+	 * Result of a chunk: the key of the last migrated row and the number of migrated rows
+	 */
+	public static class Chunk {
+		private final long lastKey;
+		private final int rows;
+
+		public Chunk(long lastKey, int rows) {
+			this.lastKey = lastKey;
+			this.rows = rows;
+		}
+
+		public long getLastKey() {
+			return lastKey;
+		}
+
+		public int getRows() {
+			return rows;
+		}
+	}
+
+	private final String name;
+	private final int chunkSize;
+
+	/**
+	 * @param name - unique name of the migration within its MigrationScript (used to record the progress)
+	 * @param chunkSize - number of rows per chunk
+	 */
+	protected DataMigration(String name, int chunkSize) {
+		assert name!=null && name.length()>0;
+		assert chunkSize>0;
+		this.name = name;
+		this.chunkSize = chunkSize;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Returns the equivalent SQL, displayed to the DBA who prefers to migrate the DB manually
+	 * @param vendor
+	 * @return the SQL or null
+	 * @throws Exception
+	 */
+	public String getSql(SQLVendor vendor) throws Exception {
+		return null;
+	}
+
+	/**
+	 * Called once before the first chunk (or before resuming), to load the data needed by the chunks
+	 * @param conn
+	 * @return the number of rows to be migrated (for the progress), or -1 if unknown
+	 * @throws Exception
+	 */
+	public long prepare(Connection conn) throws Exception {
+		return -1;
+	}
+
+	/**
+	 * Migrates up to chunkSize rows, whose key is greater than lastKey, ordered by key.
+	 * This function should use JDBC batches for the updates
+	 * @param conn
+	 * @param lastKey - the last key migrated, or Long.MIN_VALUE for the first chunk
+	 * @param chunkSize
+	 * @return the key of the last migrated row and the number of migrated rows, or null if there are no more rows
+	 * @throws Exception
+	 */
+	public abstract Chunk migrateChunk(Connection conn, long lastKey, int chunkSize) throws Exception;
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.business.property.PropertyKey;
+import com.actelion.research.spiritcore.services.migration.MigrationScript.ILogger;
+import com.actelion.research.spiritcore.util.SQLConverter.SQLVendor;
+
+/**
+ * Executes the migration scripts, from the current DB version to the expected version.
+ *
+ * For each script:
+ * <ul>
+ * <li>the SQL statements are executed one by one, and each statement is committed with the index of the next statement
+ * <li>the data migrations are executed by chunks, and each chunk is committed with its last key
+ * <li>the DB version is then set, and the progress of the script is removed
+ * </ul>
+ * The progress is stored in spirit_property (migration.[version].sql and migration.[version].[name]), so that an interrupted
+ * migration resumes from the last completed statement or chunk.
+ *
+ * Like before, a failed SQL statement does not stop the migration (the scripts are expected to fail on already existing objects),
+ * but the progress is not advanced past it, so that it is executed again when resuming.
+ *
+ * @author Joel Freyss
+ */
+public class MigrationRunner {
+
+	private static final String PROGRESS_PREFIX = "migration.";
+	private static final String DONE = "done";
+
+	/**
+	 * Interval between 2 progress reports
+	 */
+	private static final long PROGRESS_INTERVAL_MS = 2000;
+
+	private final Connection conn;
+	private final SQLVendor vendor;
+	private final ILogger logger;
+	private boolean hasErrors;
+
+	/**
+	 * False if the progress cannot be recorded (spirit_property does not exist yet)
+	 */
+	private boolean tracking;
+
+	public MigrationRunner(Connection conn, SQLVendor vendor, ILogger logger) {
+		this.conn = conn;
+		this.vendor = vendor;
+		this.logger = logger;
+	}
+
+	/**
+	 * Executes the scripts, whose version is greater than the given version
+	 * @param scripts
+	 * @param dbVersion - the current version or null
+	 * @return true if there were no errors
+	 * @throws Exception if a data migration failed (the following scripts are not executed)
+	 */
+	public boolean run(List<MigrationScript> scripts, String dbVersion) throws Exception {
+		conn.setAutoCommit(false);
+		for (MigrationScript script : scripts) {
+			if(dbVersion!=null && dbVersion.compareTo(script.getToVersion())>=0) continue;
+			long s = System.currentTimeMillis();
+			tracking = true;
+			executeSql(script);
+			for (DataMigration migration : script.getDataMigrations()) {
+				executeDataMigration(script, migration);
+			}
+			setVersion(script.getToVersion());
+			LoggerFactory.getLogger(MigrationRunner.class).info("Migration to " + script.getToVersion() + " done in " + (System.currentTimeMillis()-s) + "ms");
+		}
+		return !hasErrors;
+	}
+
+	private void executeSql(MigrationScript script) throws Exception {
+		String key = PROGRESS_PREFIX + script.getToVersion() + ".sql";
+		List<String> statements = MigrationScript.split(script.getMigrationSql(vendor));
+		String progress = getProgress(key);
+		int first = progress==null? 0: Integer.parseInt(progress);
+		if(first>0) LoggerFactory.getLogger(MigrationRunner.class).info("Resume migration to " + script.getToVersion() + " at statement " + first + "/" + statements.size());
+
+		boolean failed = false;
+		for (int i = first; i < statements.size(); i++) {
+			String sql = statements.get(i).trim();
+			if(sql.length()==0) continue;
+			try (Statement stmt = conn.createStatement()) {
+				LoggerFactory.getLogger(MigrationRunner.class).info("execute:  " + sql);
+				stmt.setQueryTimeout(180);
+				int n = stmt.executeUpdate(sql);
+				if(!failed) setProgress(key, String.valueOf(i+1));
+				conn.commit();
+				if(logger!=null) logger.info(sql, n + " rows updated");
+			} catch(Exception ex) {
+				LoggerFactory.getLogger(MigrationRunner.class).error("error: " + sql, ex);
+				try {conn.rollback();} catch(Exception e2) {}
+				hasErrors = true;
+				failed = true;
+				if(logger!=null) logger.error(sql, ex);
+			}
+		}
+	}
+
+	private void executeDataMigration(MigrationScript script, DataMigration migration) throws Exception {
+		String key = PROGRESS_PREFIX + script.getToVersion() + "." + migration.getName();
+		String progress = getProgress(key);
+		if(DONE.equals(progress)) return;
+
+		long lastKey = progress==null? Long.MIN_VALUE: Long.parseLong(progress);
+		String step = "Migration " + script.getToVersion() + " " + migration.getName();
+		long total = migration.prepare(conn);
+		conn.commit();
+		if(progress!=null) LoggerFactory.getLogger(MigrationRunner.class).info("Resume " + step + " after key " + lastKey);
+
+		long started = System.currentTimeMillis();
+		long lastReport = started;
+		long done = 0;
+		try {
+			while(true) {
+				DataMigration.Chunk chunk = migration.migrateChunk(conn, lastKey, migration.getChunkSize());
+				if(chunk==null) break;
+				lastKey = chunk.getLastKey();
+				setProgress(key, String.valueOf(lastKey));
+				conn.commit();
+				done += chunk.getRows();
+				if(System.currentTimeMillis()-lastReport>PROGRESS_INTERVAL_MS) {
+					lastReport = System.currentTimeMillis();
+					if(logger!=null) logger.progress(step, total<0? done: Math.min(done, total), total, lastReport-started);
+				}
+			}
+			setProgress(key, DONE);
+			conn.commit();
+		} catch(Exception e) {
+			try {conn.rollback();} catch(Exception e2) {}
+			hasErrors = true;
+			if(logger!=null) logger.error(step + " (stopped after key " + lastKey + ")", e);
+			throw e;
+		}
+		if(logger!=null) logger.info(step, "done in " + (System.currentTimeMillis()-started) + "ms");
+	}
+
+	/**
+	 * Sets the DB version and removes the progress of the script
+	 */
+	private void setVersion(String version) throws Exception {
+		try {
+			try (PreparedStatement stmt = conn.prepareStatement("update spirit.spirit_property set value = ? where id = ? and value < ?")) {
+				stmt.setString(1, version);
+				stmt.setString(2, PropertyKey.DB_VERSION.getKey());
+				stmt.setString(3, version);
+				stmt.executeUpdate();
+			}
+			try (PreparedStatement stmt = conn.prepareStatement("delete from spirit.spirit_property where id like ?")) {
+				stmt.setString(1, PROGRESS_PREFIX + version + ".%");
+				stmt.executeUpdate();
+			}
+			conn.commit();
+		} catch(Exception e) {
+			LoggerFactory.getLogger(MigrationRunner.class).error("Cannot set the version " + version, e);
+			try {conn.rollback();} catch(Exception e2) {}
+			hasErrors = true;
+			if(logger!=null) logger.error("Set version " + version, e);
+		}
+	}
+
+	private String getProgress(String key) throws Exception {
+		if(!tracking) return null;
+		try (PreparedStatement stmt = conn.prepareStatement("select value from spirit.spirit_property where id = ?")) {
+			stmt.setString(1, key);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next()? rs.getString(1): null;
+			}
+		} catch(Exception e) {
+			LoggerFactory.getLogger(MigrationRunner.class).warn("The progress of the migration cannot be recorded: " + e.getMessage());
+			conn.rollback();
+			tracking = false;
+			return null;
+		}
+	}
+
+	/**
+	 * Records the progress, without committing (the progress is committed with the migrated data)
+	 */
+	private void setProgress(String key, String value) throws Exception {
+		if(!tracking) return;
+		try (PreparedStatement stmt = conn.prepareStatement("update spirit.spirit_property set value = ? where id = ?")) {
+			stmt.setString(1, value);
+			stmt.setString(2, key);
+			if(stmt.executeUpdate()>0) return;
+		}
+		try (PreparedStatement stmt = conn.prepareStatement("insert into spirit.spirit_property (id, value) values (?, ?)")) {
+			stmt.setString(1, key);
+			stmt.setString(2, value);
+			stmt.executeUpdate();
+		}
+	}
+}
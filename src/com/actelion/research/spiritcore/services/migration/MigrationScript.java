@@ -25,6 +25,7 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.StringTokenizer;
 
@@ -65,6 +66,17 @@ public abstract class MigrationScript {
 	public static interface ILogger {
 		public void info(String sql, String msg);
 		public void error(String sql, Exception e);
+
+		/**
+		 * Reports the progress of a data migration
+		 * @param step
+		 * @param done - number of rows migrated
+		 * @param total - number of rows to migrate, or -1 if unknown
+		 * @param elapsedMs
+		 */
+		public default void progress(String step, long done, long total, long elapsedMs) {
+			info(step, done + (total>=0? "/" + total: "") + " rows migrated (" + (elapsedMs<=0? 0: done * 1000 / elapsedMs) + " rows/s)");
+		}
 	}
 
 	private static List<MigrationScript> getScripts() {
@@ -74,6 +86,9 @@ public abstract class MigrationScript {
 		scripts.add(new MigrationScript2_1());
 		scripts.add(new MigrationScript2_2());
 		scripts.add(new MigrationScript2_3());
+		scripts.add(new MigrationScript2_4());
+		scripts.add(new MigrationScript2_5());
+		scripts.add(new MigrationScript2_6());
 		return scripts;
 	}
 
@@ -101,12 +116,26 @@ public abstract class MigrationScript {
 
 
 	public static String getSql(SQLVendor vendor) throws Exception {
+		return getSql(vendor, MigrationScript.getDBVersion());
+	}
+
+	/**
+	 * Returns the SQL to migrate the DB from the given version, including the SQL equivalent of the data migrations
+	 * @param vendor
+	 * @param version - the current DB version (null to get all scripts)
+	 * @return
+	 * @throws Exception
+	 */
+	public static String getSql(SQLVendor vendor, String version) throws Exception {
 		StringBuilder sb = new StringBuilder();
-		String version = MigrationScript.getDBVersion();
 		for (MigrationScript script : getScripts()) {
 			if(version==null || version.compareTo(script.getToVersion())<0) {
 				sb.append("\r\n");
 				sb.append(script.getMigrationSql(vendor));
+				for (DataMigration migration : script.getDataMigrations()) {
+					String sql = migration.getSql(vendor);
+					if(sql!=null) sb.append(sql);
+				}
 				sb.append("update spirit.spirit_property set value = '" + script.getToVersion() + "' where id = '" + PropertyKey.DB_VERSION.getKey() + "' and value < '" + script.getToVersion() + "';");
 			}
 		}
@@ -114,29 +143,25 @@ public abstract class MigrationScript {
 	}
 
 	/**
-	 * Updates the DB, by executing the migration script, as specified in the concrete class.
-	 * However the DB version is not set.
+	 * Updates the DB, by executing the migration scripts and their data migrations, as specified in the concrete classes.
+	 * The DB version is set after each script. An interrupted migration is resumed from the last completed statement or chunk (see MigrationRunner)
 	 * @param vendor
 	 * @param logger
 	 * @throws Exception
 	 */
 	public static void updateDB(SQLVendor vendor, ILogger logger) throws Exception {
 
-		//Retrieve the script
-		String sql = getSql(vendor);
+		String version = getDBVersion();
 
 		//Close all hibernate connections
 		JPAUtil.closeFactory();
 
-		//Open a JDBC connection and execute the script
-		Connection conn = DBAdapter.getInstance().getConnection();
-		try {
-			executeScript(conn, sql, false, logger);
+		//Open a JDBC connection and execute the scripts
+		try (Connection conn = DBAdapter.getInstance().getConnection()) {
+			boolean ok = new MigrationRunner(conn, vendor, logger).run(getScripts(), version);
+			if(!ok) LoggerFactory.getLogger(MigrationScript.class).warn("The migration to " + getExpectedDBVersion() + " had some errors");
 		} catch(Exception e) {
 			e.printStackTrace();
-		} finally {
-			conn.commit();
-			conn.close();
 		}
 	}
 
@@ -158,6 +183,14 @@ public abstract class MigrationScript {
 
 	public abstract String getMigrationSql(SQLVendor vendor) throws Exception;
 
+	/**
+	 * Returns the data migrations coded in Java, to be executed after the SQL
+	 * @return
+	 */
+	public List<DataMigration> getDataMigrations() {
+		return Collections.emptyList();
+	}
+
 	/**
 	 * Return the DB Version as stated in the table spirit.spirit_property.
 	 * If the version is not set, this routine will update it
@@ -220,7 +253,7 @@ public abstract class MigrationScript {
 
 	}
 
-	private static List<String> split(String string){
+	static List<String> split(String string){
 		List<String> l = new ArrayList<>();
 		StringTokenizer st = new StringTokenizer(string, ";\'\\\r\n", true);
 		StringBuilder sb = new StringBuilder();
@@ -0,0 +1,42 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.migration;
+
+import com.actelion.research.spiritcore.util.SQLConverter;
+import com.actelion.research.spiritcore.util.SQLConverter.SQLVendor;
+
+public class MigrationScript2_4 extends MigrationScript {
+
+	private String SCRIPT = ""
+			+ "create table spirit.study_statistic (study_id number(9,0) not null, stat_type varchar2(16) not null, ref_id number(9,0) not null, upd_user varchar2(20) not null, counter number(9,0) not null, upd_date timestamp, primary key (study_id, stat_type, ref_id, upd_user));\n"
+			+ "create index study_statistic_study_index on spirit.study_statistic (study_id);\n";
+
+	public MigrationScript2_4() {
+		super("2.4.0");
+	}
+
+	@Override
+	public String getMigrationSql(SQLVendor vendor) throws Exception {
+		return SQLConverter.convertScript(SCRIPT, vendor);
+	}
+
+}
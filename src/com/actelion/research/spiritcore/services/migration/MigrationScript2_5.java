@@ -0,0 +1,171 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.services.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.spiritcore.adapter.DBAdapter;
+import com.actelion.research.spiritcore.util.SQLConverter;
+import com.actelion.research.spiritcore.util.SQLConverter.SQLVendor;
+
+public class MigrationScript2_5 extends MigrationScript {
+
+	private static final String SCRIPT_COLUMN = ""
+			+ "alter table spirit.biolocation add id_path varchar2(256);\n"
+			+ "create index biolocation_idpath_index on spirit.biolocation (id_path);\n"
+			+ "update spirit.biolocation set id_path = concat(concat('/', cast(id as varchar2(20))), '/') where parent_id is null;\n";
+
+	/**
+	 * Fills the materialized path of the children, one level at a time.
+	 * The parents are read from a derived table (materialized because of the distinct), as MySQL cannot update a table selected in a subquery (error 1093)
+	 */
+	private static final String SCRIPT_LEVEL = ""
+			+ "update spirit.biolocation l set id_path = (select concat(concat(p.id_path, cast(l.id as varchar2(20))), '/') from (select distinct id, id_path from spirit.biolocation) p where p.id = l.parent_id)"
+			+ " where l.id_path is null and l.parent_id in (select p2.id from (select distinct id, id_path from spirit.biolocation) p2 where p2.id_path is not null);\n";
+
+	/**
+	 * Number of levels in the SQL script, if the depth of the hierarchy cannot be read from the DB
+	 */
+	private static final int DEFAULT_LEVELS = 30;
+
+	public MigrationScript2_5() {
+		super("2.5.0");
+	}
+
+	@Override
+	public String getMigrationSql(SQLVendor vendor) throws Exception {
+		return SQLConverter.convertScript(SCRIPT_COLUMN, vendor);
+	}
+
+	@Override
+	public List<DataMigration> getDataMigrations() {
+		return Collections.singletonList(new IdPathMigration());
+	}
+
+	/**
+	 * Fills the materialized path of all locations, by chunks of ids.
+	 * The hierarchy is loaded once, so that the path of each location is computed in memory (instead of one update per level)
+	 */
+	private static class IdPathMigration extends DataMigration {
+
+		private final Map<Long, Long> id2parent = new HashMap<>();
+		private final Map<Long, String> id2path = new HashMap<>();
+
+		public IdPathMigration() {
+			super("id_path", 1000);
+		}
+
+		/**
+		 * Returns one update per level of the hierarchy (the roots being updated by the script of the column).
+		 * The depth is read from the DB, so that the script covers all the levels.
+		 */
+		@Override
+		public String getSql(SQLVendor vendor) throws Exception {
+			int levels;
+			try (Connection conn = DBAdapter.getInstance().getConnection()) {
+				prepare(conn);
+				levels = getMaxDepth() - 1;
+				id2parent.clear();
+				id2path.clear();
+			} catch(Exception e) {
+				LoggerFactory.getLogger(MigrationScript2_5.class).warn("Could not read the depth of the locations: " + e);
+				levels = DEFAULT_LEVELS;
+			}
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < levels; i++) {
+				sb.append(SCRIPT_LEVEL);
+			}
+			return SQLConverter.convertScript(sb.toString(), vendor);
+		}
+
+		/**
+		 * Returns the depth of the deepest location (1 for the roots)
+		 */
+		private int getMaxDepth() {
+			int res = 0;
+			for (long id : id2parent.keySet()) {
+				String path = getPath(id);
+				int depth = 0;
+				for (int i = 1; i < path.length(); i++) {
+					if(path.charAt(i)=='/') depth++;
+				}
+				res = Math.max(res, depth);
+			}
+			return res;
+		}
+
+		@Override
+		public long prepare(Connection conn) throws Exception {
+			id2parent.clear();
+			id2path.clear();
+			try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("select id, parent_id from spirit.biolocation")) {
+				while(rs.next()) {
+					long parentId = rs.getLong(2);
+					id2parent.put(rs.getLong(1), rs.wasNull()? null: parentId);
+				}
+			}
+			return id2parent.size();
+		}
+
+		@Override
+		public Chunk migrateChunk(Connection conn, long lastKey, int chunkSize) throws Exception {
+			Long last = null;
+			int rows = 0;
+			try (PreparedStatement select = conn.prepareStatement("select id from spirit.biolocation where id > ? order by id");
+					PreparedStatement update = conn.prepareStatement("update spirit.biolocation set id_path = ? where id = ?")) {
+				select.setMaxRows(chunkSize);
+				select.setLong(1, lastKey);
+				try (ResultSet rs = select.executeQuery()) {
+					while(rs.next()) {
+						last = rs.getLong(1);
+						update.setString(1, getPath(last));
+						update.setLong(2, last);
+						update.addBatch();
+						rows++;
+					}
+				}
+				if(last!=null) update.executeBatch();
+			}
+			return last==null? null: new Chunk(last, rows);
+		}
+
+		private String getPath(long id) {
+			String path = id2path.get(id);
+			if(path!=null) return path;
+			Long parentId = id2parent.get(id);
+			//Stop on missing parents and cycles
+			id2path.put(id, "/" + id + "/");
+			path = (parentId==null || !id2parent.containsKey(parentId)? "/": getPath(parentId)) + id + "/";
+			id2path.put(id, path);
+			return path;
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.spiritcore.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Allocation-light codec of the Map<Integer,String> text format of MiscUtils.serializeIntegerMap: "1=joel;2=to\;=to;3="
+ * <ul>
+ * <li>encode produces exactly the same text as MiscUtils.serializeIntegerMap, in one pass
+ * <li>Index is a lazy view of the encoded text: the offsets of the fields are indexed once, and the values are decoded on demand
+ * <li>split divides the encoded text in columns, whose size is limited in bytes (UTF-8), so that multi-byte characters cannot be truncated by the DB
+ * </ul>
+ * The text format is kept, because the queries filter on the serialized metadata (like '%;id=value;%')
+ *
+ * @author Joel Freyss
+ */
+public class IntegerMapCodec {
+
+	/**
+	 * Encodes the map, identically to MiscUtils.serializeIntegerMap
+	 * @param map
+	 * @return
+	 */
+	public static String encode(Map<Integer, String> map) {
+		int capacity = 0;
+		for (Map.Entry<Integer, String> entry : map.entrySet()) {
+			capacity += 8 + (entry.getValue()==null? 0: entry.getValue().length());
+		}
+		StringBuilder sb = new StringBuilder(capacity);
+		for (Map.Entry<Integer, String> entry : map.entrySet()) {
+			if(entry.getKey()<0) throw new RuntimeException("Cannot serialize: "+map);
+			if(sb.length()>0) sb.append(';');
+			sb.append(entry.getKey().intValue()).append('=');
+			String s = entry.getValue();
+			if(s==null) continue;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if(c=='\\' || c==';' || c=='\t') sb.append('\\');
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Decodes the text, identically to MiscUtils.deserializeIntegerMap
+	 * @param data
+	 * @return
+	 */
+	public static Map<Integer, String> decode(String data) {
+		return new Index(data, null).toMap();
+	}
+
+	/**
+	 * Splits the encoded text in columns of maximum maxBytes (UTF-8 encoded).
+	 * The split never occurs in the middle of a surrogate pair.
+	 * @param data
+	 * @param maxBytes - the max size of each column
+	 * @param nColumns - the number of columns
+	 * @return an array of nColumns strings (the unused columns are "")
+	 * @throws Exception if the data does not fit in the columns
+	 */
+	public static String[] split(String data, int maxBytes, int nColumns) throws Exception {
+		String[] res = new String[nColumns];
+		Arrays.fill(res, "");
+		int start = 0;
+		for (int col = 0; col < nColumns && start < data.length(); col++) {
+			int bytes = 0;
+			int end = start;
+			while(end < data.length()) {
+				char c = data.charAt(end);
+				int n = 1;
+				int len;
+				if(Character.isHighSurrogate(c) && end+1<data.length() && Character.isLowSurrogate(data.charAt(end+1))) {
+					n = 2;
+					len = 4;
+				} else {
+					len = c<0x80? 1: c<0x800? 2: 3;
+				}
+				if(bytes+len>maxBytes) break;
+				bytes += len;
+				end += n;
+			}
+			res[col] = data.substring(start, end);
+			start = end;
+		}
+		if(start<data.length()) {
+			throw new Exception("The data is too large: " + data.getBytes(StandardCharsets.UTF_8).length + " bytes (max: " + (nColumns*maxBytes) + ")");
+		}
+		return res;
+	}
+
+	/**
+	 * Lazy read-only view of an encoded map (possibly split in 2 columns).
+	 * The first access indexes the keys and the offsets of the values, without decoding them.
+	 * Each value is then decoded on demand (a substring, or an unescaped copy if the value contains escaped characters)
+	 */
+	public static final class Index {
+		private final String part1;
+		private final String part2;
+		private String data;
+		private int size = -1;
+		private int[] keys;
+		private int[] starts;
+		private int[] ends;
+		private boolean[] escaped;
+
+		public Index(String part1, String part2) {
+			this.part1 = part1;
+			this.part2 = part2;
+		}
+
+		/**
+		 * Returns true if this index was built from the given columns (compared by identity)
+		 */
+		public boolean isIndexOf(String part1, String part2) {
+			return this.part1==part1 && this.part2==part2;
+		}
+
+		private void index() {
+			if(size>=0) return;
+			data = part1==null? "": part2==null || part2.length()==0? part1: part1 + part2;
+			int capacity = 4;
+			for (int i = 0; i < data.length(); i++) {
+				char c = data.charAt(i);
+				if(c==';' || c=='\t') capacity++;
+			}
+			keys = new int[capacity];
+			starts = new int[capacity];
+			ends = new int[capacity];
+			escaped = new boolean[capacity];
+			size = 0;
+
+			//Same automat as MiscUtils.deserializeIntegerMap
+			boolean inKey = true;
+			boolean esc = false;
+			int id = 0;
+			int start = 0;
+			int len = data.length();
+			for (int i = 0; i < len; i++) {
+				char c = data.charAt(i);
+				if(inKey) {
+					if(c=='=') {
+						inKey = false;
+						start = i+1;
+					} else {
+						if(c<'0' || c>'9') throw new RuntimeException("Cannot deserialize: "+data);
+						id = id*10 + (c-'0');
+					}
+				} else if(c=='\\') {
+					i++;
+					if(i>=len) throw new RuntimeException("Cannot deserialize: "+data);
+					esc = true;
+				} else if(c==';' || c=='\t') {
+					add(id, start, i, esc);
+					inKey = true;
+					esc = false;
+					id = 0;
+				}
+			}
+			if(id>0) {
+				add(id, inKey? len: start, len, esc);
+			}
+		}
+
+		private void add(int id, int start, int end, boolean esc) {
+			if(size==keys.length) {
+				keys = Arrays.copyOf(keys, size*2);
+				starts = Arrays.copyOf(starts, size*2);
+				ends = Arrays.copyOf(ends, size*2);
+				escaped = Arrays.copyOf(escaped, size*2);
+			}
+			keys[size] = id;
+			starts[size] = start;
+			ends[size] = end;
+			escaped[size] = esc;
+			size++;
+		}
+
+		private String decode(int index) {
+			if(!escaped[index]) return data.substring(starts[index], ends[index]);
+			StringBuilder sb = new StringBuilder(ends[index]-starts[index]);
+			for (int i = starts[index]; i < ends[index]; i++) {
+				char c = data.charAt(i);
+				if(c=='\\') c = data.charAt(++i);
+				sb.append(c);
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Returns the number of fields (a key present several times is counted once per occurence)
+		 */
+		public int size() {
+			index();
+			return size;
+		}
+
+		public boolean containsKey(int id) {
+			index();
+			for (int i = size-1; i >= 0; i--) {
+				if(keys[i]==id) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the decoded value of the given key (the last one, if the key is present several times), or null if the key is not present
+		 * @param id
+		 * @return
+		 */
+		public String get(int id) {
+			index();
+			for (int i = size-1; i >= 0; i--) {
+				if(keys[i]==id) return decode(i);
+			}
+			return null;
+		}
+
+		/**
+		 * Decodes all the fields, identically to MiscUtils.deserializeIntegerMap
+		 */
+		public Map<Integer, String> toMap() {
+			index();
+			Map<Integer, String> map = new LinkedHashMap<>();
+			for (int i = 0; i < size; i++) {
+				map.put(keys[i], decode(i));
+			}
+			return map;
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of a vocabulary, used to find the value the closest to a misspelled text.
+ *
+ * The similarity is given by {@link #getScore(String, String)}, a modified Levenshtein distance (where a change of case costs 1 and other changes cost 10),
+ * normalized by the length of the longest string.
+ * The index returns exactly the same best match as a comparison with every value, but it computes the distance on few candidates only:
+ * <ul>
+ * <li>the values are indexed by length and by bigrams (case insensitive)
+ * <li>a lower bound of the distance is computed from the length difference and the number of common bigrams (each edit removes at most 2 bigrams)
+ * <li>the candidates sharing the most bigrams are compared first, so that the other candidates can be discarded without computing their distance
+ * <li>the distance computation stops as soon as it cannot beat the best score
+ * </ul>
+ *
+ * The index is immutable and thread-safe. It should be built once per vocabulary and reused for all values to be checked.
+ *
+ * @author Joel Freyss
+ */
+public class FuzzyIndex {
+
+	private final List<String> values;
+
+	/** Normalized values, see {@link #normalize(String)} */
+	private final String[] normalized;
+
+	/** Ids of the values by normalized length */
+	private final int[][] byLength;
+
+	/** Ids of the values containing the bigram (repeated if the bigram occurs several times) */
+	private final Map<Integer, int[]> bigram2ids = new HashMap<>();
+
+	public FuzzyIndex(Collection<String> values) {
+		this.values = Collections.unmodifiableList(new ArrayList<>(values));
+		this.normalized = new String[this.values.size()];
+
+		int maxLength = 0;
+		for (int i = 0; i < normalized.length; i++) {
+			normalized[i] = normalize(this.values.get(i));
+			maxLength = Math.max(maxLength, normalized[i].length());
+		}
+
+		//Index by length
+		int[] lengthCounts = new int[maxLength+1];
+		for (String s : normalized) {
+			lengthCounts[s.length()]++;
+		}
+		byLength = new int[maxLength+1][];
+		for (int l = 0; l <= maxLength; l++) {
+			byLength[l] = new int[lengthCounts[l]];
+			lengthCounts[l] = 0;
+		}
+		for (int i = 0; i < normalized.length; i++) {
+			int l = normalized[i].length();
+			byLength[l][lengthCounts[l]++] = i;
+		}
+
+		//Index by bigrams
+		Map<Integer, List<Integer>> map = new HashMap<>();
+		for (int i = 0; i < normalized.length; i++) {
+			String s = normalized[i];
+			for (int j = 0; j+1 < s.length(); j++) {
+				Integer bigram = getBigram(s, j);
+				List<Integer> ids = map.get(bigram);
+				if(ids==null) map.put(bigram, ids = new ArrayList<>());
+				ids.add(i);
+			}
+		}
+		for (Map.Entry<Integer, List<Integer>> e : map.entrySet()) {
+			int[] ids = new int[e.getValue().size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = e.getValue().get(i);
+			}
+			bigram2ids.put(e.getKey(), ids);
+		}
+	}
+
+	/**
+	 * Returns the indexed values, in the order given to the constructor
+	 * @return
+	 */
+	public List<String> getValues() {
+		return values;
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	/**
+	 * Finds the value having the best score above the given threshold.
+	 * In case of equal scores, the first value (in the order of the constructor) is returned
+	 * @param text
+	 * @param minScore
+	 * @return the best value or null if no value has a score strictly greater than minScore
+	 */
+	public String getBestMatch(String text, float minScore) {
+		int index = getBestIndex(text, minScore);
+		return index<0? null: values.get(index);
+	}
+
+	private int getBestIndex(String text, float minScore) {
+		String s = normalize(text);
+		if(s.length()==0 || values.isEmpty()) return -1;
+
+		//Count the common bigrams of each candidate
+		Map<Integer, Integer> bigramCounts = new HashMap<>();
+		for (int j = 0; j+1 < s.length(); j++) {
+			Integer bigram = getBigram(s, j);
+			bigramCounts.put(bigram, bigramCounts.getOrDefault(bigram, 0)+1);
+		}
+		//(sparse map, as the candidates are usually few compared to the vocabulary)
+		Map<Integer, Integer> commons = new HashMap<>();
+		for (Map.Entry<Integer, Integer> e : bigramCounts.entrySet()) {
+			int[] ids = bigram2ids.get(e.getKey());
+			if(ids==null) continue;
+			for (int k = 0; k < ids.length; ) {
+				int id = ids[k];
+				int occurences = 0;
+				for (; k < ids.length && ids[k]==id; k++) occurences++;
+				commons.merge(id, Math.min(occurences, e.getValue()), Integer::sum);
+			}
+		}
+
+		//Compare first the candidates having the most common bigrams
+		List<Map.Entry<Integer, Integer>> candidates = new ArrayList<>(commons.entrySet());
+		candidates.sort((e1, e2) -> !e1.getValue().equals(e2.getValue())? e2.getValue()-e1.getValue(): e1.getKey()-e2.getKey());
+		Best best = new Best(minScore);
+		for (Map.Entry<Integer, Integer> e : candidates) {
+			compare(s, e.getKey(), e.getValue(), best);
+		}
+
+		//Then the candidates without common bigrams, discarding whole lengths at once
+		for (int l = 1; l < byLength.length; l++) {
+			if(byLength[l].length==0 || !best.canImprove(getLowerBound(s.length(), l, 0), Math.max(s.length(), l), 0)) continue;
+			for (int id : byLength[l]) {
+				if(commons.containsKey(id)) continue;
+				compare(s, id, 0, best);
+			}
+		}
+		return best.index;
+	}
+
+	/**
+	 * Best score found so far
+	 */
+	private static class Best {
+		private float score;
+		private int index = -1;
+
+		public Best(float minScore) {
+			this.score = minScore;
+		}
+
+		/**
+		 * Returns true if a value at the given index and with the given distance would be better than the current best
+		 */
+		public boolean canImprove(int distance, int maxLength, int index) {
+			float s = getScore(distance, maxLength);
+			return s>score || (this.index>=0 && s==score && index<this.index);
+		}
+	}
+
+	private void compare(String s, int id, int commonBigrams, Best best) {
+		String t = normalized[id];
+		if(t.length()==0) return;
+		int maxLength = Math.max(s.length(), t.length());
+		if(!best.canImprove(getLowerBound(s.length(), t.length(), commonBigrams), maxLength, id)) return;
+
+		//Stop the distance computation when the score cannot be reached (the +1 takes care of the rounding)
+		int maxDistance = (int) ((1-best.score) * 10 * maxLength) + 1;
+		int distance = getModifiedLevenshteinDistance(s, t, maxDistance);
+		if(distance>maxDistance) return;
+		if(best.canImprove(distance, maxLength, id)) {
+			best.score = getScore(distance, maxLength);
+			best.index = id;
+		}
+	}
+
+	/**
+	 * Lower bound of the modified Levenshtein distance between 2 strings, given their length and their common bigrams.
+	 * Each insertion, deletion or substitution (other than a change of case) costs 10 and changes at most 2 bigrams
+	 */
+	private static int getLowerBound(int length1, int length2, int commonBigrams) {
+		int maxLength = Math.max(length1, length2);
+		int bigramEdits = (maxLength - 1 - commonBigrams + 1) / 2;
+		return 10 * Math.max(Math.abs(length1-length2), bigramEdits);
+	}
+
+	private static Integer getBigram(String s, int index) {
+		return (Character.toUpperCase(s.charAt(index))<<16) | Character.toUpperCase(s.charAt(index+1));
+	}
+
+	/**
+	 * Removes the first space, dot or dash
+	 */
+	private static String normalize(String s) {
+		if(s==null) return "";
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(Character.isWhitespace(c) || c=='.' || c=='-') return s.substring(0, i) + s.substring(i+1);
+		}
+		return s;
+	}
+
+	private static float getScore(int distance, int maxLength) {
+		return Math.max(0, 1 - (distance / (10f*maxLength)));
+	}
+
+	/**
+	 * Returns the similarity between 2 strings (1=identical, 0=completely different)
+	 * @param string1
+	 * @param string2
+	 * @return
+	 */
+	public static float getScore(String string1, String string2) {
+		string1 = normalize(string1);
+		string2 = normalize(string2);
+		if(string1.length()==0 || string2.length()==0) return 0f;
+		return getScore(getModifiedLevenshteinDistance(string1, string2, Integer.MAX_VALUE), Math.max(string1.length(), string2.length()));
+	}
+
+	/**
+	 * Levenshtein distance, where a change of case costs 1 and other changes cost 10.
+	 * The computation stops as soon as the distance is greater than maxDistance
+	 * @param s
+	 * @param t
+	 * @param maxDistance
+	 * @return the distance, or a value greater than maxDistance
+	 */
+	public static int getModifiedLevenshteinDistance(String s, String t, int maxDistance) {
+		int n = s.length();
+		int m = t.length();
+		if (n == 0) return m*10;
+		if (m == 0) return n*10;
+		if (n > m) {
+			String tmp = s;
+			s = t;
+			t = tmp;
+			n = m;
+			m = t.length();
+		}
+
+		int p[] = new int[n+1];
+		int d[] = new int[n+1];
+		int _d[];
+		for (int i = 0; i<=n; i++) {
+			p[i] = i*10;
+		}
+		for (int j = 1; j<=m; j++) {
+			char t_j = t.charAt(j-1);
+			d[0] = j*10;
+			int rowMin = d[0];
+			for (int i=1; i<=n; i++) {
+				char s_i = s.charAt(i-1);
+				int cost = s_i==t_j? 0: Character.toUpperCase(s_i)==Character.toUpperCase(t_j)? 1: 10;
+				d[i] = Math.min(Math.min(d[i-1]+10, p[i]+10),  p[i-1]+cost);
+				rowMin = Math.min(rowMin, d[i]);
+			}
+			//The distance cannot decrease in the next rows
+			if(rowMin>maxDistance) return rowMin;
+			_d = p;
+			p = d;
+			d = _d;
+		}
+		return p[n];
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.util;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Set of strings with their frequency, indexed in a (case insensitive) radix trie for the autocompletion.
+ * <ul>
+ * <li>{@link #getCompletions(String, int)} returns the values starting with a prefix, ranked by frequency.
+ * The best completions are cached in the queried node, until a value below is added or removed
+ * <li>{@link #getMatches(String, int)} returns the completions, followed by the values containing the text
+ * <li>the iteration returns the values sorted with CompareUtils.STRING_COMPARATOR
+ * </ul>
+ * The trie is thread-safe. It is not modifiable through the Set interface: use {@link #add(String, int)} and {@link #remove(String, int)}
+ *
+ * @author Joel Freyss
+ */
+public class PrefixTrie extends AbstractSet<String> {
+
+	/**
+	 * Max number of completions cached per node
+	 */
+	public static final int TOP_SIZE = 32;
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private static class Node {
+		/** Lowercase label of the edge from the parent */
+		private String label;
+		/** Children, sorted by the first char of their label */
+		private Node[] children = NO_CHILDREN;
+		/** Values ending at this node (different cases of the same key), or null */
+		private String[] values;
+		/** Cached best completions of the subtree, or null if not computed */
+		private String[] top;
+
+		public Node(String label) {
+			this.label = label;
+		}
+
+		private int indexOf(char c) {
+			int lo = 0;
+			int hi = children.length-1;
+			while(lo<=hi) {
+				int mid = (lo+hi)>>>1;
+				char c2 = children[mid].label.charAt(0);
+				if(c2<c) lo = mid+1;
+				else if(c2>c) hi = mid-1;
+				else return mid;
+			}
+			return -(lo+1);
+		}
+
+		public Node getChild(char c) {
+			int index = indexOf(c);
+			return index<0? null: children[index];
+		}
+
+		public void setChild(Node child) {
+			int index = indexOf(child.label.charAt(0));
+			if(index>=0) {
+				children[index] = child;
+			} else {
+				index = -(index+1);
+				Node[] res = new Node[children.length+1];
+				System.arraycopy(children, 0, res, 0, index);
+				res[index] = child;
+				System.arraycopy(children, index, res, index+1, children.length-index);
+				children = res;
+			}
+		}
+	}
+
+	private final Node root = new Node("");
+	private final Map<String, Integer> counts = new HashMap<>();
+	/** Values sorted with CompareUtils.STRING_COMPARATOR and their lowercase (for the infix search), or null if not computed */
+	private String[] sorted;
+	private String[] sortedLowercase;
+	/** Incremented each time a value is added or removed (but not when a frequency changes) */
+	private int version;
+
+	private final Comparator<String> rankComparator = (s1, s2) -> {
+		int c = counts.getOrDefault(s2, 0) - counts.getOrDefault(s1, 0);
+		if(c!=0) return c;
+		c = CompareUtils.STRING_COMPARATOR.compare(s1, s2);
+		return c!=0? c: s1.compareTo(s2);
+	};
+
+	public PrefixTrie() {
+	}
+
+	public PrefixTrie(Iterable<String> values) {
+		for (String value : values) {
+			add(value, 1);
+		}
+	}
+
+	/**
+	 * Adds the value with the given frequency (or increases its frequency)
+	 * @param value
+	 * @param n
+	 */
+	public synchronized void add(String value, int n) {
+		if(value==null || value.length()==0 || n<=0) return;
+		Integer count = counts.get(value);
+		counts.put(value, count==null? n: count+n);
+		Node node = insert(value.toLowerCase());
+		if(count==null) {
+			node.values = node.values==null? new String[] {value}: append(node.values, value);
+			sorted = null;
+			version++;
+		}
+	}
+
+	/**
+	 * Decreases the frequency of the value, and removes it when it reaches 0
+	 * @param value
+	 * @param n
+	 */
+	public synchronized void remove(String value, int n) {
+		Integer count = value==null? null: counts.get(value);
+		if(count==null) return;
+		List<Node> path = getPath(value.toLowerCase());
+		for (Node node : path) {
+			node.top = null;
+		}
+		if(count>n) {
+			counts.put(value, count-n);
+			return;
+		}
+		counts.remove(value);
+		Node node = path.get(path.size()-1);
+		List<String> values = new ArrayList<>(Arrays.asList(node.values));
+		values.remove(value);
+		node.values = values.isEmpty()? null: values.toArray(new String[values.size()]);
+		sorted = null;
+		version++;
+	}
+
+	/**
+	 * Inserts the key, and invalidates the cached completions along the path
+	 */
+	private Node insert(String key) {
+		Node node = root;
+		node.top = null;
+		int i = 0;
+		while(i<key.length()) {
+			Node child = node.getChild(key.charAt(i));
+			if(child==null) {
+				child = new Node(key.substring(i));
+				node.setChild(child);
+				return child;
+			}
+			String label = child.label;
+			int j = 0;
+			while(j<label.length() && i+j<key.length() && label.charAt(j)==key.charAt(i+j)) j++;
+			if(j<label.length()) {
+				//Split the edge
+				Node mid = new Node(label.substring(0, j));
+				node.setChild(mid);
+				child.label = label.substring(j);
+				mid.children = new Node[] {child};
+				child = mid;
+			}
+			i += j;
+			node = child;
+			node.top = null;
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the nodes from the root to the node of the key (the last node may be reached in the middle of its label)
+	 * @return the path or an empty list if no value starts with the key
+	 */
+	private List<Node> getPath(String key) {
+		List<Node> path = new ArrayList<>();
+		Node node = root;
+		path.add(node);
+		int i = 0;
+		while(i<key.length()) {
+			node = node.getChild(key.charAt(i));
+			if(node==null) return new ArrayList<>();
+			for (int j = 0; j<node.label.length() && i<key.length(); j++, i++) {
+				if(node.label.charAt(j)!=key.charAt(i)) return new ArrayList<>();
+			}
+			path.add(node);
+		}
+		return path;
+	}
+
+	private static String[] append(String[] array, String value) {
+		String[] res = Arrays.copyOf(array, array.length+1);
+		res[array.length] = value;
+		return res;
+	}
+
+	/**
+	 * Returns the values starting with the given prefix (case insensitive), ranked by frequency
+	 * @param prefix
+	 * @param max
+	 * @return
+	 */
+	public synchronized List<String> getCompletions(String prefix, int max) {
+		List<Node> path = getPath(prefix==null? "": prefix.toLowerCase());
+		if(path.isEmpty()) return new ArrayList<>();
+		Node node = path.get(path.size()-1);
+		if(max<=TOP_SIZE) {
+			if(node.top==null) node.top = getBest(node, TOP_SIZE);
+			List<String> res = new ArrayList<>(Arrays.asList(node.top));
+			return res.size()>max? res.subList(0, max): res;
+		}
+		return new ArrayList<>(Arrays.asList(getBest(node, max)));
+	}
+
+	/**
+	 * Returns the values starting with the given text (ranked by frequency), followed by the values containing the text (ranked by frequency)
+	 * @param text
+	 * @param max
+	 * @return
+	 */
+	public synchronized List<String> getMatches(String text, int max) {
+		List<String> res = getCompletions(text, max);
+		if(res.size()>=max || text==null || text.length()==0) return res;
+
+		String lower = text.toLowerCase();
+		sort();
+		PriorityQueue<String> queue = new PriorityQueue<>(rankComparator.reversed());
+		for (int i = 0; i < sorted.length; i++) {
+			String valueLower = sortedLowercase[i];
+			if(valueLower.length()<=lower.length() || valueLower.startsWith(lower) || valueLower.indexOf(lower, 1)<0) continue;
+			queue.add(sorted[i]);
+			if(queue.size()>max-res.size()) queue.poll();
+		}
+		List<String> infix = new ArrayList<>(queue);
+		infix.sort(rankComparator);
+		res.addAll(infix);
+		return res;
+	}
+
+	/**
+	 * Gets the max best values of the subtree
+	 */
+	private String[] getBest(Node node, int max) {
+		PriorityQueue<String> queue = new PriorityQueue<>(rankComparator.reversed());
+		List<Node> toVisit = new ArrayList<>();
+		toVisit.add(node);
+		while(!toVisit.isEmpty()) {
+			Node n = toVisit.remove(toVisit.size()-1);
+			if(n.top!=null && n!=node && n.top.length<TOP_SIZE) {
+				//The cached completions are the complete subtree
+				addAll(queue, n.top, max);
+				continue;
+			}
+			if(n.values!=null) addAll(queue, n.values, max);
+			toVisit.addAll(Arrays.asList(n.children));
+		}
+		String[] res = queue.toArray(new String[queue.size()]);
+		Arrays.sort(res, rankComparator);
+		return res;
+	}
+
+	private void addAll(PriorityQueue<String> queue, String[] values, int max) {
+		for (String value : values) {
+			queue.add(value);
+			if(queue.size()>max) queue.poll();
+		}
+	}
+
+	/**
+	 * Returns the frequency of the value (0 if absent)
+	 * @param value
+	 * @return
+	 */
+	public synchronized int getCount(String value) {
+		return counts.getOrDefault(value, 0);
+	}
+
+	/**
+	 * Returns a stamp, which changes each time a value is added or removed.
+	 * It can be used to know if an index built from the values is still valid
+	 * @return
+	 */
+	public synchronized int getVersion() {
+		return version;
+	}
+
+	@Override
+	public synchronized boolean contains(Object o) {
+		return counts.containsKey(o);
+	}
+
+	@Override
+	public synchronized int size() {
+		return counts.size();
+	}
+
+	/**
+	 * Iterates through a snapshot of the values, sorted with CompareUtils.STRING_COMPARATOR
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		String[] values;
+		synchronized (this) {
+			sort();
+			values = sorted;
+		}
+		return Arrays.asList(values).iterator();
+	}
+
+	/**
+	 * Computes the sorted values and their lowercase, if needed
+	 */
+	private void sort() {
+		if(sorted!=null) return;
+		String[] values = counts.keySet().toArray(new String[counts.size()]);
+		Arrays.sort(values, CompareUtils.STRING_COMPARATOR);
+		String[] lowercase = new String[values.length];
+		for (int i = 0; i < values.length; i++) {
+			lowercase[i] = values[i].toLowerCase();
+		}
+		sortedLowercase = lowercase;
+		sorted = values;
+	}
+
+	/**
+	 * Returns a copy of the values, sorted with CompareUtils.STRING_COMPARATOR
+	 * @return
+	 */
+	public Set<String> getValues() {
+		Set<String> res = new TreeSet<>(CompareUtils.STRING_COMPARATOR);
+		res.addAll(this);
+		return res;
+	}
+}
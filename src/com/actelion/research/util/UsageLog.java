@@ -23,6 +23,7 @@ package com.actelion.research.util;
 
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.List;
 
 /**
  * Wrapper to the Logon service
@@ -37,8 +38,23 @@ public class UsageLog {
 		logUsage(application, userId, ACTION_LOGON, null, null);
 	}
 	
+	private static final WriteBehindQueue<String> queue = new WriteBehindQueue<String>("UsageLog", 100, 1000, null, UsageLog::send);
+
+	static {
+		//The usages do not depend on other resources, and can be sent when the JVM exits
+		Runtime.getRuntime().addShutdownHook(new Thread("UsageLog-shutdown") {
+			@Override
+			public void run() {
+				queue.flush();
+			}
+		});
+	}
+
+	private static java.net.InetAddress localMachine;
+
 	/**
 	 * Parameters should be formatted like: [key=value][,key=value]*
+	 * The usage is queued and sent by a background thread (the usages are dropped if the queue is full)
 	 * @param application
 	 * @param userId (if null, the current user.name)
 	 * @param pcName (if null, the current InetAddress.getLocalhose)
@@ -47,41 +63,42 @@ public class UsageLog {
 	 */
 	public static void logUsage(final String application, final String userId, final String pcName, final String action, final String parameters) {
 		if(application==null) throw new IllegalArgumentException("Application cannot be null");
-		new Thread() {			
-			@Override
-			public void run() {
-				try {
-					java.net.InetAddress localMachine = java.net.InetAddress.getLocalHost();
-					String ip = localMachine.getHostAddress();
-					String userId2 = userId == null? System.getProperty("user.name"): userId;
-					String pcName2;
-					if(pcName==null) {
-						pcName2 = localMachine.getHostName();
-					} else {
-						pcName2 = pcName;
-					}
-					if("freyssj".equals(pcName2)) return;
+		if("freyssj".equals(pcName)) return;
+		try {
+			String userId2 = userId == null? System.getProperty("user.name"): userId;
+			String action2 = action==null? ACTION_LOGON: action;
+			String sysUser = System.getProperty("user.name");
+			String os = System.getProperty("os.name");
+			String home = System.getProperty("java.home");
+			String parameters2 = "home="+home+";user="+sysUser+";os="+os+";version="+System.getProperty("java.version")+";";
+			if(parameters!=null) parameters2 += parameters;
 
-					String action2 = action==null? ACTION_LOGON: action;
-					String userId = System.getProperty("user.name");
-					String os = System.getProperty("os.name");
-					String home = System.getProperty("java.home");
-					String parameters2 = "home="+home+";user="+userId+";os="+os+";version="+System.getProperty("java.version")+";";
-					if(parameters!=null) parameters2 += parameters;
+			//The host is resolved by the background thread
+			queue.offer("project=" + URLEncoder.encode(application, "UTF-8") 
+					+ "&username="+URLEncoder.encode(userId2, "UTF-8")
+					+ (pcName==null? "": "&pcname=" + URLEncoder.encode(pcName, "UTF-8"))
+					+ "&action=" + URLEncoder.encode(action2, "UTF-8") 
+					+ (parameters2!=null? "&parameters="+URLEncoder.encode(parameters2, "UTF-8"): ""));
+		} catch(Throwable e) {
+			e.printStackTrace();
+		}
+	}
 
-					new URL("http://ares:8080/dataCenter/log.do?project=" + URLEncoder.encode(application, "UTF-8") 
-							+ "&username="+URLEncoder.encode(userId2, "UTF-8")
-							+ "&pcname=" + URLEncoder.encode(pcName2, "UTF-8")
-							+ "&action=" + URLEncoder.encode(action2, "UTF-8") 
-							+ "&ip=" + URLEncoder.encode(ip, "UTF-8") 
-							+ (parameters2!=null? "&parameters="+URLEncoder.encode(parameters2, "UTF-8"): "")
-							).getContent();
-						
-				} catch(Throwable e) {
-					e.printStackTrace();
-				}				
+	private static void send(List<String> queries) {
+		try {
+			if(localMachine==null) localMachine = java.net.InetAddress.getLocalHost();
+			String ip = localMachine.getHostAddress();
+			String hostName = localMachine.getHostName();
+			for (String query : queries) {
+				if(!query.contains("&pcname=")) {
+					if("freyssj".equals(hostName)) continue;
+					query += "&pcname=" + URLEncoder.encode(hostName, "UTF-8");
+				}
+				new URL("http://ares:8080/dataCenter/log.do?" + query + "&ip=" + URLEncoder.encode(ip, "UTF-8")).getContent();
 			}
-		}.start();
+		} catch(Throwable e) {
+			e.printStackTrace();
+		}
 	}
 		
 
@@ -0,0 +1,158 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue, whose elements are written by batches in a background thread.
+ * <ul>
+ * <li>{@link #offer(Object)} never blocks: when the queue is full, the element is dropped (and counted)
+ * <li>elements having the same key (if a key function is given) are coalesced: only the last one is written
+ * <li>the writer is called with all pending elements every flushInterval, or when {@link #flush()} is called
+ * <li>the batches are written one at a time: flush waits for the batch in progress, so that all elements offered before are written when it returns
+ * </ul>
+ *
+ * The queue is not flushed when the JVM exits: the owner must call {@link #flush()} on its close path, while the resources of the writer are still available.
+ *
+ * The writer is responsible to handle its own exceptions. Exceptions thrown by the writer are logged, and the batch is lost.
+ *
+ * @author Joel Freyss
+ */
+public class WriteBehindQueue<T> {
+
+	private final String name;
+	private final int capacity;
+	private final long flushIntervalMs;
+	private final Consumer<List<T>> writer;
+	private final Function<T, Object> keyFunction;
+
+	private final Map<Object, T> pending = new LinkedHashMap<>();
+	/** Lock held while a batch is written */
+	private final Object writeLock = new Object();
+	private long dropped = 0;
+	private long written = 0;
+	private Thread thread;
+
+	/**
+	 * @param name the name of the background thread
+	 * @param capacity max number of pending elements
+	 * @param flushIntervalMs interval between 2 writes
+	 * @param keyFunction the key used to coalesce the elements (can be null)
+	 * @param writer the function writing a batch
+	 */
+	public WriteBehindQueue(String name, int capacity, long flushIntervalMs, Function<T, Object> keyFunction, Consumer<List<T>> writer) {
+		assert capacity>0;
+		assert writer!=null;
+		this.name = name;
+		this.capacity = capacity;
+		this.flushIntervalMs = flushIntervalMs;
+		this.keyFunction = keyFunction;
+		this.writer = writer;
+	}
+
+	/**
+	 * Adds an element to be written, without blocking
+	 * @param element
+	 * @return false if the element was dropped, because the queue is full
+	 */
+	public boolean offer(T element) {
+		synchronized (pending) {
+			Object key = keyFunction==null? new Object(): keyFunction.apply(element);
+			if(pending.size()>=capacity && !pending.containsKey(key)) {
+				if(dropped++%100==0) LoggerFactory.getLogger(WriteBehindQueue.class).warn(name + ": queue is full, " + dropped + " elements dropped");
+				return false;
+			}
+			pending.put(key, element);
+			if(thread==null) start();
+		}
+		return true;
+	}
+
+	private void start() {
+		thread = new Thread(name) {
+			@Override
+			public void run() {
+				while(!isInterrupted()) {
+					try {
+						Thread.sleep(flushIntervalMs);
+					} catch (InterruptedException e) {
+						break;
+					}
+					flush();
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Writes all pending elements in the calling thread.
+	 * If a batch is being written by another thread, waits for it first, so that the elements offered before this call are written when it returns
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			List<T> batch;
+			synchronized (pending) {
+				if(pending.size()==0) return;
+				batch = new ArrayList<>(pending.values());
+				pending.clear();
+			}
+			long s = System.currentTimeMillis();
+			try {
+				writer.accept(batch);
+				synchronized (pending) {
+					written += batch.size();
+				}
+				LoggerFactory.getLogger(WriteBehindQueue.class).debug(name + ": " + batch.size() + " elements written in " + (System.currentTimeMillis()-s) + "ms");
+			} catch(Throwable e) {
+				LoggerFactory.getLogger(WriteBehindQueue.class).error(name + ": could not write " + batch.size() + " elements", e);
+			}
+		}
+	}
+
+	public int getPendingCount() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	public long getDroppedCount() {
+		synchronized (pending) {
+			return dropped;
+		}
+	}
+
+	public long getWrittenCount() {
+		synchronized (pending) {
+			return written;
+		}
+	}
+}
@@ -76,6 +76,7 @@ import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 
+import com.actelion.research.util.PrefixTrie;
 import com.actelion.research.util.ui.exceltable.AbstractExtendTable;
 import com.actelion.research.util.ui.exceltable.Column;
 import com.actelion.research.util.ui.exceltable.ExcelTable;
@@ -106,6 +107,13 @@ public class JTextComboBox extends JCustomTextField {
 
 	private Collection<String> cachedChoices;
 
+	/** Max number of suggestions shown in the popup, when the choices are given as a PrefixTrie */
+	private static final int MAX_SUGGESTIONS = 1000;
+
+	/** Trie of the choices (if the choices were given as a PrefixTrie), used for ranked lookups */
+	private PrefixTrie choicesTrie;
+	private PrefixTrie cachedTrie;
+
 	private boolean allowTyping = true;
 	private boolean progressiveFiltering = true;
 	private int push = 0;
@@ -246,12 +254,25 @@ public class JTextComboBox extends JCustomTextField {
 			private void selectWithPrefix(int offs, String prefix) throws BadLocationException {
 				if (prefix.length() > 0) {
 					String selectedChoice = null;
-					for (String s : getCachedChoices()) {
-						if (s.startsWith(prefix)) {
-							selectedChoice = s;
-							break;
-						} else if (s.toUpperCase().startsWith(prefix.toUpperCase())) {
-							selectedChoice = s;
+					Collection<String> choices = getCachedChoices();
+					if (cachedTrie != null) {
+						//Ranked lookup: the most frequent choice with the same case, or the most frequent choice
+						for (String s : cachedTrie.getCompletions(prefix, PrefixTrie.TOP_SIZE)) {
+							if (s.startsWith(prefix)) {
+								selectedChoice = s;
+								break;
+							} else if (selectedChoice == null) {
+								selectedChoice = s;
+							}
+						}
+					} else {
+						for (String s : choices) {
+							if (s.startsWith(prefix)) {
+								selectedChoice = s;
+								break;
+							} else if (s.toUpperCase().startsWith(prefix.toUpperCase())) {
+								selectedChoice = s;
+							}
 						}
 					}
 					if (selectedChoice != null) {
@@ -534,6 +555,7 @@ public class JTextComboBox extends JCustomTextField {
 	private Collection<String> getCachedChoices() {
 		if (cachedChoices == null) {
 			cachedChoices = getChoices();
+			cachedTrie = cachedChoices instanceof PrefixTrie? (PrefixTrie) cachedChoices: cachedChoices == choices? choicesTrie: null;
 
 			//Remove null
 			if(cachedChoices != null) {
@@ -565,6 +587,7 @@ public class JTextComboBox extends JCustomTextField {
 	 * @param choices
 	 */
 	public void setChoices(Collection<String> choices) {
+		choicesTrie = choices instanceof PrefixTrie? (PrefixTrie) choices: null;
 		if (choices != this.choices) {
 			this.choices.clear();
 			if (choices != null)
@@ -593,7 +616,18 @@ public class JTextComboBox extends JCustomTextField {
 		Collection<String> choices = getCachedChoices();
 
 		List<String> toAdd = new ArrayList<>();
-		if (progressiveFiltering && !multiChoices) {
+		if (progressiveFiltering && !multiChoices && cachedTrie != null) {
+			//Ranked prefix and infix matches
+			String last = getText().substring(0, getCaretPosition());
+			boolean showAll = getCaretPosition() == 0 || cachedTrie.contains(last);
+			if (!showAll) {
+				toAdd.addAll(cachedTrie.getMatches(last, MAX_SUGGESTIONS));
+			}
+			if (toAdd.isEmpty()) {
+				//Show the most frequent values, instead of the whole vocabulary
+				toAdd.addAll(cachedTrie.getCompletions("", MAX_SUGGESTIONS));
+			}
+		} else if (progressiveFiltering && !multiChoices) {
 			String last = getText().substring(0, getCaretPosition());
 			model.clear();
 			model.addElement("");
@@ -21,54 +21,17 @@
 
 package com.actelion.research.util.ui;
 
-import java.util.Collection;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
 /**
- * Simple class to maximize the number of Threads. 
- * This is particularly handy in combination of the ThreadLocal class to avoid too many threads and therefore too many object 
- * (for example thread-safe JPA connections)
- * 
+ * Executes the long tasks (ex: autosave) in the BULK lane of the TaskExecutor, so that they do not delay the interactive tasks.
+ * The number of threads is bounded by the TaskExecutor, to avoid too many thread-local objects (for example JPA connections)
+ *
  * @author jfreyss
  *
  */
 public class SwingWorkerExecutor {
 
-	private static LinkedBlockingQueue<Runnable> threads = new LinkedBlockingQueue<>();
-	
-	private static final ExecutorService service = 
-			new ThreadPoolExecutor(1, 1, 1000, TimeUnit.MILLISECONDS, threads, new ThreadFactory() {	
-		@Override
-		public Thread newThread(Runnable r) {
-			Thread t = new Thread(r);
-			t.setDaemon(true);
-			threads.add(t);
-			return t;
-		}
-	});
-	
-	public static boolean isFromPool(Runnable t) {
-		return threads.contains(t);
-	}
-	
 	public static void execute(Runnable runnable) {
-		displayStatus();
-		service.execute(runnable);
+		TaskExecutor.submit(runnable.toString(), TaskExecutor.Lane.BULK, TaskExecutor.PRIORITY_NORMAL, runnable);
 	}
-	
-	public static Collection<Runnable> getThreads() {
-		return threads;
-	}
-	
-	public static void displayStatus() {
-		int count=0;
-		for (Runnable thread : threads) {
-			System.out.println("SwingWorkerExecutor-Thread-"+(++count)+"-"+thread);
-		}
-	}
-	
+
 }
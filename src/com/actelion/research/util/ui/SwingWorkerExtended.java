@@ -33,12 +33,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.BorderFactory;
@@ -56,10 +51,12 @@ import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.plaf.nimbus.NimbusLookAndFeel;
 
+import org.slf4j.LoggerFactory;
+
 
 /**
  * Simple Wrapper to a SwingWorker. It is used to execute longer processes on the background, while showing that something is going on.
- * This class uses the SwingWorkerExecutor to maximize the number of possible threads (2 + the main thread)
+ * The background tasks are executed by the TaskExecutor, in the INTERACTIVE lane by default
  *
  * @author jfreyss
  *
@@ -69,8 +66,6 @@ public class SwingWorkerExtended  {
 	public static boolean DEBUG = false;
 	public static boolean SHOW_EXCEPTION = true;
 
-	private static ExecutorService bgPool = Executors.newSingleThreadExecutor();
-
 
 	public static final int FLAG_SYNCHRONOUS = 0;
 	public static final int FLAG_ASYNCHRONOUS = 2;
@@ -82,12 +77,10 @@ public class SwingWorkerExtended  {
 	private JFrame frame = null;
 	private JDialog dialog = null;
 
-	private Thread sw;
-	private Thread delayVisibleThread;
+	private TaskExecutor.Task task;
 	private static int instances;
 	private final AtomicBoolean bgTaskStarted = new AtomicBoolean(false);
 	private final AtomicBoolean longTaskDone = new AtomicBoolean(false);
-	private final static Map<Component, Map<String, Thread>> currentThreads = new ConcurrentHashMap<>();
 	private Runnable after;
 
 	public SwingWorkerExtended() {
@@ -102,12 +95,17 @@ public class SwingWorkerExtended  {
 		this(null, myComp, flags);
 	}
 
+	public SwingWorkerExtended(final String title, final Component myComp, final int delayInMs) {
+		this(title, myComp, delayInMs, TaskExecutor.Lane.INTERACTIVE);
+	}
+
 	/**
 	 * Creates a SwingWorker
 	 * @param comp
-	 * @param cancellable
+	 * @param delayInMs
+	 * @param lane the lane of the TaskExecutor (BULK for long tasks, which should not delay the loading of other components)
 	 */
-	public SwingWorkerExtended(final String title, final Component myComp, final int delayInMs) {
+	public SwingWorkerExtended(final String title, final Component myComp, final int delayInMs, final TaskExecutor.Lane lane) {
 		final long started = System.currentTimeMillis();
 		this.name = (instances++) + "-" + (title==null?"SwingWorker":title);
 		final Component comp = (myComp instanceof JFrame)? ((JFrame)myComp).getContentPane(): (myComp instanceof JDialog)? ((JDialog)myComp).getContentPane(): myComp;
@@ -121,7 +119,7 @@ public class SwingWorkerExtended  {
 					break;
 				}
 			}
-			System.out.println("SwingWorkerExtended " + name + " -START- " + last);
+			LoggerFactory.getLogger(SwingWorkerExtended.class).debug("SwingWorkerExtended " + name + " -START- " + last);
 		}
 
 		final String callingThread = Thread.currentThread().getName();
@@ -134,7 +132,7 @@ public class SwingWorkerExtended  {
 					//Ignore exception, most likely due to multi-threading
 					e.printStackTrace();
 				}
-				if(after!=null && (sw==null || !sw.isInterrupted())) {
+				if(after!=null && !isCancelled()) {
 					after.run();
 				}
 			}
@@ -143,7 +141,7 @@ public class SwingWorkerExtended  {
 		if(delayInMs<0) {
 			//SYNCHRONOUS MODE: call doBackground in the same thread
 			try {
-				if(DEBUG) System.out.println("SwingWorkerExtended " + name + " -BG- " + (System.currentTimeMillis()-started) + "ms - " + callingThread);
+				if(DEBUG) LoggerFactory.getLogger(SwingWorkerExtended.class).debug("SwingWorkerExtended " + name + " -BG- " + (System.currentTimeMillis()-started) + "ms - " + callingThread);
 				doInBackground();
 
 				SwingUtilities.invokeLater(doneRunnable);
@@ -158,91 +156,43 @@ public class SwingWorkerExtended  {
 			} finally {
 				endBgProcess();
 			}
-			if(DEBUG) System.out.println("SwingWorkerExtended "+name+" -DONE- " + (System.currentTimeMillis()-started) + "ms - " +callingThread);
+			if(DEBUG) LoggerFactory.getLogger(SwingWorkerExtended.class).debug("SwingWorkerExtended "+name+" -DONE- " + (System.currentTimeMillis()-started) + "ms - " +callingThread);
 		} else {
-			//ASYNCHRONOUS MODE: call doBackground in a separate thread
-			sw = new Thread(name) {
+			//ASYNCHRONOUS MODE: call doBackground in the executor (a new task on the same component and title cancels the previous one)
+			Runnable bgRunnable = new Runnable() {
 				@Override
 				public void run() {
-
-					if(isCancelled()) {
-						endBgProcess();
-						if(DEBUG) System.out.println("SwingWorkerExtended "+name+" -STOP- " + (System.currentTimeMillis()-started) + "ms - " + callingThread);
-						return;
-					}
-
-					if(comp!=null && delayInMs>0) {
-						try {
-							sleep(delayInMs);
-						} catch(Throwable e) {
-							endBgProcess();
-							if(DEBUG) System.out.println("SwingWorkerExtended "+name+" -STOP- " +callingThread);
-							return;
+					try {
+						//In Background
+						if(DEBUG) LoggerFactory.getLogger(SwingWorkerExtended.class).debug("SwingWorkerExtended " + name + " -BG- " + (System.currentTimeMillis()-started) + "ms - " + callingThread);
+						SwingWorkerExtended.this.doInBackground();
+
+						if(!isCancelled()) {
+							SwingUtilities.invokeLater(doneRunnable);
+							if(DEBUG) LoggerFactory.getLogger(SwingWorkerExtended.class).debug("SwingWorkerExtended "+name+" -DONE- " + (System.currentTimeMillis()-started) + "ms - " +callingThread);
 						}
-					}
-					Runnable bgRunnable = new Runnable() {
-						@Override
-						public void run() {
-							try {
-								//In Background
-								if(DEBUG) System.out.println("SwingWorkerExtended " + name + " -BG- " + (System.currentTimeMillis()-started) + "ms - " + callingThread);
-								SwingWorkerExtended.this.doInBackground();
-
-								if( !(isCancelled() || isInterrupted() || sw.isInterrupted())) {
-									SwingUtilities.invokeLater(doneRunnable);
-									if(DEBUG) System.out.println("SwingWorkerExtended "+name+" -DONE- " + (System.currentTimeMillis()-started) + "ms - " +callingThread);
-								}
-
-							} catch (final Throwable thrown) {
-								thrown.printStackTrace();
-								System.out.println("SwingWorkerExtended isCancelled="+isCancelled());
-								System.out.println("SwingWorkerExtended isInterrupted="+isInterrupted()+"/"+sw.isInterrupted());
-								System.out.println("SwingWorkerExtended contains="+(comp==null || currentThreads.get(comp)==null?"NA":currentThreads.get(comp).containsValue(sw)));
-								if(!isCancelled() && !isInterrupted() && !sw.isInterrupted() && (comp==null || currentThreads.get(comp).containsValue(sw))) {
-									//									if(SHOW_EXCEPTION && !thrown.getClass().getName().contains("hibernate") && (thrown.getCause()==null || !thrown.getCause().getClass().getName().contains("hibernate"))) {
-									if(SHOW_EXCEPTION) {
-										JExceptionDialog.showError(comp, thrown);
-									} else {
-										if(thrown.getClass()==Exception.class) throw new RuntimeException(thrown);
-									}
-									if(DEBUG) System.out.println("SwingWorkerExtended " + name + " -DONE- " + (System.currentTimeMillis()-started) + "ms - " + callingThread);
-								}
-								return;
-							} finally {
-								endBgProcess();
-							}
-
-
 
+					} catch (final Throwable thrown) {
+						thrown.printStackTrace();
+						if(!isCancelled()) {
+							if(SHOW_EXCEPTION) {
+								JExceptionDialog.showError(comp, thrown);
+							} else {
+								if(thrown.getClass()==Exception.class) throw new RuntimeException(thrown);
+							}
+							if(DEBUG) LoggerFactory.getLogger(SwingWorkerExtended.class).debug("SwingWorkerExtended " + name + " -DONE- " + (System.currentTimeMillis()-started) + "ms - " + callingThread);
 						}
-					};
-					bgPool.submit(bgRunnable);
+						return;
+					} finally {
+						endBgProcess();
+					}
 				}
-
 			};
-			sw.setDaemon(!callingThread.contains("main"));
-			sw.start();
-
-			//Interrupt threads with the same name if start was delayed
-			if(comp!=null && delayInMs>0) {
-				if(currentThreads.get(comp)==null) currentThreads.put(comp, new HashMap<String, Thread>());
-				Thread t2 = currentThreads.get(comp).get(title);
-				currentThreads.get(comp).put(title, sw);
-				if(t2!=null && t2.isAlive()) {
-					try {t2.interrupt();}catch (Throwable e) {}
-				}
-			}
+			Object key = comp!=null && delayInMs>0? Arrays.asList(comp, title): null;
+			task = TaskExecutor.submit(name, lane, comp==null? TaskExecutor.PRIORITY_NORMAL: TaskExecutor.PRIORITY_HIGH, key, comp==null? 0: delayInMs, bgRunnable);
 
 			//Show the loading panel if the task takes more than 300m
-			delayVisibleThread = new Thread("SwingWorkerExtended-GlassPane") {
-				@Override
-				public void run() {
-					try{Thread.sleep(Math.max(delayInMs, 200));} catch(Exception e) {e.printStackTrace(); return;}
-					startBgProcess(title, comp);
-				}
-			};
-			delayVisibleThread.setDaemon(true);
-			delayVisibleThread.start();
+			TaskExecutor.schedule(() -> startBgProcess(title, comp), Math.max(delayInMs, 200));
 		}
 	}
 
@@ -266,7 +216,7 @@ public class SwingWorkerExtended  {
 		SwingUtilities.invokeLater(new Runnable() {
 			@Override
 			public void run() {
-				if(!comp.isShowing() || longTaskDone.get() || (sw!=null && sw.isInterrupted())) {
+				if(!comp.isShowing() || longTaskDone.get() || isCancelled()) {
 					return;
 				}
 				bgTaskStarted.set(true);
@@ -353,7 +303,7 @@ public class SwingWorkerExtended  {
 						@Override
 						public void actionPerformed(ActionEvent e) {
 							endBgProcess();
-							sw.interrupt();
+							cancel();
 						}
 					};
 					stopButton.addActionListener(cancelAction);
@@ -379,30 +329,25 @@ public class SwingWorkerExtended  {
 	private void endBgProcess() {
 		longTaskDone.set(true);
 		if(bgTaskStarted.get()) {
-			try {
-				delayVisibleThread.interrupt();
-				try {delayVisibleThread.join(1000);}catch(Exception e) {return;}
-			} finally {
-				SwingUtilities.invokeLater(new Runnable() {
-					@Override
-					public void run() {
-						if(frame!=null) {
-							frame.getGlassPane().setVisible(false);
-						} else if(dialog!=null) {
-							dialog.getGlassPane().setVisible(false);
-						}
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if(frame!=null) {
+						frame.getGlassPane().setVisible(false);
+					} else if(dialog!=null) {
+						dialog.getGlassPane().setVisible(false);
 					}
-				});
-			}
+				}
+			});
 		}
 	}
 
 	public void cancel() {
-		sw.interrupt();
+		if(task!=null) task.cancel();
 	}
 
 	protected boolean isCancelled() {
-		return sw.isInterrupted();
+		return task!=null && task.isCancelled();
 	}
 
 	protected void doInBackground() throws Exception {}
@@ -423,15 +368,8 @@ public class SwingWorkerExtended  {
 	}
 
 	public static void awaitTermination() {
-		try {
-			bgPool.shutdown();
-			boolean success = bgPool.awaitTermination(1000, TimeUnit.MILLISECONDS);
-			if(!success) System.err.println("SwingWorker: tasks took more than 1s to complete");
-
-			bgPool = Executors.newSingleThreadExecutor();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		boolean success = TaskExecutor.awaitTermination(TaskExecutor.Lane.INTERACTIVE, 1000);
+		if(!success) System.err.println("SwingWorker: tasks took more than 1s to complete");
 	}
 
 	public static void main(String[] args) {
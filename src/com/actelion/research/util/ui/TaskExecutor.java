@@ -0,0 +1,310 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.util.ui;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor of the background tasks, with a bounded number of threads.
+ * <ul>
+ * <li>the tasks are executed in lanes: INTERACTIVE for the tasks the user is waiting for, BULK for the long tasks (exports, autosave),
+ * so that a long task does not block the loading of the tabs
+ * <li>in each lane, the tasks with the highest priority are executed first (FIFO for equal priorities)
+ * <li>a task can be submitted with a key (ex: component+title): submitting a new task with the same key cancels the previous one
+ * <li>the waiting and running times are measured per lane
+ * </ul>
+ *
+ * Each thread has its own EntityManager, so the number of threads per lane is bounded: 3 for INTERACTIVE and 2 for BULK by default,
+ * which can be changed with the system property spirit.tasks.[lane]=n.
+ * Several threads are safe, as before the executor, each background task had its own thread and EntityManager:
+ * the entities returned by a task are not attached to the EntityManager of the EDT, and are reattached by the callers (JPAUtil.reattach)
+ * before being edited or lazy-loaded.
+ *
+ * @author Joel Freyss
+ */
+public class TaskExecutor {
+
+	public static enum Lane {
+		INTERACTIVE(3),
+		BULK(2);
+
+		private final int defaultThreads;
+
+		private Lane(int defaultThreads) {
+			this.defaultThreads = defaultThreads;
+		}
+	}
+
+	public static final int PRIORITY_LOW = 0;
+	public static final int PRIORITY_NORMAL = 5;
+	public static final int PRIORITY_HIGH = 10;
+
+	/**
+	 * Tasks running longer are logged
+	 */
+	private static final long SLOW_TASK_MS = 2000;
+
+	/**
+	 * Handle on a submitted task
+	 */
+	public static class Task implements Runnable, Comparable<Task> {
+		private final String name;
+		private final Lane lane;
+		private final int priority;
+		private final long seq;
+		private final Runnable runnable;
+		private final AtomicBoolean cancelled = new AtomicBoolean(false);
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private Object key;
+		private long submitted;
+		private volatile Thread thread;
+
+		private Task(String name, Lane lane, int priority, Runnable runnable) {
+			this.name = name;
+			this.lane = lane;
+			this.priority = priority;
+			this.seq = sequence.incrementAndGet();
+			this.runnable = runnable;
+		}
+
+		@Override
+		public void run() {
+			LaneExecutor executor = lanes.get(lane);
+			long started = System.currentTimeMillis();
+			try {
+				if(cancelled.get()) return;
+				thread = Thread.currentThread();
+				runnable.run();
+			} finally {
+				thread = null;
+				done.set(true);
+				removeKey(this);
+				executor.record(this, started - submitted, System.currentTimeMillis() - started);
+			}
+		}
+
+		/**
+		 * Cancels the task: the task is not started if it is pending, and isCancelled returns true if it is running.
+		 * The thread is not interrupted, as an interruption could break the JDBC connection
+		 */
+		public void cancel() {
+			cancelled.set(true);
+			lanes.get(lane).executor.remove(this);
+			removeKey(this);
+		}
+
+		public boolean isCancelled() {
+			return cancelled.get();
+		}
+
+		public boolean isDone() {
+			return done.get();
+		}
+
+		/**
+		 * Returns true if the task is executed by the current thread
+		 */
+		public boolean isCurrentThread() {
+			return thread==Thread.currentThread();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public int compareTo(Task o) {
+			if(priority!=o.priority) return Integer.compare(o.priority, priority);
+			return Long.compare(seq, o.seq);
+		}
+
+		@Override
+		public String toString() {
+			return "[" + lane + ":" + name + "]";
+		}
+	}
+
+	/**
+	 * Executor and statistics of one lane
+	 */
+	private static class LaneExecutor {
+		private final ThreadPoolExecutor executor;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalWaitMs = new AtomicLong();
+		private final AtomicLong totalRunMs = new AtomicLong();
+		private final AtomicLong maxRunMs = new AtomicLong();
+
+		public LaneExecutor(Lane lane) {
+			int nThreads = Math.max(1, Integer.getInteger("spirit.tasks." + lane.name().toLowerCase(), lane.defaultThreads));
+			AtomicLong threadNo = new AtomicLong();
+			this.executor = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), r -> {
+				Thread t = new Thread(r, "TaskExecutor-" + lane.name().toLowerCase() + "-" + threadNo.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+
+		private void record(Task task, long waitMs, long runMs) {
+			count.incrementAndGet();
+			totalWaitMs.addAndGet(waitMs);
+			totalRunMs.addAndGet(runMs);
+			maxRunMs.accumulateAndGet(runMs, Math::max);
+			if(runMs>SLOW_TASK_MS) {
+				LoggerFactory.getLogger(TaskExecutor.class).debug("Slow task " + task + ": waited " + waitMs + "ms, ran " + runMs + "ms");
+			}
+		}
+	}
+
+	private static final AtomicLong sequence = new AtomicLong();
+	private static final Map<Lane, LaneExecutor> lanes = new HashMap<>();
+	private static final Map<Object, Task> key2task = new HashMap<>();
+	private static final ScheduledExecutorService timer = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "TaskExecutor-timer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static {
+		for (Lane lane : Lane.values()) {
+			lanes.put(lane, new LaneExecutor(lane));
+		}
+	}
+
+	/**
+	 * Submits a task to be executed in the given lane
+	 * @param name the name of the task (for the logs)
+	 * @param lane
+	 * @param priority
+	 * @param runnable
+	 * @return
+	 */
+	public static Task submit(String name, Lane lane, int priority, Runnable runnable) {
+		return submit(name, lane, priority, null, 0, runnable);
+	}
+
+	/**
+	 * Submits a task to be executed in the given lane, after the given delay
+	 * @param name the name of the task (for the logs)
+	 * @param lane
+	 * @param priority
+	 * @param key if not null, the previous task submitted with the same key is cancelled
+	 * @param delayMs
+	 * @param runnable
+	 * @return
+	 */
+	public static Task submit(String name, Lane lane, int priority, Object key, long delayMs, Runnable runnable) {
+		final Task task = new Task(name, lane, priority, runnable);
+		if(key!=null) {
+			Task previous;
+			synchronized (key2task) {
+				task.key = key;
+				previous = key2task.put(key, task);
+			}
+			if(previous!=null) previous.cancel();
+		}
+		if(delayMs>0) {
+			timer.schedule(() -> execute(task), delayMs, TimeUnit.MILLISECONDS);
+		} else {
+			execute(task);
+		}
+		return task;
+	}
+
+	private static void execute(Task task) {
+		if(task.isCancelled()) return;
+		task.submitted = System.currentTimeMillis();
+		lanes.get(task.lane).executor.execute(task);
+	}
+
+	private static void removeKey(Task task) {
+		if(task.key==null) return;
+		synchronized (key2task) {
+			if(key2task.get(task.key)==task) key2task.remove(task.key);
+		}
+	}
+
+	/**
+	 * Schedules a runnable on the timer thread (ex: to display a progress bar after a delay).
+	 * The runnable must be short
+	 * @param runnable
+	 * @param delayMs
+	 */
+	public static void schedule(Runnable runnable, long delayMs) {
+		timer.schedule(runnable, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Waits until the tasks submitted to the lane before this call are done
+	 * @param lane
+	 * @param timeoutMs
+	 * @return true if the tasks were done before the timeout
+	 */
+	public static boolean awaitTermination(Lane lane, long timeoutMs) {
+		//One barrier per thread: when all threads have reached a barrier, the previous tasks are done
+		int nThreads = lanes.get(lane).executor.getMaximumPoolSize();
+		CountDownLatch arrived = new CountDownLatch(nThreads);
+		CountDownLatch released = new CountDownLatch(1);
+		for (int i = 0; i < nThreads; i++) {
+			submit("barrier", lane, Integer.MIN_VALUE, () -> {
+				arrived.countDown();
+				try {
+					released.await(timeoutMs, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		try {
+			return arrived.await(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			return false;
+		} finally {
+			released.countDown();
+		}
+	}
+
+	/**
+	 * Returns the number of tasks waiting in the lane
+	 */
+	public static int getPendingCount(Lane lane) {
+		return lanes.get(lane).executor.getQueue().size();
+	}
+
+	/**
+	 * Returns the statistics of the lane: [number of tasks executed, total waiting time (ms), total running time (ms), max running time (ms)]
+	 */
+	public static long[] getStatistics(Lane lane) {
+		LaneExecutor e = lanes.get(lane);
+		return new long[] {e.count.get(), e.totalWaitMs.get(), e.totalRunMs.get(), e.maxRunMs.get()};
+	}
+}
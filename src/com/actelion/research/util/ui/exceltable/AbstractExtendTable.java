@@ -45,11 +45,13 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import javax.swing.AbstractAction;
 import javax.swing.JCheckBox;
 import javax.swing.JComponent;
 import javax.swing.JMenu;
+import javax.swing.JOptionPane;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
@@ -120,6 +122,17 @@ public abstract class AbstractExtendTable<ROW> extends JTable implements IExport
 	private final FastHeaderRenderer<ROW> renderer = new FastHeaderRenderer<>();
 	private SwingWorkerExtended popupShowWorker = null;
 	private boolean canSort = true;
+	private int modelVersion = 0;
+
+	/**
+	 * Tables having more rows are sorted in a background thread
+	 */
+	private static final int ASYNC_SORT_THRESHOLD = 5000;
+
+	/**
+	 * Tables having more rows are sorted using a parallel sort
+	 */
+	private static final int PARALLEL_SORT_THRESHOLD = 50000;
 
 	protected final Map<Integer, Object> valuesCacheMap = new HashMap<>();
 
@@ -127,6 +140,7 @@ public abstract class AbstractExtendTable<ROW> extends JTable implements IExport
 		@Override
 		public void tableChanged(TableModelEvent e) {
 			currentSortColumn = null;
+			modelVersion++;
 			valuesCacheMap.clear();
 			tableChanged = true;
 
@@ -469,7 +483,7 @@ public abstract class AbstractExtendTable<ROW> extends JTable implements IExport
 		int totalInWrapping = 0;
 
 		//For each column, find the preferred width (without considering wrapping)
-		List<Integer> explore = selectIndixes(getRows().size(), (int)(getModel().getMaxRowsToExplore() * Math.min(1, 10.0 / nColumns)));
+		List<Integer> explore = getModel().selectRowsToExplore((int)(getModel().getMaxRowsToExplore() * Math.min(1, 10.0 / nColumns)));
 		int sumMinWidth = 0;
 		int sumPrefWidth = 0;
 		for (int col = 0; col < nColumns; col++) {
@@ -784,12 +798,21 @@ public abstract class AbstractExtendTable<ROW> extends JTable implements IExport
 		return new Dimension(Math.min(getPreferredSize().width, size.width), size.height);
 	}
 
+	/**
+	 * Returns the selected rows.
+	 * If the rows are virtual ({@link PagedRowList}), the rows, which are still loading, are not returned (use {@link PagedRowList#loadRows(List)} in a background thread to get them)
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
 	public List<ROW> getSelection() {
 		int[] sel = getSelectedRows();
 		List<ROW> res = new ArrayList<ROW>();
+		PagedRowList<ROW> paged = getModel().getRows() instanceof PagedRowList? (PagedRowList<ROW>) getModel().getRows(): null;
 		for (int i : sel) {
 			if(i<getModel().getRows().size()) {
-				res.add(getModel().getRow(i));
+				ROW row = getModel().getRow(i);
+				if(paged!=null && paged.isPlaceholder(row)) continue;
+				res.add(row);
 			}
 		}
 		return res;
@@ -948,41 +971,107 @@ public abstract class AbstractExtendTable<ROW> extends JTable implements IExport
 	}
 
 	public void sortBy(final Column<ROW, ?> col) {
-		sortBy(col, 0, new Comparator<ROW>() {
-			@Override
-			public int compare(ROW o1, ROW o2) {
-				return CompareUtils.compare(col.getValue(o1), col.getValue(o2));
-			}
-		});
+		sortBy(col, 0, row -> col.getValue(row), CompareUtils.OBJECT_COMPARATOR);
 	}
 
 	/**
-	 * Sort the table using the values and the order specified by the column and the given comparator to compare the values
+	 * Sort the table using the values and the order specified by the column and the given comparator to compare the values.
+	 * Prefer {@link #sortBy(Column, int, Function, Comparator)} when the comparator has to compute expensive values.
 	 * @param column
 	 * @param comparator
 	 * @param sortKey (if there are several sort for the same column, use different sortkey)
 	 */
 	public void sortBy(final Column<ROW, ?> col,  int sortKey, final Comparator<ROW> comparator) {
-		if(comparator==null) return;
+		sortBy(col, sortKey, Function.identity(), comparator);
+	}
+
+	/**
+	 * Sort the table by extracting the key of each row only once, and by comparing the keys with the given comparator.
+	 * Large tables are sorted in the background (in parallel if needed) on a snapshot of the rows, and the new ordering is applied on the EDT,
+	 * unless the model was changed in the meantime.
+	 * Virtual rows ({@link PagedRowList}) are not sorted, as it would require loading all the rows: they keep the order of the query, and the user is informed.
+	 *
+	 * @param col
+	 * @param sortKey (if there are several sort for the same column, use different sortkey)
+	 * @param keyExtractor function to extract the sort key of a row (called once per row)
+	 * @param keyComparator comparator used to compare the keys
+	 */
+	public <KEY> void sortBy(final Column<ROW, ?> col, final int sortKey, final Function<ROW, KEY> keyExtractor, final Comparator<? super KEY> keyComparator) {
+		if(keyExtractor==null || keyComparator==null) return;
 		if(col==null) return;
 
-		int columnIndex = getModel().getColumns().indexOf(col);
+		final int columnIndex = getModel().getColumns().indexOf(col);
 		if(columnIndex<0) return;
+		if(getModel().getRows() instanceof PagedRowList) {
+			JOptionPane.showMessageDialog(this, "The results are too large to be sorted.\nThey are sorted by study, group, phase, biotype and name.\nPlease refine your query to sort them by " + col.getShortName() + ".", "Sort", JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
 		if(this instanceof ExcelTable) ((ExcelTable<ROW>) this).getUndoManager().discardAllEdits();
 
 		final int direction = currentSortColumn!=null && currentSortColumn==(columnIndex+1) && sortKey==this.sortKey? -1 : 1;
+		final List<ROW> rows = getModel().getRows();
+		final List<ROW> snapshot = new ArrayList<>(rows);
+		final int version = modelVersion;
+		final int size = snapshot.size();
+		final Comparator<SortEntry<KEY>> entryComparator = (e1, e2) -> direction * keyComparator.compare(e1.key, e2.key);
+
+		if(size<ASYNC_SORT_THRESHOLD) {
+			applySortOrder(rows, snapshot, sortRows(snapshot, keyExtractor, entryComparator), columnIndex, direction, sortKey);
+		} else {
+			new SwingWorkerExtended("Sorting", this, SwingWorkerExtended.FLAG_ASYNCHRONOUS) {
+				private int[] order;
+				@Override
+				protected void doInBackground() throws Exception {
+					order = sortRows(snapshot, keyExtractor, entryComparator);
+				}
+				@Override
+				protected void done() {
+					//Discard the sort if the rows have been changed in the meantime
+					if(version!=modelVersion || getModel().getRows()!=rows || rows.size()!=order.length) return;
+					applySortOrder(rows, snapshot, order, columnIndex, direction, sortKey);
+				}
+			};
+		}
+	}
 
-		if(this instanceof ExcelTable) ((ExcelTable<ROW>) this).getUndoManager().discardAllEdits();
+	/**
+	 * Extract the keys of the given rows and returns the sorted order, where order[i] is the former index of the row at position i
+	 * (note: equal elements will stay in the same order)
+	 */
+	private static <ROW, KEY> int[] sortRows(List<ROW> rows, Function<ROW, KEY> keyExtractor, Comparator<SortEntry<KEY>> comparator) {
+		SortEntry<KEY>[] entries = newSortEntries(rows.size());
+		int index = 0;
+		for (ROW row : rows) {
+			entries[index] = new SortEntry<>(index, keyExtractor.apply(row));
+			index++;
+		}
 
-		//Sort using the given direction (note: equal element will stay in the same order)
-		Collections.sort(getModel().getRows(), new Comparator<ROW>() {
-			@Override
-			public int compare(ROW r1, ROW r2) {
-				int cmp = comparator.compare(r1, r2);
-				return direction * cmp;
+		if(entries.length>=PARALLEL_SORT_THRESHOLD) {
+			try {
+				Arrays.parallelSort(entries, comparator);
+			} catch(IllegalArgumentException e) {
+				//The comparator does not respect the general contract, use the (legacy) sequential sort
+				Arrays.sort(entries, comparator);
 			}
-		});
+		} else {
+			Arrays.sort(entries, comparator);
+		}
 
+		int[] order = new int[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			order[i] = entries[i].index;
+		}
+		return order;
+	}
+
+	/**
+	 * Swap the ordering of the model's rows (from the snapshot used for sorting) and fire the events. Must be called from the EDT
+	 */
+	private void applySortOrder(List<ROW> rows, List<ROW> snapshot, int[] order, int columnIndex, int direction, int sortKey) {
+		if(order.length!=rows.size() || order.length!=snapshot.size()) return;
+		for (int i = 0; i < order.length; i++) {
+			rows.set(i, snapshot.get(order[i]));
+		}
 
 		getModel().reorderTree();
 		getModel().fireTableDataChanged();
@@ -991,6 +1080,21 @@ public abstract class AbstractExtendTable<ROW> extends JTable implements IExport
 		getTableHeader().repaint();
 	}
 
+	@SuppressWarnings("unchecked")
+	private static <KEY> SortEntry<KEY>[] newSortEntries(int size) {
+		return (SortEntry<KEY>[]) new SortEntry<?>[size];
+	}
+
+	private static class SortEntry<KEY> {
+		private final int index;
+		private final KEY key;
+
+		public SortEntry(int index, KEY key) {
+			this.index = index;
+			this.key = key;
+		}
+	}
+
 	protected void postProcess(ROW row, int rowNo, Object value, JComponent c) {
 
 	}
@@ -1283,10 +1387,10 @@ public abstract class AbstractExtendTable<ROW> extends JTable implements IExport
 
 
 	/**
-	 * @return the canSort
+	 * @return the canSort (always false for virtual rows)
 	 */
 	public boolean isCanSort() {
-		return canSort;
+		return canSort && !(getModel().getRows() instanceof PagedRowList);
 	}
 
 }
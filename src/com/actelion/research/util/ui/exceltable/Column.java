@@ -263,7 +263,10 @@ public abstract class Column<ROW, VALUE> implements Comparable<Column<?, ?>> {
 	 */
 	public void populateHeaderPopup(final AbstractExtendTable<ROW> table, final JPopupMenu popupMenu) {
 		popupMenu.add(new JSeparator());
-		if(table.isCanSort()) {
+		if(table.getModel().getRows() instanceof PagedRowList) {
+			popupMenu.add(new JCustomLabel("Sort", Font.BOLD));
+			popupMenu.add(new JCustomLabel("Not available: too many rows", Font.ITALIC));
+		} else if(table.isCanSort()) {
 			popupMenu.add(new JCustomLabel("Sort", Font.BOLD));
 			popupMenu.add(new AbstractAction("Sort by "+getShortName()) {
 				@Override
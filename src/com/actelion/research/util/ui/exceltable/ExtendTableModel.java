@@ -211,6 +211,16 @@ public class ExtendTableModel<ROW> extends AbstractTableModel {
 		} else {
 			this.rows = rows;
 		}
+		if(rows instanceof PagedRowList) {
+			//Refresh the rows when their page is loaded (if the list is still displayed)
+			final PagedRowList<ROW> paged = (PagedRowList<ROW>) rows;
+			paged.setOnRowsRemoved(() -> {
+				if(this.rows==paged) fireTableDataChanged();
+			});
+			paged.setOnRowsLoaded((first, last) -> {
+				if(this.rows==paged && last<paged.size()) fireTableRowsUpdated(first, last);
+			});
+		}
 		fireTableDataChanged();
 	}
 
@@ -316,7 +326,7 @@ public class ExtendTableModel<ROW> extends AbstractTableModel {
 	 * only maxRowsToExplore are checked
 	 */
 	public List<Column<ROW, ?>> removeEmptyColumns(List<Column<ROW, ?>> columns) {
-		List<Integer> rows = AbstractExtendTable.selectIndixes(getRowCount(), getMaxRowsToExplore());
+		List<Integer> rows = selectRowsToExplore(getMaxRowsToExplore());
 		List<Column<ROW, ?>> res = new ArrayList<>();
 		for (int i = 0; i < columns.size(); i++) {
 			Column<ROW, ?> col = columns.get(i);
@@ -335,6 +345,39 @@ public class ExtendTableModel<ROW> extends AbstractTableModel {
 		return res;
 	}
 
+	/**
+	 * Selects the indexes of the rows to be explored (to find the non-empty columns or the columns' widths).
+	 * If the rows are virtual ({@link PagedRowList}), only the rows in memory are explored
+	 * @param size
+	 * @return
+	 */
+	public List<Integer> selectRowsToExplore(int size) {
+		if(rows instanceof PagedRowList) {
+			List<Integer> loaded = ((PagedRowList<ROW>) rows).getLoadedIndexes();
+			List<Integer> res = new ArrayList<>();
+			for (int i : AbstractExtendTable.selectIndixes(loaded.size(), size)) {
+				res.add(loaded.get(i));
+			}
+			return res;
+		}
+		return AbstractExtendTable.selectIndixes(getRowCount(), size);
+	}
+
+	/**
+	 * Returns the rows to be explored to initialize the columns: all rows, or only the rows in memory if the rows are virtual.
+	 * @return
+	 */
+	public List<ROW> getRowsToExplore() {
+		if(rows instanceof PagedRowList) {
+			List<ROW> res = new ArrayList<>();
+			for (int i : ((PagedRowList<ROW>) rows).getLoadedIndexes()) {
+				res.add(rows.get(i));
+			}
+			return res;
+		}
+		return rows;
+	}
+
 	/**
 	 * Returns currently displayed columns
 	 * @return
@@ -507,7 +550,8 @@ public class ExtendTableModel<ROW> extends AbstractTableModel {
 	}
 
 	protected boolean isTreeViewActive() {
-		return treeViewEnabled && treeViewActive;
+		//The tree view needs all rows, and is therefore disabled for virtual rows
+		return treeViewEnabled && treeViewActive && !(rows instanceof PagedRowList);
 	}
 
 
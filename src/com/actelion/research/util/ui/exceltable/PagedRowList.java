@@ -0,0 +1,397 @@
+/*
+ * Spirit, a study/biosample management tool for research.
+ * Copyright (C) 2018 Idorsia Pharmaceuticals Ltd., Hegenheimermattweg 91,
+ * CH-4123 Allschwil, Switzerland.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * @author Joel Freyss
+ */
+
+package com.actelion.research.util.ui.exceltable;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+import javax.swing.SwingUtilities;
+
+import org.slf4j.LoggerFactory;
+
+import com.actelion.research.util.ui.TaskExecutor;
+import com.actelion.research.util.ui.TaskExecutor.Lane;
+
+/**
+ * Virtual list of rows, used by the ExtendTableModel to display large results without loading all the entities.
+ * The list is created from the ids of the rows. The rows are loaded by pages, when they are accessed (usually when scrolling),
+ * and only the most recently accessed rows are kept in memory.
+ *
+ * The pages are loaded in the background (TaskExecutor, interactive lane), so that the renderers never wait on the DB:
+ * until its page is loaded, a row is returned as a placeholder (created from its id), and the onRowsLoaded listener is called on the EDT
+ * when the page arrives.
+ *
+ * Rows, which are not returned by the loader (deleted or not readable), are removed from the list when their page is loaded.
+ * In that case, the onRowsRemoved listener is called on the EDT.
+ *
+ * The list keeps the order of the ids: the caller is responsible to query the ids in the expected order.
+ *
+ * @author Joel Freyss
+ */
+public class PagedRowList<ROW> extends AbstractList<ROW> {
+
+	/**
+	 * Loads a page of rows
+	 */
+	public static interface PageLoader<ROW> {
+		/**
+		 * Loads the rows of the given ids. Ids not present in the returned map are considered as removed
+		 * @param ids
+		 * @return a map of id to row
+		 */
+		public Map<Integer, ROW> loadPage(List<Integer> ids) throws Exception;
+	}
+
+	/**
+	 * Listener called on the EDT, when the rows [firstIndex, lastIndex] have been loaded
+	 */
+	public static interface RowsLoadedListener {
+		public void rowsLoaded(int firstIndex, int lastIndex);
+	}
+
+	public static final int DEFAULT_PAGE_SIZE = 200;
+	public static final int DEFAULT_MAX_PAGES = 25;
+
+	private final List<Integer> ids;
+	private final int pageSize;
+	private final int maxRows;
+	private final PageLoader<ROW> loader;
+	private final ToIntFunction<ROW> idExtractor;
+	private final IntFunction<ROW> placeholderFactory;
+	private Runnable onRowsRemoved;
+	private RowsLoadedListener onRowsLoaded;
+
+	/**
+	 * LRU map of id -> row (bounded to maxPages*pageSize rows)
+	 */
+	private final LinkedHashMap<Integer, ROW> id2row;
+
+	/**
+	 * Ids of the rows, which are being loaded in the background
+	 */
+	private final Set<Integer> loadingIds = new HashSet<>();
+
+	public PagedRowList(List<Integer> ids, PageLoader<ROW> loader, ToIntFunction<ROW> idExtractor, IntFunction<ROW> placeholderFactory) {
+		this(ids, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES, loader, idExtractor, placeholderFactory);
+	}
+
+	/**
+	 * @param ids - the ids of the rows, in the display order
+	 * @param pageSize - the number of rows loaded at once
+	 * @param maxPages - the number of pages kept in memory
+	 * @param loader - loads a page of rows (called in a background thread, except for preload)
+	 * @param idExtractor - returns the id of a row
+	 * @param placeholderFactory - creates the row displayed while the real row is loading
+	 */
+	public PagedRowList(List<Integer> ids, int pageSize, int maxPages, PageLoader<ROW> loader, ToIntFunction<ROW> idExtractor, IntFunction<ROW> placeholderFactory) {
+		assert pageSize>0 && maxPages>0;
+		this.ids = new ArrayList<>(ids);
+		this.pageSize = pageSize;
+		this.maxRows = pageSize*maxPages;
+		this.loader = loader;
+		this.idExtractor = idExtractor;
+		this.placeholderFactory = placeholderFactory;
+		this.id2row = new LinkedHashMap<Integer, ROW>(Math.min(maxRows, this.ids.size())*2+16, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, ROW> eldest) {
+				return size()>maxRows;
+			}
+		};
+	}
+
+	/**
+	 * Sets the listener called (on the EDT) when some rows were removed from the list, because they could not be loaded
+	 * @param onRowsRemoved
+	 */
+	public void setOnRowsRemoved(Runnable onRowsRemoved) {
+		this.onRowsRemoved = onRowsRemoved;
+	}
+
+	/**
+	 * Sets the listener called (on the EDT) when a page has been loaded in the background, and the placeholders can be replaced
+	 * @param onRowsLoaded
+	 */
+	public void setOnRowsLoaded(RowsLoadedListener onRowsLoaded) {
+		this.onRowsLoaded = onRowsLoaded;
+	}
+
+	/**
+	 * Returns the row at the given index, or a placeholder if the row is not loaded yet. This function never waits on the DB.
+	 */
+	@Override
+	public synchronized ROW get(int index) {
+		if(index<0 || index>=ids.size()) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+ids.size());
+		int id = ids.get(index);
+		ROW row = id2row.get(id);
+		if(row==null) {
+			if(!loadingIds.contains(id)) loadPageAsync(index);
+			row = placeholderFactory.apply(id);
+		}
+		return row;
+	}
+
+	/**
+	 * Returns true if the row is a placeholder (ie. its page is not loaded)
+	 * @param row
+	 * @return
+	 */
+	public synchronized boolean isPlaceholder(ROW row) {
+		return row!=null && id2row.get(idExtractor.applyAsInt(row))!=row;
+	}
+
+	/**
+	 * Returns the ids of the page containing the index, which are not loaded nor being loaded
+	 */
+	private List<Integer> getPageIdsToLoad(int index) {
+		int from = (index/pageSize)*pageSize;
+		List<Integer> pageIds = new ArrayList<>();
+		for (int i = from; i < ids.size() && i < from+pageSize; i++) {
+			Integer id = ids.get(i);
+			if(!id2row.containsKey(id) && !loadingIds.contains(id)) pageIds.add(id);
+		}
+		return pageIds;
+	}
+
+	private void loadPageAsync(int index) {
+		final List<Integer> pageIds = getPageIdsToLoad(index);
+		if(pageIds.isEmpty()) return;
+		loadingIds.addAll(pageIds);
+		TaskExecutor.submit("Load rows", Lane.INTERACTIVE, TaskExecutor.PRIORITY_HIGH, () -> {
+			Map<Integer, ROW> page;
+			try {
+				page = load(pageIds);
+			} catch(Exception e) {
+				LoggerFactory.getLogger(PagedRowList.class).error("Could not load the rows", e);
+				synchronized (PagedRowList.this) {
+					loadingIds.removeAll(pageIds);
+				}
+				return;
+			}
+			fireRowsLoaded(merge(pageIds, page));
+		});
+	}
+
+	/**
+	 * Calls the listeners on the EDT
+	 * @param range - the range of loaded indexes, or null if some rows were removed
+	 */
+	private void fireRowsLoaded(final int[] range) {
+		SwingUtilities.invokeLater(() -> {
+			if(range==null) {
+				if(onRowsRemoved!=null) onRowsRemoved.run();
+			} else if(range[0]>=0 && onRowsLoaded!=null) {
+				onRowsLoaded.rowsLoaded(range[0], range[1]);
+			}
+		});
+	}
+
+	private Map<Integer, ROW> load(List<Integer> pageIds) throws Exception {
+		long s = System.currentTimeMillis();
+		Map<Integer, ROW> page = loader.loadPage(pageIds);
+		LoggerFactory.getLogger(PagedRowList.class).debug("Load page (n="+pageIds.size()+") in "+(System.currentTimeMillis()-s)+"ms");
+		return page;
+	}
+
+	/**
+	 * Adds the loaded rows, and removes the rows, which could not be loaded
+	 * @return the range of the loaded indexes, or null if some rows were removed
+	 */
+	private synchronized int[] merge(List<Integer> pageIds, Map<Integer, ROW> page) {
+		loadingIds.removeAll(pageIds);
+		Set<Integer> missing = new HashSet<>();
+		for (Integer id : pageIds) {
+			ROW row = page.get(id);
+			if(row==null) missing.add(id);
+			else id2row.put(id, row);
+		}
+		if(missing.size()>0) {
+			ids.removeAll(missing);
+			return null;
+		}
+		//The rows may have been moved since the request
+		int first = ids.indexOf(pageIds.get(0));
+		int last = ids.indexOf(pageIds.get(pageIds.size()-1));
+		return new int[] {Math.min(first, last), Math.max(first, last)};
+	}
+
+	@Override
+	public synchronized int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Returns the ids, in the current order
+	 * @return
+	 */
+	public synchronized List<Integer> getIds() {
+		return new ArrayList<>(ids);
+	}
+
+	/**
+	 * Returns true if the row at the given index is currently in memory
+	 * @param index
+	 * @return
+	 */
+	public synchronized boolean isLoaded(int index) {
+		if(index<0 || index>=ids.size()) return false;
+		return id2row.containsKey(ids.get(index));
+	}
+
+	/**
+	 * Returns the indexes of the rows currently in memory, in increasing order (without changing the LRU order)
+	 * @return
+	 */
+	public synchronized List<Integer> getLoadedIndexes() {
+		List<Integer> res = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i++) {
+			if(id2row.containsKey(ids.get(i))) res.add(i);
+		}
+		return res;
+	}
+
+	/**
+	 * Loads the first pages in the calling thread (which should not be the EDT), so that the first rows can be displayed without placeholders
+	 * @param nPages
+	 */
+	public void preload(int nPages) throws Exception {
+		assert !SwingUtilities.isEventDispatchThread();
+		for (int p = 0; p<nPages && p*pageSize<maxRows; p++) {
+			List<Integer> pageIds;
+			synchronized (this) {
+				if(p*pageSize>=ids.size()) break;
+				pageIds = getPageIdsToLoad(p*pageSize);
+				if(pageIds.isEmpty()) continue;
+				loadingIds.addAll(pageIds);
+			}
+			Map<Integer, ROW> page;
+			try {
+				page = load(pageIds);
+			} catch(Exception e) {
+				synchronized (this) {
+					loadingIds.removeAll(pageIds);
+				}
+				throw e;
+			}
+			merge(pageIds, page);
+		}
+	}
+
+	/**
+	 * Returns the rows at the given indexes, after loading the missing ones by pages in the calling thread (which should not be the EDT).
+	 * This function is used by the actions, which need the real rows (placeholders are never returned).
+	 * Rows, which could not be loaded, are skipped and removed from the list.
+	 * @param indexes
+	 * @return
+	 */
+	public List<ROW> loadRows(List<Integer> indexes) throws Exception {
+		assert !SwingUtilities.isEventDispatchThread();
+		List<Integer> rowIds = new ArrayList<>();
+		Map<Integer, ROW> id2loaded = new HashMap<>();
+		synchronized (this) {
+			for (int index : indexes) {
+				Integer id = ids.get(index);
+				rowIds.add(id);
+				ROW row = id2row.get(id);
+				if(row!=null) id2loaded.put(id, row);
+			}
+		}
+
+		List<Integer> toLoad = new ArrayList<>(new LinkedHashSet<>(rowIds));
+		toLoad.removeAll(id2loaded.keySet());
+		if(toLoad.size()>0) {
+			int[] range = new int[] {Integer.MAX_VALUE, -1};
+			for (int i = 0; i < toLoad.size(); i+=pageSize) {
+				List<Integer> pageIds = new ArrayList<>(toLoad.subList(i, Math.min(toLoad.size(), i+pageSize)));
+				Map<Integer, ROW> page = load(pageIds);
+				id2loaded.putAll(page);
+				int[] pageRange = merge(pageIds, page);
+				if(pageRange==null) {
+					range = null;
+				} else if(range!=null) {
+					range[0] = Math.min(range[0], pageRange[0]);
+					range[1] = Math.max(range[1], pageRange[1]);
+				}
+			}
+			fireRowsLoaded(range);
+		}
+
+		List<ROW> res = new ArrayList<>();
+		for (Integer id : rowIds) {
+			ROW row = id2loaded.get(id);
+			if(row!=null) res.add(row);
+		}
+		return res;
+	}
+
+	@Override
+	public synchronized ROW set(int index, ROW element) {
+		ROW old = id2row.get(ids.get(index));
+		int id = idExtractor.applyAsInt(element);
+		ids.set(index, id);
+		id2row.put(id, element);
+		return old;
+	}
+
+	@Override
+	public synchronized void add(int index, ROW element) {
+		int id = idExtractor.applyAsInt(element);
+		ids.add(index, id);
+		id2row.put(id, element);
+	}
+
+	@Override
+	public synchronized ROW remove(int index) {
+		int id = ids.remove(index);
+		return id2row.remove(id);
+	}
+
+	@Override
+	public synchronized void clear() {
+		ids.clear();
+		id2row.clear();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized int indexOf(Object o) {
+		if(o==null) return -1;
+		try {
+			return ids.indexOf(idExtractor.applyAsInt((ROW) o));
+		} catch(ClassCastException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o)>=0;
+	}
+}
@@ -0,0 +1,148 @@
+package com.actelion.research.spirit.test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+/**
+ * Minimal micro-benchmark harness (warmup iterations, then measured iterations), used by BenchmarkTest.
+ * <ul>
+ * <li>each iteration calls the optional reset (not measured), then the operation (measured)
+ * <li>the result of the operation is kept in a sink, so that the JIT cannot remove the call
+ * <li>the mean times can be saved as a baseline (properties file), and compared with the next runs
+ * </ul>
+ */
+public class Benchmark {
+
+	public static class Measure {
+		private final String name;
+		private final long[] nanos;
+
+		private Measure(String name, long[] nanos) {
+			this.name = name;
+			this.nanos = nanos.clone();
+			Arrays.sort(this.nanos);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public double getMeanMs() {
+			long sum = 0;
+			for (long n : nanos) sum += n;
+			return sum / 1E6 / nanos.length;
+		}
+
+		public double getPercentileMs(int percentile) {
+			int index = Math.min(nanos.length-1, (int) Math.ceil(percentile / 100.0 * nanos.length) - 1);
+			return nanos[Math.max(0, index)] / 1E6;
+		}
+
+		public double getOpsPerSecond() {
+			return 1000.0 / getMeanMs();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-36s mean=%10.3fms p50=%10.3fms p95=%10.3fms %10.1f ops/s (n=%d)", name, getMeanMs(), getPercentileMs(50), getPercentileMs(95), getOpsPerSecond(), nanos.length);
+		}
+	}
+
+	private final int warmupIterations;
+	private final int measureIterations;
+	private final Map<String, Measure> measures = new LinkedHashMap<>();
+	private final List<Object> sink = new ArrayList<>();
+
+	public Benchmark(int warmupIterations, int measureIterations) {
+		this.warmupIterations = warmupIterations;
+		this.measureIterations = measureIterations;
+	}
+
+	public Measure run(String name, Callable<?> operation) throws Exception {
+		return run(name, null, operation);
+	}
+
+	/**
+	 * Runs the operation (warmup, then measure), and records its measure
+	 * @param name
+	 * @param reset - called before each iteration and not measured (can be null)
+	 * @param operation
+	 * @return
+	 * @throws Exception
+	 */
+	public Measure run(String name, Runnable reset, Callable<?> operation) throws Exception {
+		for (int i = 0; i < warmupIterations; i++) {
+			if(reset!=null) reset.run();
+			consume(operation.call());
+		}
+		long[] nanos = new long[measureIterations];
+		for (int i = 0; i < measureIterations; i++) {
+			if(reset!=null) reset.run();
+			long s = System.nanoTime();
+			Object res = operation.call();
+			nanos[i] = System.nanoTime() - s;
+			consume(res);
+		}
+		Measure m = new Measure(name, nanos);
+		measures.put(name, m);
+		System.out.println("Benchmark " + m);
+		return m;
+	}
+
+	private void consume(Object o) {
+		sink.add(o);
+		if(sink.size()>16) sink.clear();
+	}
+
+	public Map<String, Measure> getMeasures() {
+		return measures;
+	}
+
+	/**
+	 * Saves the mean time (ms) of each measure
+	 * @param file
+	 * @throws Exception
+	 */
+	public void saveBaseline(File file) throws Exception {
+		Properties prop = new Properties();
+		for (Measure m : measures.values()) {
+			prop.setProperty(m.getName(), String.format(Locale.ROOT, "%.4f", m.getMeanMs()));
+		}
+		try(Writer writer = new FileWriter(file)) {
+			prop.store(writer, "Benchmark baseline: mean time in ms");
+		}
+	}
+
+	/**
+	 * Compares the measures with a saved baseline
+	 * @param file
+	 * @param tolerance - allowed ratio between the current and the baseline mean (ex: 1.5)
+	 * @return the measures slower than the baseline, with their ratio
+	 * @throws Exception
+	 */
+	public Map<String, Double> getRegressions(File file, double tolerance) throws Exception {
+		Properties prop = new Properties();
+		try(Reader reader = new FileReader(file)) {
+			prop.load(reader);
+		}
+		Map<String, Double> res = new LinkedHashMap<>();
+		for (Measure m : measures.values()) {
+			String baseline = prop.getProperty(m.getName());
+			if(baseline==null) continue;
+			double ratio = m.getMeanMs() / Math.max(0.001, Double.parseDouble(baseline));
+			if(ratio>tolerance) res.put(m.getName(), ratio);
+		}
+		return res;
+	}
+}
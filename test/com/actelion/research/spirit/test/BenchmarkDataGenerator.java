@@ -0,0 +1,230 @@
+package com.actelion.research.spirit.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.actelion.research.spiritcore.business.DataType;
+import com.actelion.research.spiritcore.business.biosample.Biosample;
+import com.actelion.research.spiritcore.business.biosample.Biotype;
+import com.actelion.research.spiritcore.business.biosample.BiotypeCategory;
+import com.actelion.research.spiritcore.business.biosample.BiotypeMetadata;
+import com.actelion.research.spiritcore.business.result.Result;
+import com.actelion.research.spiritcore.business.result.Test;
+import com.actelion.research.spiritcore.business.result.TestAttribute;
+import com.actelion.research.spiritcore.business.result.TestAttribute.OutputType;
+import com.actelion.research.spiritcore.business.study.Group;
+import com.actelion.research.spiritcore.business.study.Phase;
+import com.actelion.research.spiritcore.business.study.Study;
+import com.actelion.research.spiritcore.services.SpiritUser;
+import com.actelion.research.spiritcore.services.dao.DAOBiosample;
+import com.actelion.research.spiritcore.services.dao.DAOBiotype;
+import com.actelion.research.spiritcore.services.dao.DAOResult;
+import com.actelion.research.spiritcore.services.dao.DAOStudy;
+import com.actelion.research.spiritcore.services.dao.DAOTest;
+
+/**
+ * Generates a synthetic and reproducible (seeded) dataset for the benchmarks:
+ * studies with groups and phases, animals, derived samples with metadata, tests, and results on the samples.
+ *
+ * The sizes can be set with the system properties benchmark.studies, benchmark.animals (per study), benchmark.samples (per animal),
+ * benchmark.tests, benchmark.results (per sample and test) and benchmark.seed
+ */
+public class BenchmarkDataGenerator {
+
+	private static int run = 0;
+
+	private int nStudies = Integer.getInteger("benchmark.studies", 2);
+	private int nGroups = 4;
+	private int nPhases = 5;
+	private int nAnimals = Integer.getInteger("benchmark.animals", 40);
+	private int nSamples = Integer.getInteger("benchmark.samples", 5);
+	private int nTests = Integer.getInteger("benchmark.tests", 3);
+	private int nResults = Integer.getInteger("benchmark.results", 1);
+	private long seed = Long.getLong("benchmark.seed", 42L);
+
+	private final List<Study> studies = new ArrayList<>();
+	private final List<Biosample> animals = new ArrayList<>();
+	private final List<Biosample> samples = new ArrayList<>();
+	private final List<Test> tests = new ArrayList<>();
+	private final List<Result> results = new ArrayList<>();
+
+	public void setStudies(int nStudies) {
+		this.nStudies = nStudies;
+	}
+
+	public void setAnimals(int nAnimals) {
+		this.nAnimals = nAnimals;
+	}
+
+	public void setSamples(int nSamples) {
+		this.nSamples = nSamples;
+	}
+
+	public void setTests(int nTests) {
+		this.nTests = nTests;
+	}
+
+	public void setResults(int nResults) {
+		this.nResults = nResults;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Generates and persists the dataset
+	 * @param user
+	 * @throws Exception
+	 */
+	public void generate(SpiritUser user) throws Exception {
+		Random rnd = new Random(seed);
+		run++;
+
+		//Biotypes and tests are shared by the runs
+		Biotype animalType = getOrCreateBiotype("BenchAnimal", null, BiotypeCategory.LIVING, user);
+		Biotype sampleType = getOrCreateBiotype("BenchSample", animalType, BiotypeCategory.SOLID, user);
+		for (int i = 0; i < nTests; i++) {
+			tests.add(getOrCreateTest("BenchTest" + (i+1), user));
+		}
+
+		//Studies
+		for (int i = 0; i < nStudies; i++) {
+			Study study = new Study();
+			study.setStudyId("BENCH" + run + "-" + (i+1));
+			study.setTitle("Benchmark study " + (i+1));
+			for (int g = 0; g < nGroups; g++) {
+				Group group = new Group((g+1) + "" + (char)('A'+g));
+				group.setStudy(study);
+				study.getGroups().add(group);
+			}
+			for (int p = 0; p < nPhases; p++) {
+				Phase phase = new Phase("d" + (p*7));
+				phase.setStudy(study);
+				study.getPhases().add(phase);
+			}
+			studies.add(study);
+		}
+		DAOStudy.persistStudies(studies, user);
+
+		//Animals and samples
+		for (Study study : studies) {
+			List<Group> groups = new ArrayList<>(study.getGroups());
+			List<Phase> phases = new ArrayList<>(study.getPhases());
+			for (int i = 0; i < nAnimals; i++) {
+				Biosample animal = new Biosample(animalType);
+				animal.setSampleName(study.getStudyId() + "-" + (i+1));
+				animal.setAttachedStudy(study);
+				animal.setInheritedGroup(groups.get(i % groups.size()));
+				animals.add(animal);
+
+				for (int j = 0; j < nSamples; j++) {
+					Biosample sample = new Biosample(sampleType);
+					sample.setParent(animal);
+					sample.setInheritedPhase(phases.get(rnd.nextInt(phases.size())));
+					sample.setMetadataValue("Organ", ORGANS[rnd.nextInt(ORGANS.length)]);
+					sample.setMetadataValue("Weight", String.valueOf(rnd.nextInt(1000)/10.0));
+					sample.setMetadataValue("Comment", rnd.nextInt(4)==0? "Sample " + rnd.nextInt(100): null);
+					samples.add(sample);
+				}
+			}
+		}
+		DAOBiosample.persistBiosamples(animals, user);
+		DAOBiosample.persistBiosamples(samples, user);
+
+		//Results
+		for (Biosample sample : samples) {
+			for (Test test : tests) {
+				for (int i = 0; i < nResults; i++) {
+					Result r = new Result(test);
+					r.setElb("BENCH" + run);
+					r.setBiosample(sample);
+					r.setPhase(sample.getInheritedPhase());
+					r.setValue("Input", INPUTS[rnd.nextInt(INPUTS.length)]);
+					r.setValue("Value1", String.valueOf(rnd.nextInt(10000)/100.0));
+					r.setValue("Value2", String.valueOf(rnd.nextInt(100)));
+					results.add(r);
+				}
+			}
+		}
+		DAOResult.persistResults(results, user);
+	}
+
+	private static final String[] ORGANS = new String[] {"Liver", "Lung", "Heart", "Kidney", "Brain", "Spleen"};
+	private static final String[] INPUTS = new String[] {"Plasma", "Serum", "Tissue"};
+
+	private static Biotype getOrCreateBiotype(String name, Biotype parent, BiotypeCategory category, SpiritUser user) throws Exception {
+		Biotype biotype = DAOBiotype.getBiotype(name);
+		if(biotype!=null) return biotype;
+		biotype = new Biotype(name);
+		biotype.setCategory(category);
+		biotype.setParent(parent);
+		biotype.setPrefix(parent==null? "BA-": "BS-");
+		if(parent==null) {
+			biotype.setSampleNameLabel("Name");
+		} else {
+			for(String metadata: new String[] {"Organ", "Weight", "Comment"}) {
+				BiotypeMetadata bm = new BiotypeMetadata(metadata, metadata.equals("Weight")? DataType.NUMBER: DataType.ALPHA);
+				bm.setBiotype(biotype);
+				biotype.getMetadata().add(bm);
+			}
+		}
+		DAOBiotype.persistBiotype(biotype, user);
+		return DAOBiotype.getBiotype(name);
+	}
+
+	private static Test getOrCreateTest(String name, SpiritUser user) throws Exception {
+		Test test = DAOTest.getTest(name);
+		if(test!=null) return test;
+		test = new Test(name);
+		test.setCategory("BENCHMARK");
+		TestAttribute ta1 = new TestAttribute(test, "Input");
+		ta1.setOutputType(OutputType.INPUT);
+		ta1.setDataType(DataType.AUTO);
+		TestAttribute ta2 = new TestAttribute(test, "Value1");
+		ta2.setOutputType(OutputType.OUTPUT);
+		ta2.setDataType(DataType.NUMBER);
+		TestAttribute ta3 = new TestAttribute(test, "Value2");
+		ta3.setOutputType(OutputType.OUTPUT);
+		ta3.setDataType(DataType.NUMBER);
+		test.getAttributes().add(ta1);
+		test.getAttributes().add(ta2);
+		test.getAttributes().add(ta3);
+		DAOTest.persistTests(Collections.singleton(test), user);
+		return DAOTest.getTest(name);
+	}
+
+	public List<Study> getStudies() {
+		return studies;
+	}
+
+	/**
+	 * Returns the studyIds, separated by spaces (as expected by the queries)
+	 */
+	public String getStudyIds() {
+		StringBuilder sb = new StringBuilder();
+		for (Study study : studies) {
+			if(sb.length()>0) sb.append(" ");
+			sb.append(study.getStudyId());
+		}
+		return sb.toString();
+	}
+
+	public List<Biosample> getAnimals() {
+		return animals;
+	}
+
+	public List<Biosample> getSamples() {
+		return samples;
+	}
+
+	public List<Test> getTests() {
+		return tests;
+	}
+
+	public List<Result> getResults() {
+		return results;
+	}
+}
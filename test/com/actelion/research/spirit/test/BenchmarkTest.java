@@ -0,0 +1,195 @@
+package com.actelion.research.spirit.test;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.actelion.research.spiritcore.business.Exchange;
+import com.actelion.research.spiritcore.business.biosample.Biosample;
+import com.actelion.research.spiritcore.business.biosample.BiosampleQuery;
+import com.actelion.research.spiritcore.business.pivot.CompactPivotTemplate;
+import com.actelion.research.spiritcore.business.pivot.PivotDataTable;
+import com.actelion.research.spiritcore.business.pivot.PivotTemplate;
+import com.actelion.research.spiritcore.business.result.Result;
+import com.actelion.research.spiritcore.business.result.ResultQuery;
+import com.actelion.research.spiritcore.services.SpiritRights;
+import com.actelion.research.spiritcore.services.SpiritUser;
+import com.actelion.research.spiritcore.services.dao.DAOBiosample;
+import com.actelion.research.spiritcore.services.dao.DAOResult;
+import com.actelion.research.spiritcore.services.dao.JPAUtil;
+import com.actelion.research.spiritcore.services.exchange.ExchangeMapping;
+import com.actelion.research.spiritcore.services.exchange.Exporter;
+import com.actelion.research.spiritcore.services.exchange.Importer;
+import com.actelion.research.spiritcore.util.IntegerMapCodec;
+import com.actelion.research.spiritcore.util.MiscUtils;
+import com.actelion.research.spiritcore.util.QueryTokenizer;
+
+/**
+ * Benchmarks of the hot paths (queries, pivot, serialization, rights, exchange, reattach) on a synthetic dataset.
+ *
+ * The benchmarks are skipped, unless run with -Dbenchmark=true. Other options:
+ * <ul>
+ * <li>-Dbenchmark.warmup=5 -Dbenchmark.iterations=20: number of iterations
+ * <li>-Dbenchmark.output=file: saves the mean times as a baseline
+ * <li>-Dbenchmark.baseline=file -Dbenchmark.tolerance=1.5: fails if a benchmark is slower than the baseline * tolerance
+ * <li>the size of the dataset, see BenchmarkDataGenerator
+ * </ul>
+ */
+public class BenchmarkTest extends AbstractSpiritTest {
+
+	private static BenchmarkDataGenerator data;
+	private static Benchmark benchmark;
+
+	@BeforeClass
+	public static void init() throws Exception {
+		Assume.assumeTrue("Run with -Dbenchmark=true to run the benchmarks", Boolean.getBoolean("benchmark"));
+		benchmark = new Benchmark(Integer.getInteger("benchmark.warmup", 5), Integer.getInteger("benchmark.iterations", 20));
+		data = new BenchmarkDataGenerator();
+		long s = System.currentTimeMillis();
+		data.generate(user);
+		System.out.println("Benchmark data: " + data.getStudies().size() + " studies, " + data.getAnimals().size() + " animals, " + data.getSamples().size() + " samples, " + data.getResults().size() + " results in " + (System.currentTimeMillis()-s) + "ms");
+		JPAUtil.clear();
+	}
+
+	@AfterClass
+	public static void report() throws Exception {
+		if(benchmark==null) return;
+		String output = System.getProperty("benchmark.output");
+		if(output!=null) benchmark.saveBaseline(new File(output));
+
+		String baseline = System.getProperty("benchmark.baseline");
+		if(baseline!=null) {
+			Map<String, Double> regressions = benchmark.getRegressions(new File(baseline), Double.parseDouble(System.getProperty("benchmark.tolerance", "1.5")));
+			Assert.assertTrue("Slower than the baseline: " + regressions, regressions.isEmpty());
+		}
+	}
+
+	@Test
+	public void benchmarkQueryBiosamples() throws Exception {
+		BiosampleQuery q = BiosampleQuery.createQueryForStudyIds(data.getStudyIds());
+		int n = data.getAnimals().size() + data.getSamples().size();
+		benchmark.run("DAOBiosample.queryBiosamples", JPAUtil::clear, () -> {
+			List<Biosample> res = DAOBiosample.queryBiosamples(q, user);
+			Assert.assertEquals(n, res.size());
+			return res;
+		});
+	}
+
+	@Test
+	public void benchmarkQueryResults() throws Exception {
+		ResultQuery q = ResultQuery.createQueryForStudyIds(data.getStudyIds());
+		int n = data.getResults().size();
+		benchmark.run("DAOResult.queryResults", JPAUtil::clear, () -> {
+			List<Result> res = DAOResult.queryResults(q, user);
+			Assert.assertEquals(n, res.size());
+			return res;
+		});
+	}
+
+	@Test
+	public void benchmarkPivot() throws Exception {
+		JPAUtil.clear();
+		List<Result> results = DAOResult.queryResults(ResultQuery.createQueryForStudyIds(data.getStudyIds()), user);
+		PivotTemplate tpl = new CompactPivotTemplate();
+		tpl.init(results);
+		benchmark.run("PivotDataTable", () -> new PivotDataTable(new ArrayList<>(results), tpl));
+	}
+
+	@Test
+	public void benchmarkSerializeIntegerMap() throws Exception {
+		Random rnd = new Random(42);
+		Map<Integer, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < 20; i++) {
+			map.put(i+1, rnd.nextInt(3)==0? "Value; with {special} chars " + i: "Value " + rnd.nextInt(1000));
+		}
+		String serialized = MiscUtils.serializeIntegerMap(map);
+		Assert.assertEquals(map, MiscUtils.deserializeIntegerMap(serialized));
+
+		benchmark.run("MiscUtils.serializeIntegerMap", () -> {
+			String res = null;
+			for (int i = 0; i < 1000; i++) res = MiscUtils.serializeIntegerMap(map);
+			return res;
+		});
+		benchmark.run("MiscUtils.deserializeIntegerMap", () -> {
+			Map<Integer, String> res = null;
+			for (int i = 0; i < 1000; i++) res = MiscUtils.deserializeIntegerMap(serialized);
+			return res;
+		});
+		benchmark.run("IntegerMapCodec.encode", () -> {
+			String res = null;
+			for (int i = 0; i < 1000; i++) res = IntegerMapCodec.encode(map);
+			return res;
+		});
+		benchmark.run("IntegerMapCodec.Index.get", () -> {
+			String res = null;
+			for (int i = 0; i < 1000; i++) res = new IntegerMapCodec.Index(serialized, null).get(5);
+			return res;
+		});
+	}
+
+	@Test
+	public void benchmarkExpandForIn() throws Exception {
+		List<Integer> ids = new ArrayList<>();
+		Random rnd = new Random(42);
+		for (int i = 0; i < 5000; i++) ids.add(rnd.nextInt(1000000));
+		benchmark.run("QueryTokenizer.expandForIn", () -> QueryTokenizer.expandForIn("b.id", ids));
+	}
+
+	@Test
+	public void benchmarkCanRead() throws Exception {
+		JPAUtil.clear();
+		List<Biosample> biosamples = DAOBiosample.queryBiosamples(BiosampleQuery.createQueryForStudyIds(data.getStudyIds()), user);
+		SpiritUser reader = new SpiritUser("benchmark");
+		benchmark.run("SpiritRights.canRead", () -> {
+			int n = 0;
+			for (Biosample b : biosamples) {
+				if(SpiritRights.canRead(b, reader)) n++;
+			}
+			return n;
+		});
+	}
+
+	@Test
+	public void benchmarkExchange() throws Exception {
+		JPAUtil.clear();
+		List<Result> results = DAOResult.queryResults(ResultQuery.createQueryForStudyIds(data.getStudyIds()), user);
+		Exchange exchange = new Exchange("benchmark");
+		exchange.addResults(results);
+
+		benchmark.run("Exporter.write", () -> {
+			StringWriter writer = new StringWriter();
+			Exporter.write(exchange, writer);
+			return writer.toString();
+		});
+
+		StringWriter writer = new StringWriter();
+		Exporter.write(exchange, writer);
+		String json = writer.toString();
+		benchmark.run("Importer.read+mapping", () -> {
+			Exchange e = Importer.read(new StringReader(json));
+			Assert.assertEquals(results.size(), e.getResults().size());
+			return new ExchangeMapping(e);
+		});
+	}
+
+	@Test
+	public void benchmarkReattach() throws Exception {
+		List<Biosample> biosamples = new ArrayList<>(data.getSamples());
+		benchmark.run("JPAUtil.reattach", JPAUtil::clear, () -> {
+			List<Biosample> res = JPAUtil.reattach(biosamples);
+			Assert.assertEquals(biosamples.size(), res.size());
+			return res;
+		});
+	}
+}
@@ -3,8 +3,14 @@ package com.actelion.research.spirit.test;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -12,6 +18,7 @@ import org.junit.Test;
 import com.actelion.research.spiritcore.business.DataType;
 import com.actelion.research.spiritcore.business.Document;
 import com.actelion.research.spiritcore.business.Quality;
+import com.actelion.research.spiritcore.business.ValidationException;
 import com.actelion.research.spiritcore.business.biosample.Biosample;
 import com.actelion.research.spiritcore.business.biosample.Biosample.HierarchyMode;
 import com.actelion.research.spiritcore.business.biosample.BiosampleLinker;
@@ -31,9 +38,11 @@ import com.actelion.research.spiritcore.services.dao.DAOEmployee;
 import com.actelion.research.spiritcore.services.dao.DAOLocation;
 import com.actelion.research.spiritcore.services.dao.DAOStudy;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
+import com.actelion.research.spiritcore.services.helper.BiosampleValidator;
 import com.actelion.research.spiritcore.util.DifferenceMap;
 import com.actelion.research.spiritcore.util.MiscUtils;
 import com.actelion.research.util.IOUtils;
+import com.actelion.research.util.PrefixTrie;
 
 import junit.framework.AssertionFailedError;
 
@@ -252,6 +261,34 @@ public class BiosampleTest extends AbstractSpiritTest {
 		}
 	}
 
+	/**
+	 * Test that the cached autocompletion is updated when the biosamples are created, edited and deleted
+	 */
+	@Test
+	public void testAutoCompletionCounts() throws Exception {
+		Biotype organ = DAOBiotype.getBiotype("Organ");
+		PrefixTrie trie = DAOBiotype.getAutoCompletionFieldsForComments(organ, null);
+		Assert.assertEquals(0, trie.getCount("AutoCompletion1"));
+
+		Biosample b1 = new Biosample(organ);
+		b1.setComments("AutoCompletion1");
+		Biosample b2 = new Biosample(organ);
+		b2.setComments("AutoCompletion1");
+		DAOBiosample.persistBiosamples(MiscUtils.listOf(b1, b2), user);
+		Assert.assertEquals(2, trie.getCount("AutoCompletion1"));
+
+		//The old value is decremented
+		b1.setComments("AutoCompletion2");
+		DAOBiosample.persistBiosamples(MiscUtils.listOf(b1), user);
+		Assert.assertEquals(1, trie.getCount("AutoCompletion1"));
+		Assert.assertEquals(1, trie.getCount("AutoCompletion2"));
+
+		//The values of deleted samples are removed
+		DAOBiosample.deleteBiosamples(MiscUtils.listOf(b1, b2), user);
+		Assert.assertFalse(trie.contains("AutoCompletion1"));
+		Assert.assertFalse(trie.contains("AutoCompletion2"));
+	}
+
 	@Test
 	public void testHierarchy() throws Exception {
 		Biosample b = DAOBiosample.getBiosample("ORG000082");
@@ -272,6 +309,40 @@ public class BiosampleTest extends AbstractSpiritTest {
 
 	}
 
+	@Test
+	public void testLoadFamilies() throws Exception {
+		Statistics stats = JPAUtil.getManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		stats.setStatisticsEnabled(true);
+		try {
+			JPAUtil.clear();
+			Biosample b = DAOBiosample.getBiosample("ORG000082");
+			Biosample a = b.getTopParent();
+			a.getSampleId();
+
+			//The whole family is loaded in one query, whatever its depth
+			stats.clear();
+			Assert.assertEquals(6, DAOBiosample.loadFamilies(Collections.singleton(b)));
+			Assert.assertEquals(1, stats.getPrepareStatementCount());
+
+			//The family is not loaded twice
+			stats.clear();
+			Assert.assertEquals(0, DAOBiosample.loadFamilies(Arrays.asList(a, b)));
+			Assert.assertEquals(0, stats.getPrepareStatementCount());
+
+			//Traversing the children does not query the DB
+			stats.clear();
+			List<Biosample> family = new ArrayList<>();
+			family.add(a);
+			for (int i = 0; i < family.size(); i++) {
+				family.addAll(family.get(i).getChildren());
+			}
+			Assert.assertEquals(6, family.size());
+			Assert.assertEquals(0, stats.getPrepareStatementCount());
+		} finally {
+			stats.setStatisticsEnabled(false);
+		}
+	}
+
 	@Test
 	public void testDatatypes() throws Exception {
 		int n = DAOBiotype.getBiotypes().size();
@@ -461,6 +532,28 @@ public class BiosampleTest extends AbstractSpiritTest {
 
 	}
 
+	@Test
+	public void testQueryIds() throws Exception {
+		BiosampleQuery q = new BiosampleQuery();
+		q.setBiotype(DAOBiotype.getBiotype("Blood"));
+		List<Biosample> biosamples = DAOBiosample.queryBiosamples(q, user);
+		List<Integer> ids = DAOBiosample.queryBiosampleIds(q, user);
+		Assert.assertTrue(ids.size() > 0);
+		Assert.assertEquals(new HashSet<>(JPAUtil.getIds(biosamples)), new HashSet<>(ids));
+
+		//The ids are sorted by study desc
+		String lastStudyId = null;
+		for (Biosample b : DAOBiosample.getBiosamplesByIds(ids, false, user).values().stream().sorted((b1, b2) -> ids.indexOf(b1.getId()) - ids.indexOf(b2.getId())).collect(Collectors.toList())) {
+			String studyId = b.getInheritedStudy()==null? null: b.getInheritedStudy().getStudyId();
+			if(lastStudyId!=null && studyId!=null) Assert.assertTrue(lastStudyId.compareTo(studyId) >= 0);
+			if(studyId!=null) lastStudyId = studyId;
+		}
+
+		//The rights are checked like when loading the biosamples
+		q.setSearchMySamples(true);
+		Assert.assertEquals(new HashSet<>(JPAUtil.getIds(DAOBiosample.queryBiosamples(q, user))), new HashSet<>(DAOBiosample.queryBiosampleIds(q, user)));
+	}
+
 	@Test
 	public void testActions() throws Exception {
 
@@ -658,6 +751,99 @@ public class BiosampleTest extends AbstractSpiritTest {
 		Assert.assertTrue(DAOBiotype.countRelations(biotype.getMetadata("Type"))>0);
 	}
 
+	/**
+	 * The validator splits the errors (required fields, duplicates) from the warnings (invalid choices)
+	 */
+	@Test
+	public void testValidatorErrorsAndWarnings() throws Exception {
+		Biotype biotype = createValidatorBiotype("testValidator1");
+
+		Biosample b1 = new Biosample(biotype, "val1-1");
+		b1.setMetadataValue("required", "ok");
+		b1.setMetadataValue("choice", "A");
+		Biosample b2 = new Biosample(biotype, "val1-2");
+		b2.setMetadataValue("required", "ok");
+		b2.setMetadataValue("choice", "D");
+		Biosample b3 = new Biosample(biotype, "val1-3");
+		b3.setMetadataValue("choice", "B");
+		Biosample b4 = new Biosample(biotype, "val1-1");
+		b4.setMetadataValue("required", "ok");
+
+		BiosampleValidator.Result result = BiosampleValidator.validate(MiscUtils.listOf(b1, b2, b3, b4), null, false, user);
+		Assert.assertEquals(2, result.getErrors().size());
+		Assert.assertEquals(b3, result.getErrors().get(0).getBiosample());
+		Assert.assertEquals("required", result.getErrors().get(0).getField());
+		Assert.assertEquals(b4, result.getErrors().get(1).getBiosample());
+		Assert.assertEquals("SampleId", result.getErrors().get(1).getField());
+		Assert.assertEquals(1, result.getWarnings().size());
+		Assert.assertEquals(b2, result.getWarnings().get(0).getBiosample());
+		Assert.assertEquals("choice", result.getWarnings().get(0).getField());
+		Assert.assertTrue(result.hasErrors());
+		try {
+			result.throwErrors();
+			throw new AssertionFailedError("Errors expected");
+		} catch(ValidationException e) {
+			Assert.assertEquals(b3, e.getRow());
+		}
+
+		//With cloning, the duplicate is not an error
+		result = BiosampleValidator.validate(MiscUtils.listOf(b1, b2, b4), null, true, user);
+		Assert.assertFalse(result.hasErrors());
+		Assert.assertEquals(1, result.getWarnings().size());
+		Assert.assertEquals(MiscUtils.listOf(b4), result.getToClones());
+		Assert.assertEquals(MiscUtils.listOf(b1), result.getToCloneConflicts());
+
+		//Read-only rows are skipped
+		result = BiosampleValidator.validate(MiscUtils.listOf(b1, b2, b3), Collections.singleton(b3), false, user);
+		Assert.assertFalse(result.hasErrors());
+		Assert.assertEquals(MiscUtils.listOf(b1, b2), result.getToSave());
+	}
+
+	/**
+	 * Above 500 samples, the rules are evaluated in parallel: the violations must still be reported in the order of the samples
+	 */
+	@Test
+	public void testValidatorParallel() throws Exception {
+		Biotype biotype = createValidatorBiotype("testValidator2");
+
+		List<Biosample> biosamples = new ArrayList<>();
+		List<Biosample> expectedErrors = new ArrayList<>();
+		List<Biosample> expectedWarnings = new ArrayList<>();
+		for (int i = 0; i < 1200; i++) {
+			Biosample b = new Biosample(biotype, "val2-" + i);
+			if(i%5!=0) b.setMetadataValue("required", "ok");
+			else expectedErrors.add(b);
+			b.setMetadataValue("choice", i%3==0? "X": "C");
+			if(i%3==0) expectedWarnings.add(b);
+			biosamples.add(b);
+		}
+
+		BiosampleValidator.Result result = BiosampleValidator.validate(biosamples, null, false, user);
+		Assert.assertEquals(biosamples, result.getToSave());
+		Assert.assertEquals(expectedErrors.size(), result.getErrors().size());
+		Assert.assertEquals(expectedWarnings.size(), result.getWarnings().size());
+		for (int i = 0; i < expectedErrors.size(); i++) {
+			Assert.assertEquals(expectedErrors.get(i), result.getErrors().get(i).getBiosample());
+		}
+		for (int i = 0; i < expectedWarnings.size(); i++) {
+			Assert.assertEquals(expectedWarnings.get(i), result.getWarnings().get(i).getBiosample());
+		}
+	}
+
+	private static Biotype createValidatorBiotype(String name) throws Exception {
+		Biotype biotype = new Biotype();
+		biotype.setCategory(BiotypeCategory.PURIFIED);
+		biotype.setName(name);
+		BiotypeMetadata mt1 = new BiotypeMetadata("required", DataType.ALPHA);
+		mt1.setRequired(true);
+		biotype.getMetadata().add(mt1);
+		BiotypeMetadata mt2 = new BiotypeMetadata("choice", DataType.LIST);
+		mt2.setParameters("A,B,C");
+		biotype.getMetadata().add(mt2);
+		DAOBiotype.persistBiotype(biotype, user);
+		return DAOBiotype.getBiotype(name);
+	}
+
 	/**
 	 * Import a biosample list (usually from a csv file)
 	 */
@@ -30,11 +30,13 @@ import org.junit.Test;
 import com.actelion.research.spiritcore.business.biosample.Biosample;
 import com.actelion.research.spiritcore.business.location.Location;
 import com.actelion.research.spiritcore.business.location.LocationFlag;
+import com.actelion.research.spiritcore.business.location.LocationLabeling;
 import com.actelion.research.spiritcore.business.location.LocationQuery;
 import com.actelion.research.spiritcore.business.location.LocationType;
 import com.actelion.research.spiritcore.services.dao.DAOBiosample;
 import com.actelion.research.spiritcore.services.dao.DAOBiotype;
 import com.actelion.research.spiritcore.services.dao.DAOLocation;
+import com.actelion.research.spiritcore.services.dao.DAOLocationOccupancy;
 import com.actelion.research.spiritcore.services.dao.DAORevision;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.spiritcore.util.MiscUtils;
@@ -161,4 +163,42 @@ public class LocationTest extends AbstractSpiritTest {
 
 
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Test the occupancy counters and the bitmap of the occupied positions
+	 * @throws Exception
+	 */
+	@Test
+	public void testOccupancy() throws Exception {
+		initDemoExamples(user);
+
+		Location box = new Location();
+		box.setName("TESTOccupancyBox");
+		box.setLocationType(LocationType.BOX);
+		box.setLabeling(LocationLabeling.ALPHA);
+		box.setRows(8);
+		box.setCols(12);
+		DAOLocation.persistLocations(MiscUtils.listOf(box), user);
+
+		Biosample b1 = new Biosample(DAOBiotype.getBiotype("Plasma"));
+		b1.setLocPos(box, 0);
+		Biosample b2 = new Biosample(DAOBiotype.getBiotype("Plasma"));
+		b2.setLocPos(box, 1);
+		DAOBiosample.persistBiosamples(MiscUtils.listOf(b1, b2), user);
+
+		//Read the occupancy without loading the biosamples
+		JPAUtil.clearAll();
+		box = DAOLocation.getLocation(box.getId());
+		Assert.assertEquals(2, box.getOccupancy());
+		Assert.assertEquals(2, DAOLocationOccupancy.getOccupiedPositions(box).cardinality());
+		Assert.assertEquals(2, DAOLocationOccupancy.getNextFreePosition(box, 0));
+		Assert.assertEquals(5, DAOLocationOccupancy.getNextFreePosition(box, 5));
+
+		//Delete the first sample: the first position is free again
+		DAOBiosample.deleteBiosamples(MiscUtils.listOf(DAOBiosample.getBiosample(b1.getSampleId())), user);
+		JPAUtil.clearAll();
+		box = DAOLocation.getLocation(box.getId());
+		Assert.assertEquals(1, box.getOccupancy());
+		Assert.assertEquals(0, DAOLocationOccupancy.getNextFreePosition(box, 0));
+	}
+}
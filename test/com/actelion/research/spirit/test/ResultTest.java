@@ -1,14 +1,22 @@
 package com.actelion.research.spirit.test;
 
 import java.io.File;
+import java.io.StringWriter;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
 
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.actelion.research.spiritapp.ui.study.monitor.MonitorAutoSave;
 import com.actelion.research.spiritcore.adapter.SchemaCreator;
 import com.actelion.research.spiritcore.business.DataType;
 import com.actelion.research.spiritcore.business.Document;
@@ -18,6 +26,7 @@ import com.actelion.research.spiritcore.business.pivot.ColumnPivotTemplate;
 import com.actelion.research.spiritcore.business.pivot.CompactPivotTemplate;
 import com.actelion.research.spiritcore.business.pivot.InventoryPivotTemplate;
 import com.actelion.research.spiritcore.business.pivot.PivotDataTable;
+import com.actelion.research.spiritcore.business.pivot.PivotRow;
 import com.actelion.research.spiritcore.business.pivot.PivotTemplate;
 import com.actelion.research.spiritcore.business.pivot.analyzer.Analyzer;
 import com.actelion.research.spiritcore.business.pivot.datawarrior.DataWarriorExporter;
@@ -32,6 +41,7 @@ import com.actelion.research.spiritcore.services.dao.DAOStudy;
 import com.actelion.research.spiritcore.services.dao.DAOTest;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.util.IOUtils;
+import com.actelion.research.util.ui.JCustomTextField;
 
 public class ResultTest extends AbstractSpiritTest {
 
@@ -248,6 +258,13 @@ public class ResultTest extends AbstractSpiritTest {
 		Assert.assertEquals(5, table.getPivotColumns().size());
 		Assert.assertEquals(17, table.getPivotRows().size());
 
+		//The rows are grouped by the same keys as the formatted titles
+		Set<String> rowKeys = new HashSet<>();
+		for (PivotRow row : table.getPivotRows()) {
+			Assert.assertEquals(tpl.getRowKey(row.getRepresentative()), row.getKey());
+			Assert.assertTrue(rowKeys.add(row.getKey()));
+		}
+
 		//		tpl = new ColumnPivotTemplate();
 		//		tpl.init(results);
 		//		table = new PivotDataTable(results, tpl);
@@ -281,9 +298,58 @@ public class ResultTest extends AbstractSpiritTest {
 		Analyzer analyzer = new Analyzer(results, user);
 		analyzer.getReport();
 
-		DataWarriorExporter.getDwar(table);
+		StringWriter w = new StringWriter();
+		DataWarriorExporter.writeDwar(table, w);
+		String dwar = w.toString();
+		Assert.assertTrue(dwar.startsWith("<datawarrior-fileinfo>"));
+		Assert.assertTrue(dwar.contains("<rowcount=\"" + table.getPivotRows().size() + "\">"));
+		Assert.assertTrue(dwar.trim().endsWith("</datawarrior properties>"));
 	}
 
+	/**
+	 * Test that the monitoring values are saved in the background, and saved again after a failure
+	 */
+	@Test
+	public void testMonitorAutoSave() throws Exception {
+		ResultQuery q = new ResultQuery();
+		q.setKeywords("IVV2016-1");
+		List<Result> results = DAOResult.queryResults(q, user);
+		Assert.assertTrue(results.size() > 0);
+		Result result = results.get(0);
+		TestAttribute att = result.getTest().getOutputAttributes().get(0);
+		result.setValue(att, "123");
+
+		AtomicInteger tries = new AtomicInteger();
+		boolean[] flushed = new boolean[2];
+		SwingUtilities.invokeAndWait(() -> {
+			MonitorAutoSave autoSave = new MonitorAutoSave(null, user) {
+				@Override
+				protected void save(Collection<Result> toSave) throws Exception {
+					Assert.assertFalse(SwingUtilities.isEventDispatchThread());
+					if(tries.incrementAndGet()==1) throw new Exception("Test failure");
+					super.save(toSave);
+				}
+			};
+			autoSave.edited(result, new JCustomTextField());
+
+			//The first try fails: the result is kept and retried later
+			flushed[0] = autoSave.flush();
+			Assert.assertEquals(1, autoSave.getPendingCount());
+			Assert.assertEquals(2 * MonitorAutoSave.FLUSH_DELAY_MS, autoSave.getRetryDelay());
+			Assert.assertEquals(MonitorAutoSave.COLOR_FAILED, autoSave.getStatusLabel().getForeground());
+
+			//The second try succeeds
+			flushed[1] = autoSave.flush();
+			Assert.assertEquals(0, autoSave.getPendingCount());
+			Assert.assertEquals(MonitorAutoSave.FLUSH_DELAY_MS, autoSave.getRetryDelay());
+		});
+		Assert.assertFalse(flushed[0]);
+		Assert.assertTrue(flushed[1]);
+		Assert.assertEquals(2, tries.get());
 
+		JPAUtil.clearAll();
+		Result saved = DAOResult.getResults(Collections.singleton(result.getId())).get(0);
+		Assert.assertEquals("123", saved.getResultValue(att).getValue());
+	}
 
 }
@@ -54,6 +54,15 @@ public class SQLConverterTest {
 		Assert.assertEquals("number(19)", SQLConverter.convertScript("number(19)", SQLVendor.ORACLE));
 	}
 
+	@Test
+	public void testMigrationSqlIncludesDataMigrations() throws Exception {
+		for (SQLVendor vendor : SQLVendor.values()) {
+			String sql = MigrationScript.getSql(vendor, "2.4.0");
+			Assert.assertTrue(vendor + ": " + sql, sql.contains("update spirit.biolocation l set id_path ="));
+			Assert.assertTrue(sql.indexOf("set id_path =") < sql.indexOf("set value = '2.5.0'"));
+		}
+	}
+
 	@Test
 	public void testConversion() throws Exception {
 		//Test some schema creation on HSQL using Oracle syntax
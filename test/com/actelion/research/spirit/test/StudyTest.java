@@ -7,6 +7,8 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -17,6 +19,7 @@ import com.actelion.research.spiritcore.business.biosample.Biosample.HierarchyMo
 import com.actelion.research.spiritcore.business.biosample.BiosampleQuery;
 import com.actelion.research.spiritcore.business.biosample.ContainerType;
 import com.actelion.research.spiritcore.business.property.PropertyKey;
+import com.actelion.research.spiritcore.business.result.Result;
 import com.actelion.research.spiritcore.business.result.ResultQuery;
 import com.actelion.research.spiritcore.business.study.AttachedBiosample;
 import com.actelion.research.spiritcore.business.study.Group;
@@ -33,8 +36,12 @@ import com.actelion.research.spiritcore.services.dao.DAONamedSampling;
 import com.actelion.research.spiritcore.services.dao.DAOResult;
 import com.actelion.research.spiritcore.services.dao.DAORevision;
 import com.actelion.research.spiritcore.services.dao.DAOStudy;
+import com.actelion.research.spiritcore.services.dao.DAOTest;
+import com.actelion.research.spiritcore.services.dao.FetchPlan;
 import com.actelion.research.spiritcore.services.dao.JPAUtil;
 import com.actelion.research.spiritcore.services.dao.SpiritProperties;
+import com.actelion.research.spiritcore.services.dao.StudyResultIndex;
+import com.actelion.research.spiritcore.services.dao.StudySimilarityIndex;
 import com.actelion.research.spiritcore.services.helper.BiosampleCreationHelper;
 import com.actelion.research.spiritcore.util.MiscUtils;
 import com.actelion.research.util.CompareUtils;
@@ -77,6 +84,26 @@ public class StudyTest extends AbstractSpiritTest {
 		Assert.assertEquals(s.getStudyActions().size(), s2.getStudyActions().size());
 	}
 
+	@Test
+	public void testRelatedStudies() throws Exception {
+		Study s = DAOStudy.getStudyByLocalIdOrStudyIds("IVV2016-1").get(0);
+		Study s2 = s.duplicate();
+		DAOStudy.persistStudies(Collections.singleton(s2), user);
+
+		//The duplicated study has the same design, and is the most similar
+		List<Study> related = DAOStudy.getRelatedStudies(s, user);
+		Assert.assertFalse(related.contains(s));
+		Assert.assertTrue(related.contains(s2));
+		Assert.assertTrue(related.size()<=StudySimilarityIndex.MAX_RELATED);
+		Assert.assertTrue(Arrays.equals(StudySimilarityIndex.getDescriptors(s), StudySimilarityIndex.getDescriptors(related.get(0))));
+
+		//The cached descriptors are reused
+		Assert.assertEquals(related, DAOStudy.getRelatedStudies(s, user));
+
+		DAOStudy.deleteStudies(Collections.singleton(s2), true, user);
+		Assert.assertFalse(DAOStudy.getRelatedStudies(s, user).contains(s2));
+	}
+
 	@Test
 	public void testNamedSamplings() throws Exception {
 		int n = DAONamedSampling.getNamedSamplings(user, null).size();
@@ -105,6 +132,48 @@ public class StudyTest extends AbstractSpiritTest {
 
 	}
 
+	@Test
+	public void testFetchPlans() throws Exception {
+		Statistics stats = JPAUtil.getManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		stats.setStatisticsEnabled(true);
+		try {
+			//The study and its design are loaded with a fixed number of queries
+			JPAUtil.clear();
+			String studyId = DAOStudy.getStudyByLocalIdOrStudyIds("IVV2016-1").get(0).getStudyId();
+			JPAUtil.clear();
+			stats.clear();
+			Study s = DAOStudy.getStudyByStudyId(studyId, FetchPlan.STUDY_WITH_PARTICIPANTS);
+			long n = stats.getPrepareStatementCount();
+			Assert.assertTrue("Study loaded in " + n + " queries", n <= 1 + FetchPlan.STUDY_WITH_PARTICIPANTS.getQueryCount(1) + 1);
+
+			//Traversing the design and the participants does not query the DB
+			stats.clear();
+			for (Group g : s.getGroups()) g.getFromGroup();
+			for (Phase p : s.getPhases()) p.getName();
+			for (NamedSampling ns : s.getNamedSamplings()) ns.getAllSamplings().size();
+			s.getNamedTreatments().size();
+			s.getStudyActions().size();
+			for (Biosample b : s.getParticipants()) b.getBiotype().getName();
+			Assert.assertEquals(17, s.getParticipants().size());
+			Assert.assertEquals(0, stats.getPrepareStatementCount());
+
+			//Results for the pivot
+			JPAUtil.clear();
+			List<Result> results = DAOResult.queryResults(ResultQuery.createQueryForStudyIds(studyId), null, FetchPlan.RESULT_FOR_PIVOT);
+			Assert.assertTrue(results.size()>0);
+			stats.clear();
+			for (Result r : results) {
+				r.getTest().getName();
+				r.getInheritedPhase();
+				r.getResultValues().size();
+				if(r.getBiosample()!=null) r.getBiosample().getTopParent().getSampleId();
+			}
+			Assert.assertEquals(0, stats.getPrepareStatementCount());
+		} finally {
+			stats.setStatisticsEnabled(false);
+		}
+	}
+
 	@Test
 	public void testRando() throws Exception {
 		//Load rando
@@ -517,6 +586,26 @@ public class StudyTest extends AbstractSpiritTest {
 		Assert.assertTrue(nRes>0);
 	}
 
+	@Test
+	public void testStudyResultIndex() throws Exception {
+		Study s = DAOStudy.getStudyByLocalIdOrStudyIds("IVV2016-1").get(0);
+		Phase phase = s.getPhase("d0");
+		List<Biosample> animals = s.getParticipantsSorted();
+		com.actelion.research.spiritcore.business.result.Test weighing = DAOTest.getTest(DAOTest.WEIGHING_TESTNAME);
+
+		//Create the missing results, then attach again: the same instances are returned, without duplicates
+		StudyResultIndex index = StudyResultIndex.createForTops(s);
+		index.attach(animals, phase, "ELB-Index");
+		Biosample animal = animals.get(0);
+		Result r = animal.getAuxResult(weighing, phase);
+		Assert.assertNotNull(r);
+		int n = animal.getAuxResults().size();
+
+		index.attach(animals, phase, "ELB-Index");
+		Assert.assertSame(r, animal.getAuxResult(weighing, phase));
+		Assert.assertEquals(n, animal.getAuxResults().size());
+	}
+
 
 
 	@Test
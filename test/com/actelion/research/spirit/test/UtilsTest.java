@@ -25,6 +25,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -33,11 +34,17 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import com.actelion.research.spiritcore.services.StringEncrypter;
+import com.actelion.research.spiritcore.services.dao.QueryLog;
+import com.actelion.research.spiritcore.util.IntegerMapCodec;
 import com.actelion.research.spiritcore.util.MiscUtils;
+import com.actelion.research.spiritcore.util.QueryTokenizer;
 import com.actelion.research.util.ArgumentParser;
 import com.actelion.research.util.CompareUtils;
 import com.actelion.research.util.FormatterUtils;
 import com.actelion.research.util.FormatterUtils.DateTimeFormat;
+import com.actelion.research.util.FuzzyIndex;
+import com.actelion.research.util.PrefixTrie;
+import com.actelion.research.util.WriteBehindQueue;
 
 import junit.framework.AssertionFailedError;
 
@@ -298,4 +305,153 @@ public class UtilsTest {
 
 	}
 
+	@Test
+	public void testPrefixTrie() {
+		PrefixTrie trie = new PrefixTrie();
+		trie.add("Liver", 3);
+		trie.add("Lung", 5);
+		trie.add("liver", 1);
+		trie.add("Left Lung", 2);
+		trie.add("Heart", 1);
+		Assert.assertEquals(5, trie.size());
+		Assert.assertTrue(trie.contains("liver"));
+
+		//Completions are case insensitive and ranked by frequency
+		Assert.assertEquals(Arrays.asList("Lung", "Liver", "Left Lung", "liver"), trie.getCompletions("l", 10));
+		Assert.assertEquals(Arrays.asList("Liver", "liver"), trie.getCompletions("LIV", 10));
+		Assert.assertEquals(Arrays.asList("Lung"), trie.getCompletions("l", 1));
+		Assert.assertEquals(0, trie.getCompletions("x", 10).size());
+
+		//The cached completions are updated
+		trie.add("Liver", 5);
+		Assert.assertEquals(Arrays.asList("Liver", "Lung", "Left Lung", "liver"), trie.getCompletions("l", 10));
+		trie.remove("Liver", 8);
+		Assert.assertEquals(Arrays.asList("Lung", "Left Lung", "liver"), trie.getCompletions("l", 10));
+		Assert.assertFalse(trie.contains("Liver"));
+
+		//Infix matches come after the prefix matches
+		Assert.assertEquals(Arrays.asList("Lung", "Left Lung"), trie.getMatches("lung", 10));
+
+		//Iteration is sorted
+		Assert.assertEquals(Arrays.asList("Heart", "Left Lung", "liver", "Lung"), new ArrayList<>(trie));
+	}
+
+	@Test
+	public void testFuzzyIndex() {
+		List<String> values = Arrays.asList("Heart", "Left Lung", "Liver", "Lung", "Right Lung", "Spleen", "Kidney", "L.Lung", "Norm. Dist");
+		FuzzyIndex index = new FuzzyIndex(values);
+		Assert.assertEquals("Liver", index.getBestMatch("liver", 0.4f));
+		Assert.assertEquals("Lung", index.getBestMatch("Lungs", 0.4f));
+		Assert.assertEquals("Norm. Dist", index.getBestMatch("Norm.Dist", 0.4f));
+		Assert.assertNull(index.getBestMatch("xyz", 0.4f));
+		Assert.assertNull(index.getBestMatch("", 0.4f));
+
+		//The index must return the same match as a full scan
+		for (String text : Arrays.asList("Hart", "Kidnes", "spleen", "LeftLung", "Rigth lung", "L Lung", "Heart Lung")) {
+			String expected = null;
+			float bestScore = 0.4f;
+			for (String value : values) {
+				float score = FuzzyIndex.getScore(text, value);
+				if(score>bestScore) {
+					expected = value;
+					bestScore = score;
+				}
+			}
+			Assert.assertEquals(text, expected, index.getBestMatch(text, 0.4f));
+		}
+	}
+
+
+	@Test
+	public void testQueryFingerprint() {
+		//Literals and parameters
+		Assert.assertEquals("from Location l where l.id = ?", QueryLog.getFingerprint("from Location l where l.id = 123"));
+		Assert.assertEquals("from Location l where l.name = ? and l.parent = ?", QueryLog.getFingerprint("from Location l where l.name = ?1 and l.parent = ?2"));
+		Assert.assertEquals("from Biosample b where b.name = ? and b.pos>=?", QueryLog.getFingerprint("from Biosample b  where b.name = 'O''Brien, 12'\n and b.pos>=0"));
+		Assert.assertEquals("select ta2.id from TestAttribute ta2 where ta2.name = ?", QueryLog.getFingerprint("select ta2.id from TestAttribute ta2 where ta2.name = :name"));
+
+		//Expanded in-lists give the same fingerprint, whatever the number of items
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < 2500; i++) ids.add(i);
+		String f1 = QueryLog.getFingerprint("from Biosample b where " + QueryTokenizer.expandForIn("b.id", Arrays.asList(1, 2, 3)));
+		String f2 = QueryLog.getFingerprint("from Biosample b where " + QueryTokenizer.expandForIn("b.id", ids));
+		String f3 = QueryLog.getFingerprint("from Biosample b where " + QueryTokenizer.expandForIn("b.sampleId", Arrays.asList("A", "B'C")));
+		Assert.assertEquals("from Biosample b where b.id in (?+)", f1);
+		Assert.assertEquals(f1, f2);
+		Assert.assertEquals("from Biosample b where b.sampleId in (?+)", f3);
+	}
+
+	@Test
+	public void testIntegerMapCodec() throws Exception {
+		//Same text format as MiscUtils
+		String[] samples = new String[] {"", "1=abc;2=defgh;20=ijkl", "1=abc;20=ijkl;2=defgh", "1=abc\t20=ijkl\t2=defgh", "1=a\\;\\\tbc;20=\\;ijkl\\;;2=defgh", "1=;2=;3=x", "1=a;2", "5=a;5=b;6=\\\\"};
+		for (String s : samples) {
+			Map<Integer, String> expected = MiscUtils.deserializeIntegerMap(s);
+			Assert.assertEquals(s, expected, IntegerMapCodec.decode(s));
+			Assert.assertEquals(s, new ArrayList<>(expected.keySet()), new ArrayList<>(IntegerMapCodec.decode(s).keySet()));
+			Assert.assertEquals(s, MiscUtils.serializeIntegerMap(expected), IntegerMapCodec.encode(expected));
+			IntegerMapCodec.Index index = new IntegerMapCodec.Index(s, null);
+			for (Integer key : expected.keySet()) {
+				Assert.assertEquals(s, expected.get(key), index.get(key));
+			}
+			Assert.assertNull(index.get(999));
+		}
+
+		//Random round-trips, including special and multi-byte chars
+		Random rnd = new Random(42);
+		String[] chars = new String[] {"a", "b", ";", "=", "\\", "\t", " ", "\u00e9", "\u00fc", "\u4e2d", "\ud83d\ude00"};
+		for (int n = 0; n < 500; n++) {
+			Map<Integer, String> map = new LinkedHashMap<>();
+			for (int i = 0; i < rnd.nextInt(20); i++) {
+				StringBuilder sb = new StringBuilder();
+				for (int j = rnd.nextInt(300); j > 0; j--) sb.append(chars[rnd.nextInt(chars.length)]);
+				map.put(1+rnd.nextInt(1000), rnd.nextInt(10)==0? null: sb.toString());
+			}
+			String encoded = IntegerMapCodec.encode(map);
+			Assert.assertEquals(MiscUtils.serializeIntegerMap(map), encoded);
+			Assert.assertEquals(MiscUtils.deserializeIntegerMap(encoded), IntegerMapCodec.decode(encoded));
+
+			//Split in 2 columns, limited in bytes
+			String[] split;
+			try {
+				split = IntegerMapCodec.split(encoded, 1000, 2);
+			} catch(Exception e) {
+				//A column can be filled up to 3 bytes less than the max, if the next char is larger
+				Assert.assertTrue(encoded.getBytes("UTF-8").length>2000-3);
+				continue;
+			}
+			Assert.assertEquals(encoded, split[0] + split[1]);
+			Assert.assertTrue(split[0].getBytes("UTF-8").length<=1000);
+			Assert.assertTrue(split[1].getBytes("UTF-8").length<=1000);
+			IntegerMapCodec.Index index = new IntegerMapCodec.Index(split[0], split[1]);
+			Assert.assertEquals(MiscUtils.deserializeIntegerMap(encoded), index.toMap());
+			for (Integer key : map.keySet()) {
+				Assert.assertEquals(map.get(key)==null? "": map.get(key), index.get(key));
+			}
+		}
+	}
+
+	/**
+	 * Test that the flush waits for the batch being written by another thread
+	 */
+	@Test
+	public void testWriteBehindQueue() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<>());
+		WriteBehindQueue<String> queue = new WriteBehindQueue<>("test", 10, 60000, null, batch -> {
+			try {Thread.sleep(300);} catch(InterruptedException e) {}
+			written.addAll(batch);
+		});
+		queue.offer("a");
+		queue.offer("a");
+		Thread t = new Thread(queue::flush);
+		t.start();
+		Thread.sleep(100);
+
+		//The first batch is being written: the flush must wait for it, and then write the new element
+		queue.offer("b");
+		queue.flush();
+		Assert.assertEquals(Arrays.asList("a", "a", "b"), written);
+		Assert.assertEquals(3, queue.getWrittenCount());
+		t.join();
+	}
 }